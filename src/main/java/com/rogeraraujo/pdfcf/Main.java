@@ -16,7 +16,9 @@
 
 package com.rogeraraujo.pdfcf;
 
+import com.rogeraraujo.pdfcf.batch.BatchCommandLine;
 import com.rogeraraujo.pdfcf.components.CustomTableCellRenderer;
+import com.rogeraraujo.pdfcf.gs.GsEngineBenchmark;
 import com.rogeraraujo.pdfcf.gui.MainWindow;
 import com.rogeraraujo.pdfcf.gui.SwingUtils;
 import org.slf4j.Logger;
@@ -40,6 +42,15 @@ public class Main {
     }
 
     public static void main(String[] args) {
+        // Batch mode runs headless and never touches Swing
+        if (BatchCommandLine.isBatchMode(args)) {
+            System.exit(BatchCommandLine.execute(args, readConfiguration()));
+        }
+
+        if (GsEngineBenchmark.isBenchmarkMode(args)) {
+            System.exit(GsEngineBenchmark.execute(args, readConfiguration()));
+        }
+
         SwingUtilities.invokeLater(() -> initializeGui(args));
     }
 
@@ -51,20 +62,32 @@ public class Main {
         return LoggerFactory.getLogger(Main.class);
     }
 
-    private static void initializeGui(String[] args) {
-        // Reads configuration file
-        Properties config = new Properties();
+    /**
+     * Reads the configuration file of this application. Errors are logged and
+     * result in an empty (or partially filled) set of properties.
+     *
+     * @return The configuration properties
+     */
+    public static Properties readConfiguration() {
+        Properties result = new Properties();
         FileReader reader = null;
 
         try {
             reader = new FileReader("./config/pdfcf.properties");
-            config.load(reader);
+            result.load(reader);
         } catch (Exception ex) {
             getLogger().error("Error reading configuration file:", ex);
         } finally {
             Utils.closeReader(reader, true);
         }
 
+        return result;
+    }
+
+    private static void initializeGui(String[] args) {
+        // Reads configuration file
+        Properties config = readConfiguration();
+
         // Lists available Look-and-Feels
         for (String arg : args) {
             if ("-listLafs".equalsIgnoreCase(arg)) {
@@ -225,6 +225,27 @@ public class Utils {
         }
     }
 
+    /**
+     * Converts a String to Double, returning null in case the conversion
+     * fails. Blank spaces in the beginning or the end of the String are
+     * ignored.
+     *
+     * @param str String to convert; can be null
+     *
+     * @return Double value of the String
+     */
+    public static Double stringToDouble(String str) {
+        if (str == null) {
+            return null;
+        }
+
+        try {
+            return Double.parseDouble(str.trim());
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
     /**
      * Creates a String composed of a specified input String repeated a number
      * of times.
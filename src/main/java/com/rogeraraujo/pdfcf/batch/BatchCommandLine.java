@@ -0,0 +1,1129 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.batch;
+
+import com.rogeraraujo.pdfcf.Utils;
+import com.rogeraraujo.pdfcf.components.ProcessTimeoutPolicy;
+import com.rogeraraujo.pdfcf.gs.ConversionQuality;
+import com.rogeraraujo.pdfcf.gs.GsCapabilities;
+import com.rogeraraujo.pdfcf.gs.GsCapabilityProbe;
+import com.rogeraraujo.pdfcf.gs.GsUtils;
+import com.rogeraraujo.pdfcf.gs.GsWorkerPool;
+import com.rogeraraujo.pdfcf.gs.PdfCompatibilityLevel;
+import com.rogeraraujo.pdfcf.pdf.CompressionPrefilter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Headless command line interface of the batch mode. Parses the command
+ * line arguments, runs a BatchCompressor and prints per-file results and an
+ * aggregate throughput summary to the standard output.
+ */
+@Slf4j
+public class BatchCommandLine {
+    public static final String BATCH_MODE_ARGUMENT = "-batch";
+
+    public static final int EXIT_SUCCESS = 0;
+    public static final int EXIT_JOB_FAILURES = 1;
+    public static final int EXIT_USAGE_ERROR = 2;
+
+    // Private constructor to prevent instantiation
+    private BatchCommandLine() { }
+
+    /**
+     * Checks whether the command line arguments request the batch mode.
+     *
+     * @param args Command line arguments
+     *
+     * @return Whether the batch mode was requested
+     */
+    public static boolean isBatchMode(String[] args) {
+        if (args == null) {
+            return false;
+        }
+
+        for (String arg : args) {
+            if (BATCH_MODE_ARGUMENT.equalsIgnoreCase(arg) ||
+                ("-" + BATCH_MODE_ARGUMENT).equalsIgnoreCase(arg)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Runs the batch mode.
+     *
+     * @param args Command line arguments
+     * @param config Configuration properties, used for default values
+     *
+     * @return The process exit code
+     */
+    public static int execute(String[] args, Properties config) {
+        BatchOptions options;
+
+        try {
+            options = parseArguments(args, config);
+        } catch (IllegalArgumentException ex) {
+            System.out.println(ex.getMessage());
+            System.out.println();
+            printUsage();
+            return EXIT_USAGE_ERROR;
+        }
+
+        if (options == null) {
+            printUsage();
+            return EXIT_SUCCESS;
+        }
+
+        try {
+            if (options.isGsAutoOptions()) {
+                applyGsCapabilities(options,
+                    GsCapabilityProbe.fromConfiguration(config));
+            }
+
+            if (options.isWatchMode()) {
+                return watch(options);
+            }
+
+            if (options.isServerMode()) {
+                return serve(options);
+            }
+
+            List<BatchInput> inputs = BatchInputCollector.collect(
+                options.getInputSpecs(),
+                (options.getOutputDir() == null) ?
+                    options.getOutputFileSuffix() : null);
+
+            if (inputs.isEmpty()) {
+                System.out.println("No input files found.");
+                return EXIT_USAGE_ERROR;
+            }
+
+            BatchJournal journal = (options.getJournalFile() != null) ?
+                new BatchJournal(options.getJournalFile()) : null;
+            Thread journalCloser = null;
+
+            if (journal != null) {
+                inputs = resume(inputs, options, journal);
+
+                // Stopping the batch (for instance, with Ctrl+C) kills the
+                // running jobs, which must not be journaled as failed
+                journalCloser = new Thread(() -> {
+                    try {
+                        journal.close();
+                    } catch (IOException ex) {
+                        log.warn("Could not close the journal: {}",
+                            ex.toString());
+                    }
+                }, "pdfcf-journal-shutdown");
+                Runtime.getRuntime().addShutdownHook(journalCloser);
+            }
+
+            System.out.println("Compressing " + inputs.size() +
+                " files with " + options.getThreadCount() + " threads...");
+
+            BatchCompressor compressor = createCompressor(options);
+            BatchStatistics statistics;
+
+            compressor.setJournal(journal);
+
+            try {
+                statistics = compressor.run(inputs, BatchCommandLine::printResult);
+            } finally {
+                if (compressor.getWorkerPool() != null) {
+                    compressor.getWorkerPool().close();
+                }
+
+                if (compressor.getMemoryController() != null) {
+                    compressor.getMemoryController().close();
+                }
+
+                if (journal != null) {
+                    journal.close();
+
+                    try {
+                        Runtime.getRuntime().removeShutdownHook(journalCloser);
+                    } catch (IllegalStateException ex) {
+                        // The process is already shutting down
+                    }
+                }
+            }
+
+            System.out.println();
+            System.out.println(statistics.formatSummary());
+
+            if (compressor.getResultCache() != null) {
+                log.info(compressor.getResultCache().formatSummary());
+            }
+
+            if (options.getPrefilter() != null) {
+                log.info(options.getPrefilter().formatSummary());
+            }
+
+            if (compressor.getWorkerPool() != null) {
+                log.info(compressor.getWorkerPool().formatSummary());
+            }
+
+            if (compressor.getMemoryController() != null) {
+                log.info(compressor.getMemoryController().formatSummary());
+            }
+
+            return ((statistics.getFailedCount() > 0) ||
+                    (statistics.getTimedOutCount() > 0)) ?
+                EXIT_JOB_FAILURES : EXIT_SUCCESS;
+        } catch (Exception ex) {
+            log.error("Error running batch:", ex);
+            return EXIT_JOB_FAILURES;
+        }
+    }
+
+    /**
+     * Removes from a list of batch inputs those whose jobs finished in a
+     * previous run recorded in a journal, and prints how many were removed.
+     * Jobs that failed in that run are compressed again.
+     *
+     * @param inputs Batch inputs
+     * @param options Batch options
+     * @param journal The replayed journal
+     *
+     * @return The inputs that need to be compressed
+     */
+    private static List<BatchInput> resume(List<BatchInput> inputs,
+            BatchOptions options, BatchJournal journal) {
+        List<BatchInput> result = new ArrayList<>();
+        int resumedCount = 0;
+
+        for (BatchInput input : inputs) {
+            BatchJournal.Entry entry = journal.getEntry(input.getFile());
+
+            if (journal.needsRun(input, options.resolveOutputFile(input),
+                    options.isJournalVerify())) {
+                result.add(input);
+
+                if ((entry != null) && !entry.getState().isFinal()) {
+                    ++resumedCount;
+                }
+            }
+        }
+
+        if ((result.size() < inputs.size()) || (resumedCount > 0)) {
+            System.out.println("Journal: skipping " +
+                (inputs.size() - result.size()) + " files finished in a " +
+                "previous run, compressing " + resumedCount +
+                " interrupted or failed files again");
+        }
+
+        return result;
+    }
+
+    private static BatchCompressor createCompressor(BatchOptions options)
+            throws IOException {
+        BatchCompressor result = new BatchCompressor(options);
+
+        if (options.getResultCacheDir() != null) {
+            result.setResultCache(new ResultCache(
+                options.getResultCacheDir(), options.getResultCacheMaxSize()));
+        }
+
+        if (options.getMemoryBudget() > 0) {
+            result.setMemoryController(
+                new MemoryAdmissionController(options.getMemoryBudget()));
+        }
+
+        if (options.getWorkerPoolSize() > 0) {
+            result.setWorkerPool(new GsWorkerPool(
+                options.getGsExecutablePath(), options.getWorkerPoolSize(),
+                options.getMaxJobsPerWorker()));
+        }
+
+        return result;
+    }
+
+    /**
+     * Runs the watch mode, which compresses files dropped in the input
+     * folders until the process is stopped (for instance, with Ctrl+C).
+     *
+     * @param options Batch options
+     *
+     * @return The process exit code
+     *
+     * @throws IOException If the input folders cannot be watched
+     */
+    private static int watch(BatchOptions options) throws IOException {
+        BatchCompressor compressor = createCompressor(options);
+        WatchFolderDaemon daemon = new WatchFolderDaemon(
+            options, compressor, BatchCommandLine::printResult);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            daemon.close();
+
+            if (compressor.getWorkerPool() != null) {
+                compressor.getWorkerPool().close();
+            }
+
+            System.out.println();
+            System.out.println(daemon.getStatistics().formatSummary());
+        }, "pdfcf-watch-shutdown"));
+
+        System.out.println("Watching " + options.getInputSpecs().size() +
+            " folders with " + options.getThreadCount() +
+            " threads; press Ctrl+C to stop...");
+        daemon.run();
+
+        return EXIT_SUCCESS;
+    }
+
+    /**
+     * Runs the server mode, which compresses files uploaded through HTTP
+     * until the process is stopped (for instance, with Ctrl+C).
+     *
+     * @param options Batch options
+     *
+     * @return The process exit code
+     *
+     * @throws IOException If the server cannot be started
+     */
+    private static int serve(BatchOptions options) throws IOException {
+        // Compressed files are only kept until downloaded
+        if (options.getOutputDir() == null) {
+            options.setOutputDir(Files.createTempDirectory(
+                "pdfcf-server-").toFile());
+        }
+
+        options.setOverwrite(true);
+
+        BatchCompressor compressor = createCompressor(options);
+        CompressionServer server = new CompressionServer(options, compressor,
+            options.getServerBindAddress(), options.getServerPort(),
+            options.getServerQueueCapacity(), options.getServerMaxUploadSize());
+        CountDownLatch stopped = new CountDownLatch(1);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+
+            if (compressor.getWorkerPool() != null) {
+                compressor.getWorkerPool().close();
+            }
+
+            stopped.countDown();
+        }, "pdfcf-server-shutdown"));
+
+        server.start();
+        System.out.println("Compressing uploads at http://" +
+            server.getAddress().getHostString() + ":" +
+            server.getAddress().getPort() + "/compress with " +
+            options.getThreadCount() + " threads; press Ctrl+C to stop...");
+
+        try {
+            stopped.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        return EXIT_SUCCESS;
+    }
+
+    /**
+     * Parses the command line arguments of the batch mode.
+     *
+     * @param args Command line arguments
+     * @param config Configuration properties, used for default values; can
+     *               be null
+     *
+     * @return The batch options, or null if the usage help was requested
+     *
+     * @throws IllegalArgumentException If the arguments are invalid
+     */
+    public static BatchOptions parseArguments(String[] args, Properties config)
+            throws IllegalArgumentException {
+        if (config == null) {
+            config = new Properties();
+        }
+
+        BatchOptions result = new BatchOptions();
+        applyConfiguration(result, config);
+
+        for (int i = 0; i < args.length; ++i) {
+            String arg = args[i];
+
+            if (isBatchMode(new String[] { arg })) {
+                continue;
+            }
+
+            switch (arg) {
+                case "-help":
+                case "-h":
+                    return null;
+
+                case "-gs":
+                    result.setGsExecutablePath(requireValue(args, ++i, arg));
+                    break;
+
+                case "-quality":
+                    result.setConversionQuality(parseConversionQuality(
+                        requireValue(args, ++i, arg)));
+                    break;
+
+                case "-compatibility":
+                    result.setPdfCompatibilityLevel(parsePdfCompatibilityLevel(
+                        requireValue(args, ++i, arg)));
+                    break;
+
+                case "-gsParams":
+                    result.setAdditionalGsParameters(
+                        requireValue(args, ++i, arg));
+                    break;
+
+                case "-outputDir":
+                    result.setOutputDir(new File(
+                        requireValue(args, ++i, arg)).getAbsoluteFile());
+                    break;
+
+                case "-suffix":
+                    result.setOutputFileSuffix(requireValue(args, ++i, arg));
+                    break;
+
+                case "-threads":
+                    result.setThreadCount(parsePositiveInt(
+                        requireValue(args, ++i, arg), arg));
+                    break;
+
+                case "-memoryMB":
+                    result.setMemoryBudget(parsePositiveInt(
+                        requireValue(args, ++i, arg), arg) * Utils.ONE_MEGABYTE);
+                    break;
+
+                case "-workers":
+                    result.setWorkerPoolSize(parsePositiveInt(
+                        requireValue(args, ++i, arg), arg));
+                    break;
+
+                case "-workerMaxJobs":
+                    result.setMaxJobsPerWorker(parsePositiveInt(
+                        requireValue(args, ++i, arg), arg));
+                    break;
+
+                case "-group":
+                    result.setGroupSize(parsePositiveInt(
+                        requireValue(args, ++i, arg), arg));
+                    break;
+
+                case "-groupMaxKB":
+                    result.setGroupMaxFileSize(parsePositiveInt(
+                        requireValue(args, ++i, arg), arg) * 1024L);
+                    break;
+
+                case "-groupMaxPages":
+                    result.setGroupMaxPages(parsePositiveInt(
+                        requireValue(args, ++i, arg), arg));
+                    break;
+
+                case "-noAutoOptions":
+                    result.setGsAutoOptions(false);
+                    break;
+
+                case "-watch":
+                    result.setWatchMode(true);
+                    break;
+
+                case "-doneDir":
+                    result.setDoneDir(new File(
+                        requireValue(args, ++i, arg)).getAbsoluteFile());
+                    break;
+
+                case "-failedDir":
+                    result.setFailedDir(new File(
+                        requireValue(args, ++i, arg)).getAbsoluteFile());
+                    break;
+
+                case "-settleSeconds":
+                    result.setWatchSettleMillis(Math.round(parsePositiveDouble(
+                        requireValue(args, ++i, arg), arg) * 1000));
+                    break;
+
+                case "-queueSize":
+                    result.setWatchQueueCapacity(parsePositiveInt(
+                        requireValue(args, ++i, arg), arg));
+                    break;
+
+                case "-serve":
+                    result.setServerMode(true);
+                    break;
+
+                case "-bind":
+                    result.setServerBindAddress(requireValue(args, ++i, arg));
+                    break;
+
+                case "-port":
+                    result.setServerPort(parsePositiveInt(
+                        requireValue(args, ++i, arg), arg));
+                    break;
+
+                case "-serverQueue":
+                    result.setServerQueueCapacity(parsePositiveInt(
+                        requireValue(args, ++i, arg), arg));
+                    break;
+
+                case "-maxUploadMB":
+                    result.setServerMaxUploadSize(parsePositiveInt(
+                        requireValue(args, ++i, arg), arg) * Utils.ONE_MEGABYTE);
+                    break;
+
+                case "-transcriptDir":
+                    result.setTranscriptDir(new File(
+                        requireValue(args, ++i, arg)).getAbsoluteFile());
+                    break;
+
+                case "-timeout":
+                    result.getTimeoutPolicy().setWallClockTimeoutSeconds(
+                        parsePositiveInt(requireValue(args, ++i, arg), arg));
+                    break;
+
+                case "-timeoutPerMB":
+                    result.getTimeoutPolicy().setWallClockSecondsPerMegabyte(
+                        parsePositiveDouble(requireValue(args, ++i, arg), arg));
+                    break;
+
+                case "-idleTimeout":
+                    result.getTimeoutPolicy().setIdleTimeoutSeconds(
+                        parsePositiveInt(requireValue(args, ++i, arg), arg));
+                    break;
+
+                case "-shardMinPages":
+                    result.setShardMinimumPages(parsePositiveInt(
+                        requireValue(args, ++i, arg), arg));
+                    break;
+
+                case "-pagesPerShard":
+                    result.setPagesPerShard(parsePositiveInt(
+                        requireValue(args, ++i, arg), arg));
+                    break;
+
+                case "-race":
+                    result.setRaceQualities(parseConversionQualities(
+                        requireValue(args, ++i, arg)));
+                    break;
+
+                case "-targetMaxMB":
+                    result.setTargetMaxSize(Math.round(parsePositiveDouble(
+                        requireValue(args, ++i, arg), arg) * Utils.ONE_MEGABYTE));
+                    break;
+
+                case "-targetMaxRatio":
+                    result.setTargetMaxRatio(parsePositiveDouble(
+                        requireValue(args, ++i, arg), arg));
+                    break;
+
+                case "-fitTarget":
+                    result.setFitToTargetSize(true);
+                    break;
+
+                case "-prefilter":
+                    if (result.getPrefilter() == null) {
+                        result.setPrefilter(new CompressionPrefilter());
+                    }
+                    break;
+
+                case "-prefilterSample":
+                    if (result.getPrefilter() == null) {
+                        result.setPrefilter(new CompressionPrefilter());
+                    }
+
+                    result.getPrefilter().setSampleRate(Math.min(1.0d,
+                        parsePositiveDouble(requireValue(args, ++i, arg), arg)));
+                    break;
+
+                case "-cacheDir":
+                    result.setResultCacheDir(new File(
+                        requireValue(args, ++i, arg)).getAbsoluteFile());
+                    break;
+
+                case "-cacheMaxMB":
+                    result.setResultCacheMaxSize(parsePositiveInt(
+                        requireValue(args, ++i, arg), arg) * Utils.ONE_MEGABYTE);
+                    break;
+
+                case "-journal":
+                    result.setJournalFile(new File(
+                        requireValue(args, ++i, arg)).getAbsoluteFile());
+                    break;
+
+                case "-journalVerify":
+                    result.setJournalVerify(true);
+                    break;
+
+                case "-overwrite":
+                    result.setOverwrite(true);
+                    break;
+
+                default:
+                    if (arg.startsWith("-") && !new File(arg).exists()) {
+                        throw new IllegalArgumentException(
+                            "Unknown option: " + arg);
+                    }
+
+                    result.getInputSpecs().add(arg);
+            }
+        }
+
+        if (result.getInputSpecs().isEmpty() && !result.isServerMode()) {
+            throw new IllegalArgumentException("No input files specified.");
+        }
+
+        if ((result.getOutputDir() == null) && !result.isServerMode() &&
+            Utils.stringIsEmpty(result.getOutputFileSuffix())) {
+            throw new IllegalArgumentException("Either an output folder or " +
+                "a non-empty output file suffix must be specified.");
+        }
+
+        if (result.isFitToTargetSize() &&
+            (result.getTargetMaxSize() <= 0) &&
+            (result.getTargetMaxRatio() <= 0)) {
+            throw new IllegalArgumentException(
+                "Option -fitTarget requires -targetMaxMB or -targetMaxRatio.");
+        }
+
+        if (result.isWatchMode()) {
+            validateWatchOptions(result);
+        }
+
+        validateGsExecutablePath(result.getGsExecutablePath());
+
+        return result;
+    }
+
+    private static void applyConfiguration(
+            BatchOptions options, Properties config) {
+        String gsExecutablePath = config.getProperty(
+            "ghostscript-executable-path", "");
+
+        if (Utils.stringIsEmptyOrBlank(gsExecutablePath)) {
+            gsExecutablePath = GsUtils.seekGsExecutablePathWindows();
+        }
+
+        if (Utils.stringIsEmptyOrBlank(gsExecutablePath)) {
+            gsExecutablePath = GsUtils.seekGsExecutablePathLinux();
+        }
+
+        options.setGsExecutablePath(gsExecutablePath);
+
+        ConversionQuality conversionQuality = ConversionQuality.getInstance(
+            config.getProperty("conversion-quality", "").trim());
+
+        if (conversionQuality != null) {
+            options.setConversionQuality(conversionQuality);
+        }
+
+        PdfCompatibilityLevel pdfCompatibilityLevel =
+            PdfCompatibilityLevel.getInstance(config.getProperty(
+                "pdf-compatibility-level", "").trim());
+
+        if (pdfCompatibilityLevel != null) {
+            options.setPdfCompatibilityLevel(pdfCompatibilityLevel);
+        }
+
+        options.setAdditionalGsParameters(config.getProperty(
+            "ghostscript-additional-parameters", ""));
+
+        Integer threadCount = Utils.stringToInt(
+            config.getProperty("batch-thread-count", ""));
+
+        if ((threadCount != null) && (threadCount > 0)) {
+            options.setThreadCount(threadCount);
+        }
+
+        Integer memoryBudgetMegabytes = Utils.stringToInt(
+            config.getProperty("batch-memory-budget-megabytes", ""));
+
+        if ((memoryBudgetMegabytes != null) && (memoryBudgetMegabytes > 0)) {
+            options.setMemoryBudget(memoryBudgetMegabytes * Utils.ONE_MEGABYTE);
+        }
+
+        Integer headLineCapacity = Utils.stringToInt(
+            config.getProperty("process-output-head-lines", ""));
+
+        if ((headLineCapacity != null) && (headLineCapacity >= 0)) {
+            options.setHeadLineCapacity(headLineCapacity);
+        }
+
+        Integer tailLineCapacity = Utils.stringToInt(
+            config.getProperty("process-output-tail-lines", ""));
+
+        if ((tailLineCapacity != null) && (tailLineCapacity >= 0)) {
+            options.setTailLineCapacity(tailLineCapacity);
+        }
+
+        String transcriptDirPath = config.getProperty(
+            "batch-transcript-folder", "");
+
+        if (!Utils.stringIsEmptyOrBlank(transcriptDirPath)) {
+            options.setTranscriptDir(
+                new File(transcriptDirPath.trim()).getAbsoluteFile());
+        }
+
+        options.setTimeoutPolicy(ProcessTimeoutPolicy.fromConfiguration(config));
+
+        Integer workerPoolSize = Utils.stringToInt(
+            config.getProperty("gs-worker-pool-size", ""));
+
+        if ((workerPoolSize != null) && (workerPoolSize > 0)) {
+            options.setWorkerPoolSize(workerPoolSize);
+        }
+
+        Integer maxJobsPerWorker = Utils.stringToInt(
+            config.getProperty("gs-worker-max-jobs", ""));
+
+        if ((maxJobsPerWorker != null) && (maxJobsPerWorker > 0)) {
+            options.setMaxJobsPerWorker(maxJobsPerWorker);
+        }
+
+        Integer groupSize = Utils.stringToInt(
+            config.getProperty("batch-group-size", ""));
+
+        if ((groupSize != null) && (groupSize > 0)) {
+            options.setGroupSize(groupSize);
+        }
+
+        Integer groupMaxKilobytes = Utils.stringToInt(
+            config.getProperty("batch-group-max-kilobytes", ""));
+
+        if ((groupMaxKilobytes != null) && (groupMaxKilobytes > 0)) {
+            options.setGroupMaxFileSize(groupMaxKilobytes * 1024L);
+        }
+
+        Integer groupMaxPages = Utils.stringToInt(
+            config.getProperty("batch-group-max-pages", ""));
+
+        if ((groupMaxPages != null) && (groupMaxPages > 0)) {
+            options.setGroupMaxPages(groupMaxPages);
+        }
+
+        String doneDirPath = config.getProperty("watch-done-folder", "");
+
+        if (!Utils.stringIsEmptyOrBlank(doneDirPath)) {
+            options.setDoneDir(new File(doneDirPath.trim()).getAbsoluteFile());
+        }
+
+        String failedDirPath = config.getProperty("watch-failed-folder", "");
+
+        if (!Utils.stringIsEmptyOrBlank(failedDirPath)) {
+            options.setFailedDir(new File(failedDirPath.trim()).getAbsoluteFile());
+        }
+
+        Double settleSeconds = Utils.stringToDouble(
+            config.getProperty("watch-settle-seconds", ""));
+
+        if ((settleSeconds != null) && (settleSeconds > 0)) {
+            options.setWatchSettleMillis(Math.round(settleSeconds * 1000));
+        }
+
+        Integer queueCapacity = Utils.stringToInt(
+            config.getProperty("watch-queue-size", ""));
+
+        if ((queueCapacity != null) && (queueCapacity > 0)) {
+            options.setWatchQueueCapacity(queueCapacity);
+        }
+
+        String serverBindAddress = config.getProperty(
+            "server-bind-address", "");
+
+        if (!Utils.stringIsEmptyOrBlank(serverBindAddress)) {
+            options.setServerBindAddress(serverBindAddress.trim());
+        }
+
+        Integer serverPort = Utils.stringToInt(
+            config.getProperty("server-port", ""));
+
+        if ((serverPort != null) && (serverPort > 0)) {
+            options.setServerPort(serverPort);
+        }
+
+        Integer serverQueueCapacity = Utils.stringToInt(
+            config.getProperty("server-queue-size", ""));
+
+        if ((serverQueueCapacity != null) && (serverQueueCapacity > 0)) {
+            options.setServerQueueCapacity(serverQueueCapacity);
+        }
+
+        Integer serverMaxUploadMegabytes = Utils.stringToInt(
+            config.getProperty("server-max-upload-megabytes", ""));
+
+        if ((serverMaxUploadMegabytes != null) && (serverMaxUploadMegabytes > 0)) {
+            options.setServerMaxUploadSize(
+                serverMaxUploadMegabytes * Utils.ONE_MEGABYTE);
+        }
+
+        Integer shardMinimumPages = Utils.stringToInt(
+            config.getProperty("batch-shard-minimum-pages", ""));
+
+        if ((shardMinimumPages != null) && (shardMinimumPages > 0)) {
+            options.setShardMinimumPages(shardMinimumPages);
+        }
+
+        Integer pagesPerShard = Utils.stringToInt(
+            config.getProperty("batch-pages-per-shard", ""));
+
+        if ((pagesPerShard != null) && (pagesPerShard > 0)) {
+            options.setPagesPerShard(pagesPerShard);
+        }
+
+        String raceQualities = config.getProperty(
+            "race-conversion-qualities", "");
+
+        if (!Utils.stringIsEmptyOrBlank(raceQualities)) {
+            try {
+                options.setRaceQualities(
+                    parseConversionQualities(raceQualities));
+            } catch (IllegalArgumentException ex) {
+                log.warn("Ignoring race-conversion-qualities: {}",
+                    ex.getMessage());
+            }
+        }
+
+        Double targetMaxMegabytes = Utils.stringToDouble(
+            config.getProperty("target-max-megabytes", ""));
+
+        if ((targetMaxMegabytes != null) && (targetMaxMegabytes > 0)) {
+            options.setTargetMaxSize(
+                Math.round(targetMaxMegabytes * Utils.ONE_MEGABYTE));
+        }
+
+        Double targetMaxRatio = Utils.stringToDouble(
+            config.getProperty("target-max-ratio", ""));
+
+        if ((targetMaxRatio != null) && (targetMaxRatio > 0)) {
+            options.setTargetMaxRatio(targetMaxRatio);
+        }
+
+        options.setFitToTargetSize(Boolean.parseBoolean(
+            config.getProperty("target-fit-resolution", "").trim()));
+
+        options.setPrefilter(CompressionPrefilter.fromConfiguration(config));
+
+        String resultCacheDirPath = config.getProperty(
+            "result-cache-folder", "");
+
+        if (!Utils.stringIsEmptyOrBlank(resultCacheDirPath)) {
+            options.setResultCacheDir(
+                new File(resultCacheDirPath.trim()).getAbsoluteFile());
+        }
+
+        Integer resultCacheMaxMegabytes = Utils.stringToInt(
+            config.getProperty("result-cache-max-megabytes", ""));
+
+        if ((resultCacheMaxMegabytes != null) && (resultCacheMaxMegabytes > 0)) {
+            options.setResultCacheMaxSize(
+                resultCacheMaxMegabytes * Utils.ONE_MEGABYTE);
+        }
+
+        String journalFilePath = config.getProperty("batch-journal-file", "");
+
+        if (!Utils.stringIsEmptyOrBlank(journalFilePath)) {
+            options.setJournalFile(
+                new File(journalFilePath.trim()).getAbsoluteFile());
+        }
+
+        options.setJournalVerify(Boolean.parseBoolean(
+            config.getProperty("batch-journal-verify", "").trim()));
+
+        String outputFileSuffix = config.getProperty(
+            "batch-output-file-suffix", "");
+
+        if (!Utils.stringIsEmptyOrBlank(outputFileSuffix)) {
+            options.setOutputFileSuffix(outputFileSuffix.trim());
+        }
+    }
+
+    /**
+     * Enables the size and speed options supported by the installed
+     * Ghostscript, as detected by a capability probe.
+     *
+     * @param options Batch options to update
+     * @param probe Capability probe; can be null, in which case no options
+     *              are enabled
+     */
+    private static void applyGsCapabilities(
+            BatchOptions options, GsCapabilityProbe probe) {
+        GsCapabilities capabilities = (probe != null) ?
+            probe.probe(options.getGsExecutablePath()) : null;
+
+        if (capabilities == null) {
+            return;
+        }
+
+        if (!capabilities.getDevices().isEmpty() &&
+            !capabilities.supportsDevice("pdfwrite")) {
+            log.warn("Ghostscript {} does not list the pdfwrite device",
+                capabilities.getVersion());
+        }
+
+        options.setGsOptimizationArguments(
+            capabilities.buildOptimizationArguments(
+                options.getAdditionalGsParameters()));
+        log.info("Ghostscript {} detected, enabling: {}",
+            capabilities.getVersion(),
+            options.getGsOptimizationArguments().isEmpty() ? "nothing" :
+                String.join(" ", options.getGsOptimizationArguments()));
+    }
+
+    private static String requireValue(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(
+                "Missing value for option " + option);
+        }
+
+        return args[index];
+    }
+
+    private static int parsePositiveInt(String value, String option) {
+        Integer result = Utils.stringToInt(value);
+
+        if ((result == null) || (result < 1)) {
+            throw new IllegalArgumentException(
+                "Invalid value for option " + option + ": " + value);
+        }
+
+        return result;
+    }
+
+    private static double parsePositiveDouble(String value, String option) {
+        Double result = Utils.stringToDouble(value);
+
+        if ((result == null) || !(result > 0)) {
+            throw new IllegalArgumentException(
+                "Invalid value for option " + option + ": " + value);
+        }
+
+        return result;
+    }
+
+    private static ConversionQuality parseConversionQuality(String value) {
+        ConversionQuality result = ConversionQuality.getInstance(value.trim());
+
+        if (result == null) {
+            throw new IllegalArgumentException(
+                "Invalid conversion quality: " + value);
+        }
+
+        return result;
+    }
+
+    private static List<ConversionQuality> parseConversionQualities(
+            String value) {
+        List<ConversionQuality> result = new ArrayList<>();
+
+        for (String id : value.split(",")) {
+            if (!Utils.stringIsEmptyOrBlank(id)) {
+                ConversionQuality conversionQuality = parseConversionQuality(id);
+
+                if (!result.contains(conversionQuality)) {
+                    result.add(conversionQuality);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private static PdfCompatibilityLevel parsePdfCompatibilityLevel(
+            String value) {
+        PdfCompatibilityLevel result =
+            PdfCompatibilityLevel.getInstance(value.trim());
+
+        if (result == null) {
+            throw new IllegalArgumentException(
+                "Invalid PDF compatibility level: " + value);
+        }
+
+        return result;
+    }
+
+    private static void validateWatchOptions(BatchOptions options) {
+        if ((options.getOutputDir() == null) || (options.getDoneDir() == null) ||
+            (options.getFailedDir() == null)) {
+            throw new IllegalArgumentException("Option -watch requires " +
+                "-outputDir, -doneDir and -failedDir.");
+        }
+
+        for (String inputSpec : options.getInputSpecs()) {
+            if (!new File(inputSpec).isDirectory()) {
+                throw new IllegalArgumentException(
+                    "Option -watch requires input folders: " + inputSpec);
+            }
+        }
+    }
+
+    private static void validateGsExecutablePath(String gsExecutablePath) {
+        if (Utils.stringIsEmptyOrBlank(gsExecutablePath)) {
+            throw new IllegalArgumentException(
+                "The path of the Ghostscript executable file is not specified.");
+        }
+
+        // If the executable does not have a parent file, it most likely is in
+        // the system path
+        File gsExecutable = new File(gsExecutablePath);
+
+        if ((gsExecutable.getParentFile() != null) && !gsExecutable.isFile()) {
+            throw new IllegalArgumentException(
+                "The path specified for the Ghostscript executable file " +
+                "does not refer to an existing file: " + gsExecutablePath);
+        }
+    }
+
+    private static synchronized void printResult(BatchJobResult result) {
+        System.out.println(result.format());
+
+        if ((result.getStatus() == BatchJobResult.Status.FAILED) ||
+            (result.getStatus() == BatchJobResult.Status.TIMED_OUT)) {
+            for (String line : result.getOutputTail()) {
+                System.out.println("    " + line);
+            }
+
+            if (result.getTranscriptFile() != null) {
+                System.out.println("    Complete output: " +
+                    result.getTranscriptFile().getPath());
+            }
+        }
+    }
+
+    private static void printUsage() {
+        System.out.println(
+            "Usage: pdfcf -batch [options] <file | folder | glob>...\n" +
+            "\n" +
+            "Compresses PDF files without opening the graphical interface.\n" +
+            "Folders are scanned recursively for PDF files. Glob patterns\n" +
+            "such as \"scans/**/*.pdf\" must be quoted to prevent the shell\n" +
+            "from expanding them.\n" +
+            "\n" +
+            "Options:\n" +
+            "  -gs <path>             Ghostscript executable file\n" +
+            "  -quality <id>          Conversion quality: screen, ebook,\n" +
+            "                         printer, prepress or default\n" +
+            "  -compatibility <id>    PDF compatibility level: default, 1.0\n" +
+            "                         to 1.7 or 2.0\n" +
+            "  -gsParams <params>     Additional parameters for Ghostscript\n" +
+            "  -outputDir <folder>    Writes output files to this folder,\n" +
+            "                         mirroring the input folder structure\n" +
+            "  -suffix <text>         Suffix appended to output file names\n" +
+            "                         when no output folder is specified\n" +
+            "                         (default: \"" +
+            BatchOptions.DEFAULT_OUTPUT_FILE_SUFFIX + "\")\n" +
+            "  -threads <n>           Number of concurrent Ghostscript\n" +
+            "                         processes (default: number of cores)\n" +
+            "  -memoryMB <n>          Starts Ghostscript processes only while\n" +
+            "                         their estimated and measured memory\n" +
+            "                         use fits this many megabytes\n" +
+            "  -workers <n>           Keeps this many Ghostscript processes\n" +
+            "                         running and feeds them one file after\n" +
+            "                         another, saving their startup time\n" +
+            "  -workerMaxJobs <n>     Restarts each of those processes after\n" +
+            "                         this many files (default: " +
+            GsWorkerPool.DEFAULT_MAX_JOBS_PER_WORKER + ")\n" +
+            "  -group <n>             Compresses up to this many small files\n" +
+            "                         with a single Ghostscript process\n" +
+            "  -groupMaxKB <n>        Largest file compressed in groups, in\n" +
+            "                         kilobytes (default: " +
+            (GroupCompressor.DEFAULT_MAX_FILE_SIZE / 1024) + ")\n" +
+            "  -groupMaxPages <n>     Only files with up to this many pages\n" +
+            "                         are compressed in groups\n" +
+            "  -noAutoOptions         Does not enable the size and speed\n" +
+            "                         options detected as supported by\n" +
+            "                         Ghostscript\n" +
+            "  -transcriptDir <folder> Writes the complete Ghostscript output\n" +
+            "                         of each file to this folder\n" +
+            "  -timeout <seconds>     Terminates Ghostscript processes that\n" +
+            "                         run for longer than this\n" +
+            "  -timeoutPerMB <secs>   Extra time allowed per megabyte of\n" +
+            "                         input file\n" +
+            "  -idleTimeout <seconds> Terminates Ghostscript processes that\n" +
+            "                         produce no output for this long\n" +
+            "  -shardMinPages <n>     Splits files with at least this many\n" +
+            "                         pages in page ranges compressed in\n" +
+            "                         parallel, then merges them\n" +
+            "  -pagesPerShard <n>     Minimum pages per range (default: " +
+            ShardedCompressor.DEFAULT_PAGES_PER_SHARD + ")\n" +
+            "  -race <id,id,...>      Compresses each file at these qualities\n" +
+            "                         concurrently; the first output that\n" +
+            "                         meets the size target wins\n" +
+            "  -targetMaxMB <n>       Size target of output files in MB\n" +
+            "  -targetMaxRatio <r>    Size target of output files as a\n" +
+            "                         fraction of the input size, e.g. 0.5\n" +
+            "  -fitTarget             Searches the image resolution that\n" +
+            "                         gives the largest output meeting the\n" +
+            "                         size target\n" +
+            "  -prefilter             Copies files unchanged when their\n" +
+            "                         structure suggests they will not get\n" +
+            "                         smaller\n" +
+            "  -prefilterSample <r>   Fraction of such files compressed\n" +
+            "                         anyway to measure the prediction\n" +
+            "                         accuracy, e.g. 0.1\n" +
+            "  -cacheDir <folder>     Caches compressed files in this folder\n" +
+            "                         and reuses them for identical inputs\n" +
+            "  -cacheMaxMB <n>        Maximum cache size in megabytes\n" +
+            "                         (default: " +
+            (ResultCache.DEFAULT_MAX_SIZE / Utils.ONE_MEGABYTE) + ")\n" +
+            "  -journal <file>        Records job progress in this file; a\n" +
+            "                         run restarted with the same file skips\n" +
+            "                         files already compressed\n" +
+            "  -journalVerify         Checks the hashes of files compressed\n" +
+            "                         in a previous run before skipping them\n" +
+            "  -overwrite             Overwrites existing output files\n" +
+            "  -watch                 Keeps watching the input folders and\n" +
+            "                         compresses files dropped in them;\n" +
+            "                         requires -outputDir, -doneDir and\n" +
+            "                         -failedDir\n" +
+            "  -doneDir <folder>      Folder where watched input files are\n" +
+            "                         moved after compression\n" +
+            "  -failedDir <folder>    Folder where watched input files are\n" +
+            "                         moved if their compression fails\n" +
+            "  -settleSeconds <secs>  Time a watched file must stay unchanged\n" +
+            "                         before it gets compressed (default: " +
+            (WatchFolderDaemon.DEFAULT_SETTLE_MILLIS / 1000) + ")\n" +
+            "  -queueSize <n>         Maximum number of watched files waiting\n" +
+            "                         for compression (default: " +
+            WatchFolderDaemon.DEFAULT_QUEUE_CAPACITY + ")\n" +
+            "  -serve                 Compresses PDF files uploaded with\n" +
+            "                         HTTP POST to /compress instead of\n" +
+            "                         input files; no inputs are needed\n" +
+            "  -bind <address>        Address the server listens on\n" +
+            "                         (default: " +
+            CompressionServer.DEFAULT_BIND_ADDRESS + ")\n" +
+            "  -port <n>              Port the server listens on\n" +
+            "                         (default: " +
+            CompressionServer.DEFAULT_PORT + ")\n" +
+            "  -serverQueue <n>       Uploads waiting for a thread beyond\n" +
+            "                         which status 429 is returned\n" +
+            "                         (default: " +
+            CompressionServer.DEFAULT_QUEUE_CAPACITY + ")\n" +
+            "  -maxUploadMB <n>       Largest file accepted by the server\n" +
+            "                         (default: " +
+            (CompressionServer.DEFAULT_MAX_UPLOAD_SIZE / Utils.ONE_MEGABYTE) +
+            ")\n" +
+            "  -help                  Shows this help\n" +
+            "\n" +
+            "Default values are read from config/pdfcf.properties.");
+    }
+}
@@ -0,0 +1,672 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.batch;
+
+import com.rogeraraujo.pdfcf.Utils;
+import com.rogeraraujo.pdfcf.components.NamedThreadFactory;
+import com.rogeraraujo.pdfcf.components.ProcessExecutionInfo;
+import com.rogeraraujo.pdfcf.components.ProgressTracker;
+import com.rogeraraujo.pdfcf.gs.GsUtils;
+import com.rogeraraujo.pdfcf.gs.GsWorkerPool;
+import com.rogeraraujo.pdfcf.pdf.CompressionPrefilter;
+import com.rogeraraujo.pdfcf.pdf.PdfInfo;
+import com.rogeraraujo.pdfcf.pdf.PdfInspector;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Compresses many PDF files with Ghostscript on a bounded pool of worker
+ * threads. Each worker runs one Ghostscript process at a time, so the pool
+ * size determines how many processes run concurrently. Inputs are handed to
+ * the pool only as fast as workers become available, which keeps memory
+ * usage independent of the size of the batch.
+ */
+@Slf4j
+public class BatchCompressor {
+    // Number of pending jobs allowed per worker thread
+    private static final int QUEUED_JOBS_PER_THREAD = 2;
+
+    private static final String TRANSCRIPT_FILE_EXTENSION = ".log";
+
+    @Getter
+    private final BatchOptions options;
+
+    private final GsRunner gsRunner;
+
+    private final ShardedCompressor shardedCompressor;
+
+    private final QualityRacer qualityRacer;
+
+    private final TargetSizeCompressor targetSizeCompressor;
+
+    private final GroupCompressor groupCompressor;
+
+    @Getter @Setter
+    private ResultCache resultCache;
+
+    // Journal that records the state transitions of jobs; can be null
+    @Getter @Setter
+    private BatchJournal journal;
+
+    public BatchCompressor(BatchOptions options) {
+        if (options == null) {
+            throw new IllegalArgumentException("Options cannot be null");
+        }
+
+        this.options = options;
+        this.gsRunner = new GsRunner(options);
+        this.shardedCompressor = new ShardedCompressor(gsRunner);
+        this.qualityRacer = new QualityRacer(gsRunner);
+        this.targetSizeCompressor = new TargetSizeCompressor(gsRunner);
+        this.groupCompressor = new GroupCompressor(gsRunner);
+    }
+
+    /**
+     * State of a job between its preparation and its completion.
+     */
+    private static class PreparedJob {
+        private final File inputFile;
+
+        private final File outputFile;
+
+        private final BatchJobResult result;
+
+        private final long startTime = System.currentTimeMillis();
+
+        // Whether the result is final, such as when the file was skipped
+        private boolean finished;
+
+        // Whether Ghostscript ran the job as part of a group
+        private boolean grouped;
+
+        private String noGainReason;
+
+        private String cacheKey;
+
+        private PreparedJob(BatchInput input, File outputFile) {
+            this.inputFile = input.getFile();
+            this.outputFile = outputFile;
+            this.result = new BatchJobResult(input, outputFile);
+        }
+    }
+
+    public GsWorkerPool getWorkerPool() {
+        return gsRunner.getWorkerPool();
+    }
+
+    public void setWorkerPool(GsWorkerPool workerPool) {
+        gsRunner.setWorkerPool(workerPool);
+    }
+
+    public MemoryAdmissionController getMemoryController() {
+        return gsRunner.getMemoryController();
+    }
+
+    public void setMemoryController(MemoryAdmissionController memoryController) {
+        gsRunner.setMemoryController(memoryController);
+    }
+
+    public ProgressTracker.ProgressListener getProgressListener() {
+        return gsRunner.getProgressListener();
+    }
+
+    /**
+     * Sets a listener that receives the progress of each Ghostscript
+     * process, from the threads that read their output.
+     *
+     * @param progressListener The listener; can be null
+     */
+    public void setProgressListener(
+            ProgressTracker.ProgressListener progressListener) {
+        gsRunner.setProgressListener(progressListener);
+    }
+
+    /**
+     * Compresses a list of batch inputs and waits for all of them to finish.
+     *
+     * @param inputs Batch inputs to compress
+     * @param resultConsumer Consumer that receives the result of each job as
+     *                       soon as it finishes; called from worker threads,
+     *                       so it must be thread-safe. Can be null
+     *
+     * @return Aggregate statistics of the batch run
+     *
+     * @throws InterruptedException If the calling thread gets interrupted
+     *                              while waiting for jobs to finish
+     */
+    public BatchStatistics run(List<BatchInput> inputs,
+            Consumer<BatchJobResult> resultConsumer)
+            throws InterruptedException {
+        BatchStatistics statistics = new BatchStatistics();
+        int threadCount = Math.max(1, options.getThreadCount());
+        Semaphore pendingJobs = new Semaphore(
+            threadCount * QUEUED_JOBS_PER_THREAD);
+        ExecutorService executor = Executors.newFixedThreadPool(
+            threadCount, new NamedThreadFactory("pdfcf-batch-worker"));
+
+        List<List<BatchInput>> tasks = planTasks(inputs);
+
+        log.debug("Compressing {} files in {} tasks with {} worker threads",
+            inputs.size(), tasks.size(), threadCount);
+
+        try {
+            for (List<BatchInput> task : tasks) {
+                // Blocks until a worker is close to being available
+                pendingJobs.acquire();
+
+                if (journal != null) {
+                    task.forEach(journal::recordQueued);
+                }
+
+                try {
+                    executor.execute(() -> {
+                        try {
+                            List<BatchJobResult> results = (task.size() == 1) ?
+                                Collections.singletonList(compress(task.get(0))) :
+                                compressGroup(task);
+
+                            for (BatchJobResult result : results) {
+                                statistics.record(result);
+
+                                if (resultConsumer != null) {
+                                    resultConsumer.accept(result);
+                                }
+                            }
+                        } catch (Exception ex) {
+                            log.error("Error compressing {}:", task, ex);
+                        } finally {
+                            pendingJobs.release();
+                        }
+                    });
+                } catch (RejectedExecutionException ex) {
+                    pendingJobs.release();
+                    throw ex;
+                }
+            }
+        } finally {
+            executor.shutdown();
+
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.debug("Waiting for batch workers to finish...");
+            }
+
+            statistics.finish();
+        }
+
+        return statistics;
+    }
+
+    /**
+     * Splits the inputs of a batch in tasks. Small files are grouped, if
+     * enabled, so that each group gets compressed by a single Ghostscript
+     * process; any other file makes a task of its own.
+     *
+     * @param inputs Batch inputs
+     *
+     * @return The tasks, each one a list of one or more inputs
+     */
+    private List<List<BatchInput>> planTasks(List<BatchInput> inputs) {
+        List<List<BatchInput>> result = new ArrayList<>();
+        int groupSize = options.getGroupSize();
+
+        if ((groupSize <= 1) || !GroupCompressor.isApplicable(options)) {
+            inputs.forEach(input -> result.add(Collections.singletonList(input)));
+            return result;
+        }
+
+        List<BatchInput> group = new ArrayList<>();
+
+        for (BatchInput input : inputs) {
+            if (input.getFile().length() > options.getGroupMaxFileSize()) {
+                result.add(Collections.singletonList(input));
+                continue;
+            }
+
+            group.add(input);
+
+            if (group.size() >= groupSize) {
+                result.add(group);
+                group = new ArrayList<>();
+            }
+        }
+
+        if (!group.isEmpty()) {
+            result.add(group);
+        }
+
+        return result;
+    }
+
+    /**
+     * Compresses a single batch input in the calling thread.
+     *
+     * @param input Batch input to compress
+     *
+     * @return The result of the job
+     */
+    public BatchJobResult compress(BatchInput input) {
+        PreparedJob job = prepare(input);
+
+        if (!job.finished) {
+            try {
+                runAdmitted(Collections.singletonList(job), () -> {
+                    runGhostscript(job.inputFile, job.outputFile, job.result);
+                    return null;
+                });
+            } catch (Exception ex) {
+                job.result.setStatus(BatchJobResult.Status.FAILED);
+                job.result.setExecutionException(ex);
+            }
+        }
+
+        return finish(job);
+    }
+
+    /**
+     * Compresses a group of small batch inputs in the calling thread, with a
+     * single Ghostscript process for all of them (see GroupCompressor).
+     * Inputs with more pages than allowed in groups, and inputs that
+     * Ghostscript did not reach, are compressed on their own.
+     *
+     * @param inputs Batch inputs to compress
+     *
+     * @return The results of the jobs, in the same order as the inputs
+     */
+    public List<BatchJobResult> compressGroup(List<BatchInput> inputs) {
+        List<PreparedJob> jobs = new ArrayList<>();
+        List<PreparedJob> groupedJobs = new ArrayList<>();
+
+        for (BatchInput input : inputs) {
+            PreparedJob job = prepare(input);
+            jobs.add(job);
+
+            if (job.finished) {
+                continue;
+            }
+
+            if (options.getGroupMaxPages() > 0) {
+                if (job.result.getPdfInfo() == null) {
+                    job.result.setPdfInfo(inspect(job.inputFile));
+                }
+
+                PdfInfo pdfInfo = job.result.getPdfInfo();
+
+                if ((pdfInfo == null) || (pdfInfo.getPageCount() <= 0) ||
+                    (pdfInfo.getPageCount() > options.getGroupMaxPages())) {
+                    continue;
+                }
+            }
+
+            // Files to be split in shards need a process per shard
+            PdfInfo pdfInfo = job.result.getPdfInfo();
+
+            if ((options.getShardMinimumPages() > 0) && (pdfInfo != null) &&
+                (pdfInfo.getPageCount() >= options.getShardMinimumPages())) {
+                continue;
+            }
+
+            groupedJobs.add(job);
+        }
+
+        if (groupedJobs.size() > 1) {
+            List<File> inputFiles = new ArrayList<>();
+            List<File> outputFiles = new ArrayList<>();
+            List<BatchJobResult> results = new ArrayList<>();
+
+            for (PreparedJob job : groupedJobs) {
+                inputFiles.add(job.inputFile);
+                outputFiles.add(job.outputFile);
+                results.add(job.result);
+            }
+
+            try {
+                boolean[] attributed = runAdmitted(groupedJobs, () -> {
+                    gsRunner.acquireProcessSlot();
+
+                    try {
+                        return groupCompressor.compress(
+                            inputFiles, outputFiles, results);
+                    } finally {
+                        gsRunner.releaseProcessSlots(1);
+                    }
+                });
+
+                for (int i = 0; i < attributed.length; ++i) {
+                    groupedJobs.get(i).grouped = attributed[i];
+                }
+            } catch (Exception ex) {
+                log.debug("Could not compress a group of {} files: {}",
+                    groupedJobs.size(), ex.toString());
+            }
+        }
+
+        List<BatchJobResult> result = new ArrayList<>();
+
+        for (PreparedJob job : jobs) {
+            if (!job.finished && !job.grouped) {
+                try {
+                    runAdmitted(Collections.singletonList(job), () -> {
+                        runGhostscript(job.inputFile, job.outputFile, job.result);
+                        return null;
+                    });
+                } catch (Exception ex) {
+                    job.result.setStatus(BatchJobResult.Status.FAILED);
+                    job.result.setExecutionException(ex);
+                }
+            }
+
+            result.add(finish(job));
+        }
+
+        return result;
+    }
+
+    /**
+     * Runs a Ghostscript process that compresses the inputs of some jobs one
+     * after another, once the memory admission controller, if any, admits
+     * it.
+     *
+     * @param jobs The jobs
+     * @param run Runs the process, in the calling thread
+     * @param <T> Type of the result of the run
+     *
+     * @return The result of the run
+     *
+     * @throws Exception If the thread gets interrupted while waiting, or if
+     *                   the run fails
+     */
+    private <T> T runAdmitted(List<PreparedJob> jobs, Callable<T> run)
+            throws Exception {
+        MemoryAdmissionController memoryController = getMemoryController();
+
+        if (memoryController == null) {
+            return run.call();
+        }
+
+        // Files in a group are processed one at a time
+        long estimate = 0;
+
+        for (PreparedJob job : jobs) {
+            estimate = Math.max(estimate, MemoryAdmissionController.estimate(
+                job.result.getInputFileSize(), job.result.getPdfInfo()));
+        }
+
+        return memoryController.runAdmitted(estimate, run);
+    }
+
+    /**
+     * Carries out the steps of a job that precede running Ghostscript:
+     * validation, inspection, pre-filtering and result cache lookup.
+     *
+     * @param input Batch input to compress
+     *
+     * @return The prepared job; finished if Ghostscript need not run
+     */
+    private PreparedJob prepare(BatchInput input) {
+        PreparedJob job = new PreparedJob(
+            input, options.resolveOutputFile(input));
+        File inputFile = job.inputFile;
+        File outputFile = job.outputFile;
+        BatchJobResult result = job.result;
+
+        if (journal != null) {
+            journal.recordRunning(input);
+        }
+
+        // Any early return leaves a final result
+        job.finished = true;
+
+        try {
+            result.setInputFileSize(inputFile.length());
+
+            if (inputFile.getAbsoluteFile().equals(
+                    outputFile.getAbsoluteFile())) {
+                result.setStatus(BatchJobResult.Status.FAILED);
+                result.setMessage(
+                    "The output file can not be the same as the input file");
+                return job;
+            }
+
+            if (!options.isOverwrite() && outputFile.exists()) {
+                result.setStatus(BatchJobResult.Status.SKIPPED);
+                result.setMessage("The output file already exists");
+                return job;
+            }
+
+            File outputFileParent = outputFile.getParentFile();
+
+            if ((outputFileParent != null) && !outputFileParent.exists() &&
+                !outputFileParent.mkdirs() && !outputFileParent.exists()) {
+                result.setStatus(BatchJobResult.Status.FAILED);
+                result.setMessage("Could not create output folder " +
+                    outputFileParent.getPath());
+                return job;
+            }
+
+            if (options.isInspectionNeeded()) {
+                result.setPdfInfo(inspect(inputFile));
+            }
+
+            // Files not expected to get smaller are copied unchanged, except
+            // for a sample that checks the prediction
+            CompressionPrefilter prefilter = options.getPrefilter();
+            job.noGainReason = ((prefilter != null) &&
+                                (result.getPdfInfo() != null)) ?
+                prefilter.predictNoGain(result.getPdfInfo()) : null;
+
+            if ((job.noGainReason != null) && !prefilter.recordPrediction()) {
+                log.info("Skipping {}: {}", inputFile, job.noGainReason);
+
+                Files.copy(inputFile.toPath(), outputFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+                result.setStatus(BatchJobResult.Status.SKIPPED);
+                result.setMessage("Copied unchanged, " + job.noGainReason);
+                return job;
+            }
+
+            if (resultCache != null) {
+                job.cacheKey = ResultCache.computeKey(
+                    inputFile, getCacheKeyParameters());
+
+                if (resultCache.fetch(
+                        job.cacheKey, inputFile.length(), outputFile)) {
+                    result.setStatus(BatchJobResult.Status.SUCCEEDED);
+                    result.setOutputFileSize(outputFile.length());
+                    result.setDetails("cached");
+                    return job;
+                }
+            }
+
+            job.finished = false;
+        } catch (Exception ex) {
+            result.setStatus(BatchJobResult.Status.FAILED);
+            result.setExecutionException(ex);
+        }
+
+        return job;
+    }
+
+    /**
+     * Carries out the steps of a job that follow running Ghostscript:
+     * checking pre-filter samples, storing the output in the result cache
+     * and recording the result in the journal.
+     *
+     * @param job The job
+     *
+     * @return The final result of the job
+     */
+    private BatchJobResult finish(PreparedJob job) {
+        BatchJobResult result = job.result;
+
+        try {
+            if (!job.finished &&
+                (result.getStatus() == BatchJobResult.Status.SUCCEEDED)) {
+                if (job.noGainReason != null) {
+                    boolean confirmed = options.getPrefilter().recordSample(
+                        result.getInputFileSize(), result.getOutputFileSize());
+                    result.setDetails(((result.getDetails() != null) ?
+                        result.getDetails() + ", " : "") + "sampled skip, " +
+                        (confirmed ? "prediction held" : "prediction missed"));
+                }
+
+                if (job.cacheKey != null) {
+                    resultCache.store(job.cacheKey, job.outputFile);
+                }
+            }
+        } catch (Exception ex) {
+            result.setStatus(BatchJobResult.Status.FAILED);
+            result.setExecutionException(ex);
+        } finally {
+            // Grouped jobs keep the time attributed to them within the group
+            if (!job.grouped) {
+                result.setElapsedMillis(System.currentTimeMillis() - job.startTime);
+            }
+        }
+
+        if (journal != null) {
+            journal.recordResult(result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Inspects the structure of a PDF file.
+     *
+     * @param inputFile The PDF file
+     *
+     * @return Information about the file, or null if it could not be read
+     */
+    public static PdfInfo inspect(File inputFile) {
+        long startTime = System.currentTimeMillis();
+
+        try {
+            PdfInfo result = PdfInspector.inspect(inputFile);
+            log.debug("Inspected {} in {} ms: {}", inputFile,
+                System.currentTimeMillis() - startTime, result);
+            return result;
+        } catch (Exception ex) {
+            log.debug("Could not inspect {}: {}", inputFile, ex.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Describes everything besides the input file that affects the output
+     * of a compression, for result cache keys.
+     */
+    private String getCacheKeyParameters() {
+        StringBuilder result = new StringBuilder()
+            .append(gsRunner.getGsVersion()).append('\n')
+            .append(options.getConversionQuality().getCommandLineArgument())
+            .append('\n')
+            .append(options.getPdfCompatibilityLevel().getCommandLineArgument())
+            .append('\n')
+            .append(Utils.objectToStr(options.getAdditionalGsParameters(), ""))
+            .append('\n')
+            .append(String.join(" ", options.getGsOptimizationArguments()));
+
+        if (options.isFitToTargetSize()) {
+            result.append("\nfit:").append(options.getTargetMaxSize())
+                .append(':').append(options.getTargetMaxRatio());
+        }
+        else if (options.getRaceQualities().size() > 1) {
+            result.append("\nrace:").append(options.getRaceQualities())
+                .append(':').append(options.getTargetMaxSize())
+                .append(':').append(options.getTargetMaxRatio());
+        }
+        // Split files are merged, which changes the output slightly
+        else if (options.getShardMinimumPages() > 0) {
+            result.append("\nshards:").append(options.getShardMinimumPages())
+                .append(':').append(options.getPagesPerShard());
+        }
+
+        return result.toString();
+    }
+
+    private void runGhostscript(
+            File inputFile, File outputFile, BatchJobResult result)
+            throws Exception {
+        gsRunner.acquireProcessSlot();
+
+        try {
+            runGhostscriptInSlot(inputFile, outputFile, result);
+        } finally {
+            gsRunner.releaseProcessSlots(1);
+        }
+    }
+
+    private void runGhostscriptInSlot(
+            File inputFile, File outputFile, BatchJobResult result)
+            throws Exception {
+        if (options.isFitToTargetSize()) {
+            targetSizeCompressor.compress(inputFile, outputFile, result);
+            return;
+        }
+
+        if (options.getRaceQualities().size() > 1) {
+            qualityRacer.compress(inputFile, outputFile, result);
+            return;
+        }
+
+        // Large files can be split in page ranges compressed in parallel
+        if ((options.getShardMinimumPages() > 0) &&
+            shardedCompressor.compress(inputFile, outputFile, result)) {
+            return;
+        }
+
+        List<String> commands = GsUtils.buildCompressionCommands(
+            options.getGsExecutablePath(), options.getConversionQuality(),
+            options.getPdfCompatibilityLevel(),
+            options.getGsOptimizationArguments(),
+            options.getAdditionalGsParameters(),
+            inputFile.getAbsolutePath(), outputFile.getAbsolutePath());
+        File transcriptFile = (options.getTranscriptDir() != null) ?
+            new File(options.getTranscriptDir(),
+                result.getInput().getRelativePath() + TRANSCRIPT_FILE_EXTENSION) :
+            null;
+
+        ProcessExecutionInfo processExecutionInfo = gsRunner.run(
+            commands, inputFile.length(), transcriptFile);
+
+        if (GsRunner.recordExecution(processExecutionInfo, result)) {
+            result.setStatus(BatchJobResult.Status.SUCCEEDED);
+            result.setOutputFileSize(outputFile.length());
+            result.setDetails(processExecutionInfo.getExecutionNote());
+        }
+        else if (processExecutionInfo.isTimedOut()) {
+            // Partial output files are useless
+            deleteFile(outputFile);
+        }
+    }
+
+    static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            log.debug("Could not delete file {}", file);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.batch;
+
+import lombok.Getter;
+
+import java.io.File;
+
+/**
+ * An input file of a batch, along with its path relative to the directory
+ * (or glob base directory) it was found in. The relative path allows the
+ * batch to mirror the input directory structure in the output directory.
+ */
+public class BatchInput {
+    @Getter
+    private final File file;
+
+    @Getter
+    private final String relativePath;
+
+    public BatchInput(File file, String relativePath) {
+        if (file == null) {
+            throw new IllegalArgumentException("File cannot be null");
+        }
+
+        this.file = file;
+        this.relativePath = (relativePath != null) ?
+            relativePath : file.getName();
+    }
+
+    @Override
+    public String toString() {
+        return file.getPath();
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.batch;
+
+import com.rogeraraujo.pdfcf.Utils;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * Expands batch input specifications into the list of PDF files they refer
+ * to. A specification can be the path of a regular file, the path of a
+ * directory (which is scanned recursively for PDF files), or a glob pattern
+ * such as "scans/**&#47;*.pdf". Files are returned in a stable order and
+ * without duplicates.
+ */
+@Slf4j
+public class BatchInputCollector {
+    public static final String PDF_FILE_EXTENSION = ".pdf";
+
+    private static final String GLOB_CHARACTERS = "*?[{";
+
+    // Private constructor to prevent instantiation
+    private BatchInputCollector() { }
+
+    /**
+     * Expands a list of input specifications into batch inputs.
+     *
+     * @param specs Input specifications (file paths, directory paths or glob
+     *              patterns); can be null
+     * @param excludedFileNameSuffix Files whose names end with this suffix
+     *                               are ignored when scanning directories and
+     *                               glob patterns; usually the suffix of
+     *                               previously generated output files. Can
+     *                               be null
+     *
+     * @return The batch inputs, in a stable order and without duplicates
+     *
+     * @throws IOException If an I/O error occurs when scanning directories
+     */
+    public static List<BatchInput> collect(
+            List<String> specs, String excludedFileNameSuffix)
+            throws IOException {
+        Map<String, BatchInput> result = new LinkedHashMap<>();
+
+        if (specs == null) {
+            return new ArrayList<>();
+        }
+
+        for (String spec : specs) {
+            if (Utils.stringIsEmptyOrBlank(spec)) {
+                continue;
+            }
+
+            List<BatchInput> inputs = new ArrayList<>();
+
+            if (isGlobPattern(spec)) {
+                collectGlob(spec, excludedFileNameSuffix, inputs);
+            }
+            else {
+                File file = new File(spec);
+
+                if (file.isDirectory()) {
+                    collectDirectory(file.toPath(), null,
+                        excludedFileNameSuffix, inputs);
+                }
+                else if (file.isFile()) {
+                    inputs.add(new BatchInput(
+                        file.getAbsoluteFile(), file.getName()));
+                }
+                else {
+                    log.warn("Ignoring batch input that does not exist: {}",
+                        spec);
+                }
+            }
+
+            for (BatchInput input : inputs) {
+                result.putIfAbsent(input.getFile().getAbsolutePath(), input);
+            }
+        }
+
+        return new ArrayList<>(result.values());
+    }
+
+    /**
+     * Checks whether an input specification is a glob pattern.
+     *
+     * @param spec Input specification to check; can be null
+     *
+     * @return Whether the specification contains glob characters
+     */
+    public static boolean isGlobPattern(String spec) {
+        if (spec == null) {
+            return false;
+        }
+
+        for (int i = 0, len = spec.length(); i < len; ++i) {
+            if (GLOB_CHARACTERS.indexOf(spec.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static void collectGlob(String spec, String excludedFileNameSuffix,
+            List<BatchInput> inputs) throws IOException {
+        // The base directory is made of the leading path elements that do
+        // not contain glob characters
+        String normalizedSpec = spec.replace('\\', '/');
+        String[] elements = normalizedSpec.split("/", -1);
+        StringBuilder baseDirPath = new StringBuilder();
+        int firstGlobElement = 0;
+
+        while ((firstGlobElement < elements.length - 1) &&
+               !isGlobPattern(elements[firstGlobElement])) {
+            baseDirPath.append(elements[firstGlobElement]).append('/');
+            ++firstGlobElement;
+        }
+
+        Path baseDir = Paths.get((baseDirPath.length() > 0) ?
+            baseDirPath.toString() : ".").toAbsolutePath().normalize();
+
+        if (!Files.isDirectory(baseDir)) {
+            log.warn("Ignoring glob pattern whose base folder does not " +
+                "exist: {}", spec);
+            return;
+        }
+
+        StringBuilder relativePattern = new StringBuilder();
+
+        for (int i = firstGlobElement; i < elements.length; ++i) {
+            if (i > firstGlobElement) {
+                relativePattern.append('/');
+            }
+
+            relativePattern.append(elements[i]);
+        }
+
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher(
+            "glob:" + relativePattern);
+
+        collectDirectory(baseDir, matcher, excludedFileNameSuffix, inputs);
+    }
+
+    private static void collectDirectory(Path baseDir, PathMatcher matcher,
+            String excludedFileNameSuffix, List<BatchInput> inputs)
+            throws IOException {
+        Path absBaseDir = baseDir.toAbsolutePath().normalize();
+        List<BatchInput> dirInputs = new ArrayList<>();
+
+        Files.walkFileTree(absBaseDir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(
+                    Path file, BasicFileAttributes attrs) {
+                if (!attrs.isRegularFile()) {
+                    return FileVisitResult.CONTINUE;
+                }
+
+                Path relativePath = absBaseDir.relativize(file);
+                String fileName = file.getFileName().toString();
+                String lowerFileName = fileName.toLowerCase(Locale.ROOT);
+
+                if ((excludedFileNameSuffix != null) &&
+                    lowerFileName.endsWith((excludedFileNameSuffix +
+                        PDF_FILE_EXTENSION).toLowerCase(Locale.ROOT))) {
+                    return FileVisitResult.CONTINUE;
+                }
+
+                boolean accepted = (matcher != null) ?
+                    matcher.matches(relativePath) :
+                    lowerFileName.endsWith(PDF_FILE_EXTENSION);
+
+                if (accepted) {
+                    dirInputs.add(new BatchInput(file.toFile(),
+                        relativePath.toString().replace('\\', '/')));
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException ex) {
+                log.warn("Error reading batch input {}:", file, ex);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        dirInputs.sort(Comparator.comparing(BatchInput::getRelativePath));
+        inputs.addAll(dirInputs);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.batch;
+
+import com.rogeraraujo.pdfcf.Utils;
+import com.rogeraraujo.pdfcf.pdf.PdfInfo;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.File;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The outcome of compressing a single file of a batch.
+ */
+@Getter @Setter
+public class BatchJobResult {
+    public enum Status { SUCCEEDED, FAILED, TIMED_OUT, SKIPPED }
+
+    private final BatchInput input;
+
+    private final File outputFile;
+
+    private Status status = Status.FAILED;
+
+    private long inputFileSize;
+
+    private long outputFileSize;
+
+    private Integer exitValue;
+
+    private Exception executionException;
+
+    private String message;
+
+    private long elapsedMillis;
+
+    // Last lines written by Ghostscript, kept to explain failures
+    private List<String> outputTail = new ArrayList<>();
+
+    private long outputLineCount;
+
+    private long warningCount;
+
+    // File holding the complete output of Ghostscript, if any
+    private File transcriptFile;
+
+    // Structure of the input file; null if it was not inspected
+    private PdfInfo pdfInfo;
+
+    // Extra information about how a successful job was carried out
+    private String details;
+
+    public BatchJobResult(BatchInput input, File outputFile) {
+        this.input = input;
+        this.outputFile = outputFile;
+    }
+
+    /**
+     * Returns the ratio between the output and input file sizes, or null if
+     * any of the sizes is unavailable.
+     *
+     * @return The size ratio
+     */
+    public Double getSizeRatio() {
+        if ((inputFileSize <= 0) || (outputFileSize <= 0)) {
+            return null;
+        }
+
+        return outputFileSize / (double) inputFileSize;
+    }
+
+    /**
+     * Formats this result as a single line suitable for batch reports.
+     *
+     * @return The formatted result
+     */
+    public String format() {
+        DecimalFormat decFormat1d = new DecimalFormat("0.#");
+        DecimalFormat decFormat2d = new DecimalFormat("0.##");
+        StringBuilder result = new StringBuilder();
+
+        result.append('[').append(status).append("] ")
+            .append(input.getFile().getPath());
+
+        if (status == Status.SUCCEEDED) {
+            Double sizeRatio = getSizeRatio();
+
+            result.append(" -> ").append(outputFile.getPath())
+                .append(" (")
+                .append(Utils.formatFileSize(inputFileSize, decFormat2d))
+                .append(" -> ")
+                .append(Utils.formatFileSize(outputFileSize, decFormat2d));
+
+            if (sizeRatio != null) {
+                result.append(", ").append((sizeRatio <= 1.0d) ? "-" : "+")
+                    .append(decFormat1d.format(
+                        Math.abs(1.0d - sizeRatio) * 100.0d))
+                    .append('%');
+            }
+
+            if (details != null) {
+                result.append(", ").append(details);
+            }
+
+            result.append(')');
+        }
+        else {
+            if ((exitValue != null) && (status == Status.FAILED)) {
+                result.append(" (exit value ").append(exitValue).append(')');
+            }
+
+            if (message != null) {
+                result.append(": ").append(message);
+            }
+            else if (executionException != null) {
+                result.append(": ").append(executionException);
+            }
+        }
+
+        if (warningCount > 0) {
+            result.append(", ").append(warningCount).append(
+                (warningCount == 1) ? " warning" : " warnings");
+        }
+
+        result.append(" in ").append(decFormat2d.format(elapsedMillis / 1000.0d))
+            .append(Utils.SECONDS_SUFFIX);
+
+        return result.toString();
+    }
+}
@@ -0,0 +1,422 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.batch;
+
+import com.rogeraraujo.pdfcf.components.NamedThreadFactory;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only journal of the state transitions of batch jobs, which lets a
+ * batch that stopped abruptly resume where it left off. Each line records a
+ * transition of the job of an input file: queued, running, done (with the
+ * size and hash of the output file), skipped or failed (with the status and
+ * exit value). Lines are written in batches and forced to disk every
+ * {@link #SYNC_BATCH_SIZE} records and at least every
+ * {@link #SYNC_INTERVAL_MILLIS} milliseconds, so that journaling costs
+ * little; a crash loses at most the last unsynced transitions, whose jobs
+ * then run again. Failed jobs also run again when the batch resumes, since
+ * they may have failed only because the batch was stopped.
+ *
+ * <p>Opening a journal replays it, keeping the last state of each input
+ * file, and rewrites it with those states only, so that it does not grow
+ * across restarts.</p>
+ */
+@Slf4j
+public class BatchJournal implements Closeable {
+    public static final int SYNC_BATCH_SIZE = 256;
+
+    public static final long SYNC_INTERVAL_MILLIS = 1000;
+
+    private static final char FIELD_SEPARATOR = '\t';
+
+    private static final String HASH_PARAMETERS = "journal";
+
+    /**
+     * Last recorded state of the job of an input file.
+     */
+    public enum State {
+        QUEUED('Q'), RUNNING('R'), DONE('D'), SKIPPED('S'), FAILED('F');
+
+        private final char code;
+
+        State(char code) {
+            this.code = code;
+        }
+
+        static State fromCode(char code) {
+            for (State state : values()) {
+                if (state.code == code) {
+                    return state;
+                }
+            }
+
+            return null;
+        }
+
+        /**
+         * @return Whether jobs in this state need not run again
+         */
+        public boolean isFinal() {
+            return (this == DONE) || (this == SKIPPED);
+        }
+    }
+
+    /**
+     * A replayed journal entry.
+     */
+    @Getter
+    public static class Entry {
+        private final State state;
+
+        // Set for done jobs only
+        private final long outputFileSize;
+
+        private final String outputFileHash;
+
+        // Set for failed jobs only, as in "TIMED_OUT 1"
+        private final String failure;
+
+        private Entry(State state, long outputFileSize, String outputFileHash,
+                String failure) {
+            this.state = state;
+            this.outputFileSize = outputFileSize;
+            this.outputFileHash = outputFileHash;
+            this.failure = failure;
+        }
+    }
+
+    @Getter
+    private final File journalFile;
+
+    // Last state of each input file, by absolute path
+    private final Map<String, Entry> entries;
+
+    private final FileChannel channel;
+
+    private final StringBuilder pendingRecords = new StringBuilder();
+
+    private int pendingRecordCount;
+
+    private boolean closed;
+
+    private final ScheduledExecutorService syncer;
+
+    /**
+     * Opens a journal, replaying and compacting it if it exists.
+     *
+     * @param journalFile The journal file
+     *
+     * @throws IOException If the journal cannot be read or written
+     */
+    public BatchJournal(File journalFile) throws IOException {
+        this.journalFile = journalFile;
+
+        long startTime = System.currentTimeMillis();
+        long[] lineCount = new long[1];
+        this.entries = journalFile.exists() ?
+            replay(journalFile, lineCount) : new HashMap<>();
+
+        compact();
+        log.debug("Replayed {} journal records of {} files in {} ms",
+            lineCount[0], entries.size(), System.currentTimeMillis() - startTime);
+
+        this.channel = FileChannel.open(journalFile.toPath(),
+            StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.syncer = Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("pdfcf-journal-sync"));
+        syncer.scheduleWithFixedDelay(this::syncQuietly, SYNC_INTERVAL_MILLIS,
+            SYNC_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Reads a journal file, keeping the last state of each input file.
+     * Truncated or malformed lines, such as a last line cut by a crash, are
+     * ignored.
+     */
+    static Map<String, Entry> replay(File journalFile, long[] lineCount)
+            throws IOException {
+        Map<String, Entry> result = new HashMap<>();
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(journalFile), StandardCharsets.UTF_8),
+                1024 * 1024)) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                ++lineCount[0];
+
+                // Fields: state code, size, hash or failure, input path
+                int first = line.indexOf(FIELD_SEPARATOR);
+                int second = (first >= 0) ?
+                    line.indexOf(FIELD_SEPARATOR, first + 1) : -1;
+                int third = (second >= 0) ?
+                    line.indexOf(FIELD_SEPARATOR, second + 1) : -1;
+                State state = (first == 1) ? State.fromCode(line.charAt(0)) : null;
+
+                if ((state == null) || (third < 0)) {
+                    continue;
+                }
+
+                long size;
+
+                try {
+                    size = Long.parseLong(line.substring(first + 1, second));
+                } catch (NumberFormatException ex) {
+                    continue;
+                }
+
+                String detail = line.substring(second + 1, third);
+                result.put(line.substring(third + 1), new Entry(state, size,
+                    (state == State.DONE) ? detail : null,
+                    (state == State.FAILED) ? detail : null));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Rewrites the journal file with the last state of each input file.
+     */
+    private void compact() throws IOException {
+        File tempFile = new File(journalFile.getPath() + ".tmp");
+
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(tempFile), StandardCharsets.UTF_8))) {
+            StringBuilder record = new StringBuilder();
+
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                Entry value = entry.getValue();
+                record.setLength(0);
+                appendRecord(record, value.state, value.outputFileSize,
+                    (value.state == State.DONE) ? value.outputFileHash :
+                        value.failure, entry.getKey());
+                writer.write(record.toString());
+            }
+        }
+
+        try (FileChannel tempChannel = FileChannel.open(
+                tempFile.toPath(), StandardOpenOption.WRITE)) {
+            tempChannel.force(true);
+        }
+
+        Files.move(tempFile.toPath(), journalFile.toPath(),
+            StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Returns the last replayed state of the job of an input file.
+     *
+     * @param inputFile The input file
+     *
+     * @return The entry, or null if the journal has no record of the file
+     */
+    public Entry getEntry(File inputFile) {
+        return entries.get(inputFile.getAbsolutePath());
+    }
+
+    /**
+     * Counts the replayed entries in a state.
+     *
+     * @param state The state
+     *
+     * @return The number of input files whose job was last in that state
+     */
+    public long countEntries(State state) {
+        return entries.values().stream()
+            .filter(entry -> entry.state == state).count();
+    }
+
+    /**
+     * Decides whether the job of an input file needs to run, according to
+     * the replayed journal. Jobs that were running, that failed or whose
+     * output does not match the journal have their partial output deleted.
+     *
+     * @param input The batch input
+     * @param outputFile The output file of the input
+     * @param verifyHashes Whether the outputs of done jobs are checked
+     *                     against their recorded hashes, besides their sizes
+     *
+     * @return Whether the job needs to run
+     */
+    public boolean needsRun(BatchInput input, File outputFile,
+            boolean verifyHashes) {
+        Entry entry = getEntry(input.getFile());
+
+        if (entry == null) {
+            return true;
+        }
+
+        if (entry.state == State.SKIPPED) {
+            return false;
+        }
+
+        if (entry.state == State.DONE) {
+            try {
+                if (outputFile.isFile() &&
+                    (outputFile.length() == entry.outputFileSize) &&
+                    (!verifyHashes || ResultCache.computeKey(outputFile,
+                        HASH_PARAMETERS).equals(entry.outputFileHash))) {
+                    return false;
+                }
+            } catch (IOException ex) {
+                log.debug("Could not verify {}: {}", outputFile, ex.toString());
+            }
+
+            log.info("Output of {} does not match the journal; " +
+                "compressing it again", input);
+        }
+
+        // Output files of interrupted jobs are partial
+        if (outputFile.exists() && !outputFile.delete()) {
+            log.warn("Could not delete partial output {}", outputFile);
+        }
+
+        return true;
+    }
+
+    public void recordQueued(BatchInput input) {
+        record(State.QUEUED, 0, "", input);
+    }
+
+    public void recordRunning(BatchInput input) {
+        record(State.RUNNING, 0, "", input);
+    }
+
+    /**
+     * Records the final state of a job.
+     *
+     * @param result The result of the job
+     */
+    public void recordResult(BatchJobResult result) {
+        switch (result.getStatus()) {
+            case SUCCEEDED:
+                File outputFile = result.getOutputFile();
+                String hash;
+
+                try {
+                    hash = ResultCache.computeKey(outputFile, HASH_PARAMETERS);
+                } catch (IOException ex) {
+                    log.debug("Could not hash {}: {}", outputFile, ex.toString());
+                    hash = "";
+                }
+
+                record(State.DONE, outputFile.length(), hash, result.getInput());
+                break;
+
+            case SKIPPED:
+                record(State.SKIPPED, 0, "", result.getInput());
+                break;
+
+            default:
+                record(State.FAILED, 0, result.getStatus() + " " +
+                    result.getExitValue(), result.getInput());
+        }
+    }
+
+    private synchronized void record(State state, long size, String detail,
+            BatchInput input) {
+        // Jobs that end after the journal was closed on shutdown were killed
+        // by it, so they are left as running in order to run again
+        if (closed) {
+            return;
+        }
+
+        appendRecord(pendingRecords, state, size, detail,
+            input.getFile().getAbsolutePath());
+
+        if (++pendingRecordCount >= SYNC_BATCH_SIZE) {
+            try {
+                sync();
+            } catch (IOException ex) {
+                log.warn("Could not write to the journal: {}", ex.toString());
+            }
+        }
+    }
+
+    private static void appendRecord(StringBuilder builder, State state,
+            long size, String detail, String inputFilePath) {
+        builder.append(state.code).append(FIELD_SEPARATOR).append(size)
+            .append(FIELD_SEPARATOR).append(detail).append(FIELD_SEPARATOR)
+            .append(inputFilePath).append('\n');
+    }
+
+    /**
+     * Writes the pending records and forces them to disk.
+     *
+     * @throws IOException If the journal cannot be written
+     */
+    public synchronized void sync() throws IOException {
+        if (closed || (pendingRecordCount == 0)) {
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(
+            pendingRecords.toString().getBytes(StandardCharsets.UTF_8));
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+
+        channel.force(false);
+        pendingRecords.setLength(0);
+        pendingRecordCount = 0;
+    }
+
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (IOException ex) {
+            log.warn("Could not write to the journal: {}", ex.toString());
+        }
+    }
+
+    /**
+     * Writes the pending records and closes the journal. Records of later
+     * transitions are ignored; closing a closed journal has no effect.
+     *
+     * @throws IOException If the journal cannot be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        syncer.shutdownNow();
+
+        try {
+            sync();
+        } finally {
+            closed = true;
+            channel.close();
+        }
+    }
+}
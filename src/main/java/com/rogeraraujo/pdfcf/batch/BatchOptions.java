@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.batch;
+
+import com.rogeraraujo.pdfcf.components.BoundedLineBuffer;
+import com.rogeraraujo.pdfcf.components.ProcessTimeoutPolicy;
+import com.rogeraraujo.pdfcf.gs.ConversionQuality;
+import com.rogeraraujo.pdfcf.gs.GsWorkerPool;
+import com.rogeraraujo.pdfcf.gs.PdfCompatibilityLevel;
+import com.rogeraraujo.pdfcf.pdf.CompressionPrefilter;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Settings of a batch compression run.
+ */
+@Getter @Setter
+public class BatchOptions {
+    public static final String DEFAULT_OUTPUT_FILE_SUFFIX = "-compressed";
+
+    private String gsExecutablePath;
+
+    private ConversionQuality conversionQuality = ConversionQuality.EBOOK;
+
+    private PdfCompatibilityLevel pdfCompatibilityLevel =
+        PdfCompatibilityLevel.DEFAULT;
+
+    private String additionalGsParameters = "";
+
+    // Whether size and speed options supported by the installed Ghostscript
+    // are enabled automatically, filling gsOptimizationArguments
+    private boolean gsAutoOptions = true;
+
+    private List<String> gsOptimizationArguments = new ArrayList<>();
+
+    private List<String> inputSpecs = new ArrayList<>();
+
+    // When null, output files are written next to their input files
+    private File outputDir;
+
+    private String outputFileSuffix = DEFAULT_OUTPUT_FILE_SUFFIX;
+
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+
+    private boolean overwrite;
+
+    // Number of Ghostscript output lines kept in memory per job, at the
+    // beginning and at the end of the output
+    private int headLineCapacity = BoundedLineBuffer.DEFAULT_HEAD_CAPACITY;
+
+    private int tailLineCapacity = BoundedLineBuffer.DEFAULT_TAIL_CAPACITY;
+
+    // When set, the complete Ghostscript output of each job is written to a
+    // file in this directory, mirroring the relative path of the input
+    private File transcriptDir;
+
+    private ProcessTimeoutPolicy timeoutPolicy = new ProcessTimeoutPolicy();
+
+    // Files with at least this many pages are split in page ranges that are
+    // compressed in parallel and then merged. Zero disables splitting
+    private int shardMinimumPages;
+
+    private int pagesPerShard = ShardedCompressor.DEFAULT_PAGES_PER_SHARD;
+
+    // When set, compressed files are cached in this directory and reused
+    // for identical inputs compressed with the same parameters
+    private File resultCacheDir;
+
+    private long resultCacheMaxSize = ResultCache.DEFAULT_MAX_SIZE;
+
+    // When set, job state transitions are recorded in this file, and a run
+    // restarted with the same file skips the jobs that already finished
+    private File journalFile;
+
+    // Whether the outputs of finished jobs are checked against the hashes
+    // in the journal on restart, besides their sizes
+    private boolean journalVerify;
+
+    // Memory that the Ghostscript processes of a batch may use together,
+    // in bytes. Zero places no limit besides the number of threads
+    private long memoryBudget;
+
+    // Number of long-lived Ghostscript processes that compress files one
+    // after another. Zero starts a new process for each file
+    private int workerPoolSize;
+
+    private int maxJobsPerWorker = GsWorkerPool.DEFAULT_MAX_JOBS_PER_WORKER;
+
+    // Number of small files compressed by a single Ghostscript process.
+    // Zero or one compresses each file with a process of its own
+    private int groupSize;
+
+    // Only files up to this size, and with up to this many pages (zero for
+    // any page count), are compressed in groups
+    private long groupMaxFileSize = GroupCompressor.DEFAULT_MAX_FILE_SIZE;
+
+    private int groupMaxPages;
+
+    // When set, the input folders are watched for new files until the
+    // process is stopped, and input files are moved to the done or failed
+    // folder after compression
+    private boolean watchMode;
+
+    private File doneDir;
+
+    private File failedDir;
+
+    // Time the size and modification time of a new file must stay unchanged
+    // before it gets compressed
+    private long watchSettleMillis = WatchFolderDaemon.DEFAULT_SETTLE_MILLIS;
+
+    // Maximum number of settled files waiting for a worker
+    private int watchQueueCapacity = WatchFolderDaemon.DEFAULT_QUEUE_CAPACITY;
+
+    // When set, files are uploaded to an HTTP service instead of being read
+    // from the input specifications (see CompressionServer)
+    private boolean serverMode;
+
+    private String serverBindAddress = CompressionServer.DEFAULT_BIND_ADDRESS;
+
+    private int serverPort = CompressionServer.DEFAULT_PORT;
+
+    private int serverQueueCapacity = CompressionServer.DEFAULT_QUEUE_CAPACITY;
+
+    private long serverMaxUploadSize = CompressionServer.DEFAULT_MAX_UPLOAD_SIZE;
+
+    // When set, files predicted not to get smaller are not compressed
+    private CompressionPrefilter prefilter;
+
+    // When two or more qualities are set, they are raced against each other
+    // and the first output that meets the size target wins
+    private List<ConversionQuality> raceQualities = new ArrayList<>();
+
+    // Size target of output files, in bytes and as a fraction of the input
+    // file size. Zero disables a target
+    private long targetMaxSize;
+
+    private double targetMaxRatio;
+
+    // When set, image resolutions are searched for the largest output that
+    // meets the size target, instead of applying the conversion quality as is
+    private boolean fitToTargetSize;
+
+    /**
+     * @return Whether the features enabled by these options use the
+     *         structure of input files, which then have to be inspected
+     */
+    public boolean isInspectionNeeded() {
+        return (shardMinimumPages > 0) || fitToTargetSize ||
+            (prefilter != null) || (memoryBudget > 0);
+    }
+
+    /**
+     * Computes the maximum output file size allowed by the size targets.
+     *
+     * @param inputFileSize Size of the input file in bytes
+     *
+     * @return The maximum size in bytes, or zero if no target is set
+     */
+    public long computeTargetSize(long inputFileSize) {
+        long result = targetMaxSize;
+
+        if (targetMaxRatio > 0) {
+            long ratioSize = (long) (inputFileSize * targetMaxRatio);
+            result = (result > 0) ? Math.min(result, ratioSize) : ratioSize;
+        }
+
+        return result;
+    }
+
+    /**
+     * Checks whether an output file size meets the size targets.
+     *
+     * @param inputFileSize Size of the input file in bytes
+     * @param outputFileSize Size of the output file in bytes
+     *
+     * @return Whether the size meets all targets that are set
+     */
+    public boolean meetsSizeTarget(long inputFileSize, long outputFileSize) {
+        if ((targetMaxSize > 0) && (outputFileSize > targetMaxSize)) {
+            return false;
+        }
+
+        return (targetMaxRatio <= 0) ||
+            (outputFileSize <= inputFileSize * targetMaxRatio);
+    }
+
+    /**
+     * Determines the output file of a batch input. If an output directory is
+     * set, the relative path of the input is mirrored inside it; otherwise,
+     * the output file is placed next to the input file with the output file
+     * suffix appended to its base name.
+     *
+     * @param input Batch input whose output file is sought
+     *
+     * @return The output file of the batch input
+     */
+    public File resolveOutputFile(BatchInput input) {
+        if (outputDir != null) {
+            return new File(outputDir, input.getRelativePath());
+        }
+
+        File inputFile = input.getFile();
+        String name = inputFile.getName();
+        int dotIndex = name.lastIndexOf('.');
+        String baseName = (dotIndex > 0) ? name.substring(0, dotIndex) : name;
+        String extension = (dotIndex > 0) ?
+            name.substring(dotIndex) : BatchInputCollector.PDF_FILE_EXTENSION;
+        String suffix = (outputFileSuffix != null) ? outputFileSuffix : "";
+
+        return new File(inputFile.getParentFile(), baseName + suffix + extension);
+    }
+}
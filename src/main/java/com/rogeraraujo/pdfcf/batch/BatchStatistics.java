@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.batch;
+
+import com.rogeraraujo.pdfcf.Utils;
+
+import java.text.DecimalFormat;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregate statistics of a batch run. Results can be recorded concurrently
+ * by several worker threads.
+ */
+public class BatchStatistics {
+    private final LongAdder succeededCount = new LongAdder();
+
+    private final LongAdder failedCount = new LongAdder();
+
+    private final LongAdder timedOutCount = new LongAdder();
+
+    private final LongAdder skippedCount = new LongAdder();
+
+    private final LongAdder bytesIn = new LongAdder();
+
+    private final LongAdder bytesOut = new LongAdder();
+
+    private final long startTimeMillis = System.currentTimeMillis();
+
+    private volatile long endTimeMillis;
+
+    /**
+     * Records the result of a single job.
+     *
+     * @param result The job result
+     */
+    public void record(BatchJobResult result) {
+        switch (result.getStatus()) {
+            case SUCCEEDED:
+                succeededCount.increment();
+                bytesIn.add(result.getInputFileSize());
+                bytesOut.add(result.getOutputFileSize());
+                break;
+
+            case TIMED_OUT:
+                timedOutCount.increment();
+                break;
+
+            case SKIPPED:
+                skippedCount.increment();
+                break;
+
+            default:
+                failedCount.increment();
+        }
+    }
+
+    /**
+     * Marks the end of the batch run, freezing the elapsed time.
+     */
+    public void finish() {
+        endTimeMillis = System.currentTimeMillis();
+    }
+
+    public long getSucceededCount() {
+        return succeededCount.sum();
+    }
+
+    public long getFailedCount() {
+        return failedCount.sum();
+    }
+
+    public long getTimedOutCount() {
+        return timedOutCount.sum();
+    }
+
+    public long getSkippedCount() {
+        return skippedCount.sum();
+    }
+
+    public long getProcessedCount() {
+        return getSucceededCount() + getFailedCount() + getTimedOutCount() +
+            getSkippedCount();
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    public long getElapsedMillis() {
+        long end = (endTimeMillis > 0) ?
+            endTimeMillis : System.currentTimeMillis();
+        return Math.max(end - startTimeMillis, 1);
+    }
+
+    /**
+     * Formats the aggregate throughput of the batch run (files per second
+     * and megabytes per second read and written).
+     *
+     * @return The formatted summary, possibly spanning multiple lines
+     */
+    public String formatSummary() {
+        DecimalFormat decFormat = new DecimalFormat("0.##");
+        double elapsedSeconds = getElapsedMillis() / 1000.0d;
+        long bytesInSum = getBytesIn();
+        long bytesOutSum = getBytesOut();
+
+        return "Files: " + getProcessedCount() +
+            " (" + getSucceededCount() + " succeeded, " +
+            getFailedCount() + " failed, " +
+            getTimedOutCount() + " timed out, " +
+            getSkippedCount() + " skipped)\n" +
+            "Elapsed time: " +
+            Utils.formatElapsedTime(Math.round(elapsedSeconds)) + "\n" +
+            "Input: " + Utils.formatFileSize(bytesInSum, decFormat) +
+            ", output: " + Utils.formatFileSize(bytesOutSum, decFormat) + "\n" +
+            "Throughput: " +
+            decFormat.format(getProcessedCount() / elapsedSeconds) +
+            " files/s, " +
+            decFormat.format(bytesInSum / (double) Utils.ONE_MEGABYTE /
+                elapsedSeconds) + " MB/s in, " +
+            decFormat.format(bytesOutSum / (double) Utils.ONE_MEGABYTE /
+                elapsedSeconds) + " MB/s out";
+    }
+}
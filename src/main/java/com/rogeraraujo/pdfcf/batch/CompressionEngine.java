@@ -0,0 +1,411 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.batch;
+
+import com.rogeraraujo.pdfcf.Utils;
+import com.rogeraraujo.pdfcf.components.NamedThreadFactory;
+import com.rogeraraujo.pdfcf.components.ProcessExecutionInfo;
+import com.rogeraraujo.pdfcf.components.ProcessExecutionRunnable;
+import com.rogeraraujo.pdfcf.components.ProgressTracker;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compresses PDF files asynchronously, without a GUI. Each submitted
+ * request yields a CompletableFuture of its result, so that callers can
+ * compose any number of compressions; at most as many Ghostscript
+ * processes as the thread count of the options run at a time, and the
+ * remaining requests wait in an unbounded queue. If the Ghostscript runner
+ * has a memory controller, requests also wait for their estimated memory
+ * need to fit in its budget.
+ *
+ * <p>Cancelling the future of a request removes it from the queue or, if
+ * it is running, terminates its Ghostscript process and deletes the partial
+ * output file. Only the future returned by {@link #submit} has this effect,
+ * not those derived from it.</p>
+ */
+@Slf4j
+public class CompressionEngine implements Closeable {
+    private static final int OUTPUT_TAIL_LINES = 20;
+
+    @Getter
+    private final BatchOptions options;
+
+    // Runs the Ghostscript processes; its worker pool, memory controller
+    // and progress listener can be set to apply them to every request. With
+    // a memory controller, each request waits for admission before its
+    // process starts
+    @Getter
+    private final GsRunner gsRunner;
+
+    private final ThreadPoolExecutor executor;
+
+    // Requests submitted and not finished yet
+    private final Set<Task> pendingTasks = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates an engine.
+     *
+     * @param options Batch options; the Ghostscript executable, optimization
+     *                arguments, timeout policy, output retention and thread
+     *                count are used, and the other settings are ignored. The
+     *                executable can be left empty if every request names
+     *                its own
+     */
+    public CompressionEngine(BatchOptions options) {
+        if (options == null) {
+            throw new IllegalArgumentException("Options cannot be null");
+        }
+
+        if (options.getThreadCount() < 1) {
+            throw new IllegalArgumentException(
+                "Thread count must be positive: " + options.getThreadCount());
+        }
+
+        this.options = options;
+        this.gsRunner = new GsRunner(options);
+        this.executor = new ThreadPoolExecutor(options.getThreadCount(),
+            options.getThreadCount(), 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(),
+            new NamedThreadFactory("pdfcf-engine-worker"));
+    }
+
+    /**
+     * Submits a request; it runs as soon as a thread is available.
+     *
+     * @param request The request
+     *
+     * @return A future completed with the result of the request, completed
+     *         exceptionally if Ghostscript could not be run, or cancelled
+     *
+     * @throws IllegalStateException If the engine has been closed
+     */
+    public CompletableFuture<CompressionResult> submit(
+            CompressionRequest request) {
+        return submit(request, null);
+    }
+
+    /**
+     * Submits a request whose progress is reported to a listener; it runs
+     * as soon as a thread is available.
+     *
+     * @param request The request
+     * @param progressListener Receives the progress of the Ghostscript
+     *                         process, from the thread that reads its
+     *                         output; can be null
+     *
+     * @return A future completed with the result of the request, completed
+     *         exceptionally if Ghostscript could not be run, or cancelled
+     *
+     * @throws IllegalStateException If the engine has been closed
+     */
+    public CompletableFuture<CompressionResult> submit(
+            CompressionRequest request,
+            ProgressTracker.ProgressListener progressListener) {
+        return submit(request, progressListener, null);
+    }
+
+    /**
+     * Submits a request whose progress and execution are reported to
+     * listeners; it runs as soon as a thread is available.
+     *
+     * @param request The request
+     * @param progressListener Receives the progress of the Ghostscript
+     *                         process, from the thread that reads its
+     *                         output; can be null
+     * @param processListener Notified about the execution of the
+     *                        Ghostscript process, such as when it starts and
+     *                        of each line it writes, from the threads that
+     *                        run it and read its output; can be null
+     *
+     * @return A future completed with the result of the request, completed
+     *         exceptionally if Ghostscript could not be run, or cancelled
+     *
+     * @throws IllegalStateException If the engine has been closed
+     */
+    public CompletableFuture<CompressionResult> submit(
+            CompressionRequest request,
+            ProgressTracker.ProgressListener progressListener,
+            ProcessExecutionRunnable.PerListener processListener) {
+        if (request == null) {
+            throw new IllegalArgumentException("Request cannot be null");
+        }
+
+        if (executor.isShutdown()) {
+            throw new IllegalStateException("The engine has been closed");
+        }
+
+        Task task = new Task(request, progressListener, processListener);
+        pendingTasks.add(task);
+
+        task.future.whenComplete((result, ex) -> {
+            pendingTasks.remove(task);
+
+            if (task.future.isCancelled()) {
+                // Removed from the queue if still there, so that it is
+                // neither counted nor kept until a thread takes it
+                executor.remove(task);
+                task.cancel();
+            }
+        });
+
+        executor.execute(task);
+
+        return task.future;
+    }
+
+    public int getThreadCount() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * Sets the maximum number of requests run at a time. Running requests
+     * are not affected.
+     *
+     * @param threadCount The number of requests
+     */
+    public void setThreadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException(
+                "Thread count must be positive: " + threadCount);
+        }
+
+        // The core size cannot exceed the maximum size at any time
+        if (threadCount > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(threadCount);
+            executor.setCorePoolSize(threadCount);
+        }
+        else {
+            executor.setCorePoolSize(threadCount);
+            executor.setMaximumPoolSize(threadCount);
+        }
+    }
+
+    /**
+     * @return The number of requests waiting for a thread
+     */
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return The number of requests submitted and not finished yet
+     */
+    public int getPendingCount() {
+        return pendingTasks.size();
+    }
+
+    /**
+     * Cancels the requests not finished yet and stops the threads of this
+     * engine. Requests can no longer be submitted afterwards.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+
+        for (Task task : new ArrayList<>(pendingTasks)) {
+            task.future.cancel(false);
+        }
+    }
+
+    /**
+     * Runs a request in the calling thread.
+     *
+     * @throws Exception If Ghostscript could not be run
+     */
+    private CompressionResult compress(Task task) throws Exception {
+        CompressionRequest request = task.request;
+        File inputFile = request.getInputFile();
+        File outputFile = request.getOutputFile();
+        long startTimeMillis = System.currentTimeMillis();
+        long queuedMillis = startTimeMillis - task.submitTimeMillis;
+        long inputFileSize = inputFile.length();
+
+        if (!inputFile.isFile()) {
+            return new CompressionResult(request,
+                CompressionResult.Status.FAILED, null, 0, 0, queuedMillis, 0,
+                "Input file not found", null, 0);
+        }
+
+        File outputFileParent = outputFile.getAbsoluteFile().getParentFile();
+
+        if ((outputFileParent != null) && !outputFileParent.isDirectory()) {
+            return new CompressionResult(request,
+                CompressionResult.Status.FAILED, null, inputFileSize, 0,
+                queuedMillis, 0, "Output folder not found", null, 0);
+        }
+
+        if ((request.getGsExecutablePath() == null) &&
+            Utils.stringIsEmptyOrBlank(options.getGsExecutablePath())) {
+            throw new IllegalStateException(
+                "Ghostscript executable path cannot be empty");
+        }
+
+        List<String> commands = request.buildCommands(
+            options.getGsExecutablePath(), options.getGsOptimizationArguments());
+        List<ProcessExecutionRunnable.PerListener> listeners = new ArrayList<>();
+        listeners.add(new ProcessExecutionRunnable.PerAdapter() {
+            @Override
+            public void notifyProcessCreation(ProcessExecutionRunnable source) {
+                task.processCreated(source);
+            }
+        });
+
+        if (task.progressListener != null) {
+            ProgressTracker progressTracker = new ProgressTracker(inputFileSize);
+            progressTracker.addListener(task.progressListener);
+            listeners.add(progressTracker);
+        }
+
+        if (task.processListener != null) {
+            listeners.add(task.processListener);
+        }
+
+        MemoryAdmissionController memoryController =
+            gsRunner.getMemoryController();
+        Callable<ProcessExecutionInfo> run = () -> {
+            // Cancelled while waiting for admission
+            if (task.future.isCancelled()) {
+                throw new CancellationException();
+            }
+
+            return gsRunner.run(commands, inputFileSize, null, listeners,
+                request.getInProcessExecutor());
+        };
+        ProcessExecutionInfo info;
+
+        // The admission is bound to this thread, which starts the process
+        try {
+            info = (memoryController != null) ?
+                memoryController.runAdmitted(MemoryAdmissionController
+                    .estimate(inputFileSize, null), run) : run.call();
+        } finally {
+            task.runnable = null;
+        }
+
+        long elapsedMillis = System.currentTimeMillis() - startTimeMillis;
+        List<String> outputTail =
+            info.getInputStreamLines().getLastLines(OUTPUT_TAIL_LINES);
+
+        if (task.future.isCancelled() || info.isTimedOut()) {
+            deleteOutputFile(outputFile);
+        }
+
+        if (info.isTimedOut()) {
+            return new CompressionResult(request,
+                CompressionResult.Status.TIMED_OUT, info.getExitValue(),
+                inputFileSize, 0, queuedMillis, elapsedMillis,
+                info.getTimeoutMessage(), outputTail, info.getWarningCount());
+        }
+
+        if (info.getExecutionException() != null) {
+            throw info.getExecutionException();
+        }
+
+        Integer exitValue = info.getExitValue();
+
+        if ((exitValue == null) || (exitValue != 0)) {
+            return new CompressionResult(request,
+                CompressionResult.Status.FAILED, exitValue, inputFileSize, 0,
+                queuedMillis, elapsedMillis, "Ghostscript failed", outputTail,
+                info.getWarningCount());
+        }
+
+        return new CompressionResult(request,
+            CompressionResult.Status.SUCCEEDED, exitValue, inputFileSize,
+            outputFile.length(), queuedMillis, elapsedMillis, null, outputTail,
+            info.getWarningCount());
+    }
+
+    private static void deleteOutputFile(File outputFile) {
+        if (outputFile.exists() && !outputFile.delete()) {
+            log.debug("Could not delete partial output file {}", outputFile);
+        }
+    }
+
+    /**
+     * A submitted request and its future.
+     */
+    private class Task implements Runnable {
+        private final CompressionRequest request;
+
+        private final CompletableFuture<CompressionResult> future =
+            new CompletableFuture<>();
+
+        private final ProgressTracker.ProgressListener progressListener;
+
+        private final ProcessExecutionRunnable.PerListener processListener;
+
+        private final long submitTimeMillis = System.currentTimeMillis();
+
+        // Set while the Ghostscript process runs
+        private volatile ProcessExecutionRunnable runnable;
+
+        private Task(CompressionRequest request,
+                ProgressTracker.ProgressListener progressListener,
+                ProcessExecutionRunnable.PerListener processListener) {
+            this.request = request;
+            this.progressListener = progressListener;
+            this.processListener = processListener;
+        }
+
+        @Override
+        public void run() {
+            // Cancelled while queued
+            if (future.isDone()) {
+                return;
+            }
+
+            try {
+                future.complete(compress(this));
+            } catch (Exception ex) {
+                log.debug("Error compressing {}:", request.getInputFile(), ex);
+                future.completeExceptionally(ex);
+            }
+        }
+
+        private void processCreated(ProcessExecutionRunnable source) {
+            runnable = source;
+
+            // Cancellation may have come before the process existed
+            if (future.isCancelled()) {
+                source.destroyProcessForcibly();
+            }
+        }
+
+        private void cancel() {
+            ProcessExecutionRunnable currentRunnable = runnable;
+
+            if (currentRunnable != null) {
+                currentRunnable.destroyProcessForcibly();
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.batch;
+
+import com.rogeraraujo.pdfcf.components.ProgressTracker;
+import lombok.Getter;
+
+/**
+ * An item published by a CompressionPublisher: either the progress of a
+ * running request or the outcome of a finished one.
+ */
+@Getter
+public class CompressionEvent {
+    public enum Type { PROGRESS, RESULT, FAILURE }
+
+    private final Type type;
+
+    private final CompressionRequest request;
+
+    // Set for PROGRESS events only
+    private final ProgressTracker.Progress progress;
+
+    // Set for RESULT events only
+    private final CompressionResult result;
+
+    // Set for FAILURE events only, when Ghostscript could not be run
+    private final Throwable failure;
+
+    private CompressionEvent(Type type, CompressionRequest request,
+            ProgressTracker.Progress progress, CompressionResult result,
+            Throwable failure) {
+        this.type = type;
+        this.request = request;
+        this.progress = progress;
+        this.result = result;
+        this.failure = failure;
+    }
+
+    static CompressionEvent progress(CompressionRequest request,
+            ProgressTracker.Progress progress) {
+        return new CompressionEvent(Type.PROGRESS, request, progress, null, null);
+    }
+
+    static CompressionEvent result(CompressionResult result) {
+        return new CompressionEvent(
+            Type.RESULT, result.getRequest(), null, result, null);
+    }
+
+    static CompressionEvent failure(CompressionRequest request,
+            Throwable failure) {
+        return new CompressionEvent(Type.FAILURE, request, null, null, failure);
+    }
+
+    /**
+     * @return Whether this is the last event of its request
+     */
+    public boolean isFinal() {
+        return type != Type.PROGRESS;
+    }
+
+    @Override
+    public String toString() {
+        return "CompressionEvent{type=" + type + ", input=" +
+            request.getInputFile() + ", " + ((result != null) ? result :
+            (failure != null) ? failure : "progress=" + progress.getFraction()) +
+            "}";
+    }
+}
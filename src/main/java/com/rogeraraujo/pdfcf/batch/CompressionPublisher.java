@@ -0,0 +1,390 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.batch;
+
+import com.rogeraraujo.pdfcf.components.Flow;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publishes the progress and the outcome of a sequence of compression
+ * requests run by a CompressionEngine, honouring the demand of its
+ * subscriber. A request is only submitted to the engine when the subscriber
+ * has requested enough events to receive its outcome, so when the
+ * subscriber stops requesting, Ghostscript stops being started and the
+ * output files waiting for the subscriber stay bounded.
+ *
+ * <p>Each request yields exactly one final event, RESULT or FAILURE,
+ * preceded by any number of PROGRESS events. Progress events are only
+ * delivered out of demand not reserved for final events, and are dropped
+ * otherwise. Events are delivered in the order in which they occurred.
+ * Requests are taken from an iterator as they are needed, so that they
+ * need not be built upfront. A publisher supports a single subscriber, and
+ * completes after the outcome of the last request. Cancelling the
+ * subscription cancels the requests in progress; requests cancelled
+ * otherwise, for instance by closing the engine, yield a FAILURE event
+ * carrying a CancellationException.</p>
+ */
+@Slf4j
+public class CompressionPublisher implements Flow.Publisher<CompressionEvent> {
+    private final CompressionEngine engine;
+
+    private final Iterator<CompressionRequest> requests;
+
+    // Maximum number of requests submitted to the engine and whose final
+    // events have not been delivered yet
+    private final int maxOutstanding;
+
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    private final LongAdder droppedProgressCount = new LongAdder();
+
+    /**
+     * Creates a publisher that keeps up to as many requests outstanding as
+     * the engine runs at a time.
+     *
+     * @param engine Engine that runs the requests
+     * @param requests The requests
+     */
+    public CompressionPublisher(CompressionEngine engine,
+            Iterable<CompressionRequest> requests) {
+        this(engine, requests.iterator(), engine.getOptions().getThreadCount());
+    }
+
+    /**
+     * Creates a publisher.
+     *
+     * @param engine Engine that runs the requests
+     * @param requests The requests, taken as needed from the thread that
+     *                 handles the subscription
+     * @param maxOutstanding Maximum number of requests submitted whose final
+     *                       events were not delivered yet, which bounds the
+     *                       output files waiting for the subscriber
+     */
+    public CompressionPublisher(CompressionEngine engine,
+            Iterator<CompressionRequest> requests, int maxOutstanding) {
+        if ((engine == null) || (requests == null)) {
+            throw new IllegalArgumentException(
+                "Engine and requests cannot be null");
+        }
+
+        if (maxOutstanding < 1) {
+            throw new IllegalArgumentException(
+                "Maximum outstanding requests must be positive: " +
+                maxOutstanding);
+        }
+
+        this.engine = engine;
+        this.requests = requests;
+        this.maxOutstanding = maxOutstanding;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super CompressionEvent> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("Subscriber cannot be null");
+        }
+
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override public void request(long n) { }
+
+                @Override public void cancel() { }
+            });
+            subscriber.onError(new IllegalStateException(
+                "This publisher supports a single subscriber"));
+            return;
+        }
+
+        subscriber.onSubscribe(new RequestSubscription(subscriber));
+    }
+
+    /**
+     * @return The number of progress events dropped for lack of demand
+     */
+    public long getDroppedProgressCount() {
+        return droppedProgressCount.sum();
+    }
+
+    /**
+     * Delivers events to the subscriber. Signals from the subscriber and
+     * from the engine threads are serialized by a drain loop: whichever
+     * thread finds the loop idle runs it, and the others only record that
+     * it must run again, so no locks are taken.
+     */
+    private class RequestSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super CompressionEvent> subscriber;
+
+        private final AtomicLong demand = new AtomicLong();
+
+        // Number of threads that asked for the drain loop to run
+        private final AtomicInteger drainRequests = new AtomicInteger();
+
+        // Events of all requests, in the order in which they occurred
+        private final Queue<QueuedEvent> events = new ConcurrentLinkedQueue<>();
+
+        private final Set<CompletableFuture<CompressionResult>> futures =
+            ConcurrentHashMap.newKeySet();
+
+        private volatile boolean cancelled;
+
+        private volatile Throwable pendingError;
+
+        // The fields below are only accessed by the drain loop
+
+        // Requests submitted whose final events were not delivered yet
+        private int outstanding;
+
+        private boolean exhausted;
+
+        private boolean terminated;
+
+        private RequestSubscription(
+                Flow.Subscriber<? super CompressionEvent> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                pendingError = new IllegalArgumentException(
+                    "Requested event count must be positive: " + n);
+            }
+            else {
+                demand.accumulateAndGet(n, (current, added) ->
+                    (current + added < 0) ? Long.MAX_VALUE : current + added);
+            }
+
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        private void drain() {
+            if (drainRequests.getAndIncrement() != 0) {
+                return;
+            }
+
+            int missed = 1;
+
+            do {
+                if (!terminated) {
+                    drainOnce();
+                }
+
+                if (terminated) {
+                    events.clear();
+                }
+
+                missed = drainRequests.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drainOnce() {
+            if (cancelled) {
+                terminate();
+                return;
+            }
+
+            if (pendingError != null) {
+                terminate();
+                subscriber.onError(pendingError);
+                return;
+            }
+
+            QueuedEvent queued;
+
+            while ((queued = events.peek()) != null) {
+                if (queued.event.isFinal()) {
+                    if (demand.get() == 0) {
+                        dropProgressEvents();
+                        break;
+                    }
+
+                    events.poll();
+                    --outstanding;
+                    queued.submission.finished = true;
+
+                    if (!emit(queued.event)) {
+                        return;
+                    }
+                }
+                else {
+                    events.poll();
+
+                    // Demand reserved for the final events of outstanding
+                    // requests is never used for progress, and progress
+                    // read after the final event of its request is stale
+                    if (!queued.submission.finished &&
+                        (demand.get() > outstanding)) {
+                        if (!emit(queued.event)) {
+                            return;
+                        }
+                    }
+                    else {
+                        droppedProgressCount.increment();
+                    }
+                }
+            }
+
+            while (!exhausted && (outstanding < maxOutstanding) &&
+                   (outstanding < demand.get())) {
+                CompressionRequest request;
+
+                try {
+                    if (!requests.hasNext()) {
+                        exhausted = true;
+                        break;
+                    }
+
+                    request = requests.next();
+                } catch (RuntimeException ex) {
+                    fail(ex);
+                    return;
+                }
+
+                ++outstanding;
+
+                if (!submit(request)) {
+                    return;
+                }
+            }
+
+            if (exhausted && (outstanding == 0)) {
+                terminated = true;
+                subscriber.onComplete();
+            }
+        }
+
+        /**
+         * Submits a request to the engine.
+         *
+         * @return Whether the request could be submitted; if not, the
+         *         subscriber has received an error
+         */
+        private boolean submit(CompressionRequest request) {
+            Submission submission = new Submission();
+            CompletableFuture<CompressionResult> future;
+
+            try {
+                future = engine.submit(request, (source, progress) -> {
+                    events.add(new QueuedEvent(submission,
+                        CompressionEvent.progress(request, progress)));
+                    drain();
+                });
+            } catch (RuntimeException ex) {
+                fail(ex);
+                return false;
+            }
+
+            futures.add(future);
+            future.whenComplete((result, ex) -> {
+                futures.remove(future);
+
+                // Futures cancelled elsewhere, such as by closing the
+                // engine, still yield a final event, carrying the
+                // CancellationException
+                if (!cancelled) {
+                    events.add(new QueuedEvent(submission, (result != null) ?
+                        CompressionEvent.result(result) :
+                        CompressionEvent.failure(request, ex)));
+                    drain();
+                }
+            });
+
+            return true;
+        }
+
+        /**
+         * Drops the queued progress events, which cannot be delivered while
+         * there is no demand.
+         */
+        private void dropProgressEvents() {
+            Iterator<QueuedEvent> iterator = events.iterator();
+
+            while (iterator.hasNext()) {
+                if (!iterator.next().event.isFinal()) {
+                    iterator.remove();
+                    droppedProgressCount.increment();
+                }
+            }
+        }
+
+        private boolean emit(CompressionEvent event) {
+            demand.decrementAndGet();
+
+            try {
+                subscriber.onNext(event);
+                return true;
+            } catch (RuntimeException ex) {
+                log.error("Subscriber failed to handle {}:", event, ex);
+                terminate();
+                return false;
+            }
+        }
+
+        private void fail(Throwable throwable) {
+            terminate();
+            subscriber.onError(throwable);
+        }
+
+        private void terminate() {
+            terminated = true;
+
+            for (CompletableFuture<CompressionResult> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * A request submitted to the engine, as seen by the drain loop.
+     */
+    private static class Submission {
+        // Whether the final event of the request was delivered; only
+        // accessed by the drain loop
+        private boolean finished;
+    }
+
+    /**
+     * An event waiting to be delivered.
+     */
+    private static class QueuedEvent {
+        private final Submission submission;
+
+        private final CompressionEvent event;
+
+        private QueuedEvent(Submission submission, CompressionEvent event) {
+            this.submission = submission;
+            this.event = event;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.batch;
+
+import com.rogeraraujo.pdfcf.Utils;
+import com.rogeraraujo.pdfcf.components.ProcessExecutionRunnable;
+import com.rogeraraujo.pdfcf.gs.ConversionQuality;
+import com.rogeraraujo.pdfcf.gs.GsUtils;
+import com.rogeraraujo.pdfcf.gs.PdfCompatibilityLevel;
+import lombok.Getter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable request to compress a single PDF file, as submitted to a
+ * CompressionEngine. By default a request runs with the Ghostscript
+ * executable, optimization arguments and worker pool of the engine; the
+ * with methods derive requests that bring their own.
+ */
+@Getter
+public class CompressionRequest {
+    private final File inputFile;
+
+    private final File outputFile;
+
+    private final ConversionQuality conversionQuality;
+
+    private final PdfCompatibilityLevel pdfCompatibilityLevel;
+
+    // Arguments passed to Ghostscript after those implied by the other
+    // settings, so that they prevail
+    private final List<String> extraArguments;
+
+    // Ghostscript executable and optimization arguments used instead of
+    // those of the engine; null to use the engine's
+    private final String gsExecutablePath;
+
+    private final List<String> optimizationArguments;
+
+    // If set, runs the command line inside the JVM instead of the worker
+    // pool of the engine, if any
+    private final ProcessExecutionRunnable.InProcessExecutor inProcessExecutor;
+
+    public CompressionRequest(File inputFile, File outputFile,
+            ConversionQuality conversionQuality,
+            PdfCompatibilityLevel pdfCompatibilityLevel) {
+        this(inputFile, outputFile, conversionQuality, pdfCompatibilityLevel,
+            null);
+    }
+
+    public CompressionRequest(File inputFile, File outputFile,
+            ConversionQuality conversionQuality,
+            PdfCompatibilityLevel pdfCompatibilityLevel,
+            List<String> extraArguments) {
+        this(inputFile, outputFile, conversionQuality, pdfCompatibilityLevel,
+            extraArguments, null, null, null);
+    }
+
+    private CompressionRequest(File inputFile, File outputFile,
+            ConversionQuality conversionQuality,
+            PdfCompatibilityLevel pdfCompatibilityLevel,
+            List<String> extraArguments, String gsExecutablePath,
+            List<String> optimizationArguments,
+            ProcessExecutionRunnable.InProcessExecutor inProcessExecutor) {
+        if ((inputFile == null) || (outputFile == null)) {
+            throw new IllegalArgumentException("Files cannot be null");
+        }
+
+        if (inputFile.getAbsoluteFile().equals(outputFile.getAbsoluteFile())) {
+            throw new IllegalArgumentException(
+                "The output file cannot be the same as the input file");
+        }
+
+        if (conversionQuality == null) {
+            throw new IllegalArgumentException(
+                "Conversion quality cannot be null");
+        }
+
+        if (pdfCompatibilityLevel == null) {
+            throw new IllegalArgumentException(
+                "PDF compatibility level cannot be null");
+        }
+
+        this.inputFile = inputFile;
+        this.outputFile = outputFile;
+        this.conversionQuality = conversionQuality;
+        this.pdfCompatibilityLevel = pdfCompatibilityLevel;
+        this.extraArguments = (extraArguments != null) ?
+            Collections.unmodifiableList(new ArrayList<>(extraArguments)) :
+            Collections.emptyList();
+        this.gsExecutablePath = gsExecutablePath;
+        this.optimizationArguments = (optimizationArguments != null) ?
+            Collections.unmodifiableList(new ArrayList<>(optimizationArguments)) :
+            null;
+        this.inProcessExecutor = inProcessExecutor;
+    }
+
+    /**
+     * Derives a request that runs with a Ghostscript executable and
+     * optimization arguments of its own, instead of those of the engine.
+     *
+     * @param gsExecutablePath Path of the Ghostscript executable file
+     * @param optimizationArguments Arguments placed before the extra
+     *                              arguments; can be null for none
+     *
+     * @return The new request
+     */
+    public CompressionRequest withGsExecutable(String gsExecutablePath,
+            List<String> optimizationArguments) {
+        if (Utils.stringIsEmptyOrBlank(gsExecutablePath)) {
+            throw new IllegalArgumentException(
+                "Ghostscript executable path cannot be empty");
+        }
+
+        return new CompressionRequest(inputFile, outputFile, conversionQuality,
+            pdfCompatibilityLevel, extraArguments, gsExecutablePath,
+            (optimizationArguments != null) ? optimizationArguments :
+                Collections.emptyList(),
+            inProcessExecutor);
+    }
+
+    /**
+     * Derives a request whose command line runs inside the JVM, such as
+     * through the Ghostscript library, instead of the worker pool of the
+     * engine.
+     *
+     * @param inProcessExecutor The executor; null runs the command line as
+     *                          the engine would
+     *
+     * @return The new request
+     */
+    public CompressionRequest withInProcessExecutor(
+            ProcessExecutionRunnable.InProcessExecutor inProcessExecutor) {
+        return new CompressionRequest(inputFile, outputFile, conversionQuality,
+            pdfCompatibilityLevel, extraArguments, gsExecutablePath,
+            optimizationArguments, inProcessExecutor);
+    }
+
+    /**
+     * Builds the Ghostscript command line that carries out this request.
+     *
+     * @param gsExecutablePath Path of the Ghostscript executable file,
+     *                         unless this request has its own
+     * @param optimizationArguments Arguments placed before the extra
+     *                              arguments of this request, such as those
+     *                              enabled by GsCapabilities, unless this
+     *                              request has its own; can be null
+     *
+     * @return The command line, one element per argument
+     */
+    public List<String> buildCommands(String gsExecutablePath,
+            List<String> optimizationArguments) {
+        List<String> arguments = new ArrayList<>();
+
+        if (this.optimizationArguments != null) {
+            arguments.addAll(this.optimizationArguments);
+        }
+        else if (optimizationArguments != null) {
+            arguments.addAll(optimizationArguments);
+        }
+
+        arguments.addAll(extraArguments);
+
+        return GsUtils.buildCompressionCommands(
+            (this.gsExecutablePath != null) ?
+                this.gsExecutablePath : gsExecutablePath,
+            conversionQuality, pdfCompatibilityLevel, arguments, null,
+            inputFile.getPath(), outputFile.getPath());
+    }
+
+    @Override
+    public String toString() {
+        return "CompressionRequest{input=" + inputFile + ", output=" +
+            outputFile + ", quality=" + conversionQuality + ", level=" +
+            pdfCompatibilityLevel + ", extraArguments=" + extraArguments + "}";
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.batch;
+
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The immutable outcome of a CompressionRequest. Requests whose Ghostscript
+ * process could not be run at all complete their futures exceptionally
+ * instead, and cancelled requests complete them as cancelled.
+ */
+@Getter
+public class CompressionResult {
+    public enum Status { SUCCEEDED, FAILED, TIMED_OUT }
+
+    private final CompressionRequest request;
+
+    private final Status status;
+
+    // Null if the process did not exit by itself
+    private final Integer exitValue;
+
+    private final long inputFileSize;
+
+    // Zero unless the compression succeeded
+    private final long outputFileSize;
+
+    // Time spent waiting for a worker, then running Ghostscript
+    private final long queuedMillis;
+
+    private final long elapsedMillis;
+
+    // Reason for failures and timeouts
+    private final String message;
+
+    // Last lines written by Ghostscript, kept to explain failures
+    private final List<String> outputTail;
+
+    private final long warningCount;
+
+    CompressionResult(CompressionRequest request, Status status,
+            Integer exitValue, long inputFileSize, long outputFileSize,
+            long queuedMillis, long elapsedMillis, String message,
+            List<String> outputTail, long warningCount) {
+        this.request = request;
+        this.status = status;
+        this.exitValue = exitValue;
+        this.inputFileSize = inputFileSize;
+        this.outputFileSize = outputFileSize;
+        this.queuedMillis = queuedMillis;
+        this.elapsedMillis = elapsedMillis;
+        this.message = message;
+        this.outputTail = (outputTail != null) ?
+            Collections.unmodifiableList(outputTail) : Collections.emptyList();
+        this.warningCount = warningCount;
+    }
+
+    public boolean isSucceeded() {
+        return status == Status.SUCCEEDED;
+    }
+
+    /**
+     * @return Output size divided by input size, or null if the compression
+     *         did not succeed
+     */
+    public Double getSizeRatio() {
+        return ((status == Status.SUCCEEDED) && (inputFileSize > 0)) ?
+            outputFileSize / (double) inputFileSize : null;
+    }
+
+    @Override
+    public String toString() {
+        return "CompressionResult{input=" + request.getInputFile() +
+            ", status=" + status + ", exitValue=" + exitValue + ", sizes=" +
+            inputFileSize + "/" + outputFileSize + ", queued=" + queuedMillis +
+            " ms, elapsed=" + elapsedMillis + " ms" +
+            ((message != null) ? ", message=" + message : "") + "}";
+    }
+}
@@ -0,0 +1,739 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.batch;
+
+import com.rogeraraujo.pdfcf.components.LatencyRecorder;
+import com.rogeraraujo.pdfcf.components.NamedThreadFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HTTP service that compresses uploaded PDF files, built on the HTTP server
+ * of the JDK. Uploads are streamed to disk and compressed by a fixed number
+ * of worker threads through a BatchCompressor; at most a given number of
+ * jobs are being uploaded or wait for a worker, and further uploads are
+ * refused with status 429 (Too Many Requests), before their body is read,
+ * until the queue drains.
+ *
+ * <p>Batch mode creates its pool of worker threads for each run, so there
+ * is no long-lived pool to share: the server keeps a pool of its own, sized
+ * like that of a batch run, whose jobs go through the same BatchCompressor
+ * and thus the same warm Ghostscript workers, if any.</p>
+ *
+ * <p>Endpoints:</p>
+ * <ul>
+ *   <li>POST /compress: compresses the PDF file in the request body and
+ *       responds with the compressed file. With the query parameter
+ *       "async", responds at once with status 202 and the id of the job
+ *       instead</li>
+ *   <li>GET /jobs/{id}: reports the state of a job as JSON</li>
+ *   <li>GET /jobs/{id}/result: responds with the compressed file of a
+ *       finished job</li>
+ *   <li>DELETE /jobs/{id}: discards a finished job and its files</li>
+ *   <li>GET /metrics: reports queue depth, throughput and latencies as
+ *       plain text, one "name value" pair per line</li>
+ * </ul>
+ */
+@Slf4j
+public class CompressionServer implements Closeable {
+    public static final String DEFAULT_BIND_ADDRESS = "127.0.0.1";
+
+    public static final int DEFAULT_PORT = 8765;
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 100;
+
+    public static final long DEFAULT_MAX_UPLOAD_SIZE = 256 * 1024 * 1024;
+
+    // Finished jobs are discarded after this long unless deleted before
+    private static final long JOB_RETENTION_MILLIS = 10 * 60 * 1000;
+
+    private static final long PURGE_INTERVAL_MILLIS = 60 * 1000;
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private static final String PDF_HEADER = "%PDF-";
+
+    private static final String JOBS_PATH = "/jobs/";
+
+    private static final String RESULT_PATH_SUFFIX = "/result";
+
+    /**
+     * An uploaded file and the state of its compression.
+     */
+    private static class Job {
+        private final String id;
+
+        private final BatchInput input;
+
+        private final long submitTimeMillis = System.currentTimeMillis();
+
+        private volatile long startTimeMillis;
+
+        private volatile long endTimeMillis;
+
+        // Null until the job finishes
+        private volatile BatchJobResult result;
+
+        private final CompletableFuture<BatchJobResult> completion =
+            new CompletableFuture<>();
+
+        private Job(String id, BatchInput input) {
+            this.id = id;
+            this.input = input;
+        }
+
+        private String getState() {
+            return (result != null) ? result.getStatus().name() :
+                (startTimeMillis > 0) ? "RUNNING" : "QUEUED";
+        }
+    }
+
+    private final BatchOptions options;
+
+    private final BatchCompressor compressor;
+
+    @Getter
+    private final int queueCapacity;
+
+    @Getter
+    private final long maxUploadSize;
+
+    private final File uploadDir;
+
+    private final HttpServer httpServer;
+
+    private final ThreadPoolExecutor workers;
+
+    // Slots of the job queue, taken before an upload is read and given back
+    // when its job starts running, so that uploads in progress count against
+    // the queue capacity
+    private final Semaphore queueSlots;
+
+    private final AtomicInteger receivingCount = new AtomicInteger();
+
+    private final ExecutorService httpThreads;
+
+    private final ScheduledExecutorService purger;
+
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+    private final LongAdder acceptedCount = new LongAdder();
+
+    private final LongAdder rejectedCount = new LongAdder();
+
+    private final LongAdder succeededCount = new LongAdder();
+
+    private final LongAdder failedCount = new LongAdder();
+
+    private final LatencyRecorder queueLatency = new LatencyRecorder();
+
+    private final LatencyRecorder processingLatency = new LatencyRecorder();
+
+    /**
+     * Creates a server; it does not accept connections until started.
+     *
+     * @param options Batch options; the output folder is where compressed
+     *                files are written, and the thread count is the number
+     *                of worker threads
+     * @param compressor Compressor that runs the jobs, built on the options
+     * @param bindAddress Address of the network interface to listen on
+     * @param port Port to listen on; zero picks a free port
+     * @param queueCapacity Maximum number of jobs waiting for a worker
+     * @param maxUploadSize Maximum size of an uploaded file in bytes; must
+     *                      be positive
+     *
+     * @throws IOException If the address cannot be bound or the upload
+     *                     folder cannot be created
+     */
+    public CompressionServer(BatchOptions options, BatchCompressor compressor,
+            String bindAddress, int port, int queueCapacity, long maxUploadSize)
+            throws IOException {
+        if (options.getOutputDir() == null) {
+            throw new IllegalArgumentException("Output folder must be set");
+        }
+
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be positive");
+        }
+
+        if (maxUploadSize <= 0) {
+            throw new IllegalArgumentException(
+                "Maximum upload size must be positive");
+        }
+
+        this.options = options;
+        this.compressor = compressor;
+        this.queueCapacity = queueCapacity;
+        this.maxUploadSize = maxUploadSize;
+        this.uploadDir = new File(options.getOutputDir(), "uploads");
+
+        Files.createDirectories(uploadDir.toPath());
+
+        int threadCount = Math.max(1, options.getThreadCount());
+        this.workers = new ThreadPoolExecutor(threadCount, threadCount,
+            0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity),
+            new NamedThreadFactory("pdfcf-server-worker"));
+        this.queueSlots = new Semaphore(queueCapacity);
+        this.httpThreads = Executors.newCachedThreadPool(
+            new NamedThreadFactory("pdfcf-http"));
+        this.purger = Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("pdfcf-server-purger"));
+
+        this.httpServer = HttpServer.create(
+            new InetSocketAddress(bindAddress, port), 0);
+        httpServer.setExecutor(httpThreads);
+        httpServer.createContext("/compress", this::handleCompress);
+        httpServer.createContext(JOBS_PATH, this::handleJob);
+        httpServer.createContext("/metrics", this::handleMetrics);
+    }
+
+    /**
+     * Starts accepting connections.
+     */
+    public void start() {
+        httpServer.start();
+        purger.scheduleWithFixedDelay(this::purgeFinishedJobs,
+            PURGE_INTERVAL_MILLIS, PURGE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        log.info("Listening on {}", getAddress());
+    }
+
+    public InetSocketAddress getAddress() {
+        return httpServer.getAddress();
+    }
+
+    public int getQueueDepth() {
+        return workers.getQueue().size();
+    }
+
+    public int getRunningCount() {
+        return workers.getActiveCount();
+    }
+
+    /**
+     * @return The number of uploads being received, which hold queue slots
+     */
+    public int getReceivingCount() {
+        return receivingCount.get();
+    }
+
+    private void handleCompress(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                sendText(exchange, 405, "Use POST to upload a PDF file");
+                return;
+            }
+
+            // Refuses early, before reading the body, when the queue is full
+            if (!queueSlots.tryAcquire()) {
+                rejectBusy(exchange);
+                return;
+            }
+
+            Job job = queueUpload(exchange);
+
+            if (job == null) {
+                return;
+            }
+
+            String id = job.id;
+
+            if (getQueryParameter(exchange, "async") != null) {
+                exchange.getResponseHeaders().set("Location", JOBS_PATH + id);
+                sendJson(exchange, 202, formatJob(job));
+                return;
+            }
+
+            try {
+                job.completion.get();
+            } catch (Exception ex) {
+                log.debug("Error waiting for job {}: {}", id, ex.toString());
+            }
+
+            sendResult(exchange, job);
+            jobs.remove(id);
+            deleteJobFiles(job);
+        } catch (Exception ex) {
+            log.error("Error handling upload:", ex);
+            sendText(exchange, 500, "Internal error: " + ex);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Receives an upload and queues its job, holding a queue slot that the
+     * job gives back when it starts running.
+     *
+     * @return The queued job, or null if an error response was sent, in
+     *         which case the queue slot was given back
+     */
+    private Job queueUpload(HttpExchange exchange) throws IOException {
+        int errorStatus;
+        boolean queued = false;
+
+        try {
+            String lengthHeader =
+                exchange.getRequestHeaders().getFirst("Content-Length");
+            String id = UUID.randomUUID().toString();
+            File uploadFile = new File(uploadDir, id + ".pdf");
+
+            if ((lengthHeader != null) &&
+                (parseLong(lengthHeader) > maxUploadSize)) {
+                errorStatus = 413;
+            }
+            else {
+                receivingCount.incrementAndGet();
+
+                try {
+                    errorStatus = receiveUpload(exchange, uploadFile);
+                } finally {
+                    receivingCount.decrementAndGet();
+                }
+            }
+
+            if (errorStatus == 0) {
+                Job job = new Job(id, new BatchInput(uploadFile, id + ".pdf"));
+
+                try {
+                    jobs.put(id, job);
+                    workers.execute(() -> runJob(job));
+                    acceptedCount.increment();
+                    queued = true;
+
+                    return job;
+                } catch (RejectedExecutionException ex) {
+                    // The server is stopping
+                    jobs.remove(id);
+                    deleteJobFiles(job);
+                    errorStatus = 429;
+                }
+            }
+        } finally {
+            // Given back before responding, so that clients can upload
+            // again as soon as they get the response
+            if (!queued) {
+                queueSlots.release();
+            }
+        }
+
+        if (errorStatus == 413) {
+            sendText(exchange, 413, "The file is larger than " +
+                maxUploadSize + " bytes");
+        }
+        else if (errorStatus == 415) {
+            sendText(exchange, 415, "The request body is not a PDF file");
+        }
+        else {
+            rejectBusy(exchange);
+        }
+
+        return null;
+    }
+
+    /**
+     * Streams the request body to a file, checking its size and that it
+     * looks like a PDF file.
+     *
+     * @return Zero if the upload was received, or the status of the error
+     *         response to send (413 or 415), in which case the file was
+     *         deleted
+     */
+    private int receiveUpload(HttpExchange exchange, File uploadFile)
+            throws IOException {
+        long size = 0;
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+
+        try (InputStream in = exchange.getRequestBody();
+             OutputStream out = new FileOutputStream(uploadFile)) {
+            int count;
+
+            while ((count = in.read(buffer)) >= 0) {
+                size += count;
+
+                if (size > maxUploadSize) {
+                    break;
+                }
+
+                out.write(buffer, 0, count);
+            }
+        }
+
+        // The file is deleted only here, once it has been closed
+        if (size > maxUploadSize) {
+            deleteFile(uploadFile);
+            return 413;
+        }
+
+        if (!startsWithPdfHeader(uploadFile)) {
+            deleteFile(uploadFile);
+            return 415;
+        }
+
+        return 0;
+    }
+
+    private void runJob(Job job) {
+        queueSlots.release();
+        job.startTimeMillis = System.currentTimeMillis();
+        queueLatency.record(job.startTimeMillis - job.submitTimeMillis);
+
+        BatchJobResult result;
+
+        try {
+            result = compressor.compress(job.input);
+        } catch (Exception ex) {
+            result = new BatchJobResult(job.input,
+                options.resolveOutputFile(job.input));
+            result.setStatus(BatchJobResult.Status.FAILED);
+            result.setExecutionException(ex);
+        }
+
+        job.endTimeMillis = System.currentTimeMillis();
+        processingLatency.record(job.endTimeMillis - job.startTimeMillis);
+
+        if ((result.getStatus() == BatchJobResult.Status.SUCCEEDED) ||
+            (result.getStatus() == BatchJobResult.Status.SKIPPED)) {
+            succeededCount.increment();
+        }
+        else {
+            failedCount.increment();
+        }
+
+        log.info(result.format());
+        job.result = result;
+        job.completion.complete(result);
+    }
+
+    private void handleJob(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            boolean resultRequested = path.endsWith(RESULT_PATH_SUFFIX);
+            String id = path.substring(JOBS_PATH.length(), resultRequested ?
+                path.length() - RESULT_PATH_SUFFIX.length() : path.length());
+            Job job = jobs.get(id);
+
+            if (job == null) {
+                sendText(exchange, 404, "Unknown job: " + id);
+                return;
+            }
+
+            String method = exchange.getRequestMethod();
+
+            if ("DELETE".equalsIgnoreCase(method) && !resultRequested) {
+                if (job.result == null) {
+                    sendText(exchange, 409, "The job has not finished");
+                    return;
+                }
+
+                jobs.remove(id);
+                deleteJobFiles(job);
+                sendText(exchange, 200, "Deleted job " + id);
+            }
+            else if (!"GET".equalsIgnoreCase(method)) {
+                sendText(exchange, 405, "Use GET or DELETE");
+            }
+            else if (!resultRequested) {
+                sendJson(exchange, 200, formatJob(job));
+            }
+            else if (job.result == null) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                sendText(exchange, 409, "The job has not finished");
+            }
+            else {
+                sendResult(exchange, job);
+            }
+        } catch (Exception ex) {
+            log.error("Error handling job request:", ex);
+            sendText(exchange, 500, "Internal error: " + ex);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try {
+            StringBuilder text = new StringBuilder();
+            appendMetric(text, "queue_depth", getQueueDepth());
+            appendMetric(text, "queue_capacity", queueCapacity);
+            appendMetric(text, "receiving_uploads", getReceivingCount());
+            appendMetric(text, "running_jobs", getRunningCount());
+            appendMetric(text, "worker_threads", workers.getMaximumPoolSize());
+            appendMetric(text, "accepted_jobs", acceptedCount.sum());
+            appendMetric(text, "rejected_jobs", rejectedCount.sum());
+            appendMetric(text, "succeeded_jobs", succeededCount.sum());
+            appendMetric(text, "failed_jobs", failedCount.sum());
+            appendLatencyMetrics(text, "queue_wait", queueLatency);
+            appendLatencyMetrics(text, "processing", processingLatency);
+
+            sendText(exchange, 200, text.toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void appendMetric(StringBuilder text, String name,
+            Object value) {
+        text.append("pdfcf_").append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void appendLatencyMetrics(StringBuilder text, String name,
+            LatencyRecorder recorder) {
+        appendMetric(text, name + "_count", recorder.getCount());
+        appendMetric(text, name + "_mean_ms",
+            Math.round(recorder.getMeanMillis()));
+        appendMetric(text, name + "_p50_ms", recorder.getPercentileMillis(50));
+        appendMetric(text, name + "_p95_ms", recorder.getPercentileMillis(95));
+        appendMetric(text, name + "_p99_ms", recorder.getPercentileMillis(99));
+        appendMetric(text, name + "_max_ms", recorder.getMaxMillis());
+    }
+
+    private void rejectBusy(HttpExchange exchange) throws IOException {
+        rejectedCount.increment();
+
+        // Suggests waiting for about the time a worker takes to free a slot
+        long retrySeconds = Math.max(1, (long) Math.ceil(
+            processingLatency.getPercentileMillis(50) / 1000.0d));
+        exchange.getResponseHeaders().set(
+            "Retry-After", String.valueOf(retrySeconds));
+        sendText(exchange, 429, "Too many queued jobs; try again later");
+    }
+
+    private void sendResult(HttpExchange exchange, Job job) throws IOException {
+        BatchJobResult result = job.result;
+
+        if (result == null) {
+            sendText(exchange, 500, "The job did not finish");
+            return;
+        }
+
+        switch (result.getStatus()) {
+            case SUCCEEDED:
+            case SKIPPED:
+                File outputFile = result.getOutputFile();
+                exchange.getResponseHeaders().set("Content-Type", "application/pdf");
+                exchange.getResponseHeaders().set("X-PDFCF-Job-Id", job.id);
+                exchange.getResponseHeaders().set("X-PDFCF-Input-Size",
+                    String.valueOf(result.getInputFileSize()));
+                exchange.getResponseHeaders().set("X-PDFCF-Elapsed-Millis",
+                    String.valueOf(result.getElapsedMillis()));
+                exchange.sendResponseHeaders(200, outputFile.length());
+
+                try (OutputStream out = exchange.getResponseBody()) {
+                    Files.copy(outputFile.toPath(), out);
+                }
+                break;
+
+            case TIMED_OUT:
+                sendText(exchange, 504, result.format());
+                break;
+
+            default:
+                sendText(exchange, 422, result.format() + "\n" +
+                    String.join("\n", result.getOutputTail()));
+        }
+    }
+
+    private String formatJob(Job job) {
+        BatchJobResult result = job.result;
+        StringBuilder json = new StringBuilder("{\"id\":\"").append(job.id)
+            .append("\",\"state\":\"").append(job.getState()).append('"');
+
+        if (job.startTimeMillis > 0) {
+            json.append(",\"queueMillis\":")
+                .append(job.startTimeMillis - job.submitTimeMillis);
+        }
+
+        if (result != null) {
+            json.append(",\"processingMillis\":")
+                .append(job.endTimeMillis - job.startTimeMillis)
+                .append(",\"inputSize\":").append(result.getInputFileSize())
+                .append(",\"outputSize\":").append(result.getOutputFileSize())
+                .append(",\"message\":\"")
+                .append(escapeJson(result.format())).append('"');
+
+            if ((result.getStatus() == BatchJobResult.Status.SUCCEEDED) ||
+                (result.getStatus() == BatchJobResult.Status.SKIPPED)) {
+                json.append(",\"result\":\"").append(JOBS_PATH).append(job.id)
+                    .append(RESULT_PATH_SUFFIX).append('"');
+            }
+        }
+
+        return json.append('}').toString();
+    }
+
+    static String escapeJson(String value) {
+        StringBuilder result = new StringBuilder();
+
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"': result.append("\\\""); break;
+                case '\\': result.append("\\\\"); break;
+                case '\n': result.append("\\n"); break;
+                case '\r': result.append("\\r"); break;
+                case '\t': result.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        result.append(String.format("\\u%04x", (int) c));
+                    }
+                    else {
+                        result.append(c);
+                    }
+            }
+        }
+
+        return result.toString();
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String text)
+            throws IOException {
+        send(exchange, status, "text/plain; charset=utf-8", text);
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, String json)
+            throws IOException {
+        send(exchange, status, "application/json", json);
+    }
+
+    private static void send(HttpExchange exchange, int status,
+            String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String getQueryParameter(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getRawQuery();
+
+        if (query == null) {
+            return null;
+        }
+
+        for (String parameter : query.split("&")) {
+            int equalsIndex = parameter.indexOf('=');
+            String parameterName = (equalsIndex >= 0) ?
+                parameter.substring(0, equalsIndex) : parameter;
+
+            if (parameterName.equals(name)) {
+                return (equalsIndex >= 0) ?
+                    parameter.substring(equalsIndex + 1) : "";
+            }
+        }
+
+        return null;
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    private static boolean startsWithPdfHeader(File file) throws IOException {
+        byte[] header = new byte[PDF_HEADER.length()];
+
+        try (InputStream in = new FileInputStream(file)) {
+            int offset = 0;
+            int count;
+
+            while ((offset < header.length) &&
+                   ((count = in.read(header, offset, header.length - offset)) > 0)) {
+                offset += count;
+            }
+
+            return (offset == header.length) && PDF_HEADER.equals(
+                new String(header, StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    private void purgeFinishedJobs() {
+        long now = System.currentTimeMillis();
+
+        for (Job job : jobs.values()) {
+            if ((job.result != null) &&
+                (now - job.endTimeMillis > JOB_RETENTION_MILLIS) &&
+                jobs.remove(job.id, job)) {
+                deleteJobFiles(job);
+            }
+        }
+    }
+
+    private void deleteJobFiles(Job job) {
+        deleteFile(job.input.getFile());
+        deleteFile(options.resolveOutputFile(job.input));
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            log.debug("Could not delete {}", file);
+        }
+    }
+
+    /**
+     * Stops accepting connections and waits for running jobs to finish.
+     * Queued jobs are dropped.
+     */
+    @Override
+    public void close() {
+        httpServer.stop(1);
+        purger.shutdownNow();
+
+        // Running jobs finish; waiting uploads get an error
+        workers.getQueue().clear();
+        workers.shutdown();
+
+        for (Job job : jobs.values()) {
+            if (job.startTimeMillis == 0) {
+                job.completion.completeExceptionally(
+                    new CancellationException("The server was stopped"));
+            }
+        }
+
+        try {
+            if (!workers.awaitTermination(60, TimeUnit.SECONDS)) {
+                log.warn("Compressions still running after 60 s");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        httpThreads.shutdownNow();
+
+        for (Job job : jobs.values()) {
+            deleteJobFiles(job);
+        }
+
+        jobs.clear();
+    }
+}
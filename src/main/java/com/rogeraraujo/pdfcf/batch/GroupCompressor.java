@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.batch;
+
+import com.rogeraraujo.pdfcf.components.BoundedLineBuffer;
+import com.rogeraraujo.pdfcf.components.ProcessExecutionInfo;
+import com.rogeraraujo.pdfcf.components.ProcessExecutionRunnable;
+import com.rogeraraujo.pdfcf.gs.GsUtils;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compresses a group of small PDF files with a single Ghostscript process,
+ * so that the process startup and interpreter initialization are paid once
+ * per group instead of once per file. A generated driver program compresses
+ * each file to its own output file in turn; errors are caught per file, so
+ * that a failing file does not affect the others, and a marker line printed
+ * after each file attributes the output lines and the outcome to it.
+ */
+@Slf4j
+public class GroupCompressor {
+    public static final int DEFAULT_GROUP_SIZE = 50;
+
+    public static final long DEFAULT_MAX_FILE_SIZE = 512 * 1024;
+
+    private static final int OUTPUT_TAIL_LINES = 20;
+
+    private static final Pattern MARKER_PATTERN =
+        Pattern.compile("%%\\[PDFCF:(DONE|FAILED) (\\d+)]%%");
+
+    private final GsRunner gsRunner;
+
+    public GroupCompressor(GsRunner gsRunner) {
+        if (gsRunner == null) {
+            throw new IllegalArgumentException("Ghostscript runner cannot be null");
+        }
+
+        this.gsRunner = gsRunner;
+    }
+
+    /**
+     * Checks whether files can be compressed in groups with a set of
+     * options. Options that need a Ghostscript process per file (such as
+     * quality races) or parameters that cannot be applied by the driver
+     * program rule groups out.
+     *
+     * @param options Batch options
+     *
+     * @return Whether files can be compressed in groups
+     */
+    public static boolean isApplicable(BatchOptions options) {
+        return !options.isFitToTargetSize() &&
+            (options.getRaceQualities().size() <= 1) &&
+            (buildFileJob(options, 0, "in.pdf", "out.pdf") != null);
+    }
+
+    /**
+     * Builds the part of the driver program that compresses a file.
+     *
+     * @param options Batch options
+     * @param index Position of the file in its group
+     * @param inputFilePath Path of the file to compress
+     * @param outputFilePath Path of the file to write
+     *
+     * @return The PostScript code, or null if the options cannot be applied
+     *         by a driver program
+     */
+    static String buildFileJob(BatchOptions options, int index,
+            String inputFilePath, String outputFilePath) {
+        List<String> commands = GsUtils.buildCompressionCommands(
+            options.getGsExecutablePath(), options.getConversionQuality(),
+            options.getPdfCompatibilityLevel(),
+            options.getGsOptimizationArguments(),
+            options.getAdditionalGsParameters(), inputFilePath, outputFilePath);
+
+        return GsUtils.buildJobPostScript(commands,
+            "%%[PDFCF:DONE " + index + "]%%", "%%[PDFCF:FAILED " + index + "]%%");
+    }
+
+    /**
+     * Builds the command line that runs the driver program of a group. The
+     * program runs with -dSAFER and may only read the files of the group
+     * and write their output files.
+     *
+     * @param options Batch options
+     * @param programFilePath Path of the driver program
+     * @param inputFiles Files to compress
+     * @param outputFiles Files to write
+     *
+     * @return The command line, one element per argument
+     */
+    static List<String> buildGroupCommands(BatchOptions options,
+            String programFilePath, List<File> inputFiles, List<File> outputFiles) {
+        List<String> inputFilePaths = new ArrayList<>(inputFiles.size());
+        List<String> outputFilePaths = new ArrayList<>(outputFiles.size());
+
+        for (File inputFile : inputFiles) {
+            inputFilePaths.add(inputFile.getAbsolutePath());
+        }
+
+        for (File outputFile : outputFiles) {
+            outputFilePaths.add(outputFile.getAbsolutePath());
+        }
+
+        return GsUtils.buildProgramCommands(options.getGsExecutablePath(),
+            programFilePath, inputFilePaths, outputFilePaths);
+    }
+
+    /**
+     * Compresses a group of files with a single Ghostscript process.
+     *
+     * @param inputFiles Files to compress
+     * @param outputFiles Files to write, in the same order
+     * @param results Results of the files, in the same order; updated with
+     *                the outcome of each file reached by Ghostscript
+     *
+     * @return For each file, whether an outcome was attributed to it. Files
+     *         without an outcome were not reached, for instance because
+     *         Ghostscript crashed or timed out, and should be compressed on
+     *         their own
+     *
+     * @throws IOException If the driver program cannot be written
+     */
+    public boolean[] compress(List<File> inputFiles, List<File> outputFiles,
+            List<BatchJobResult> results) throws IOException {
+        int fileCount = inputFiles.size();
+        StringBuilder program = new StringBuilder("%!PS\n");
+        long totalInputSize = 0;
+
+        for (int i = 0; i < fileCount; ++i) {
+            String job = buildFileJob(gsRunner.getOptions(), i,
+                inputFiles.get(i).getAbsolutePath(),
+                outputFiles.get(i).getAbsolutePath());
+
+            if (job == null) {
+                throw new IllegalArgumentException(
+                    "The options cannot be applied to a group of files");
+            }
+
+            program.append(job);
+            totalInputSize += inputFiles.get(i).length();
+        }
+
+        File programFile = File.createTempFile("pdfcf-group-", ".ps");
+        GroupListener listener = new GroupListener(results);
+
+        try {
+            try (Writer writer = new OutputStreamWriter(
+                    new FileOutputStream(programFile), StandardCharsets.UTF_8)) {
+                writer.write(program.toString());
+            }
+
+            ProcessExecutionInfo processExecutionInfo = gsRunner.run(
+                buildGroupCommands(gsRunner.getOptions(),
+                    programFile.getAbsolutePath(), inputFiles, outputFiles),
+                totalInputSize, null, listener);
+
+            if (processExecutionInfo.isTimedOut() ||
+                (processExecutionInfo.getExecutionException() != null)) {
+                log.debug("Group of {} files was interrupted: {}", fileCount,
+                    processExecutionInfo.isTimedOut() ?
+                        processExecutionInfo.getTimeoutMessage() :
+                        processExecutionInfo.getExecutionException().toString());
+            }
+        } finally {
+            BatchCompressor.deleteFile(programFile);
+        }
+
+        for (int i = 0; i < fileCount; ++i) {
+            BatchJobResult result = results.get(i);
+
+            if (result.getStatus() == BatchJobResult.Status.SUCCEEDED) {
+                result.setOutputFileSize(outputFiles.get(i).length());
+                result.setDetails("grouped with " + (fileCount - 1) + " files");
+            }
+            else if (!listener.attributed[i]) {
+                // Partial output files are useless
+                BatchCompressor.deleteFile(outputFiles.get(i));
+            }
+        }
+
+        return listener.attributed;
+    }
+
+    /**
+     * Attributes output lines and outcomes to the files of a group.
+     */
+    private static class GroupListener extends ProcessExecutionRunnable.PerAdapter {
+        private final List<BatchJobResult> results;
+
+        private final List<BoundedLineBuffer> lineBuffers = new ArrayList<>();
+
+        private final boolean[] attributed;
+
+        // File being compressed
+        private int currentIndex;
+
+        private long lastMarkerTimeMillis = System.currentTimeMillis();
+
+        private GroupListener(List<BatchJobResult> results) {
+            this.results = results;
+            this.attributed = new boolean[results.size()];
+
+            for (int i = 0; i < results.size(); ++i) {
+                lineBuffers.add(new BoundedLineBuffer(0, OUTPUT_TAIL_LINES));
+            }
+        }
+
+        // Lines are notified by the thread draining the output stream only,
+        // since the error stream is redirected to it
+        @Override
+        public synchronized void notifyStreamLine(
+                ProcessExecutionRunnable source, String line, boolean errorStream) {
+            Matcher matcher = MARKER_PATTERN.matcher(line);
+
+            if (!matcher.matches()) {
+                if (currentIndex < lineBuffers.size()) {
+                    lineBuffers.get(currentIndex).add(line);
+                }
+
+                return;
+            }
+
+            int index = Integer.parseInt(matcher.group(2));
+
+            if ((index < 0) || (index >= results.size())) {
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            BatchJobResult result = results.get(index);
+            BoundedLineBuffer lineBuffer = lineBuffers.get(index);
+            boolean done = "DONE".equals(matcher.group(1));
+
+            result.setOutputTail(lineBuffer.getLastLines(OUTPUT_TAIL_LINES));
+            result.setOutputLineCount(lineBuffer.getLineCount());
+            result.setWarningCount(lineBuffer.getWarningCount());
+            result.setElapsedMillis(now - lastMarkerTimeMillis);
+
+            if (done) {
+                result.setStatus(BatchJobResult.Status.SUCCEEDED);
+                result.setExitValue(0);
+            }
+            else {
+                result.setStatus(BatchJobResult.Status.FAILED);
+                result.setMessage("Ghostscript failed");
+            }
+
+            attributed[index] = true;
+            currentIndex = index + 1;
+            lastMarkerTimeMillis = now;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.batch;
+
+import com.rogeraraujo.pdfcf.components.BoundedLineBuffer;
+import com.rogeraraujo.pdfcf.components.ProcessExecutionInfo;
+import com.rogeraraujo.pdfcf.components.ProcessExecutionRunnable;
+import com.rogeraraujo.pdfcf.components.ProgressTracker;
+import com.rogeraraujo.pdfcf.gs.GsUtils;
+import com.rogeraraujo.pdfcf.pdf.PdfInfo;
+import com.rogeraraujo.pdfcf.gs.GsWorkerPool;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs Ghostscript command lines in the calling thread, applying the output
+ * retention and timeout settings of a batch.
+ */
+@Slf4j
+public class GsRunner {
+    private static final int OUTPUT_TAIL_LINES = 20;
+
+    @Getter
+    private final BatchOptions options;
+
+    private String gsVersion;
+
+    // When set, compression command lines run on warm worker processes
+    @Getter @Setter
+    private GsWorkerPool workerPool;
+
+    // When set, started processes are measured against the admission of
+    // the job that started them
+    @Getter @Setter
+    private MemoryAdmissionController memoryController;
+
+    // When set, receives the progress of each process, as tracked by a
+    // ProgressTracker of its own
+    @Getter @Setter
+    private ProgressTracker.ProgressListener progressListener;
+
+    // Ghostscript processes allowed to run at once, one per worker thread.
+    // Each job holds a slot while it runs, and the shards of a split file
+    // take the spare ones (see ShardedCompressor)
+    private final Semaphore processSlots;
+
+    public GsRunner(BatchOptions options) {
+        if (options == null) {
+            throw new IllegalArgumentException("Options cannot be null");
+        }
+
+        this.options = options;
+        this.processSlots = new Semaphore(Math.max(1, options.getThreadCount()));
+    }
+
+    /**
+     * Waits for a slot to run a Ghostscript process.
+     *
+     * @throws InterruptedException If the thread gets interrupted while
+     *                              waiting
+     */
+    public void acquireProcessSlot() throws InterruptedException {
+        processSlots.acquire();
+    }
+
+    /**
+     * Takes the slots that are free right now to run more Ghostscript
+     * processes, without waiting.
+     *
+     * @param maxCount Maximum number of slots to take
+     *
+     * @return The number of slots taken, from 0 to maxCount
+     */
+    public int tryAcquireProcessSlots(int maxCount) {
+        int result = 0;
+
+        while ((result < maxCount) && processSlots.tryAcquire()) {
+            ++result;
+        }
+
+        return result;
+    }
+
+    /**
+     * Gives back slots taken to run Ghostscript processes.
+     *
+     * @param count Number of slots
+     */
+    public void releaseProcessSlots(int count) {
+        if (count > 0) {
+            processSlots.release(count);
+        }
+    }
+
+    /**
+     * Runs a Ghostscript command line and waits for it to finish.
+     *
+     * @param commands Command line to run; the first element is the path of
+     *                 the Ghostscript executable file
+     * @param inputFileSize Size of the input file in bytes, used to scale
+     *                      the wall-clock timeout
+     * @param transcriptFile File to receive the complete output; can be null
+     *
+     * @return Information about the execution
+     */
+    public ProcessExecutionInfo run(
+            List<String> commands, long inputFileSize, File transcriptFile) {
+        return run(commands, inputFileSize, transcriptFile, null);
+    }
+
+    /**
+     * Runs a Ghostscript command line and waits for it to finish, notifying
+     * a listener about the execution.
+     *
+     * @param commands Command line to run; the first element is the path of
+     *                 the Ghostscript executable file
+     * @param inputFileSize Size of the input file in bytes, used to scale
+     *                      the wall-clock timeout
+     * @param transcriptFile File to receive the complete output; can be null
+     * @param listener Listener to notify; can be null
+     *
+     * @return Information about the execution
+     */
+    public ProcessExecutionInfo run(List<String> commands, long inputFileSize,
+            File transcriptFile, ProcessExecutionRunnable.PerListener listener) {
+        return run(commands, inputFileSize, transcriptFile,
+            (listener != null) ? Collections.singletonList(listener) :
+                Collections.emptyList(),
+            null);
+    }
+
+    /**
+     * Runs a Ghostscript command line and waits for it to finish, notifying
+     * listeners about the execution.
+     *
+     * @param commands Command line to run; the first element is the path of
+     *                 the Ghostscript executable file
+     * @param inputFileSize Size of the input file in bytes, used to scale
+     *                      the wall-clock timeout
+     * @param transcriptFile File to receive the complete output; can be null
+     * @param listeners Listeners to notify, in this order
+     * @param inProcessExecutor Runs the command line inside the JVM instead
+     *                          of the worker pool; null to use the worker
+     *                          pool, if any
+     *
+     * @return Information about the execution
+     */
+    public ProcessExecutionInfo run(List<String> commands, long inputFileSize,
+            File transcriptFile,
+            List<ProcessExecutionRunnable.PerListener> listeners,
+            ProcessExecutionRunnable.InProcessExecutor inProcessExecutor) {
+        log.debug("Executing Ghostscript: {}", GsUtils.joinCommands(commands));
+
+        ProcessBuilder procBuilder = new ProcessBuilder(commands);
+        procBuilder.redirectErrorStream(true);
+
+        File gsExecutableParent = new File(commands.get(0)).getParentFile();
+
+        if (gsExecutableParent != null) {
+            procBuilder.directory(gsExecutableParent);
+        }
+
+        ProcessExecutionRunnable runnable =
+            new ProcessExecutionRunnable(procBuilder);
+        runnable.setHeadLineCapacity(options.getHeadLineCapacity());
+        runnable.setTailLineCapacity(options.getTailLineCapacity());
+        runnable.setTranscriptFile(transcriptFile);
+        runnable.setInProcessExecutor(
+            (inProcessExecutor != null) ? inProcessExecutor : workerPool);
+
+        for (ProcessExecutionRunnable.PerListener listener : listeners) {
+            runnable.addListener(listener);
+        }
+
+        if (progressListener != null) {
+            ProgressTracker progressTracker = new ProgressTracker(inputFileSize);
+            progressTracker.addListener(progressListener);
+            runnable.addListener(progressTracker);
+        }
+
+        if (memoryController != null) {
+            runnable.addListener(new ProcessExecutionRunnable.PerAdapter() {
+                @Override
+                public void notifyProcessCreation(
+                        ProcessExecutionRunnable source) {
+                    memoryController.registerProcess(source.getProcess());
+                }
+
+                @Override
+                public void notifyThreadEnd(ProcessExecutionRunnable source) {
+                    memoryController.unregisterProcess(source.getProcess());
+                }
+            });
+        }
+
+        options.getTimeoutPolicy().applyTo(runnable, inputFileSize);
+
+        runnable.run();
+
+        return runnable.getProcessExecutionInfo();
+    }
+
+    /**
+     * Obtains the version of Ghostscript, running it the first time only.
+     *
+     * @return The version reported by Ghostscript, or "unknown" if it could
+     *         not be determined
+     */
+    public synchronized String getGsVersion() {
+        if (gsVersion == null) {
+            List<String> commands = GsUtils.buildVersionCommands(
+                options.getGsExecutablePath());
+            ProcessExecutionInfo processExecutionInfo = run(commands, 0, null);
+            List<String> lines =
+                processExecutionInfo.getInputStreamLines().getLastLines(1);
+
+            gsVersion = ((processExecutionInfo.getExitValue() != null) &&
+                         (processExecutionInfo.getExitValue() == 0) &&
+                         !lines.isEmpty()) ? lines.get(0).trim() : "unknown";
+            log.debug("Ghostscript version: {}", gsVersion);
+        }
+
+        return gsVersion;
+    }
+
+    /**
+     * Counts the pages of a PDF file, using the result of its inspection,
+     * inspecting the file if it was not inspected yet, or Ghostscript if
+     * the inspection could not find the page count.
+     *
+     * @param inputFile The PDF file
+     * @param pdfInfo Result of the inspection of the file; can be null
+     *
+     * @return The page count, or null if it could not be determined
+     */
+    public Integer countPages(File inputFile, PdfInfo pdfInfo) {
+        if (pdfInfo == null) {
+            pdfInfo = BatchCompressor.inspect(inputFile);
+        }
+
+        if ((pdfInfo != null) && (pdfInfo.getPageCount() > 0)) {
+            return pdfInfo.getPageCount();
+        }
+
+        List<String> commands = GsUtils.buildPageCountCommands(
+            options.getGsExecutablePath(), inputFile.getAbsolutePath());
+        ProcessExecutionInfo processExecutionInfo =
+            run(commands, 0, null);
+        Integer exitValue = processExecutionInfo.getExitValue();
+
+        if ((exitValue == null) || (exitValue != 0)) {
+            log.debug("Could not count the pages of {}", inputFile);
+            return null;
+        }
+
+        return GsUtils.parsePageCount(
+            processExecutionInfo.getInputStreamLines().getLastLines(5));
+    }
+
+    /**
+     * Copies the outcome of a Ghostscript execution to a job result. Line
+     * and warning counts are added to those already in the result, so that
+     * jobs made of several executions report their totals.
+     *
+     * @param processExecutionInfo Information about the execution
+     * @param result Job result to update
+     *
+     * @return Whether Ghostscript finished successfully. If not, the status
+     *         and message of the result are set accordingly
+     *
+     * @throws Exception If the execution failed with an exception
+     */
+    public static boolean recordExecution(
+            ProcessExecutionInfo processExecutionInfo, BatchJobResult result)
+            throws Exception {
+        if (processExecutionInfo == null) {
+            throw new IllegalStateException("Ghostscript was not executed");
+        }
+
+        BoundedLineBuffer outputLines =
+            processExecutionInfo.getInputStreamLines();
+
+        result.setOutputTail(outputLines.getLastLines(OUTPUT_TAIL_LINES));
+        result.setOutputLineCount(
+            result.getOutputLineCount() + outputLines.getLineCount());
+        result.setWarningCount(
+            result.getWarningCount() + processExecutionInfo.getWarningCount());
+        result.setExitValue(processExecutionInfo.getExitValue());
+
+        if (processExecutionInfo.getTranscriptFile() != null) {
+            result.setTranscriptFile(processExecutionInfo.getTranscriptFile());
+        }
+
+        if (processExecutionInfo.isTimedOut()) {
+            result.setStatus(BatchJobResult.Status.TIMED_OUT);
+            result.setMessage(processExecutionInfo.getTimeoutMessage());
+            return false;
+        }
+
+        if (processExecutionInfo.getExecutionException() != null) {
+            throw processExecutionInfo.getExecutionException();
+        }
+
+        Integer exitValue = processExecutionInfo.getExitValue();
+
+        if ((exitValue != null) && (exitValue == 0)) {
+            return true;
+        }
+
+        result.setStatus(BatchJobResult.Status.FAILED);
+        result.setMessage("Ghostscript failed");
+
+        return false;
+    }
+}
@@ -0,0 +1,434 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.batch;
+
+import com.rogeraraujo.pdfcf.Utils;
+import com.rogeraraujo.pdfcf.components.NamedThreadFactory;
+import com.rogeraraujo.pdfcf.components.ProcessMemory;
+import com.rogeraraujo.pdfcf.pdf.PdfInfo;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.text.DecimalFormat;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits how many jobs run concurrently according to the memory they are
+ * expected to use, so that a batch does not exceed a memory budget. Each
+ * job is admitted with an estimate of its memory need, based on the size
+ * of the input file and, when available, its page count and image data.
+ * While a job runs, the peak resident set size of its Ghostscript
+ * processes is sampled; a job counts as using the larger of its estimate
+ * and its measured peak. New jobs only start while the projected total of
+ * the running jobs fits the budget, except that a job is always admitted
+ * when nothing else runs.
+ *
+ * <p>The measured peaks of finished jobs calibrate later estimates. Memory
+ * is measured on Linux only, for processes started by the thread that
+ * acquired the admission; elsewhere estimates are used as they are.</p>
+ *
+ * <p>Jobs run by the warm Ghostscript worker pool or by the in-process
+ * Ghostscript library start no process of their own, so registerProcess
+ * gets no process to measure for them. Such jobs count by their estimates
+ * only, and calibration learns from jobs run as external processes
+ * alone.</p>
+ */
+@Slf4j
+public class MemoryAdmissionController implements Closeable {
+    // Memory used by Ghostscript regardless of the input
+    public static final long BASE_MEMORY = 48 * Utils.ONE_MEGABYTE;
+
+    // Memory per byte of input file, for parsed objects and buffers
+    public static final double FILE_SIZE_FACTOR = 1.0d;
+
+    // Memory per byte of image data, which gets decoded when images are
+    // resampled or recompressed
+    public static final double IMAGE_SIZE_FACTOR = 4.0d;
+
+    // Memory per page, for page resources and content streams
+    public static final long PAGE_MEMORY = 256 * Utils.ONE_KILOBYTE;
+
+    // Memory per byte of input file when its structure is unknown
+    public static final double UNINSPECTED_FILE_SIZE_FACTOR = 3.0d;
+
+    static final long SAMPLE_INTERVAL_MILLIS = 250;
+
+    // Weight of each finished job in the calibration factor
+    private static final double CALIBRATION_WEIGHT = 0.2d;
+
+    private static final double MIN_CALIBRATION = 0.25d;
+
+    private static final double MAX_CALIBRATION = 4.0d;
+
+    /**
+     * Admission of a running job, to be released when the job finishes.
+     */
+    public class Ticket implements Closeable {
+        // Estimate before calibration
+        private final long rawEstimate;
+
+        @Getter
+        private final long estimate;
+
+        // Identifiers of the running processes started for the job
+        private final Map<Process, Long> processIds = new HashMap<>();
+
+        // Largest peak resident set size among the processes, which run
+        // one after another
+        @Getter
+        private volatile long measuredPeak;
+
+        private boolean released;
+
+        private Ticket(long rawEstimate, long estimate) {
+            this.rawEstimate = rawEstimate;
+            this.estimate = estimate;
+        }
+
+        private long getProjectedUsage() {
+            return Math.max(estimate, measuredPeak);
+        }
+
+        int getProcessCount() {
+            synchronized (MemoryAdmissionController.this) {
+                return processIds.size();
+            }
+        }
+
+        @Override
+        public void close() {
+            release(this);
+        }
+    }
+
+    @Getter
+    private final long budget;
+
+    private final Set<Ticket> runningTickets = new LinkedHashSet<>();
+
+    private final ThreadLocal<Ticket> currentTicket = new ThreadLocal<>();
+
+    private final ScheduledExecutorService sampler;
+
+    // Ratio of measured peaks to raw estimates, applied to new estimates
+    @Getter
+    private volatile double calibration = 1.0d;
+
+    private long admittedCount;
+
+    private long delayedCount;
+
+    private long totalWaitMillis;
+
+    private long peakProjectedUsage;
+
+    /**
+     * Creates a new controller.
+     *
+     * @param budget Memory budget in bytes
+     */
+    public MemoryAdmissionController(long budget) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive");
+        }
+
+        this.budget = budget;
+
+        if (ProcessMemory.isSupported()) {
+            sampler = Executors.newSingleThreadScheduledExecutor(
+                new NamedThreadFactory("pdfcf-memory-sampler"));
+            sampler.scheduleWithFixedDelay(this::sample, SAMPLE_INTERVAL_MILLIS,
+                SAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        } else {
+            sampler = null;
+        }
+    }
+
+    /**
+     * Estimates the memory needed to compress a file, before calibration.
+     *
+     * @param inputFileSize Size of the input file in bytes
+     * @param pdfInfo Structure of the file; can be null
+     *
+     * @return The estimate in bytes
+     */
+    public static long estimate(long inputFileSize, PdfInfo pdfInfo) {
+        if ((pdfInfo == null) || (pdfInfo.getPageCount() <= 0)) {
+            return BASE_MEMORY +
+                (long) (inputFileSize * UNINSPECTED_FILE_SIZE_FACTOR);
+        }
+
+        return BASE_MEMORY + (long) (inputFileSize * FILE_SIZE_FACTOR) +
+            (long) (pdfInfo.getImageBytes() * IMAGE_SIZE_FACTOR) +
+            pdfInfo.getPageCount() * PAGE_MEMORY;
+    }
+
+    /**
+     * Waits until a job with the given memory need fits the budget, and
+     * admits it. The returned ticket gets bound to the calling thread, so
+     * that processes started by the thread are measured against it.
+     *
+     * @param rawEstimate Estimate of the memory need of the job, as given
+     *                    by {@link #estimate(long, PdfInfo)}
+     *
+     * @return The ticket of the job, to be closed when the job finishes
+     *
+     * @throws InterruptedException If the thread gets interrupted while
+     *                              waiting
+     */
+    public Ticket acquire(long rawEstimate) throws InterruptedException {
+        Ticket ticket = new Ticket(
+            rawEstimate, (long) (rawEstimate * calibration));
+        long startTime = System.currentTimeMillis();
+        boolean delayed = false;
+
+        synchronized (this) {
+            while (!runningTickets.isEmpty() &&
+                   (computeProjectedUsage() + ticket.estimate > budget)) {
+                delayed = true;
+                wait(SAMPLE_INTERVAL_MILLIS);
+            }
+
+            runningTickets.add(ticket);
+            ++admittedCount;
+            peakProjectedUsage = Math.max(
+                peakProjectedUsage, computeProjectedUsage());
+
+            if (delayed) {
+                ++delayedCount;
+                totalWaitMillis += System.currentTimeMillis() - startTime;
+            }
+        }
+
+        currentTicket.set(ticket);
+        return ticket;
+    }
+
+    /**
+     * Runs a job once it fits the budget, as admitted by acquire, and
+     * releases its admission when the job finishes.
+     *
+     * @param rawEstimate Estimate of the memory need of the job, as given
+     *                    by {@link #estimate(long, PdfInfo)}
+     * @param job The job, run in the calling thread
+     * @param <T> Type of the result of the job
+     *
+     * @return The result of the job
+     *
+     * @throws Exception If the thread gets interrupted while waiting, or if
+     *                   the job fails
+     */
+    public <T> T runAdmitted(long rawEstimate, Callable<T> job)
+            throws Exception {
+        Ticket ticket = acquire(rawEstimate);
+
+        try {
+            return job.call();
+        } finally {
+            ticket.close();
+        }
+    }
+
+    /**
+     * Admits a job with the given memory need if it fits the budget right
+     * away, without waiting. Unlike acquire, this does not admit the job
+     * when nothing else runs, and does not bind the ticket to the calling
+     * thread (see bind).
+     *
+     * @param rawEstimate Estimate of the memory need of the job, as given
+     *                    by {@link #estimate(long, PdfInfo)}
+     *
+     * @return The ticket of the job, to be closed when the job finishes, or
+     *         null if the job does not fit the budget
+     */
+    public synchronized Ticket tryAcquire(long rawEstimate) {
+        Ticket ticket = new Ticket(
+            rawEstimate, (long) (rawEstimate * calibration));
+
+        if (computeProjectedUsage() + ticket.estimate > budget) {
+            return null;
+        }
+
+        runningTickets.add(ticket);
+        ++admittedCount;
+        peakProjectedUsage = Math.max(peakProjectedUsage, computeProjectedUsage());
+
+        return ticket;
+    }
+
+    /**
+     * @return The ticket bound to the calling thread, or null if none
+     */
+    public Ticket getCurrentTicket() {
+        return currentTicket.get();
+    }
+
+    /**
+     * Binds a ticket to the calling thread, so that processes started by
+     * the thread are measured against it, such as when a job runs processes
+     * from threads of its own.
+     *
+     * @param ticket The ticket; null unbinds the current one
+     */
+    public void bind(Ticket ticket) {
+        if (ticket != null) {
+            currentTicket.set(ticket);
+        } else {
+            currentTicket.remove();
+        }
+    }
+
+    private void release(Ticket ticket) {
+        if (currentTicket.get() == ticket) {
+            currentTicket.remove();
+        }
+
+        synchronized (this) {
+            if (ticket.released) {
+                return;
+            }
+
+            ticket.released = true;
+            runningTickets.remove(ticket);
+
+            if ((ticket.measuredPeak > 0) && (ticket.rawEstimate > 0)) {
+                double ratio = ticket.measuredPeak / (double) ticket.rawEstimate;
+                calibration = Math.max(MIN_CALIBRATION, Math.min(MAX_CALIBRATION,
+                    calibration + CALIBRATION_WEIGHT * (ratio - calibration)));
+            }
+
+            notifyAll();
+        }
+    }
+
+    /**
+     * Registers a process started for the job admitted to the calling
+     * thread, if any, so that its memory usage gets measured.
+     *
+     * @param process The process
+     */
+    public void registerProcess(Process process) {
+        Ticket ticket = currentTicket.get();
+        long pid = ProcessMemory.getProcessId(process);
+
+        if ((ticket != null) && (pid > 0) && (sampler != null)) {
+            synchronized (this) {
+                ticket.processIds.put(process, pid);
+            }
+        }
+    }
+
+    /**
+     * Stops measuring a process that has ended, registered for the job
+     * admitted to the calling thread.
+     *
+     * @param process The process; can be null
+     */
+    public void unregisterProcess(Process process) {
+        Ticket ticket = currentTicket.get();
+
+        if ((ticket != null) && (process != null)) {
+            synchronized (this) {
+                ticket.processIds.remove(process);
+            }
+        }
+    }
+
+    private synchronized long computeProjectedUsage() {
+        long result = 0;
+
+        for (Ticket ticket : runningTickets) {
+            result += ticket.getProjectedUsage();
+        }
+
+        return result;
+    }
+
+    /**
+     * Updates the measured peaks of the running jobs. Peaks of processes
+     * that have ended are kept as last measured, and the processes are no
+     * longer measured.
+     */
+    private void sample() {
+        List<Ticket> tickets;
+
+        synchronized (this) {
+            tickets = new ArrayList<>(runningTickets);
+        }
+
+        for (Ticket ticket : tickets) {
+            List<Map.Entry<Process, Long>> processIds;
+
+            synchronized (this) {
+                processIds = new ArrayList<>(ticket.processIds.entrySet());
+            }
+
+            for (Map.Entry<Process, Long> processId : processIds) {
+                // The identifiers of ended processes may get reused
+                if (!processId.getKey().isAlive()) {
+                    synchronized (this) {
+                        ticket.processIds.remove(processId.getKey());
+                    }
+
+                    continue;
+                }
+
+                long peak = ProcessMemory.readPeakResidentSize(
+                    processId.getValue());
+
+                if (peak > ticket.measuredPeak) {
+                    ticket.measuredPeak = peak;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The projected memory usage of the running jobs, in bytes
+     */
+    public long getProjectedUsage() {
+        return computeProjectedUsage();
+    }
+
+    /**
+     * Formats the statistics of this controller.
+     *
+     * @return The formatted statistics, in a single line
+     */
+    public synchronized String formatSummary() {
+        DecimalFormat decFormat = new DecimalFormat("0.##");
+
+        return "Memory admission: budget " + Utils.formatFileSize(budget, decFormat) +
+            ", " + admittedCount + " jobs admitted, " + delayedCount +
+            " delayed for " + Utils.formatElapsedTime(totalWaitMillis / 1000) +
+            " in total, peak projected usage " +
+            Utils.formatFileSize(peakProjectedUsage, decFormat) + ", calibration " +
+            decFormat.format(calibration);
+    }
+
+    @Override
+    public void close() {
+        if (sampler != null) {
+            sampler.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.batch;
+
+import com.rogeraraujo.pdfcf.components.NamedThreadFactory;
+import com.rogeraraujo.pdfcf.components.ProcessExecutionInfo;
+import com.rogeraraujo.pdfcf.gs.ConversionQuality;
+import com.rogeraraujo.pdfcf.gs.GsUtils;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Compresses a file at several conversion qualities concurrently. The first
+ * output that meets the size target of the batch wins: the processes still
+ * running are destroyed right away and the winning output is moved to the
+ * output file. If no output meets the target, the smallest one is kept.
+ *
+ * <p>The job holds a single process slot of the Ghostscript runner, so the
+ * race only takes the spare slots that are free when it starts; qualities
+ * beyond them run one after another, as earlier ones finish. Every process
+ * is measured against the memory admission of the job.</p>
+ */
+@Slf4j
+public class QualityRacer {
+    private static final long LOSER_TERMINATION_TIMEOUT_SECONDS = 10;
+
+    @AllArgsConstructor
+    private static class Candidate {
+        private final ConversionQuality conversionQuality;
+
+        private final File file;
+
+        private final ProcessExecutionInfo processExecutionInfo;
+    }
+
+    private final GsRunner gsRunner;
+
+    public QualityRacer(GsRunner gsRunner) {
+        if (gsRunner == null) {
+            throw new IllegalArgumentException("Ghostscript runner cannot be null");
+        }
+
+        this.gsRunner = gsRunner;
+    }
+
+    /**
+     * Races the conversion qualities of the batch on a file.
+     *
+     * @param inputFile File to compress
+     * @param outputFile File to write
+     * @param result Job result to update
+     *
+     * @throws Exception If an error occurs while compressing
+     */
+    public void compress(File inputFile, File outputFile, BatchJobResult result)
+            throws Exception {
+        BatchOptions options = gsRunner.getOptions();
+        List<ConversionQuality> qualities = options.getRaceQualities();
+        long inputFileSize = inputFile.length();
+        long startTime = System.currentTimeMillis();
+        MemoryAdmissionController memoryController =
+            gsRunner.getMemoryController();
+        MemoryAdmissionController.Ticket ticket = (memoryController != null) ?
+            memoryController.getCurrentTicket() : null;
+        int spareSlotCount = gsRunner.tryAcquireProcessSlots(qualities.size() - 1);
+        ExecutorService executor = Executors.newFixedThreadPool(
+            spareSlotCount + 1, new NamedThreadFactory("pdfcf-race-worker"));
+        CompletionService<Candidate> completionService =
+            new ExecutorCompletionService<>(executor);
+        Candidate winner = null;
+        Candidate smallest = null;
+        Candidate lastFailed = null;
+        int finishedCount = 0;
+        int destroyedCount = 0;
+
+        try {
+            for (ConversionQuality quality : qualities) {
+                // Candidates are written next to the output file, so that
+                // the winner can be renamed into place
+                File candidateFile = getCandidateFile(outputFile, quality);
+                List<String> commands = GsUtils.buildCompressionCommands(
+                    options.getGsExecutablePath(), quality,
+                    options.getPdfCompatibilityLevel(),
+                    options.getGsOptimizationArguments(),
+                    options.getAdditionalGsParameters(),
+                    inputFile.getAbsolutePath(), candidateFile.getAbsolutePath());
+
+                completionService.submit(() -> {
+                    // Measures the process against the admission of the job
+                    if (memoryController != null) {
+                        memoryController.bind(ticket);
+                    }
+
+                    return new Candidate(quality, candidateFile,
+                        gsRunner.run(commands, inputFileSize, null));
+                });
+            }
+
+            while ((winner == null) && (finishedCount < qualities.size())) {
+                Candidate candidate = completionService.take().get();
+                ++finishedCount;
+
+                Integer exitValue =
+                    candidate.processExecutionInfo.getExitValue();
+
+                if (candidate.processExecutionInfo.isTimedOut() ||
+                    (exitValue == null) || (exitValue != 0) ||
+                    !candidate.file.isFile()) {
+                    lastFailed = candidate;
+                    continue;
+                }
+
+                long candidateSize = candidate.file.length();
+
+                if (options.meetsSizeTarget(inputFileSize, candidateSize)) {
+                    winner = candidate;
+                }
+                else if ((smallest == null) ||
+                         (candidateSize < smallest.file.length())) {
+                    smallest = candidate;
+                }
+            }
+        } finally {
+            // Interrupting the remaining candidates destroys their processes
+            executor.shutdownNow();
+
+            if (!executor.awaitTermination(
+                    LOSER_TERMINATION_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                log.warn("Race candidates of {} did not terminate", inputFile);
+            }
+
+            gsRunner.releaseProcessSlots(spareSlotCount);
+        }
+
+        // Only candidates still running when interrupted were destroyed;
+        // others may have finished in the meantime
+        Future<Candidate> remaining;
+
+        while ((remaining = completionService.poll()) != null) {
+            try {
+                if (remaining.get().processExecutionInfo.isDestroyed()) {
+                    ++destroyedCount;
+                }
+            } catch (ExecutionException ex) {
+                log.debug("Race candidate of {} failed:", inputFile, ex);
+            }
+        }
+
+        Candidate chosen = (winner != null) ? winner : smallest;
+
+        try {
+            if (chosen == null) {
+                // Reports why the last candidate failed
+                GsRunner.recordExecution(lastFailed.processExecutionInfo, result);
+                return;
+            }
+
+            GsRunner.recordExecution(chosen.processExecutionInfo, result);
+            Files.move(chosen.file.toPath(), outputFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+
+            String details = chosen.conversionQuality.getId() +
+                ((winner != null) ? " won race" : " smallest, target not met") +
+                ((destroyedCount > 0) ? ", " + destroyedCount +
+                    " destroyed" : "");
+
+            log.info("{}: {} in {} ms", inputFile, details,
+                System.currentTimeMillis() - startTime);
+
+            result.setStatus(BatchJobResult.Status.SUCCEEDED);
+            result.setOutputFileSize(outputFile.length());
+            result.setDetails(details);
+        } finally {
+            for (ConversionQuality quality : qualities) {
+                BatchCompressor.deleteFile(getCandidateFile(outputFile, quality));
+            }
+        }
+    }
+
+    private static File getCandidateFile(
+            File outputFile, ConversionQuality conversionQuality) {
+        return new File(outputFile.getPath() + "." +
+            conversionQuality.getId() + ".tmp");
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.batch;
+
+import com.rogeraraujo.pdfcf.Utils;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.DecimalFormat;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * On-disk cache of compressed files, keyed by a hash of the input file
+ * contents and of the parameters that affect the output. Entries are evicted
+ * in least recently used order when the cache grows beyond its size limit;
+ * the last modification time of each entry records its last use, so the
+ * order survives restarts.
+ */
+@Slf4j
+public class ResultCache {
+    public static final long DEFAULT_MAX_SIZE = 1024 * Utils.ONE_MEGABYTE;
+
+    private static final String ENTRY_FILE_EXTENSION = ".pdf";
+
+    private static final String TEMP_FILE_EXTENSION = ".tmp";
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    @Getter
+    private final File cacheDir;
+
+    @Getter
+    private final long maxSize;
+
+    // Entry sizes by key, in access order
+    private final LinkedHashMap<String, Long> entries =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+    private long totalSize;
+
+    private final LongAdder hitCount = new LongAdder();
+
+    private final LongAdder missCount = new LongAdder();
+
+    private final LongAdder bytesSaved = new LongAdder();
+
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * Opens a cache, creating its folder if needed and indexing the entries
+     * it already has.
+     *
+     * @param cacheDir Folder where entries are stored
+     * @param maxSize Maximum total size of the entries in bytes
+     *
+     * @throws IOException If the folder cannot be created
+     */
+    public ResultCache(File cacheDir, long maxSize) throws IOException {
+        if (cacheDir == null) {
+            throw new IllegalArgumentException("Cache folder cannot be null");
+        }
+
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException(
+                "Maximum cache size must be positive");
+        }
+
+        this.cacheDir = cacheDir;
+        this.maxSize = maxSize;
+
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs() &&
+            !cacheDir.isDirectory()) {
+            throw new IOException("Could not create folder " + cacheDir);
+        }
+
+        loadEntries();
+    }
+
+    private synchronized void loadEntries() {
+        File[] files = cacheDir.listFiles();
+
+        if (files == null) {
+            return;
+        }
+
+        // Least recently used entries first
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+
+        for (File file : files) {
+            String name = file.getName();
+
+            if (name.endsWith(TEMP_FILE_EXTENSION)) {
+                // Leftover of an interrupted store
+                BatchCompressor.deleteFile(file);
+            }
+            else if (name.endsWith(ENTRY_FILE_EXTENSION) && file.isFile()) {
+                long size = file.length();
+                entries.put(name.substring(
+                    0, name.length() - ENTRY_FILE_EXTENSION.length()), size);
+                totalSize += size;
+            }
+        }
+
+        log.debug("Result cache {} has {} entries, {} bytes",
+            cacheDir, entries.size(), totalSize);
+
+        evict();
+    }
+
+    /**
+     * Computes the cache key of a file compressed with a set of parameters.
+     *
+     * @param inputFile The file to compress
+     * @param parameters Description of everything besides the file contents
+     *                   that affects the output, such as the Ghostscript
+     *                   version and arguments
+     *
+     * @return The cache key, as a hexadecimal String
+     *
+     * @throws IOException If the file cannot be read
+     */
+    public static String computeKey(File inputFile, String parameters)
+            throws IOException {
+        MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+
+        digest.update(parameters.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+
+        try (InputStream inputStream = new FileInputStream(inputFile)) {
+            int count;
+
+            while ((count = inputStream.read(buffer)) >= 0) {
+                digest.update(buffer, 0, count);
+            }
+        }
+
+        StringBuilder result = new StringBuilder();
+
+        for (byte b : digest.digest()) {
+            result.append(Character.forDigit((b >> 4) & 0xF, 16))
+                .append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * Looks up a cache entry and, if found, places a copy of it at the
+     * output file.
+     *
+     * @param key Cache key
+     * @param inputFileSize Size of the input file, for statistics
+     * @param outputFile Where to place the cached result
+     *
+     * @return Whether the entry was found and placed
+     */
+    public boolean fetch(String key, long inputFileSize, File outputFile) {
+        File entryFile = getEntryFile(key);
+
+        synchronized (this) {
+            if (entries.get(key) == null) {
+                missCount.increment();
+                return false;
+            }
+        }
+
+        try {
+            // Copied rather than linked, as in store, so that in-place
+            // changes to the output file do not affect the entry, and
+            // touching the entry does not change the output file
+            Files.copy(entryFile.toPath(), outputFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+
+            if (!entryFile.setLastModified(System.currentTimeMillis())) {
+                log.debug("Could not touch cache entry {}", entryFile);
+            }
+        } catch (IOException ex) {
+            // Most likely evicted in the meantime
+            log.debug("Could not fetch cache entry {}:", entryFile, ex);
+            missCount.increment();
+            return false;
+        }
+
+        hitCount.increment();
+        bytesSaved.add(inputFileSize);
+
+        return true;
+    }
+
+    /**
+     * Stores a compressed file in the cache.
+     *
+     * @param key Cache key
+     * @param outputFile The compressed file
+     */
+    public void store(String key, File outputFile) {
+        long size = outputFile.length();
+
+        if (size > maxSize) {
+            return;
+        }
+
+        File entryFile = getEntryFile(key);
+        File tempFile = new File(cacheDir, key + "-" + Thread.currentThread().getId() +
+            TEMP_FILE_EXTENSION);
+
+        try {
+            // Copied rather than linked, so that later changes to the
+            // output file do not affect the entry
+            Files.copy(outputFile.toPath(), tempFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tempFile.toPath(), entryFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            log.warn("Could not store {} in the result cache: {}",
+                outputFile, ex.toString());
+            BatchCompressor.deleteFile(tempFile);
+            return;
+        }
+
+        synchronized (this) {
+            Long previousSize = entries.put(key, size);
+            totalSize += size - ((previousSize != null) ? previousSize : 0);
+            evict();
+        }
+    }
+
+    // Must be called while holding the lock of this object
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> iterator =
+            entries.entrySet().iterator();
+
+        while ((totalSize > maxSize) && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            BatchCompressor.deleteFile(getEntryFile(entry.getKey()));
+            totalSize -= entry.getValue();
+            iterator.remove();
+            evictionCount.increment();
+        }
+    }
+
+    private File getEntryFile(String key) {
+        return new File(cacheDir, key + ENTRY_FILE_EXTENSION);
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getBytesSaved() {
+        return bytesSaved.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    public synchronized long getTotalSize() {
+        return totalSize;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * Formats the statistics of this cache.
+     *
+     * @return The formatted statistics, in a single line
+     */
+    public String formatSummary() {
+        DecimalFormat decFormat = new DecimalFormat("0.##");
+
+        return "Result cache: " + getHitCount() + " hits, " + getMissCount() +
+            " misses, " + Utils.formatFileSize(getBytesSaved(), decFormat) +
+            " not recompressed, " + getEvictionCount() + " evictions, " +
+            getEntryCount() + " entries (" +
+            Utils.formatFileSize(getTotalSize(), decFormat) + " of " +
+            Utils.formatFileSize(maxSize, decFormat) + ")";
+    }
+}
@@ -0,0 +1,393 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.batch;
+
+import com.rogeraraujo.pdfcf.components.NamedThreadFactory;
+import com.rogeraraujo.pdfcf.components.ProcessExecutionInfo;
+import com.rogeraraujo.pdfcf.gs.GsUtils;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compresses a large PDF file by splitting it in page ranges (shards) that
+ * are compressed by parallel Ghostscript processes, and then merging the
+ * compressed shards into the output file. Ghostscript is single-threaded,
+ * so this puts idle cores to work when a batch has fewer files than worker
+ * threads. The job runs the first shard in its own process slot; each other
+ * shard takes a process slot that no other job is using and, if memory
+ * admission is enabled, a memory admission of its own, so a file gets only
+ * as many shards as there is spare capacity for.
+ */
+@Slf4j
+public class ShardedCompressor {
+    public static final int DEFAULT_PAGES_PER_SHARD = 25;
+
+    private static final String SHARD_DIR_PREFIX = ".pdfcf-shards-";
+
+    /**
+     * Inclusive range of pages of a PDF file.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class PageRange {
+        private final int firstPage;
+
+        private final int lastPage;
+
+        public int getPageCount() {
+            return lastPage - firstPage + 1;
+        }
+
+        @Override
+        public String toString() {
+            return firstPage + "-" + lastPage;
+        }
+    }
+
+    private final GsRunner gsRunner;
+
+    public ShardedCompressor(GsRunner gsRunner) {
+        if (gsRunner == null) {
+            throw new IllegalArgumentException("Ghostscript runner cannot be null");
+        }
+
+        this.gsRunner = gsRunner;
+    }
+
+    /**
+     * Determines how many shards a file should be split in.
+     *
+     * @param pageCount Number of pages of the file
+     * @param maxShardCount Maximum number of shards, usually the number of
+     *                      available processors
+     * @param pagesPerShard Minimum number of pages of a shard; small shards
+     *                      are not worth the cost of starting Ghostscript and
+     *                      merging
+     *
+     * @return The number of shards; 1 means the file should not be split
+     */
+    public static int chooseShardCount(
+            int pageCount, int maxShardCount, int pagesPerShard) {
+        if ((pageCount <= 0) || (maxShardCount <= 1)) {
+            return 1;
+        }
+
+        int shardCount = pageCount / Math.max(1, pagesPerShard);
+
+        return Math.max(1, Math.min(shardCount, maxShardCount));
+    }
+
+    /**
+     * Splits the pages of a file in contiguous ranges of nearly equal size.
+     *
+     * @param pageCount Number of pages of the file
+     * @param shardCount Number of ranges to create
+     *
+     * @return The page ranges, in page order
+     */
+    public static List<PageRange> splitPages(int pageCount, int shardCount) {
+        if ((pageCount <= 0) || (shardCount <= 0) || (shardCount > pageCount)) {
+            throw new IllegalArgumentException("Cannot split " + pageCount +
+                " pages in " + shardCount + " shards");
+        }
+
+        List<PageRange> result = new ArrayList<>(shardCount);
+        int baseSize = pageCount / shardCount;
+        int remainder = pageCount % shardCount;
+        int firstPage = 1;
+
+        for (int i = 0; i < shardCount; ++i) {
+            int size = baseSize + ((i < remainder) ? 1 : 0);
+            result.add(new PageRange(firstPage, firstPage + size - 1));
+            firstPage += size;
+        }
+
+        return result;
+    }
+
+    /**
+     * Compresses a file in parallel shards, if it is large enough.
+     *
+     * @param inputFile File to compress
+     * @param outputFile File to write
+     * @param result Job result to update
+     *
+     * @return Whether the file was handled; if false, the file was not worth
+     *         splitting and the result was not touched
+     *
+     * @throws Exception If an error occurs while compressing
+     */
+    public boolean compress(
+            File inputFile, File outputFile, BatchJobResult result)
+            throws Exception {
+        BatchOptions options = gsRunner.getOptions();
+        long startTime = System.currentTimeMillis();
+        Integer pageCount = gsRunner.countPages(inputFile, result.getPdfInfo());
+
+        if ((pageCount == null) || (pageCount < options.getShardMinimumPages())) {
+            return false;
+        }
+
+        int maxShardCount = chooseShardCount(pageCount,
+            options.getThreadCount(), options.getPagesPerShard());
+
+        if (maxShardCount < 2) {
+            return false;
+        }
+
+        int spareSlotCount = gsRunner.tryAcquireProcessSlots(maxShardCount - 1);
+        List<MemoryAdmissionController.Ticket> tickets =
+            admitShards(inputFile, result, spareSlotCount);
+
+        try {
+            int shardCount = tickets.size();
+
+            if (shardCount < 2) {
+                log.debug("{}: no spare capacity for shards", inputFile);
+                return false;
+            }
+
+            return compressInShards(inputFile, outputFile, result, startTime,
+                pageCount, shardCount, tickets);
+        } finally {
+            for (int i = 1; i < tickets.size(); ++i) {
+                if (tickets.get(i) != null) {
+                    tickets.get(i).close();
+                }
+            }
+
+            gsRunner.releaseProcessSlots(spareSlotCount);
+        }
+    }
+
+    /**
+     * Admits the shards of a file to the memory admission controller, if
+     * any. The first shard uses the admission of the job; the others are
+     * admitted only if they fit the memory budget right away.
+     *
+     * @return One ticket per admitted shard, the first one being the ticket
+     *         of the job; tickets are null if there is no memory admission
+     *         controller
+     */
+    private List<MemoryAdmissionController.Ticket> admitShards(
+            File inputFile, BatchJobResult result, int spareSlotCount) {
+        MemoryAdmissionController memoryController =
+            gsRunner.getMemoryController();
+        List<MemoryAdmissionController.Ticket> tickets = new ArrayList<>();
+        tickets.add((memoryController != null) ?
+            memoryController.getCurrentTicket() : null);
+
+        // Each shard process parses the whole file
+        long estimate = MemoryAdmissionController.estimate(
+            inputFile.length(), result.getPdfInfo());
+
+        for (int i = 0; i < spareSlotCount; ++i) {
+            MemoryAdmissionController.Ticket ticket = null;
+
+            if (memoryController != null) {
+                ticket = memoryController.tryAcquire(estimate);
+
+                if (ticket == null) {
+                    break;
+                }
+            }
+
+            tickets.add(ticket);
+        }
+
+        return tickets;
+    }
+
+    private boolean compressInShards(File inputFile, File outputFile,
+            BatchJobResult result, long startTime, int pageCount,
+            int shardCount, List<MemoryAdmissionController.Ticket> tickets)
+            throws Exception {
+        BatchOptions options = gsRunner.getOptions();
+        List<PageRange> pageRanges = splitPages(pageCount, shardCount);
+        File shardDir = createShardDir(outputFile);
+
+        try {
+            long shardMillis = compressShards(
+                inputFile, pageCount, pageRanges, tickets, shardDir, result);
+
+            if (shardMillis < 0) {
+                return true;
+            }
+
+            List<String> shardFilePaths = new ArrayList<>(shardCount);
+
+            for (int i = 0; i < shardCount; ++i) {
+                shardFilePaths.add(getShardFile(shardDir, i).getAbsolutePath());
+            }
+
+            List<String> commands = GsUtils.buildMergeCommands(
+                options.getGsExecutablePath(),
+                options.getPdfCompatibilityLevel(), shardFilePaths,
+                outputFile.getAbsolutePath());
+
+            if (GsRunner.recordExecution(
+                    gsRunner.run(commands, inputFile.length(), null), result)) {
+                // How many shards ran at once on average. This is not a
+                // speedup: shards slowed down by contention still overlap,
+                // and there is no single-process run to compare against
+                long elapsedMillis = System.currentTimeMillis() - startTime;
+                String parallelism = new DecimalFormat("0.0").format(
+                    shardMillis / (double) Math.max(1, elapsedMillis));
+
+                log.info("{}: {} pages in {} shards in {} ms, parallelism {}",
+                    inputFile, pageCount, shardCount, elapsedMillis,
+                    parallelism);
+
+                result.setStatus(BatchJobResult.Status.SUCCEEDED);
+                result.setOutputFileSize(outputFile.length());
+                result.setDetails(shardCount + " shards, parallelism " +
+                    parallelism);
+            }
+            else if (result.getStatus() == BatchJobResult.Status.TIMED_OUT) {
+                BatchCompressor.deleteFile(outputFile);
+            }
+        } finally {
+            deleteShardDir(shardDir);
+        }
+
+        return true;
+    }
+
+    /**
+     * Compresses the shards of a file in parallel.
+     *
+     * @return The sum of the elapsed times of the shards in milliseconds, or
+     *         -1 if a shard failed, in which case the result holds the error
+     */
+    private long compressShards(File inputFile, int pageCount,
+            List<PageRange> pageRanges,
+            List<MemoryAdmissionController.Ticket> tickets, File shardDir,
+            BatchJobResult result) throws Exception {
+        BatchOptions options = gsRunner.getOptions();
+        MemoryAdmissionController memoryController =
+            gsRunner.getMemoryController();
+        ExecutorService executor = Executors.newFixedThreadPool(
+            pageRanges.size(), new NamedThreadFactory("pdfcf-shard-worker"));
+        List<Future<ProcessExecutionInfo>> futures = new ArrayList<>();
+        long[] shardMillis = new long[pageRanges.size()];
+
+        try {
+            for (int i = 0; i < pageRanges.size(); ++i) {
+                PageRange pageRange = pageRanges.get(i);
+                List<String> commands = GsUtils.buildPageRangeCommands(
+                    GsUtils.buildCompressionCommands(
+                        options.getGsExecutablePath(),
+                        options.getConversionQuality(),
+                        options.getPdfCompatibilityLevel(),
+                        options.getGsOptimizationArguments(),
+                        options.getAdditionalGsParameters(),
+                        inputFile.getAbsolutePath(),
+                        getShardFile(shardDir, i).getAbsolutePath()),
+                    pageRange.getFirstPage(), pageRange.getLastPage());
+
+                // Each shard gets a share of the timeout proportional to
+                // its share of the pages
+                long shardSize = inputFile.length() *
+                    pageRange.getPageCount() / pageCount;
+                int shardIndex = i;
+
+                futures.add(executor.submit(() -> {
+                    // Measures the process against the admission of the shard
+                    if (memoryController != null) {
+                        memoryController.bind(tickets.get(shardIndex));
+                    }
+
+                    long startTime = System.currentTimeMillis();
+                    ProcessExecutionInfo processExecutionInfo =
+                        gsRunner.run(commands, shardSize, null);
+                    shardMillis[shardIndex] =
+                        System.currentTimeMillis() - startTime;
+                    return processExecutionInfo;
+                }));
+            }
+
+            for (int i = 0; i < futures.size(); ++i) {
+                ProcessExecutionInfo processExecutionInfo;
+
+                try {
+                    processExecutionInfo = futures.get(i).get();
+                } catch (ExecutionException ex) {
+                    throw (ex.getCause() instanceof Exception) ?
+                        (Exception) ex.getCause() : ex;
+                }
+
+                if (!GsRunner.recordExecution(processExecutionInfo, result)) {
+                    result.setMessage(result.getMessage() + " (pages " +
+                        pageRanges.get(i) + ")");
+                    return -1;
+                }
+            }
+        } finally {
+            // Interrupting the remaining shards destroys their processes
+            executor.shutdownNow();
+        }
+
+        long sum = 0;
+
+        for (long millis : shardMillis) {
+            sum += millis;
+        }
+
+        return sum;
+    }
+
+    private static File createShardDir(File outputFile) throws IOException {
+        // Shards are written next to the output file, where there is
+        // supposedly enough room for them
+        File parent = outputFile.getAbsoluteFile().getParentFile();
+        File shardDir = new File(parent,
+            SHARD_DIR_PREFIX + outputFile.getName() + "-" + System.nanoTime());
+
+        if (!shardDir.mkdirs()) {
+            throw new IOException("Could not create folder " + shardDir);
+        }
+
+        return shardDir;
+    }
+
+    private static File getShardFile(File shardDir, int shardIndex) {
+        return new File(shardDir, String.format("shard-%04d.pdf", shardIndex));
+    }
+
+    private static void deleteShardDir(File shardDir) {
+        File[] files = shardDir.listFiles();
+
+        if (files != null) {
+            for (File file : files) {
+                BatchCompressor.deleteFile(file);
+            }
+        }
+
+        BatchCompressor.deleteFile(shardDir);
+    }
+}
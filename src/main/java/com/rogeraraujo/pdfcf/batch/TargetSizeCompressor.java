@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.batch;
+
+import com.rogeraraujo.pdfcf.components.ProcessExecutionInfo;
+import com.rogeraraujo.pdfcf.gs.GsUtils;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * Compresses a file to the largest size that meets the size target of the
+ * batch, by bisecting the resolution that color and grayscale images are
+ * downsampled to. The search first runs on a sample of pages, whose output
+ * size is extrapolated to the whole file, so that only a few complete runs
+ * are needed to confirm and refine the resolution found.
+ */
+@Slf4j
+public class TargetSizeCompressor {
+    public static final int MIN_RESOLUTION = 36;
+
+    public static final int MAX_RESOLUTION = 300;
+
+    // Bisection stops when the resolution interval gets this narrow
+    private static final int RESOLUTION_TOLERANCE = 8;
+
+    private static final int SAMPLE_PAGE_COUNT = 8;
+
+    private static final int MAX_FULL_RUNS = 4;
+
+    // Complete runs stop once the output is at least this close to the target
+    private static final double ACCEPTABLE_SLACK = 0.1d;
+
+    private final GsRunner gsRunner;
+
+    public TargetSizeCompressor(GsRunner gsRunner) {
+        if (gsRunner == null) {
+            throw new IllegalArgumentException("Ghostscript runner cannot be null");
+        }
+
+        this.gsRunner = gsRunner;
+    }
+
+    /**
+     * Finds the largest value in a range that satisfies a condition by
+     * bisection. The condition is assumed to hold for every value below a
+     * threshold and for none above it.
+     *
+     * @param low Lowest value of the range
+     * @param high Highest value of the range
+     * @param tolerance The search stops when the interval of uncertainty is
+     *                  no wider than this; the value returned is then the
+     *                  highest one known to satisfy the condition
+     * @param condition Condition to satisfy
+     *
+     * @return The value found, or low - 1 if not even low satisfies the
+     *         condition
+     */
+    public static int bisect(
+            int low, int high, int tolerance, IntPredicate condition) {
+        if (low > high) {
+            throw new IllegalArgumentException("Invalid range: " + low +
+                "-" + high);
+        }
+
+        // Invariant: lastFit satisfies the condition (or is below the range)
+        // and firstMiss does not (or is above the range)
+        int lastFit = low - 1;
+        int firstMiss = high + 1;
+
+        while (firstMiss - lastFit > Math.max(1, tolerance)) {
+            int middle = lastFit + (firstMiss - lastFit) / 2;
+
+            if (condition.test(middle)) {
+                lastFit = middle;
+            }
+            else {
+                firstMiss = middle;
+            }
+        }
+
+        return lastFit;
+    }
+
+    /**
+     * Chooses pages evenly spread over a file.
+     *
+     * @param pageCount Number of pages of the file
+     * @param sampleSize Number of pages to choose
+     *
+     * @return Page numbers (1-based) in ascending order, or all pages if the
+     *         file is not larger than the sample
+     */
+    public static List<Integer> samplePages(int pageCount, int sampleSize) {
+        List<Integer> result = new ArrayList<>();
+        int count = Math.min(pageCount, sampleSize);
+
+        for (int i = 0; i < count; ++i) {
+            result.add(1 + (int) ((long) i * pageCount / count));
+        }
+
+        return result;
+    }
+
+    /**
+     * Compresses a file to fit the size target of the batch.
+     *
+     * @param inputFile File to compress
+     * @param outputFile File to write
+     * @param result Job result to update
+     *
+     * @throws Exception If an error occurs while compressing
+     */
+    public void compress(File inputFile, File outputFile, BatchJobResult result)
+            throws Exception {
+        BatchOptions options = gsRunner.getOptions();
+        long inputFileSize = inputFile.length();
+        long targetSize = options.computeTargetSize(inputFileSize);
+
+        if (targetSize <= 0) {
+            throw new IllegalArgumentException(
+                "Fitting to a target size requires a size target");
+        }
+
+        long startTime = System.currentTimeMillis();
+        File candidateFile = new File(outputFile.getPath() + ".fit.tmp");
+        File bestFile = new File(outputFile.getPath() + ".best.tmp");
+        List<String> compressionCommands = GsUtils.buildCompressionCommands(
+            options.getGsExecutablePath(), options.getConversionQuality(),
+            options.getPdfCompatibilityLevel(),
+            options.getGsOptimizationArguments(),
+            options.getAdditionalGsParameters(),
+            inputFile.getAbsolutePath(), candidateFile.getAbsolutePath());
+        int[] sampleRuns = new int[1];
+        int fullRuns = 0;
+
+        try {
+            // Estimates a starting resolution on a sample of pages
+            Integer pageCount = gsRunner.countPages(inputFile, result.getPdfInfo());
+            int resolution = MAX_RESOLUTION;
+
+            if ((pageCount != null) && (pageCount > 2 * SAMPLE_PAGE_COUNT)) {
+                List<Integer> pages = samplePages(pageCount, SAMPLE_PAGE_COUNT);
+                double scale = pageCount / (double) pages.size();
+                long sampleFileSize = inputFileSize / pageCount * pages.size();
+                boolean[] sampleFailed = new boolean[1];
+
+                int sampled = bisect(MIN_RESOLUTION, MAX_RESOLUTION,
+                    RESOLUTION_TOLERANCE, candidate -> {
+                        if (sampleFailed[0]) {
+                            return false;
+                        }
+
+                        ++sampleRuns[0];
+                        BatchCompressor.deleteFile(candidateFile);
+                        ProcessExecutionInfo info = gsRunner.run(
+                            GsUtils.buildPageListCommands(
+                                GsUtils.buildImageResolutionCommands(
+                                    compressionCommands, candidate), pages),
+                            sampleFileSize, null);
+
+                        if (!succeeded(info, candidateFile)) {
+                            // Probably a Ghostscript version without
+                            // -sPageList; complete runs will do
+                            sampleFailed[0] = true;
+                            return false;
+                        }
+
+                        return candidateFile.length() * scale <= targetSize;
+                    });
+
+                if (!sampleFailed[0]) {
+                    resolution = Math.max(MIN_RESOLUTION, sampled);
+                }
+            }
+
+            // Confirms and refines the estimate with complete runs
+            int lastFit = MIN_RESOLUTION - 1;
+            int firstMiss = MAX_RESOLUTION + 1;
+            int bestResolution = 0;
+            long bestSize = Long.MAX_VALUE;
+            boolean bestFits = false;
+            ProcessExecutionInfo bestInfo = null;
+            ProcessExecutionInfo lastInfo = null;
+
+            while ((fullRuns < MAX_FULL_RUNS) &&
+                   (firstMiss - lastFit > RESOLUTION_TOLERANCE)) {
+                ++fullRuns;
+                BatchCompressor.deleteFile(candidateFile);
+                lastInfo = gsRunner.run(GsUtils.buildImageResolutionCommands(
+                    compressionCommands, resolution), inputFileSize, null);
+
+                if (!succeeded(lastInfo, candidateFile)) {
+                    break;
+                }
+
+                long size = candidateFile.length();
+                boolean fits = size <= targetSize;
+
+                // Keeps the largest fitting output, or the smallest output
+                // while nothing fits
+                if (fits ? (!bestFits || (resolution > bestResolution)) :
+                           (!bestFits && (size < bestSize))) {
+                    Files.move(candidateFile.toPath(), bestFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+                    bestResolution = resolution;
+                    bestSize = size;
+                    bestFits = fits;
+                    bestInfo = lastInfo;
+                }
+
+                if (fits) {
+                    lastFit = resolution;
+
+                    if (size >= targetSize * (1.0d - ACCEPTABLE_SLACK)) {
+                        break;
+                    }
+                }
+                else {
+                    firstMiss = resolution;
+                }
+
+                resolution = Math.max(MIN_RESOLUTION,
+                    lastFit + (firstMiss - lastFit) / 2);
+
+                if ((resolution == lastFit) || (resolution == firstMiss)) {
+                    break;
+                }
+            }
+
+            if (!bestFile.isFile()) {
+                GsRunner.recordExecution(lastInfo, result);
+
+                if (result.getStatus() != BatchJobResult.Status.TIMED_OUT) {
+                    result.setStatus(BatchJobResult.Status.FAILED);
+                }
+
+                return;
+            }
+
+            // Reports the run whose output is kept, rather than a later
+            // refinement run that may have failed or timed out
+            GsRunner.recordExecution(bestInfo, result);
+            Files.move(bestFile.toPath(), outputFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+
+            long elapsedMillis = System.currentTimeMillis() - startTime;
+            String details = bestResolution + " dpi" +
+                (bestFits ? "" : ", target not met") +
+                ", " + sampleRuns[0] + " sample + " + fullRuns + " full runs";
+
+            log.info("{}: {} in {} ms", inputFile, details, elapsedMillis);
+
+            result.setStatus(BatchJobResult.Status.SUCCEEDED);
+            result.setOutputFileSize(outputFile.length());
+            result.setDetails(details);
+        } finally {
+            BatchCompressor.deleteFile(candidateFile);
+            BatchCompressor.deleteFile(bestFile);
+        }
+    }
+
+    private static boolean succeeded(
+            ProcessExecutionInfo processExecutionInfo, File outputFile) {
+        Integer exitValue = processExecutionInfo.getExitValue();
+
+        return !processExecutionInfo.isTimedOut() && (exitValue != null) &&
+            (exitValue == 0) && outputFile.isFile();
+    }
+}
@@ -0,0 +1,486 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.batch;
+
+import com.rogeraraujo.pdfcf.components.NamedThreadFactory;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Watches input folders and compresses PDF files as they appear in them,
+ * until closed. Changes are detected through a WatchService, so folders are
+ * scanned in full only at startup (and after the operating system drops
+ * events); files are compressed once their size and modification time stop
+ * changing for a while, so that files still being written are left alone.
+ *
+ * <p>Compressed files are written to the output folder, mirroring the input
+ * folder structure, and the input files are then moved to the done folder,
+ * or to the failed folder if their compression failed. Files whose
+ * compression was not attempted before the daemon stopped stay where they
+ * are and are picked up at the next start.</p>
+ */
+@Slf4j
+public class WatchFolderDaemon implements Closeable {
+    public static final long DEFAULT_SETTLE_MILLIS = 2000;
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+    private static final long MAX_POLL_INTERVAL_MILLIS = 500;
+
+    // Used while settled files wait for room in the queue, so that room is
+    // refilled soon after workers make it
+    private static final long BACKLOG_POLL_INTERVAL_MILLIS = 20;
+
+    private static final long WORKER_POLL_INTERVAL_MILLIS = 250;
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 60;
+
+    /**
+     * A file that changed recently, waiting for its size and modification
+     * time to settle.
+     */
+    private static class PendingFile {
+        private long size;
+
+        private long lastModified;
+
+        private long lastChangeMillis;
+    }
+
+    private final BatchOptions options;
+
+    private final BatchCompressor compressor;
+
+    private final Consumer<BatchJobResult> resultConsumer;
+
+    // Watched folders, absolute and normalized
+    private final List<Path> rootDirs = new ArrayList<>();
+
+    // Folders written by this daemon, whose changes are ignored
+    private final List<Path> ignoredDirs = new ArrayList<>();
+
+    private final WatchService watchService;
+
+    private final Map<WatchKey, Path> watchedDirs = new HashMap<>();
+
+    private final Set<Path> registeredDirs = new HashSet<>();
+
+    // Accessed by the watching thread only, in the order files appeared
+    private final Map<Path, PendingFile> pendingFiles = new LinkedHashMap<>();
+
+    private final BlockingQueue<Path> readyFiles;
+
+    // Files queued or being compressed, whose changes are ignored
+    private final Set<Path> activeFiles = ConcurrentHashMap.newKeySet();
+
+    private final ExecutorService workers;
+
+    @Getter
+    private final BatchStatistics statistics = new BatchStatistics();
+
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    private volatile boolean started;
+
+    private volatile boolean closed;
+
+    /**
+     * Creates a daemon that watches the input folders of a set of batch
+     * options. Nothing is watched until the daemon runs.
+     *
+     * @param options Batch options; the input specifications must be
+     *                folders, and the output, done and failed folders must
+     *                be set
+     * @param compressor Compressor that runs the jobs
+     * @param resultConsumer Consumer that receives the result of each job;
+     *                       called from worker threads. Can be null
+     *
+     * @throws IOException If the watch service cannot be created
+     */
+    public WatchFolderDaemon(BatchOptions options, BatchCompressor compressor,
+            Consumer<BatchJobResult> resultConsumer) throws IOException {
+        if ((options.getOutputDir() == null) || (options.getDoneDir() == null) ||
+            (options.getFailedDir() == null)) {
+            throw new IllegalArgumentException(
+                "Output, done and failed folders must be set");
+        }
+
+        this.options = options;
+        this.compressor = compressor;
+        this.resultConsumer = resultConsumer;
+
+        for (String inputSpec : options.getInputSpecs()) {
+            Path rootDir = Paths.get(inputSpec).toAbsolutePath().normalize();
+
+            if (!Files.isDirectory(rootDir)) {
+                throw new IllegalArgumentException(
+                    "Watched input is not a folder: " + inputSpec);
+            }
+
+            rootDirs.add(rootDir);
+        }
+
+        ignoredDirs.add(options.getOutputDir().toPath().toAbsolutePath().normalize());
+        ignoredDirs.add(options.getDoneDir().toPath().toAbsolutePath().normalize());
+        ignoredDirs.add(options.getFailedDir().toPath().toAbsolutePath().normalize());
+
+        this.readyFiles = new ArrayBlockingQueue<>(
+            Math.max(1, options.getWatchQueueCapacity()));
+        this.workers = Executors.newFixedThreadPool(
+            Math.max(1, options.getThreadCount()),
+            new NamedThreadFactory("pdfcf-watch-worker"));
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Watches the input folders and compresses files in them until this
+     * daemon is closed.
+     *
+     * @throws IOException If the input folders cannot be watched
+     */
+    public void run() throws IOException {
+        started = true;
+
+        try {
+            for (int i = 0; i < Math.max(1, options.getThreadCount()); ++i) {
+                workers.execute(this::compressReadyFiles);
+            }
+
+            for (Path rootDir : rootDirs) {
+                registerTree(rootDir);
+            }
+
+            log.info("Watching {} folders for PDF files", rootDirs.size());
+
+            long pollIntervalMillis = Math.max(1, Math.min(
+                MAX_POLL_INTERVAL_MILLIS, options.getWatchSettleMillis() / 2));
+
+            boolean backlogged = false;
+
+            while (!closed) {
+                WatchKey key;
+
+                try {
+                    key = watchService.poll(backlogged ?
+                        BACKLOG_POLL_INTERVAL_MILLIS : pollIntervalMillis,
+                        TimeUnit.MILLISECONDS);
+                } catch (ClosedWatchServiceException | InterruptedException ex) {
+                    break;
+                }
+
+                // Drains every key already signalled before checking files
+                while (key != null) {
+                    processEvents(key);
+                    key = watchService.poll();
+                }
+
+                backlogged = queueSettledFiles();
+            }
+        } catch (ClosedWatchServiceException ex) {
+            log.debug("Watch service closed");
+        } finally {
+            stopped.countDown();
+        }
+    }
+
+    private void processEvents(WatchKey key) throws IOException {
+        Path dir = watchedDirs.get(key);
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // Events were lost, so the folders must be scanned again
+                log.warn("Too many changes at once; scanning watched folders");
+
+                for (Path rootDir : rootDirs) {
+                    registerTree(rootDir);
+                }
+
+                continue;
+            }
+
+            if (dir == null) {
+                continue;
+            }
+
+            Path path = dir.resolve((Path) event.context());
+
+            if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    // Files may have appeared before the folder got watched
+                    registerTree(path);
+                }
+            }
+            else {
+                notifyFileChange(path);
+            }
+        }
+
+        if (!key.reset()) {
+            registeredDirs.remove(watchedDirs.remove(key));
+        }
+    }
+
+    /**
+     * Watches a folder and its subfolders, and notes the files in them.
+     *
+     * @param dir The folder
+     *
+     * @throws IOException If the folder cannot be read
+     */
+    private void registerTree(Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(
+                    Path subDir, BasicFileAttributes attrs) throws IOException {
+                if (isIgnored(subDir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+
+                if (registeredDirs.add(subDir)) {
+                    watchedDirs.put(subDir.register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY), subDir);
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(
+                    Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    notifyFileChange(file);
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException ex) {
+                log.warn("Error reading watched file {}:", file, ex);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private boolean isIgnored(Path path) {
+        for (Path ignoredDir : ignoredDirs) {
+            if (path.startsWith(ignoredDir)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void notifyFileChange(Path file) {
+        if (!file.getFileName().toString().toLowerCase(Locale.ROOT)
+                .endsWith(BatchInputCollector.PDF_FILE_EXTENSION) ||
+            activeFiles.contains(file) || isIgnored(file)) {
+            return;
+        }
+
+        PendingFile pendingFile = pendingFiles.get(file);
+
+        if (pendingFile == null) {
+            pendingFile = new PendingFile();
+            pendingFile.size = -1;
+            pendingFiles.put(file, pendingFile);
+        }
+
+        // Settling restarts on every change
+        pendingFile.lastChangeMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Queues the pending files whose size and modification time have not
+     * changed for the settle time. When the queue is full, the remaining
+     * files stay pending until the next check.
+     *
+     * @return Whether a settled file was left pending for lack of room
+     */
+    private boolean queueSettledFiles() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Path, PendingFile>> iterator =
+            pendingFiles.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            Map.Entry<Path, PendingFile> entry = iterator.next();
+            Path file = entry.getKey();
+            PendingFile pendingFile = entry.getValue();
+            BasicFileAttributes attrs;
+
+            try {
+                attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (IOException ex) {
+                // The file was removed or renamed before settling
+                iterator.remove();
+                continue;
+            }
+
+            long lastModified = attrs.lastModifiedTime().toMillis();
+
+            if ((attrs.size() != pendingFile.size) ||
+                (lastModified != pendingFile.lastModified)) {
+                pendingFile.size = attrs.size();
+                pendingFile.lastModified = lastModified;
+                pendingFile.lastChangeMillis = now;
+                continue;
+            }
+
+            if (now - pendingFile.lastChangeMillis < options.getWatchSettleMillis()) {
+                continue;
+            }
+
+            activeFiles.add(file);
+
+            if (!readyFiles.offer(file)) {
+                activeFiles.remove(file);
+                return true;
+            }
+
+            iterator.remove();
+        }
+
+        return false;
+    }
+
+    private void compressReadyFiles() {
+        while (!closed) {
+            Path file;
+
+            try {
+                file = readyFiles.poll(
+                    WORKER_POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                break;
+            }
+
+            if (file == null) {
+                continue;
+            }
+
+            try {
+                compress(file);
+            } catch (Exception ex) {
+                log.error("Error compressing {}:", file, ex);
+            } finally {
+                activeFiles.remove(file);
+            }
+        }
+    }
+
+    private void compress(Path file) throws IOException {
+        Path rootDir = rootDirs.stream().filter(file::startsWith)
+            .max(Comparator.comparingInt(Path::getNameCount))
+            .orElse(file.getParent());
+        String relativePath =
+            rootDir.relativize(file).toString().replace('\\', '/');
+        BatchJobResult result = compressor.compress(
+            new BatchInput(file.toFile(), relativePath));
+
+        statistics.record(result);
+
+        if (resultConsumer != null) {
+            resultConsumer.accept(result);
+        }
+
+        boolean failed = (result.getStatus() == BatchJobResult.Status.FAILED) ||
+            (result.getStatus() == BatchJobResult.Status.TIMED_OUT);
+        Path target = (failed ? options.getFailedDir() : options.getDoneDir())
+            .toPath().resolve(relativePath);
+
+        Files.createDirectories(target.getParent());
+        Files.move(file, findFreePath(target));
+    }
+
+    /**
+     * Finds a path that does not exist yet, appending a number to the base
+     * name of a file if needed, so that files dropped again with the same
+     * name do not replace earlier ones.
+     *
+     * @param path The desired path
+     *
+     * @return The desired path, or a numbered variant of it
+     */
+    static Path findFreePath(Path path) {
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return path;
+        }
+
+        String name = path.getFileName().toString();
+        int dotIndex = name.lastIndexOf('.');
+        String baseName = (dotIndex > 0) ? name.substring(0, dotIndex) : name;
+        String extension = (dotIndex > 0) ? name.substring(dotIndex) : "";
+
+        for (int i = 2; ; ++i) {
+            Path result = path.resolveSibling(
+                baseName + " (" + i + ")" + extension);
+
+            if (!Files.exists(result, LinkOption.NOFOLLOW_LINKS)) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Stops watching the input folders and waits for the files being
+     * compressed to finish. Files still queued are left in place.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        try {
+            watchService.close();
+        } catch (IOException ex) {
+            log.debug("Error closing the watch service: {}", ex.toString());
+        }
+
+        // Running compressions finish; queued files are left in place
+        workers.shutdown();
+
+        try {
+            if (started) {
+                stopped.await(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            }
+
+            if (!workers.awaitTermination(
+                    SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                log.warn("Compressions still running after {} s",
+                    SHUTDOWN_TIMEOUT_SECONDS);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        statistics.finish();
+        log.info("Stopped watching; {} files still queued", readyFiles.size());
+    }
+}
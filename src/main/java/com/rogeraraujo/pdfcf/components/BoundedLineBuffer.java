@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.components;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A thread-safe buffer of text lines with bounded memory usage. The first
+ * lines added are kept in a head list and the most recent lines are kept in
+ * a fixed-size ring buffer; lines in between are dropped, but still counted.
+ * Optionally, every line is also written to a transcript (spill) writer, so
+ * that the complete output remains available on disk.
+ */
+@Slf4j
+public class BoundedLineBuffer {
+    public static final int DEFAULT_HEAD_CAPACITY = 50;
+    public static final int DEFAULT_TAIL_CAPACITY = 200;
+
+    @Getter
+    private final int headCapacity;
+
+    @Getter
+    private final int tailCapacity;
+
+    private final List<String> headLines;
+
+    private final String[] tailLines;
+
+    // Index in tailLines where the next line will be stored
+    private int tailNext;
+
+    private int tailSize;
+
+    private long lineCount;
+
+    private long byteCount;
+
+    private long warningCount;
+
+    private long errorCount;
+
+    private Writer spillWriter;
+
+    private String spillLinePrefix = "";
+
+    public BoundedLineBuffer() {
+        this(DEFAULT_HEAD_CAPACITY, DEFAULT_TAIL_CAPACITY);
+    }
+
+    public BoundedLineBuffer(int headCapacity, int tailCapacity) {
+        if ((headCapacity < 0) || (tailCapacity < 0)) {
+            throw new IllegalArgumentException("Capacities (" + headCapacity +
+                ", " + tailCapacity + ") cannot be negative");
+        }
+
+        this.headCapacity = headCapacity;
+        this.tailCapacity = tailCapacity;
+        this.headLines = new ArrayList<>(Math.min(headCapacity, 64));
+        this.tailLines = new String[tailCapacity];
+    }
+
+    /**
+     * Sets a writer that receives every line added to this buffer. The
+     * writer can be shared among several buffers, in which case writes are
+     * synchronized on the writer itself. The writer is not closed by this
+     * class.
+     *
+     * @param spillWriter Writer to receive every line; can be null
+     * @param linePrefix Text prepended to each line written; can be null
+     */
+    public synchronized void setSpillWriter(
+            Writer spillWriter, String linePrefix) {
+        this.spillWriter = spillWriter;
+        this.spillLinePrefix = (linePrefix != null) ? linePrefix : "";
+    }
+
+    /**
+     * Adds a line to this buffer.
+     *
+     * @param line Line to add, without line terminators; null is ignored
+     */
+    public void add(String line) {
+        if (line == null) {
+            return;
+        }
+
+        Writer writer;
+        String linePrefix;
+
+        synchronized (this) {
+            ++lineCount;
+            byteCount += utf8Length(line) + 1;
+
+            if (isWarningLine(line)) {
+                ++warningCount;
+            }
+            else if (isErrorLine(line)) {
+                ++errorCount;
+            }
+
+            if (headLines.size() < headCapacity) {
+                headLines.add(line);
+            }
+            else if (tailCapacity > 0) {
+                tailLines[tailNext] = line;
+                tailNext = (tailNext + 1) % tailCapacity;
+                tailSize = Math.min(tailSize + 1, tailCapacity);
+            }
+
+            writer = spillWriter;
+            linePrefix = spillLinePrefix;
+        }
+
+        if (writer != null) {
+            try {
+                synchronized (writer) {
+                    writer.write(linePrefix);
+                    writer.write(line);
+                    writer.write('\n');
+                }
+            } catch (IOException ex) {
+                log.debug("Error writing line to spill writer:", ex);
+            }
+        }
+    }
+
+    public synchronized long getLineCount() {
+        return lineCount;
+    }
+
+    public synchronized long getByteCount() {
+        return byteCount;
+    }
+
+    public synchronized long getWarningCount() {
+        return warningCount;
+    }
+
+    public synchronized long getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * Returns the number of lines that were counted but not retained in
+     * memory.
+     *
+     * @return The number of dropped lines
+     */
+    public synchronized long getDroppedLineCount() {
+        return lineCount - headLines.size() - tailSize;
+    }
+
+    public synchronized List<String> getHeadLines() {
+        return new ArrayList<>(headLines);
+    }
+
+    /**
+     * Returns up to [maxLines] of the most recent lines retained in memory,
+     * oldest first. Head lines are included when the ring buffer holds fewer
+     * than [maxLines] lines.
+     *
+     * @param maxLines Maximum number of lines to return
+     *
+     * @return The most recent lines
+     */
+    public synchronized List<String> getLastLines(int maxLines) {
+        List<String> result = new ArrayList<>();
+        List<String> all = getRetainedLines(false);
+        int start = Math.max(0, all.size() - Math.max(0, maxLines));
+
+        result.addAll(all.subList(start, all.size()));
+
+        return result;
+    }
+
+    /**
+     * Returns every line retained in memory, oldest first. If some lines
+     * were dropped, a marker line stating how many is inserted between the
+     * head and tail lines.
+     *
+     * @return The retained lines
+     */
+    public synchronized List<String> getRetainedLines() {
+        return getRetainedLines(true);
+    }
+
+    private List<String> getRetainedLines(boolean includeDroppedMarker) {
+        List<String> result = new ArrayList<>(headLines.size() + tailSize + 1);
+        result.addAll(headLines);
+
+        long droppedLines = getDroppedLineCount();
+
+        if (includeDroppedMarker && (droppedLines > 0)) {
+            result.add("[... " + droppedLines + " lines omitted ...]");
+        }
+
+        int start = (tailNext - tailSize + tailCapacity) % Math.max(1, tailCapacity);
+
+        for (int i = 0; i < tailSize; ++i) {
+            result.add(tailLines[(start + i) % tailCapacity]);
+        }
+
+        return result;
+    }
+
+    private static boolean isWarningLine(String line) {
+        return line.contains("Warning") || line.contains("WARNING");
+    }
+
+    private static boolean isErrorLine(String line) {
+        return line.contains("Error") || line.contains("ERROR");
+    }
+
+    private static int utf8Length(String str) {
+        int result = 0;
+
+        for (int i = 0, len = str.length(); i < len; ++i) {
+            char ch = str.charAt(i);
+
+            if (ch < 0x80) {
+                ++result;
+            }
+            else if (ch < 0x800) {
+                result += 2;
+            }
+            else if (Character.isHighSurrogate(ch)) {
+                result += 4;
+                ++i;
+            }
+            else {
+                result += 3;
+            }
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.components;
+
+/**
+ * Interfaces of flow-controlled publish-subscribe components, with the same
+ * shape and contract as those of java.util.concurrent.Flow (and of Reactive
+ * Streams), which are not available in Java 8. Subscribers receive items
+ * only as far as they have requested them through their subscription, so
+ * that a slow subscriber slows down its publisher.
+ */
+public final class Flow {
+    private Flow() {
+    }
+
+    /**
+     * A producer of items received by subscribers.
+     *
+     * @param <T> Type of the items
+     */
+    public interface Publisher<T> {
+        /**
+         * Adds a subscriber, which is handed its subscription through
+         * {@link Subscriber#onSubscribe}, or an error through
+         * {@link Subscriber#onError} if it cannot subscribe.
+         *
+         * @param subscriber The subscriber
+         */
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * A receiver of items. The methods of a subscriber are called one at a
+     * time, never concurrently.
+     *
+     * @param <T> Type of the items
+     */
+    public interface Subscriber<T> {
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    /**
+     * Links a publisher to a subscriber.
+     */
+    public interface Subscription {
+        /**
+         * Adds to the number of items the subscriber is ready to receive.
+         *
+         * @param n The number of items; if not positive, the subscriber
+         *          receives an error
+         */
+        void request(long n);
+
+        /**
+         * Stops the delivery of items, possibly after some more.
+         */
+        void cancel();
+    }
+}
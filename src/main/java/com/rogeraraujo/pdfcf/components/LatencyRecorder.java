@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.components;
+
+import java.util.Arrays;
+
+/**
+ * Records durations and summarizes them. Totals cover every recorded
+ * duration, while percentiles are computed over a window of the most recent
+ * ones, so that they reflect the current load. Thread-safe.
+ */
+public class LatencyRecorder {
+    public static final int DEFAULT_WINDOW_SIZE = 1024;
+
+    // Most recent durations, as a ring buffer
+    private final long[] window;
+
+    private int windowCount;
+
+    private int nextIndex;
+
+    private long count;
+
+    private long totalMillis;
+
+    private long maxMillis;
+
+    public LatencyRecorder() {
+        this(DEFAULT_WINDOW_SIZE);
+    }
+
+    public LatencyRecorder(int windowSize) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("Window size must be positive");
+        }
+
+        this.window = new long[windowSize];
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param millis The duration in milliseconds
+     */
+    public synchronized void record(long millis) {
+        window[nextIndex] = millis;
+        nextIndex = (nextIndex + 1) % window.length;
+        windowCount = Math.min(windowCount + 1, window.length);
+
+        ++count;
+        totalMillis += millis;
+        maxMillis = Math.max(maxMillis, millis);
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getMaxMillis() {
+        return maxMillis;
+    }
+
+    /**
+     * @return The mean of all recorded durations in milliseconds, or zero
+     *         if none was recorded
+     */
+    public synchronized double getMeanMillis() {
+        return (count > 0) ? totalMillis / (double) count : 0.0d;
+    }
+
+    /**
+     * Computes a percentile of the most recent durations, with the nearest
+     * rank method.
+     *
+     * @param percentile The percentile, from 0 to 100
+     *
+     * @return The percentile in milliseconds, or zero if no duration was
+     *         recorded
+     */
+    public long getPercentileMillis(double percentile) {
+        if ((percentile < 0) || (percentile > 100)) {
+            throw new IllegalArgumentException(
+                "Percentile must be between 0 and 100");
+        }
+
+        long[] sorted;
+
+        synchronized (this) {
+            if (windowCount == 0) {
+                return 0;
+            }
+
+            sorted = Arrays.copyOf(window, windowCount);
+        }
+
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100.0d * sorted.length);
+
+        return sorted[Math.max(0, rank - 1)];
+    }
+}
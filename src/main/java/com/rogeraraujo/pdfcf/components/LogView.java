@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.components;
+
+import lombok.Getter;
+
+import javax.swing.*;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import java.awt.*;
+
+/**
+ * A read-only view of a RingBufferLogModel, one line per row. All rows have
+ * the same height and width, so that only the visible rows are ever laid
+ * out or painted, regardless of the number of lines; the width grows with
+ * the widest line added so far. The view keeps scrolling to the last line
+ * while it is scrolled to the bottom. Selected lines can be copied with the
+ * usual shortcut.
+ */
+public class LogView extends JList<String> {
+    // Space around the text of each row, in pixels
+    private static final int ROW_PADDING = 2;
+
+    @Getter
+    private final RingBufferLogModel logModel;
+
+    private int widestLineWidth;
+
+    public LogView(RingBufferLogModel logModel) {
+        super(logModel);
+
+        if (logModel == null) {
+            throw new IllegalArgumentException("Log model cannot be null");
+        }
+
+        this.logModel = logModel;
+
+        setLayoutOrientation(JList.VERTICAL);
+        setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+        updateCellSize();
+
+        logModel.addListDataListener(new ListDataListener() {
+            @Override
+            public void intervalAdded(ListDataEvent event) {
+                linesAdded(event.getIndex0(), event.getIndex1());
+            }
+
+            @Override
+            public void intervalRemoved(ListDataEvent event) {
+                if (logModel.getSize() == 0) {
+                    widestLineWidth = 0;
+                    updateCellSize();
+                }
+            }
+
+            @Override
+            public void contentsChanged(ListDataEvent event) {
+                // Lines never change once added
+            }
+        });
+    }
+
+    @Override
+    public void setFont(Font font) {
+        super.setFont(font);
+
+        // Called by the superclass constructor, before the fields are set
+        if (logModel != null) {
+            widestLineWidth = 0;
+            linesAdded(0, logModel.getSize() - 1);
+        }
+    }
+
+    private void linesAdded(int firstIndex, int lastIndex) {
+        JScrollBar scrollBar = findVerticalScrollBar();
+        boolean atBottom = (scrollBar == null) ||
+            (scrollBar.getValue() + scrollBar.getVisibleAmount() >=
+             scrollBar.getMaximum() - getFixedCellHeight());
+        FontMetrics fontMetrics = getFontMetrics(getFont());
+        int oldWidestLineWidth = widestLineWidth;
+
+        for (int i = firstIndex; i <= lastIndex; ++i) {
+            widestLineWidth = Math.max(widestLineWidth,
+                fontMetrics.stringWidth(logModel.getElementAt(i)));
+        }
+
+        if (widestLineWidth != oldWidestLineWidth) {
+            updateCellSize();
+        }
+
+        if (atBottom && (lastIndex >= 0)) {
+            // Scrolls once the list has been laid out with the new lines
+            SwingUtilities.invokeLater(() -> {
+                int lastRow = logModel.getSize() - 1;
+
+                if (lastRow >= 0) {
+                    ensureIndexIsVisible(lastRow);
+                }
+            });
+        }
+    }
+
+    private void updateCellSize() {
+        FontMetrics fontMetrics = getFontMetrics(getFont());
+
+        setFixedCellHeight(fontMetrics.getHeight() + ROW_PADDING);
+        setFixedCellWidth(widestLineWidth + fontMetrics.charWidth('M') +
+            2 * ROW_PADDING);
+    }
+
+    private JScrollBar findVerticalScrollBar() {
+        Container parent = SwingUtilities.getAncestorOfClass(
+            JScrollPane.class, this);
+
+        return (parent != null) ?
+            ((JScrollPane) parent).getVerticalScrollBar() : null;
+    }
+}
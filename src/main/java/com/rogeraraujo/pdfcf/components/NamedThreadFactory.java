@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.components;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A ThreadFactory that creates daemon threads named after a common prefix
+ * followed by a sequence number, which makes thread dumps and log messages
+ * easier to read.
+ */
+public class NamedThreadFactory implements ThreadFactory {
+    private final String namePrefix;
+
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    public NamedThreadFactory(String namePrefix) {
+        if (namePrefix == null) {
+            throw new IllegalArgumentException("Name prefix cannot be null");
+        }
+
+        this.namePrefix = namePrefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread result = new Thread(runnable,
+            namePrefix + "-" + threadCount.incrementAndGet());
+        result.setDaemon(true);
+
+        return result;
+    }
+}
@@ -20,8 +20,7 @@ import lombok.Getter;
 import lombok.Setter;
 
 import java.io.BufferedReader;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.File;
 
 /**
  * Information about the execution of an external process.
@@ -30,9 +29,13 @@ import java.util.List;
 public class ProcessExecutionInfo {
     private Process process;
 
-    private List<String> initialInputStreamLines = new ArrayList<>();
+    // Bounded in memory; see BoundedLineBuffer
+    private BoundedLineBuffer inputStreamLines;
 
-    private List<String> initialErrorStreamLines = new ArrayList<>();
+    private BoundedLineBuffer errorStreamLines;
+
+    // File holding the complete output of the process, if any
+    private File transcriptFile;
 
     private BufferedReader inputStreamReader;
 
@@ -42,7 +45,40 @@ public class ProcessExecutionInfo {
 
     private Exception executionException;
 
+    // Whether the process was terminated for exceeding a timeout
+    private boolean timedOut;
+
+    private String timeoutMessage;
+
+    // Whether the execution was still running when it got aborted because
+    // the calling thread was interrupted
+    private boolean destroyed;
+
+    // Describes how an in-process executor ran the command, if it did
+    private String executionNote;
+
     public ProcessExecutionInfo(Process process) {
+        this(process, BoundedLineBuffer.DEFAULT_HEAD_CAPACITY,
+            BoundedLineBuffer.DEFAULT_TAIL_CAPACITY);
+    }
+
+    public ProcessExecutionInfo(
+            Process process, int headLineCapacity, int tailLineCapacity) {
         this.process = process;
+        this.inputStreamLines =
+            new BoundedLineBuffer(headLineCapacity, tailLineCapacity);
+        this.errorStreamLines =
+            new BoundedLineBuffer(headLineCapacity, tailLineCapacity);
+    }
+
+    /**
+     * Returns the number of warning lines written by the process to both
+     * its output and error streams.
+     *
+     * @return The number of warning lines
+     */
+    public long getWarningCount() {
+        return inputStreamLines.getWarningCount() +
+            errorStreamLines.getWarningCount();
     }
 }
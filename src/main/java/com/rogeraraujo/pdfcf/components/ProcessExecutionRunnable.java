@@ -18,43 +18,155 @@ package com.rogeraraujo.pdfcf.components;
 
 import com.rogeraraujo.pdfcf.Utils;
 import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
-import java.io.BufferedReader;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.*;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
 
 /**
  * An implementation of Runnable capable of executing an external process,
  * and also of notifying listeners about the execution of said process. The
- * results of executing the external process are exposed through a number of
- * attributes.
+ * output and error streams of the process are drained concurrently, and each
+ * line is handed to the listeners as soon as it is read. Only the first and
+ * last lines of each stream are retained in memory (see BoundedLineBuffer);
+ * the complete output can be spilled to a transcript file. Optional
+ * wall-clock and idle timeouts terminate processes that run for too long or
+ * stop producing output. The results of executing the external process are
+ * exposed through a number of attributes.
+ *
+ * <p>If an in-process executor is set and accepts the command line of the
+ * process builder, the command line is run by it instead, with the same
+ * notifications, line buffers and timeouts; no Process object exists in that
+ * case.</p>
  */
 @Slf4j
 public class ProcessExecutionRunnable implements Runnable {
-    // Thread listeners need to implement this interface
+    private static final long WATCHDOG_INTERVAL_MILLIS = 250;
+
+    private static final long STREAM_JOIN_TIMEOUT_MILLIS = 2000;
+
+    // Thread listeners need to implement this interface. Stream lines can be
+    // notified from two threads at the same time (one per stream)
     public interface PerListener {
         void notifyThreadStart(ProcessExecutionRunnable source);
 
         void notifyProcessCreation(ProcessExecutionRunnable source);
 
+        void notifyStreamLine(ProcessExecutionRunnable source,
+            String line, boolean errorStream);
+
         void notifyInitialStreamLines(ProcessExecutionRunnable source);
 
         void notifyThreadEnd(ProcessExecutionRunnable source);
     }
 
+    /**
+     * An implementation of PerListener whose methods do nothing, meant to
+     * be extended by listeners interested in a few notifications only.
+     */
+    public static class PerAdapter implements PerListener {
+        @Override
+        public void notifyThreadStart(ProcessExecutionRunnable source) { }
+
+        @Override
+        public void notifyProcessCreation(ProcessExecutionRunnable source) { }
+
+        @Override
+        public void notifyStreamLine(ProcessExecutionRunnable source,
+            String line, boolean errorStream) { }
+
+        @Override
+        public void notifyInitialStreamLines(ProcessExecutionRunnable source) { }
+
+        @Override
+        public void notifyThreadEnd(ProcessExecutionRunnable source) { }
+    }
+
+    /**
+     * Runs a command line inside the JVM, such as through a native library
+     * or an already running process, instead of in a new external process.
+     */
+    public interface InProcessExecutor {
+        /**
+         * Checks whether a command line can be run by this executor. Command
+         * lines that cannot be run are run in a new external process.
+         *
+         * @param commands Command line, including the program name
+         *
+         * @return Whether the command line can be run
+         */
+        default boolean accepts(List<String> commands) {
+            return true;
+        }
+
+        /**
+         * Runs a command line.
+         *
+         * @param commands Command line, including the program name
+         * @param executionInfo Information about the execution, where the
+         *                      executor can leave notes
+         * @param lineConsumer Receives each output line and whether it was
+         *                     written to the error stream
+         * @param cancellation Polled during the execution; returning true
+         *                     means the execution must be aborted
+         *
+         * @return The exit value of the execution
+         *
+         * @throws Exception If the command line cannot be run
+         */
+        int execute(List<String> commands, ProcessExecutionInfo executionInfo,
+            BiConsumer<String, Boolean> lineConsumer,
+            BooleanSupplier cancellation) throws Exception;
+    }
+
     private final ProcessBuilder processBuilder;
 
+    // If set, runs the command line instead of an external process
+    @Getter @Setter
+    private InProcessExecutor inProcessExecutor;
+
+    private volatile boolean inProcessCancelled;
+
     @Getter
     private Process process;
 
     @Getter
     private ProcessExecutionInfo processExecutionInfo;
 
+    // Number of lines retained in memory at the beginning and at the end of
+    // each stream
+    @Getter @Setter
+    private int headLineCapacity = BoundedLineBuffer.DEFAULT_HEAD_CAPACITY;
+
+    @Getter @Setter
+    private int tailLineCapacity = BoundedLineBuffer.DEFAULT_TAIL_CAPACITY;
+
+    // If set, receives the complete output of the process
+    @Getter @Setter
+    private File transcriptFile;
+
+    // Maximum running time of the process; zero or less means no limit
+    @Getter @Setter
+    private long wallClockTimeoutMillis;
+
+    // Maximum time the process may go without writing a line to any of its
+    // streams; zero or less means no limit
+    @Getter @Setter
+    private long idleTimeoutMillis;
+
+    private volatile long lastOutputTimeMillis;
+
     @Getter
-    private final List<PerListener> listeners = new ArrayList<>();
+    private final List<PerListener> listeners = new CopyOnWriteArrayList<>();
 
     public ProcessExecutionRunnable(ProcessBuilder processBuilder) {
         if (processBuilder == null) {
@@ -83,9 +195,23 @@ public class ProcessExecutionRunnable implements Runnable {
             listener.notifyThreadStart(this);
         }
 
+        // Created upfront so that errors starting the process can be stored
+        processExecutionInfo = new ProcessExecutionInfo(
+            null, headLineCapacity, tailLineCapacity);
+        Writer transcriptWriter = null;
+
         try {
+            transcriptWriter = openTranscriptWriter();
+
+            if ((inProcessExecutor != null) &&
+                inProcessExecutor.accepts(processBuilder.command())) {
+                runInProcess();
+                return;
+            }
+
             // Creates the process
             process = processBuilder.start();
+            processExecutionInfo.setProcess(process);
 
             InputStream inputStream = process.getInputStream();
             BufferedReader inputStreamReader = (inputStream != null) ?
@@ -95,7 +221,6 @@ public class ProcessExecutionRunnable implements Runnable {
             BufferedReader errorStreamReader = (errorStream != null) ?
                 new BufferedReader(new InputStreamReader(errorStream)) : null;
 
-            processExecutionInfo = new ProcessExecutionInfo(process);
             processExecutionInfo.setInputStreamReader(inputStreamReader);
             processExecutionInfo.setErrorStreamReader(errorStreamReader);
 
@@ -103,20 +228,27 @@ public class ProcessExecutionRunnable implements Runnable {
                 listener.notifyProcessCreation(this);
             }
 
-            // Consumes initial stream lines
-            List<String> inputLines =
-                processExecutionInfo.getInitialInputStreamLines();
+            // Drains both streams in helper threads, so that neither stream
+            // can fill up and block the process, while this thread watches
+            // over the process
+            lastOutputTimeMillis = System.currentTimeMillis();
 
-            Utils.consumeLines(inputStreamReader,
-                new Utils.AlwaysTrueIntegerBiFunction<>(
-                    (line, lineNum) -> inputLines.add(line)));
+            Thread inputStreamThread = startDrainThread(inputStreamReader, false);
+            Thread errorStreamThread = startDrainThread(errorStreamReader, true);
 
-            List<String> errorLines =
-                processExecutionInfo.getInitialErrorStreamLines();
+            boolean finished = watchProcess();
 
-            Utils.consumeLines(errorStreamReader,
-                new Utils.AlwaysTrueIntegerBiFunction<>(
-                    (line, lineNum) -> errorLines.add(line)));
+            // After a timeout, the wait for the remaining output is bounded
+            // in case an orphaned child process keeps a stream open, so that
+            // the calling thread is freed right away
+            if (finished) {
+                inputStreamThread.join();
+                errorStreamThread.join();
+            }
+            else {
+                inputStreamThread.join(STREAM_JOIN_TIMEOUT_MILLIS);
+                errorStreamThread.join(STREAM_JOIN_TIMEOUT_MILLIS);
+            }
 
             for (PerListener listener : listeners) {
                 listener.notifyInitialStreamLines(this);
@@ -126,24 +258,269 @@ public class ProcessExecutionRunnable implements Runnable {
             process.waitFor();
 
             processExecutionInfo.setExitValue(process.exitValue());
+        } catch (InterruptedException ex) {
+            // The caller gave up on the process, so it must not outlive
+            // this thread
+            if ((process != null) && process.isAlive()) {
+                processExecutionInfo.setDestroyed(true);
+            }
+
+            destroyProcessForcibly();
+            processExecutionInfo.setExecutionException(ex);
+            Thread.currentThread().interrupt();
         } catch (Exception ex) {
             processExecutionInfo.setExecutionException(ex);
+        } finally {
+            closeTranscriptWriter(transcriptWriter);
+
+            // Notifies thread end
+            for (PerListener listener : listeners) {
+                listener.notifyThreadEnd(this);
+            }
+        }
+    }
+
+    /**
+     * Runs the command line with the in-process executor on the current
+     * thread. Timeouts and cancellation are enforced through the
+     * cancellation check polled by the executor.
+     *
+     * @throws Exception If the executor fails, or InterruptedException if
+     *                   the thread got interrupted during the execution
+     */
+    private void runInProcess() throws Exception {
+        long startTimeMillis = System.currentTimeMillis();
+        lastOutputTimeMillis = startTimeMillis;
+
+        for (PerListener listener : listeners) {
+            listener.notifyProcessCreation(this);
+        }
+
+        int exitValue = inProcessExecutor.execute(
+            processBuilder.command(), processExecutionInfo,
+            (line, errorStream) -> handleStreamLine(line, errorStream),
+            () -> isInProcessExecutionAborted(startTimeMillis));
+
+        for (PerListener listener : listeners) {
+            listener.notifyInitialStreamLines(this);
+        }
+
+        if (Thread.interrupted()) {
+            // The executor was aborted while running
+            processExecutionInfo.setDestroyed(true);
+            throw new InterruptedException();
+        }
+
+        processExecutionInfo.setExitValue(exitValue);
+    }
+
+    private boolean isInProcessExecutionAborted(long startTimeMillis) {
+        if (inProcessCancelled || Thread.currentThread().isInterrupted()) {
+            return true;
+        }
+
+        String timeoutMessage = computeTimeoutMessage(startTimeMillis);
+
+        if (timeoutMessage != null) {
+            log.debug("{}; aborting it", timeoutMessage);
+
+            processExecutionInfo.setTimedOut(true);
+            processExecutionInfo.setTimeoutMessage(timeoutMessage);
+            inProcessCancelled = true;
+
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Waits for the process to end, enforcing the wall-clock and idle
+     * timeouts. If a timeout expires, the process tree is destroyed and the
+     * execution info is marked as timed out.
+     *
+     * @return Whether the process ended by itself
+     *
+     * @throws InterruptedException If the thread gets interrupted while
+     *                              waiting
+     */
+    private boolean watchProcess() throws InterruptedException {
+        long startTimeMillis = System.currentTimeMillis();
+
+        if ((wallClockTimeoutMillis <= 0) && (idleTimeoutMillis <= 0)) {
+            process.waitFor();
+            return true;
+        }
+
+        while (!process.waitFor(WATCHDOG_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+            String timeoutMessage = computeTimeoutMessage(startTimeMillis);
+
+            if (timeoutMessage != null) {
+                log.debug("{}; terminating it", timeoutMessage);
+
+                processExecutionInfo.setTimedOut(true);
+                processExecutionInfo.setTimeoutMessage(timeoutMessage);
+                destroyProcessForcibly();
+
+                return false;
+            }
         }
 
-        // Notifies thread end
+        return true;
+    }
+
+    /**
+     * Checks the wall-clock and idle timeouts.
+     *
+     * @param startTimeMillis When the execution started
+     *
+     * @return A message describing the expired timeout, or null if no
+     *         timeout has expired
+     */
+    private String computeTimeoutMessage(long startTimeMillis) {
+        long now = System.currentTimeMillis();
+
+        if ((wallClockTimeoutMillis > 0) &&
+            (now - startTimeMillis >= wallClockTimeoutMillis)) {
+            return "Process exceeded the time limit of " +
+                Utils.formatElapsedTime(wallClockTimeoutMillis / 1000);
+        }
+
+        if ((idleTimeoutMillis > 0) &&
+            (now - lastOutputTimeMillis >= idleTimeoutMillis)) {
+            return "Process produced no output for " +
+                Utils.formatElapsedTime(idleTimeoutMillis / 1000);
+        }
+
+        return null;
+    }
+
+    private Thread startDrainThread(BufferedReader reader, boolean errorStream) {
+        Thread result = new Thread(() -> drainStream(reader, errorStream),
+            Thread.currentThread().getName() +
+            (errorStream ? "-stderr" : "-stdout"));
+        result.setDaemon(true);
+        result.start();
+
+        return result;
+    }
+
+    private Writer openTranscriptWriter() throws IOException {
+        if (transcriptFile == null) {
+            return null;
+        }
+
+        File transcriptFileParent = transcriptFile.getParentFile();
+
+        if ((transcriptFileParent != null) && !transcriptFileParent.exists() &&
+            !transcriptFileParent.mkdirs() && !transcriptFileParent.exists()) {
+            throw new IOException("Could not create transcript folder " +
+                transcriptFileParent.getPath());
+        }
+
+        Writer result = new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(transcriptFile), StandardCharsets.UTF_8));
+
+        processExecutionInfo.getInputStreamLines().setSpillWriter(result, null);
+        processExecutionInfo.getErrorStreamLines().setSpillWriter(
+            result, "[stderr] ");
+        processExecutionInfo.setTranscriptFile(transcriptFile);
+
+        return result;
+    }
+
+    private void closeTranscriptWriter(Writer transcriptWriter) {
+        if (transcriptWriter == null) {
+            return;
+        }
+
+        processExecutionInfo.getInputStreamLines().setSpillWriter(null, null);
+        processExecutionInfo.getErrorStreamLines().setSpillWriter(null, null);
+
+        try {
+            transcriptWriter.close();
+        } catch (IOException ex) {
+            log.debug("Error closing transcript file:", ex);
+        }
+    }
+
+    private void drainStream(BufferedReader reader, boolean errorStream) {
+        try {
+            Utils.consumeLines(reader, new Utils.AlwaysTrueIntegerBiFunction<>(
+                (line, lineNum) -> handleStreamLine(line, errorStream)));
+        } catch (IOException ex) {
+            // Expected when the process gets destroyed while being read
+            log.debug("Error reading process {} stream:",
+                errorStream ? "error" : "input", ex);
+        }
+    }
+
+    private void handleStreamLine(String line, boolean errorStream) {
+        BoundedLineBuffer lineBuffer = errorStream ?
+            processExecutionInfo.getErrorStreamLines() :
+            processExecutionInfo.getInputStreamLines();
+
+        lastOutputTimeMillis = System.currentTimeMillis();
+        lineBuffer.add(line);
+
         for (PerListener listener : listeners) {
-            listener.notifyThreadEnd(this);
+            listener.notifyStreamLine(this, line, errorStream);
         }
     }
 
     /**
-     * Forcibly terminates the external process started by this thread.
-     * If there is no process to terminate, or if a process exists but
-     * it has already finished executing, no action is taken.
+     * Forcibly terminates the external process started by this thread,
+     * along with any processes it started in turn (when running on Java 9
+     * or later). If there is no process to terminate, or if a process exists
+     * but it has already finished executing, no action is taken. An
+     * in-process execution is aborted the next time it polls for
+     * cancellation.
      */
     public void destroyProcessForcibly() {
+        inProcessCancelled = true;
+
         if ((process != null) && process.isAlive()) {
+            // Descendants are listed before the process gets destroyed,
+            // since they can no longer be found once they are orphaned
+            List<Runnable> descendantDestroyers = listDescendantDestroyers(process);
+
             process.destroyForcibly();
+            descendantDestroyers.forEach(Runnable::run);
         }
     }
+
+    /**
+     * Lists actions that forcibly terminate the descendants of a process.
+     * ProcessHandle only exists in Java 9 and later, so it is accessed
+     * through reflection; on Java 8 the resulting list is empty.
+     *
+     * @param process Process whose descendants are sought
+     *
+     * @return Actions that terminate each descendant process
+     */
+    private static List<Runnable> listDescendantDestroyers(Process process) {
+        List<Runnable> result = new ArrayList<>();
+
+        try {
+            Class<?> handleClass = Class.forName("java.lang.ProcessHandle");
+            Method destroyForcibly = handleClass.getMethod("destroyForcibly");
+            Object handle = Process.class.getMethod("toHandle").invoke(process);
+            Stream<?> descendants = (Stream<?>)
+                handleClass.getMethod("descendants").invoke(handle);
+
+            descendants.forEach(descendant -> result.add(() -> {
+                try {
+                    destroyForcibly.invoke(descendant);
+                } catch (Exception ex) {
+                    log.debug("Error destroying descendant process:", ex);
+                }
+            }));
+        } catch (ClassNotFoundException ex) {
+            // Java 8: only the process itself can be destroyed
+        } catch (Exception ex) {
+            log.debug("Error listing descendant processes:", ex);
+        }
+
+        return result;
+    }
 }
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.components;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the memory usage of external processes from the proc file system,
+ * which is only available on Linux. On other systems, or if a process has
+ * already ended, usage is reported as unknown.
+ */
+@Slf4j
+public class ProcessMemory {
+    private static final File PROC_DIR = new File("/proc");
+
+    // Private constructor to prevent instantiation
+    private ProcessMemory() { }
+
+    /**
+     * @return Whether memory usage can be read on this system
+     */
+    public static boolean isSupported() {
+        return new File(PROC_DIR, "self/status").canRead();
+    }
+
+    /**
+     * Obtains the operating system identifier of a process. Process.pid()
+     * only exists in Java 9 and later, so it is accessed through reflection;
+     * on Java 8 the private field of the Unix implementation is read.
+     *
+     * @param process The process
+     *
+     * @return The process identifier, or -1 if it could not be obtained
+     */
+    public static long getProcessId(Process process) {
+        if (process == null) {
+            return -1;
+        }
+
+        try {
+            return (Long) Process.class.getMethod("pid").invoke(process);
+        } catch (NoSuchMethodException ex) {
+            // Java 8
+        } catch (Exception ex) {
+            log.debug("Error obtaining process id:", ex);
+            return -1;
+        }
+
+        try {
+            Field pidField = process.getClass().getDeclaredField("pid");
+            pidField.setAccessible(true);
+            return pidField.getInt(process);
+        } catch (Exception ex) {
+            log.debug("Error obtaining process id:", ex);
+            return -1;
+        }
+    }
+
+    /**
+     * Reads the peak resident set size of a process, that is, the largest
+     * amount of physical memory it has used so far (VmHWM).
+     *
+     * @param pid The process identifier
+     *
+     * @return The peak resident set size in bytes, or -1 if unknown
+     */
+    public static long readPeakResidentSize(long pid) {
+        return readStatusSize(pid, "VmHWM:");
+    }
+
+    /**
+     * Reads the resident set size of a process, that is, the amount of
+     * physical memory it currently uses (VmRSS).
+     *
+     * @param pid The process identifier
+     *
+     * @return The resident set size in bytes, or -1 if unknown
+     */
+    public static long readResidentSize(long pid) {
+        return readStatusSize(pid, "VmRSS:");
+    }
+
+    private static long readStatusSize(long pid, String key) {
+        if (pid <= 0) {
+            return -1;
+        }
+
+        File statusFile = new File(PROC_DIR, pid + File.separator + "status");
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(statusFile), StandardCharsets.US_ASCII))) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(key)) {
+                    return parseStatusSize(line.substring(key.length()));
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            // The process has ended, or this is not Linux
+        }
+
+        return -1;
+    }
+
+    /**
+     * Parses a size in the format of the proc status file, such as
+     * "  123456 kB".
+     *
+     * @param value The size
+     *
+     * @return The size in bytes, or -1 if it cannot be parsed
+     */
+    static long parseStatusSize(String value) {
+        String[] parts = value.trim().split("\\s+");
+
+        try {
+            long size = Long.parseLong(parts[0]);
+
+            return ((parts.length > 1) && "kB".equalsIgnoreCase(parts[1])) ?
+                size * 1024 : size;
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+}
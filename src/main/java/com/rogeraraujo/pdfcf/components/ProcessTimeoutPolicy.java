@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.components;
+
+import com.rogeraraujo.pdfcf.Utils;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.Properties;
+
+/**
+ * Timeouts applied to external processes. The wall-clock timeout is made of
+ * a fixed part plus an optional part proportional to the size of the input
+ * file, so that large files get more time. The idle timeout limits how long
+ * a process may run without writing any output. Zero disables a timeout.
+ */
+@Getter @Setter
+public class ProcessTimeoutPolicy {
+    private long wallClockTimeoutSeconds;
+
+    private double wallClockSecondsPerMegabyte;
+
+    private long idleTimeoutSeconds;
+
+    /**
+     * Creates an instance of this class based on configuration properties.
+     * Missing or invalid properties disable the corresponding timeout.
+     *
+     * @param config Configuration properties; can be null
+     *
+     * @return A new instance of this class
+     */
+    public static ProcessTimeoutPolicy fromConfiguration(Properties config) {
+        ProcessTimeoutPolicy result = new ProcessTimeoutPolicy();
+
+        if (config == null) {
+            return result;
+        }
+
+        Integer wallClockTimeout = Utils.stringToInt(
+            config.getProperty("process-timeout-seconds", ""));
+        Double secondsPerMegabyte = Utils.stringToDouble(
+            config.getProperty("process-timeout-seconds-per-megabyte", ""));
+        Integer idleTimeout = Utils.stringToInt(
+            config.getProperty("process-idle-timeout-seconds", ""));
+
+        result.setWallClockTimeoutSeconds(
+            (wallClockTimeout != null) ? Math.max(0, wallClockTimeout) : 0);
+        result.setWallClockSecondsPerMegabyte(
+            (secondsPerMegabyte != null) ? Math.max(0, secondsPerMegabyte) : 0);
+        result.setIdleTimeoutSeconds(
+            (idleTimeout != null) ? Math.max(0, idleTimeout) : 0);
+
+        return result;
+    }
+
+    /**
+     * Computes the wall-clock timeout for a given input file size.
+     *
+     * @param inputFileSize Size of the input file in bytes
+     *
+     * @return The timeout in milliseconds, or zero if there is no limit
+     */
+    public long computeWallClockTimeoutMillis(long inputFileSize) {
+        double megabytes = Math.max(0, inputFileSize) / (double) Utils.ONE_MEGABYTE;
+        double seconds = wallClockTimeoutSeconds +
+            (wallClockSecondsPerMegabyte * megabytes);
+
+        return Math.round(seconds * 1000.0d);
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutSeconds * 1000;
+    }
+
+    /**
+     * Applies this policy to a process runnable.
+     *
+     * @param runnable Runnable whose timeouts will be set
+     * @param inputFileSize Size of the input file in bytes
+     */
+    public void applyTo(ProcessExecutionRunnable runnable, long inputFileSize) {
+        runnable.setWallClockTimeoutMillis(
+            computeWallClockTimeoutMillis(inputFileSize));
+        runnable.setIdleTimeoutMillis(getIdleTimeoutMillis());
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.components;
+
+import com.rogeraraujo.pdfcf.Utils;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormat;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Tracks the progress of a Ghostscript process from its output, as a
+ * listener of a ProcessExecutionRunnable. Ghostscript announces the pages
+ * to process ("Processing pages 1 through 40.") and then each page as it
+ * starts ("Page 7"), which gives the fraction of pages done, the rate in
+ * pages per second and the estimated time left. When the process prints no
+ * page lines (for instance, with -q), the number of bytes it has read, from
+ * /proc/&lt;pid&gt;/io on Linux, compared to the size of the input file
+ * serves as a rougher progress signal; see {@link #poll()}.
+ *
+ * <p>Not tied to Swing: listeners are notified on the thread that reads the
+ * process output, or on the thread calling poll().</p>
+ */
+@Slf4j
+public class ProgressTracker extends ProcessExecutionRunnable.PerAdapter {
+    private static final String PROCESSING_PAGES_PREFIX = "Processing pages ";
+
+    private static final String PAGES_SEPARATOR = " through ";
+
+    private static final String PAGE_PREFIX = "Page ";
+
+    // Progress from bytes read never reaches completion, since Ghostscript
+    // can read parts of the input more than once
+    private static final double MAX_IO_FRACTION = 0.99d;
+
+    /**
+     * Where a progress value comes from.
+     */
+    public enum Source { NONE, PAGES, INPUT_BYTES }
+
+    /**
+     * A snapshot of the progress of a process.
+     */
+    @Getter
+    public static class Progress {
+        private final Source source;
+
+        // Zero if the number of pages is unknown
+        private final int totalPages;
+
+        private final int completedPages;
+
+        // Between 0 and 1; negative if unknown
+        private final double fraction;
+
+        // Zero if unknown
+        private final double pagesPerSecond;
+
+        // Negative if unknown
+        private final long remainingMillis;
+
+        private Progress(Source source, int totalPages, int completedPages,
+                double fraction, double pagesPerSecond, long remainingMillis) {
+            this.source = source;
+            this.totalPages = totalPages;
+            this.completedPages = completedPages;
+            this.fraction = fraction;
+            this.pagesPerSecond = pagesPerSecond;
+            this.remainingMillis = remainingMillis;
+        }
+
+        public boolean isDeterminate() {
+            return fraction >= 0;
+        }
+
+        /**
+         * Describes the progress for display, such as "Page 7 of 40,
+         * 3.5 pages/s, about 00:00:09 left".
+         *
+         * @return The description, or an empty String if the progress is
+         *         unknown
+         */
+        public String describe() {
+            if (!isDeterminate()) {
+                return "";
+            }
+
+            StringBuilder result = new StringBuilder();
+
+            if (source == Source.PAGES) {
+                result.append("Page ").append(completedPages)
+                    .append(" of ").append(totalPages);
+
+                if (pagesPerSecond > 0) {
+                    result.append(", ").append(new DecimalFormat("0.#").format(
+                        pagesPerSecond)).append(" pages/s");
+                }
+            }
+            else {
+                result.append(new DecimalFormat("0").format(fraction * 100))
+                    .append("% of the input read");
+            }
+
+            if (remainingMillis >= 0) {
+                result.append(", about ").append(Utils.formatElapsedTime(
+                    remainingMillis / 1000)).append(" left");
+            }
+
+            return result.toString();
+        }
+    }
+
+    /**
+     * Receives progress updates.
+     */
+    public interface ProgressListener {
+        void progressChanged(ProgressTracker source, Progress progress);
+    }
+
+    // Size of the input file in bytes, for the fallback progress signal;
+    // zero disables it
+    private final long inputFileSize;
+
+    private final List<ProgressListener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile long startTimeMillis = System.currentTimeMillis();
+
+    private volatile long processId = -1;
+
+    private int firstPage;
+
+    private int totalPages;
+
+    // Pages finished so far; a page counts as done once the next one starts
+    private int completedPages;
+
+    private long firstPageTimeMillis;
+
+    @Getter
+    private volatile Progress progress =
+        new Progress(Source.NONE, 0, 0, -1, 0, -1);
+
+    /**
+     * Creates a new tracker.
+     *
+     * @param inputFileSize Size of the input file in bytes, used when the
+     *                      process prints no pages; zero disables this
+     */
+    public ProgressTracker(long inputFileSize) {
+        this.inputFileSize = inputFileSize;
+    }
+
+    public void addListener(ProgressListener listener) {
+        if (listener != null) {
+            listeners.add(listener);
+        }
+    }
+
+    public void removeListener(ProgressListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void notifyProcessCreation(ProcessExecutionRunnable source) {
+        startTimeMillis = System.currentTimeMillis();
+        processId = ProcessMemory.getProcessId(source.getProcess());
+    }
+
+    @Override
+    public void notifyStreamLine(ProcessExecutionRunnable source,
+            String line, boolean errorStream) {
+        if (!errorStream) {
+            processLine(line);
+        }
+    }
+
+    /**
+     * Updates the progress from a line of Ghostscript output.
+     *
+     * @param line The line
+     */
+    public void processLine(String line) {
+        Progress newProgress = null;
+
+        synchronized (this) {
+            if (line.startsWith(PROCESSING_PAGES_PREFIX)) {
+                int separatorIndex = line.indexOf(PAGES_SEPARATOR);
+
+                if (separatorIndex > 0) {
+                    Integer first = parseNumber(line.substring(
+                        PROCESSING_PAGES_PREFIX.length(), separatorIndex));
+                    Integer last = parseNumber(line.substring(
+                        separatorIndex + PAGES_SEPARATOR.length()));
+
+                    if ((first != null) && (last != null) && (last >= first)) {
+                        firstPage = first;
+                        totalPages = last - first + 1;
+                        completedPages = 0;
+                        firstPageTimeMillis = 0;
+                        newProgress = computePageProgress();
+                    }
+                }
+            }
+            else if (line.startsWith(PAGE_PREFIX) && (totalPages > 0)) {
+                Integer page = parseNumber(line.substring(PAGE_PREFIX.length()));
+
+                if (page != null) {
+                    if (firstPageTimeMillis == 0) {
+                        firstPageTimeMillis = System.currentTimeMillis();
+                    }
+
+                    completedPages = Math.max(completedPages,
+                        Math.min(totalPages, page - firstPage));
+                    newProgress = computePageProgress();
+                }
+            }
+        }
+
+        if (newProgress != null) {
+            publish(newProgress);
+        }
+    }
+
+    private Progress computePageProgress() {
+        double pagesPerSecond = 0;
+        long remainingMillis = -1;
+        long pagesElapsedMillis = (firstPageTimeMillis > 0) ?
+            System.currentTimeMillis() - firstPageTimeMillis : 0;
+
+        if ((completedPages > 0) && (pagesElapsedMillis > 0)) {
+            pagesPerSecond = completedPages * 1000.0d / pagesElapsedMillis;
+            remainingMillis = (long) ((totalPages - completedPages) *
+                1000.0d / pagesPerSecond);
+        }
+
+        return new Progress(Source.PAGES, totalPages, completedPages,
+            completedPages / (double) totalPages, pagesPerSecond,
+            remainingMillis);
+    }
+
+    /**
+     * Updates the progress from the bytes read by the process, if no page
+     * output has been seen. Meant to be called periodically.
+     *
+     * @return The current progress
+     */
+    public Progress poll() {
+        synchronized (this) {
+            if ((totalPages > 0) || (inputFileSize <= 0)) {
+                return progress;
+            }
+        }
+
+        long bytesRead = readBytesRead(processId);
+
+        if (bytesRead > 0) {
+            double fraction = Math.min(
+                MAX_IO_FRACTION, bytesRead / (double) inputFileSize);
+            long elapsedMillis = System.currentTimeMillis() - startTimeMillis;
+
+            publish(new Progress(Source.INPUT_BYTES, 0, 0, fraction, 0,
+                (long) (elapsedMillis * (1 - fraction) / fraction)));
+        }
+
+        return progress;
+    }
+
+    private void publish(Progress newProgress) {
+        progress = newProgress;
+
+        for (ProgressListener listener : listeners) {
+            try {
+                listener.progressChanged(this, newProgress);
+            } catch (Exception ex) {
+                log.debug("Error notifying progress listener:", ex);
+            }
+        }
+    }
+
+    private static Integer parseNumber(String text) {
+        int end = 0;
+        String trimmedText = text.trim();
+
+        while ((end < trimmedText.length()) &&
+               Character.isDigit(trimmedText.charAt(end))) {
+            ++end;
+        }
+
+        try {
+            return (end > 0) ? Integer.parseInt(trimmedText.substring(0, end)) :
+                null;
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the number of bytes a process has read through system calls
+     * (rchar), from the proc file system.
+     *
+     * @param pid The process identifier
+     *
+     * @return The number of bytes, or -1 if unknown
+     */
+    static long readBytesRead(long pid) {
+        if (pid <= 0) {
+            return -1;
+        }
+
+        File ioFile = new File("/proc/" + pid + "/io");
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(ioFile), StandardCharsets.US_ASCII))) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("rchar:")) {
+                    return Long.parseLong(line.substring(6).trim());
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            // The process has ended, or this is not Linux
+        }
+
+        return -1;
+    }
+}
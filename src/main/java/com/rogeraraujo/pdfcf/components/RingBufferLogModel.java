@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.components;
+
+import lombok.Getter;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A ListModel of log lines kept in a ring buffer of fixed capacity: once it
+ * is full, each new line evicts the oldest one, and evicted lines are
+ * counted so that views can tell that earlier output is gone. Text can be
+ * appended from any thread; it is buffered and moved into the model on the
+ * event dispatch thread at most once per frame, with a single pair of list
+ * events per batch, so that views lay out and repaint once per frame no
+ * matter how fast lines arrive.
+ */
+public class RingBufferLogModel extends AbstractListModel<String> {
+    public static final int DEFAULT_CAPACITY = 100000;
+
+    // About one frame at 60 frames per second
+    public static final int FLUSH_INTERVAL_MILLIS = 16;
+
+    @Getter
+    private final int capacity;
+
+    // Accessed on the event dispatch thread only
+    private final String[] lines;
+
+    private int head;
+
+    private int size;
+
+    @Getter
+    private long evictedLineCount;
+
+    // Appended text not yet moved into the model; guarded by itself
+    private final List<String> pendingLines = new ArrayList<>();
+
+    private final StringBuilder partialLine = new StringBuilder();
+
+    // Pending lines discarded because the event dispatch thread fell
+    // behind by more than the capacity
+    private long pendingEvictedLineCount;
+
+    private final Timer flushTimer;
+
+    public RingBufferLogModel() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public RingBufferLogModel(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException(
+                "Capacity must be positive: " + capacity);
+        }
+
+        this.capacity = capacity;
+        this.lines = new String[capacity];
+        this.flushTimer = new Timer(FLUSH_INTERVAL_MILLIS, event -> flush());
+        flushTimer.setRepeats(false);
+    }
+
+    /**
+     * Appends text to the log, as JTextArea.append() does: the text is
+     * split in lines, and text after the last line break is continued by
+     * the next append. Can be called from any thread.
+     *
+     * @param text The text to append
+     */
+    public void append(String text) {
+        if ((text == null) || text.isEmpty()) {
+            return;
+        }
+
+        synchronized (pendingLines) {
+            int start = 0;
+            int lineBreak;
+
+            while ((lineBreak = text.indexOf('\n', start)) >= 0) {
+                if (partialLine.length() > 0) {
+                    partialLine.append(text, start, lineBreak);
+                    pendingLines.add(partialLine.toString());
+                    partialLine.setLength(0);
+                }
+                else {
+                    pendingLines.add(text.substring(start, lineBreak));
+                }
+
+                start = lineBreak + 1;
+            }
+
+            partialLine.append(text, start, text.length());
+
+            if (pendingLines.size() >= 2 * capacity) {
+                int excess = pendingLines.size() - capacity;
+                pendingLines.subList(0, excess).clear();
+                pendingEvictedLineCount += excess;
+            }
+        }
+
+        // Timer.start() can be called from any thread, and does nothing
+        // while the timer is running
+        if (!flushTimer.isRunning()) {
+            flushTimer.start();
+        }
+    }
+
+    /**
+     * Moves the appended lines into the model, notifying listeners once.
+     * Must be called on the event dispatch thread; it is called by a timer
+     * after each append.
+     */
+    public void flush() {
+        List<String> newLines;
+
+        synchronized (pendingLines) {
+            if (pendingLines.isEmpty()) {
+                return;
+            }
+
+            // Only the last lines of a large batch can stay in the model
+            int skipped = Math.max(0, pendingLines.size() - capacity);
+            newLines = new ArrayList<>(
+                pendingLines.subList(skipped, pendingLines.size()));
+            evictedLineCount += skipped + pendingEvictedLineCount;
+            pendingEvictedLineCount = 0;
+            pendingLines.clear();
+        }
+
+        int evicted = Math.max(0, size + newLines.size() - capacity);
+
+        for (String line : newLines) {
+            lines[(head + size) % capacity] = line;
+
+            if (size < capacity) {
+                ++size;
+            }
+            else {
+                head = (head + 1) % capacity;
+            }
+        }
+
+        evictedLineCount += evicted;
+
+        if (evicted > 0) {
+            fireIntervalRemoved(this, 0, evicted - 1);
+        }
+
+        fireIntervalAdded(this, size - newLines.size(), size - 1);
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        return ((index < 0) || (index >= size)) ?
+            null : lines[(head + index) % capacity];
+    }
+
+    /**
+     * Removes all lines, including those not yet moved into the model.
+     * Must be called on the event dispatch thread.
+     */
+    public void clear() {
+        synchronized (pendingLines) {
+            pendingLines.clear();
+            partialLine.setLength(0);
+            pendingEvictedLineCount = 0;
+        }
+
+        int oldSize = size;
+        head = 0;
+        size = 0;
+        evictedLineCount = 0;
+        Arrays.fill(lines, null);
+
+        if (oldSize > 0) {
+            fireIntervalRemoved(this, 0, oldSize - 1);
+        }
+    }
+
+    /**
+     * Joins the lines in the model, for instance to copy them to the
+     * clipboard. Must be called on the event dispatch thread.
+     *
+     * @return The lines, each one followed by a line break
+     */
+    public String getText() {
+        flush();
+
+        StringBuilder result = new StringBuilder();
+
+        for (int i = 0; i < size; ++i) {
+            result.append(getElementAt(i)).append('\n');
+        }
+
+        synchronized (pendingLines) {
+            result.append(partialLine);
+        }
+
+        return result.toString();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.gs;
+
+import com.sun.jna.Callback;
+import com.sun.jna.Library;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+import com.sun.jna.Structure;
+import com.sun.jna.ptr.PointerByReference;
+
+/**
+ * JNA binding to the subset of the Ghostscript interpreter C API (gsapi) used
+ * by this program. See:
+ *
+ *   https://ghostscript.com/doc/current/API.htm
+ */
+public interface GsApi extends Library {
+    // Argument encoding understood by gsapi_set_arg_encoding
+    int GS_ARG_ENCODING_UTF8 = 1;
+
+    // Returned by gsapi_init_with_args when the interpreter quits normally,
+    // as it does after processing the -dBATCH option
+    int GS_ERROR_QUIT = -101;
+
+    /**
+     * Receives data read by the interpreter from its standard input.
+     */
+    interface StdinCallback extends Callback {
+        int invoke(Pointer callerHandle, Pointer buffer, int length);
+    }
+
+    /**
+     * Receives data written by the interpreter to its standard output or
+     * error streams.
+     */
+    interface StdoutCallback extends Callback {
+        int invoke(Pointer callerHandle, Pointer buffer, int length);
+    }
+
+    /**
+     * Called periodically by the interpreter; returning a negative value
+     * aborts the current job.
+     */
+    interface PollCallback extends Callback {
+        int invoke(Pointer callerHandle);
+    }
+
+    /**
+     * Product, copyright and revision of the library, such as 10020 for
+     * Ghostscript 10.02.0, as filled by gsapi_revision.
+     */
+    @Structure.FieldOrder({ "product", "copyright", "revision", "revisiondate" })
+    class Revision extends Structure {
+        public String product;
+
+        public String copyright;
+
+        public NativeLong revision;
+
+        public NativeLong revisiondate;
+    }
+
+    // Returns zero on success, or the size the structure should have
+    int gsapi_revision(Revision revision, int length);
+
+    int gsapi_new_instance(PointerByReference instance, Pointer callerHandle);
+
+    void gsapi_delete_instance(Pointer instance);
+
+    int gsapi_set_stdio(Pointer instance, StdinCallback stdinFn,
+        StdoutCallback stdoutFn, StdoutCallback stderrFn);
+
+    int gsapi_set_poll(Pointer instance, PollCallback pollFn);
+
+    int gsapi_set_arg_encoding(Pointer instance, int encoding);
+
+    int gsapi_init_with_args(Pointer instance, int argc, Pointer argv);
+
+    int gsapi_exit(Pointer instance);
+}
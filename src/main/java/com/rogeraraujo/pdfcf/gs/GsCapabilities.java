@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.gs;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Capabilities of a Ghostscript installation, as detected by
+ * GsCapabilityProbe: its version, its output devices and the parameters
+ * supported by its pdfwrite device.
+ */
+@Getter
+public class GsCapabilities {
+    // Optimization arguments by the pdfwrite parameter that must be
+    // supported for them to be enabled. Only arguments that give the same
+    // output on every machine belong here, since they are part of result
+    // cache keys; NumRenderingThreads, for instance, is left out, and it
+    // would gain nothing anyway since pdfwrite does not rasterize pages
+    private static final Map<String, String> OPTIMIZATION_ARGUMENTS;
+
+    static {
+        Map<String, String> arguments = new LinkedHashMap<>();
+        arguments.put("DetectDuplicateImages", "-dDetectDuplicateImages=true");
+        arguments.put("CompressFonts", "-dCompressFonts=true");
+        arguments.put("CompressStreams", "-dCompressStreams=true");
+        OPTIMIZATION_ARGUMENTS = Collections.unmodifiableMap(arguments);
+    }
+
+    // Value of the PostScript revision operator, such as 952 for 9.52 and
+    // 10020 for 10.02.0; zero if unknown
+    private final int revision;
+
+    private final Set<String> devices;
+
+    private final Set<String> pdfwriteParameters;
+
+    public GsCapabilities(int revision, Set<String> devices,
+            Set<String> pdfwriteParameters) {
+        this.revision = revision;
+        this.devices = Collections.unmodifiableSet(new TreeSet<>(
+            (devices != null) ? devices : Collections.emptySet()));
+        this.pdfwriteParameters = Collections.unmodifiableSet(new TreeSet<>(
+            (pdfwriteParameters != null) ?
+                pdfwriteParameters : Collections.emptySet()));
+    }
+
+    /**
+     * @return The version in its usual dotted form, such as "9.52" or
+     *         "10.02.0", or "unknown"
+     */
+    public String getVersion() {
+        if (revision <= 0) {
+            return "unknown";
+        }
+
+        // Revisions became five digits long with version 10
+        if (revision >= 10000) {
+            return (revision / 1000) + "." +
+                String.format("%02d", (revision % 1000) / 10) + "." +
+                (revision % 10);
+        }
+
+        return (revision / 100) + "." + String.format("%02d", revision % 100);
+    }
+
+    public boolean supportsDevice(String device) {
+        return devices.contains(device);
+    }
+
+    public boolean supportsPdfwriteParameter(String parameter) {
+        return pdfwriteParameters.contains(parameter);
+    }
+
+    /**
+     * Builds the arguments that enable the size and speed optimizations
+     * supported by this installation. Optimizations already set in the
+     * additional parameters given by the user are left out, so that the
+     * choices of the user prevail.
+     *
+     * @param additionalGsParameters Additional parameters given by the user;
+     *                               can be null
+     *
+     * @return The arguments, possibly empty
+     */
+    public List<String> buildOptimizationArguments(
+            String additionalGsParameters) {
+        List<String> result = new ArrayList<>();
+
+        for (Map.Entry<String, String> entry : OPTIMIZATION_ARGUMENTS.entrySet()) {
+            String parameter = entry.getKey();
+            String argument = entry.getValue();
+
+            if (!supportsPdfwriteParameter(parameter) ||
+                ((additionalGsParameters != null) &&
+                 additionalGsParameters.contains("-d" + parameter))) {
+                continue;
+            }
+
+            result.add(argument);
+        }
+
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "GsCapabilities{version=" + getVersion() + ", devices=" +
+            devices.size() + ", pdfwriteParameters=" + pdfwriteParameters.size() +
+            "}";
+    }
+}
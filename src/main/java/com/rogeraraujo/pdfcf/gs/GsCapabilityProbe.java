@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.gs;
+
+import com.rogeraraujo.pdfcf.Utils;
+import com.rogeraraujo.pdfcf.components.ProcessExecutionInfo;
+import com.rogeraraujo.pdfcf.components.ProcessExecutionRunnable;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Detects the capabilities of a Ghostscript installation by running a short
+ * PostScript program that prints its revision, its output devices and the
+ * parameters of its pdfwrite device. Results are kept in memory and in a
+ * cache file, keyed by the path, modification time and size of the
+ * executable file, so that each installation is probed only once, until
+ * it gets updated.
+ */
+@Slf4j
+public class GsCapabilityProbe {
+    public static final String DEFAULT_CACHE_DIR_NAME = ".pdfcf";
+
+    public static final String DEFAULT_CACHE_FILE_NAME =
+        "gs-capabilities.properties";
+
+    private static final long PROBE_TIMEOUT_MILLIS = 30 * 1000;
+
+    private static final String REVISION_PREFIX = "PDFCF-REVISION ";
+
+    private static final String DEVICE_PREFIX = "PDFCF-DEVICE ";
+
+    private static final String PARAMETER_PREFIX = "PDFCF-PARAM ";
+
+    // Each part runs in a stopped context, so that a failing part (for
+    // instance, in a build without pdfwrite) does not prevent the others.
+    // The properties of a device follow a mark, in key and value pairs
+    private static final String PROBE_PROGRAM =
+        "(" + REVISION_PREFIX + ") print revision = " +
+        "{ devicedict { pop (" + DEVICE_PREFIX + ") print = } forall } " +
+        "stopped pop " +
+        "{ (pdfwrite) finddevice getdeviceprops counttomark 2 idiv " +
+        "{ pop (" + PARAMETER_PREFIX + ") print = } repeat pop } " +
+        "stopped pop flush";
+
+    private static final String REVISION_KEY_SUFFIX = ".revision";
+
+    private static final String DEVICES_KEY_SUFFIX = ".devices";
+
+    private static final String PARAMETERS_KEY_SUFFIX = ".pdfwrite-parameters";
+
+    // When null, results are kept in memory only
+    @Getter
+    private final File cacheFile;
+
+    private final Map<String, GsCapabilities> probedCapabilities =
+        new HashMap<>();
+
+    public GsCapabilityProbe(File cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    /**
+     * @return The default cache file, in a folder in the home folder of
+     *         the user
+     */
+    public static File getDefaultCacheFile() {
+        return new File(new File(System.getProperty("user.home"),
+            DEFAULT_CACHE_DIR_NAME), DEFAULT_CACHE_FILE_NAME);
+    }
+
+    /**
+     * Creates an instance of this class based on configuration properties.
+     *
+     * @param config Configuration properties; can be null
+     *
+     * @return A new instance of this class, or null if the automatic
+     *         options are disabled in the configuration
+     */
+    public static GsCapabilityProbe fromConfiguration(Properties config) {
+        String autoOptions = (config != null) ?
+            config.getProperty("ghostscript-auto-options", "") : "";
+
+        if (!Utils.stringIsEmptyOrBlank(autoOptions) &&
+            !Boolean.parseBoolean(autoOptions.trim())) {
+            return null;
+        }
+
+        String cacheFilePath = (config != null) ?
+            config.getProperty("ghostscript-capability-cache-file", "") : "";
+
+        return new GsCapabilityProbe(
+            Utils.stringIsEmptyOrBlank(cacheFilePath) ? getDefaultCacheFile() :
+                new File(cacheFilePath.trim()).getAbsoluteFile());
+    }
+
+    /**
+     * Obtains the capabilities of a Ghostscript installation, probing it
+     * only if they are not cached for its current executable file.
+     *
+     * @param gsExecutablePath Path of the Ghostscript executable file; a
+     *                         bare file name is resolved through the
+     *                         system path
+     *
+     * @return The capabilities, or null if they could not be determined
+     */
+    public synchronized GsCapabilities probe(String gsExecutablePath) {
+        if (Utils.stringIsEmptyOrBlank(gsExecutablePath)) {
+            return null;
+        }
+
+        File execFile = resolveExecutable(gsExecutablePath);
+        String cacheKey = (execFile != null) ? computeCacheKey(execFile) : null;
+
+        if (cacheKey != null) {
+            GsCapabilities cached = probedCapabilities.get(cacheKey);
+
+            if (cached == null) {
+                cached = readCache(cacheKey);
+            }
+
+            if (cached != null) {
+                probedCapabilities.put(cacheKey, cached);
+                return cached;
+            }
+        }
+
+        GsCapabilities result = parseProbeOutput(runProbe(
+            (execFile != null) ? execFile.getPath() : gsExecutablePath));
+
+        if (result == null) {
+            log.debug("Could not probe the capabilities of {}", gsExecutablePath);
+            return null;
+        }
+
+        log.debug("Probed {}: {}", gsExecutablePath, result);
+
+        if (cacheKey != null) {
+            probedCapabilities.put(cacheKey, result);
+            writeCache(cacheKey, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Resolves the executable file of a Ghostscript installation.
+     *
+     * @param gsExecutablePath Path of the Ghostscript executable file
+     *
+     * @return The executable file, or null if it could not be found
+     */
+    static File resolveExecutable(String gsExecutablePath) {
+        File result = new File(gsExecutablePath);
+
+        if (result.getParentFile() == null) {
+            String pathExecFilePath =
+                GsUtils.findExecutableInPath(gsExecutablePath);
+
+            if (pathExecFilePath == null) {
+                return null;
+            }
+
+            result = new File(pathExecFilePath);
+        }
+
+        try {
+            result = result.getCanonicalFile();
+        } catch (IOException ex) {
+            result = result.getAbsoluteFile();
+        }
+
+        return result.isFile() ? result : null;
+    }
+
+    /**
+     * Computes the cache key of an executable file, which changes whenever
+     * the file gets replaced or updated.
+     *
+     * @param execFile The executable file, as resolved by
+     *                 {@link #resolveExecutable(String)}
+     *
+     * @return The cache key
+     */
+    static String computeCacheKey(File execFile) {
+        return execFile.getPath() + "|" + execFile.lastModified() + "|" +
+            execFile.length();
+    }
+
+    /**
+     * Parses the output of the probe program.
+     *
+     * @param lines Output lines of the probe program
+     *
+     * @return The capabilities, or null if the output does not contain the
+     *         revision of Ghostscript
+     */
+    static GsCapabilities parseProbeOutput(List<String> lines) {
+        Integer revision = null;
+        Set<String> devices = new TreeSet<>();
+        Set<String> parameters = new TreeSet<>();
+
+        for (String line : lines) {
+            String trimmedLine = line.trim();
+
+            if (trimmedLine.startsWith(REVISION_PREFIX)) {
+                revision = Utils.stringToInt(
+                    trimmedLine.substring(REVISION_PREFIX.length()).trim());
+            }
+            else if (trimmedLine.startsWith(DEVICE_PREFIX)) {
+                devices.add(trimmedLine.substring(DEVICE_PREFIX.length()).trim());
+            }
+            else if (trimmedLine.startsWith(PARAMETER_PREFIX)) {
+                parameters.add(
+                    trimmedLine.substring(PARAMETER_PREFIX.length()).trim());
+            }
+        }
+
+        return ((revision != null) && (revision > 0)) ?
+            new GsCapabilities(revision, devices, parameters) : null;
+    }
+
+    private static List<String> runProbe(String gsExecutablePath) {
+        List<String> result = Collections.synchronizedList(new ArrayList<>());
+        ProcessBuilder procBuilder = new ProcessBuilder(
+            GsUtils.buildInlineProgramCommands(gsExecutablePath, PROBE_PROGRAM));
+        procBuilder.redirectErrorStream(true);
+
+        ProcessExecutionRunnable runnable =
+            new ProcessExecutionRunnable(procBuilder);
+        runnable.setWallClockTimeoutMillis(PROBE_TIMEOUT_MILLIS);
+        runnable.addListener(new ProcessExecutionRunnable.PerAdapter() {
+            @Override
+            public void notifyStreamLine(ProcessExecutionRunnable source,
+                    String line, boolean errorStream) {
+                result.add(line);
+            }
+        });
+        runnable.run();
+
+        ProcessExecutionInfo info = runnable.getProcessExecutionInfo();
+
+        if ((info.getExecutionException() != null) || info.isTimedOut()) {
+            log.debug("Probe of {} did not finish: {}", gsExecutablePath,
+                info.isTimedOut() ? info.getTimeoutMessage() :
+                    info.getExecutionException().toString());
+            return Collections.emptyList();
+        }
+
+        return result;
+    }
+
+    private Properties loadCacheFile() {
+        Properties result = new Properties();
+
+        if ((cacheFile != null) && cacheFile.isFile()) {
+            try (Reader reader = new InputStreamReader(
+                    new FileInputStream(cacheFile), StandardCharsets.UTF_8)) {
+                result.load(reader);
+            } catch (IOException ex) {
+                log.debug("Could not read {}: {}", cacheFile, ex.toString());
+            }
+        }
+
+        return result;
+    }
+
+    private GsCapabilities readCache(String cacheKey) {
+        Properties properties = loadCacheFile();
+        Integer revision = Utils.stringToInt(
+            properties.getProperty(cacheKey + REVISION_KEY_SUFFIX, ""));
+
+        if ((revision == null) || (revision <= 0)) {
+            return null;
+        }
+
+        return new GsCapabilities(revision,
+            splitList(properties.getProperty(cacheKey + DEVICES_KEY_SUFFIX, "")),
+            splitList(properties.getProperty(
+                cacheKey + PARAMETERS_KEY_SUFFIX, "")));
+    }
+
+    private void writeCache(String cacheKey, GsCapabilities capabilities) {
+        if (cacheFile == null) {
+            return;
+        }
+
+        Properties properties = loadCacheFile();
+        String pathPrefix = cacheKey.substring(0, cacheKey.indexOf('|') + 1);
+
+        // Drops the entries of previous versions of the same executable
+        properties.stringPropertyNames().stream()
+            .filter(key -> key.startsWith(pathPrefix))
+            .forEach(properties::remove);
+
+        properties.setProperty(cacheKey + REVISION_KEY_SUFFIX,
+            String.valueOf(capabilities.getRevision()));
+        properties.setProperty(cacheKey + DEVICES_KEY_SUFFIX,
+            String.join(",", capabilities.getDevices()));
+        properties.setProperty(cacheKey + PARAMETERS_KEY_SUFFIX,
+            String.join(",", capabilities.getPdfwriteParameters()));
+
+        File cacheDir = cacheFile.getAbsoluteFile().getParentFile();
+        File tempFile = null;
+
+        try {
+            Files.createDirectories(cacheDir.toPath());
+            tempFile = File.createTempFile(
+                DEFAULT_CACHE_FILE_NAME, ".tmp", cacheDir);
+
+            try (Writer writer = new OutputStreamWriter(
+                    new FileOutputStream(tempFile), StandardCharsets.UTF_8)) {
+                properties.store(writer, "Ghostscript capabilities, " +
+                    "keyed by executable path, modification time and size");
+            }
+
+            // Concurrent instances of PDFCF write whole files, never parts
+            Files.move(tempFile.toPath(), cacheFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            log.debug("Could not write {}: {}", cacheFile, ex.toString());
+
+            if ((tempFile != null) && tempFile.exists() && !tempFile.delete()) {
+                log.debug("Could not delete {}", tempFile);
+            }
+        }
+    }
+
+    private static Set<String> splitList(String value) {
+        Set<String> result = new TreeSet<>();
+
+        for (String item : value.split(",")) {
+            if (!Utils.stringIsEmptyOrBlank(item)) {
+                result.add(item.trim());
+            }
+        }
+
+        return result;
+    }
+}
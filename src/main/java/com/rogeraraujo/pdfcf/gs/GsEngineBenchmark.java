@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.gs;
+
+import com.rogeraraujo.pdfcf.Utils;
+import com.rogeraraujo.pdfcf.components.ProcessExecutionInfo;
+import com.rogeraraujo.pdfcf.components.ProcessExecutionRunnable;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Compares the per-file latency of running Ghostscript as an external
+ * process against running it in-process through its shared library (see
+ * GsLibraryEngine). Both engines compress the same file a number of times,
+ * after one warm-up run each, and the latency statistics of each engine are
+ * printed to the standard output. Usage:
+ *
+ *   java -jar pdfcf.jar -benchmarkEngines [-gs path] [-gsLibrary path]
+ *       [-runs N] input.pdf
+ */
+public class GsEngineBenchmark {
+    public static final String BENCHMARK_MODE_ARGUMENT = "-benchmarkEngines";
+
+    public static final int DEFAULT_RUN_COUNT = 20;
+
+    // Private constructor to prevent instantiation
+    private GsEngineBenchmark() { }
+
+    /**
+     * Checks whether the command line arguments request the benchmark.
+     *
+     * @param args Command line arguments
+     *
+     * @return Whether the benchmark was requested
+     */
+    public static boolean isBenchmarkMode(String[] args) {
+        return (args != null) && Arrays.stream(args).anyMatch(
+            BENCHMARK_MODE_ARGUMENT::equalsIgnoreCase);
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args Command line arguments
+     * @param config Configuration properties, used for default values
+     *
+     * @return The process exit code
+     */
+    public static int execute(String[] args, Properties config) {
+        String gsExecutablePath = config.getProperty(
+            "ghostscript-executable-path", "");
+        String gsLibraryPath = config.getProperty("ghostscript-library-path", "");
+        int runCount = DEFAULT_RUN_COUNT;
+        File inputFile = null;
+
+        for (int i = 0; i < args.length; ++i) {
+            String arg = args[i];
+
+            if (BENCHMARK_MODE_ARGUMENT.equalsIgnoreCase(arg)) {
+                continue;
+            }
+
+            if ("-gs".equals(arg) && (i + 1 < args.length)) {
+                gsExecutablePath = args[++i];
+            }
+            else if ("-gsLibrary".equals(arg) && (i + 1 < args.length)) {
+                gsLibraryPath = args[++i];
+            }
+            else if ("-runs".equals(arg) && (i + 1 < args.length)) {
+                Integer value = Utils.stringToInt(args[++i]);
+                runCount = ((value != null) && (value > 0)) ? value : runCount;
+            }
+            else {
+                inputFile = new File(arg);
+            }
+        }
+
+        if (Utils.stringIsEmptyOrBlank(gsExecutablePath)) {
+            gsExecutablePath = GsUtils.seekGsExecutablePathWindows();
+        }
+
+        if (Utils.stringIsEmptyOrBlank(gsExecutablePath)) {
+            gsExecutablePath = GsUtils.seekGsExecutablePathLinux();
+        }
+
+        if ((inputFile == null) || !inputFile.isFile()) {
+            System.out.println("Usage: " + BENCHMARK_MODE_ARGUMENT +
+                " [-gs path] [-gsLibrary path] [-runs N] input.pdf");
+            return 2;
+        }
+
+        GsLibraryEngine libraryEngine =
+            GsLibraryEngine.load(gsLibraryPath, gsExecutablePath);
+
+        if (libraryEngine == null) {
+            System.out.println("Could not load the Ghostscript library.");
+            return 1;
+        }
+
+        try {
+            File outputFile = File.createTempFile("pdfcf-benchmark-", ".pdf");
+            List<String> commands = GsUtils.buildCompressionCommands(
+                gsExecutablePath, ConversionQuality.EBOOK,
+                PdfCompatibilityLevel.DEFAULT, "",
+                inputFile.getPath(), outputFile.getPath());
+
+            System.out.println("Compressing " + inputFile.getPath() + " " +
+                runCount + " times with each engine...");
+
+            try {
+                long[] processNanos = measure(commands, null, runCount);
+                long[] libraryNanos = measure(commands, libraryEngine, runCount);
+
+                System.out.println("Process: " + formatLatencies(processNanos));
+                System.out.println("Library: " + formatLatencies(libraryNanos) +
+                    " (" + libraryEngine.getLibraryName() + ")");
+                System.out.println("Median speedup: " + new DecimalFormat("0.00")
+                    .format(processNanos[runCount / 2] /
+                        (double) Math.max(1, libraryNanos[runCount / 2])) + "x");
+            } finally {
+                if (!outputFile.delete()) {
+                    outputFile.deleteOnExit();
+                }
+            }
+        } catch (Exception ex) {
+            System.out.println("Benchmark failed: " + ex.getMessage());
+            return 1;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Runs a command line a number of times, after a warm-up run.
+     *
+     * @param commands Command line
+     * @param executor In-process executor; null to run an external process
+     * @param runCount Number of measured runs
+     *
+     * @return The latency of each run in nanoseconds, sorted
+     *
+     * @throws Exception If a run fails
+     */
+    private static long[] measure(List<String> commands,
+            ProcessExecutionRunnable.InProcessExecutor executor,
+            int runCount) throws Exception {
+        long[] result = new long[runCount];
+
+        for (int i = -1; i < runCount; ++i) {
+            ProcessBuilder procBuilder = new ProcessBuilder(commands);
+            procBuilder.redirectErrorStream(true);
+
+            ProcessExecutionRunnable runnable =
+                new ProcessExecutionRunnable(procBuilder);
+            runnable.setInProcessExecutor(executor);
+
+            long startNanos = System.nanoTime();
+            runnable.run();
+            long elapsedNanos = System.nanoTime() - startNanos;
+
+            ProcessExecutionInfo info = runnable.getProcessExecutionInfo();
+
+            if (info.getExecutionException() != null) {
+                throw info.getExecutionException();
+            }
+
+            if (!Integer.valueOf(0).equals(info.getExitValue())) {
+                throw new IOException("Ghostscript exit value " +
+                    info.getExitValue());
+            }
+
+            if (i >= 0) {
+                result[i] = elapsedNanos;
+            }
+        }
+
+        Arrays.sort(result);
+
+        return result;
+    }
+
+    private static String formatLatencies(long[] sortedNanos) {
+        DecimalFormat decFormat = new DecimalFormat("0.0");
+        double meanNanos = Arrays.stream(sortedNanos).average().orElse(0);
+
+        return "min " + decFormat.format(sortedNanos[0] / 1e6) +
+            " ms, median " + decFormat.format(
+                sortedNanos[sortedNanos.length / 2] / 1e6) +
+            " ms, mean " + decFormat.format(meanNanos / 1e6) +
+            " ms, max " + decFormat.format(
+                sortedNanos[sortedNanos.length - 1] / 1e6) + " ms";
+    }
+}
@@ -0,0 +1,396 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.gs;
+
+import com.rogeraraujo.pdfcf.Utils;
+import com.rogeraraujo.pdfcf.components.ProcessExecutionInfo;
+import com.rogeraraujo.pdfcf.components.ProcessExecutionRunnable;
+import com.sun.jna.Native;
+import com.sun.jna.Platform;
+import com.sun.jna.Pointer;
+import com.sun.jna.StringArray;
+import com.sun.jna.ptr.PointerByReference;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Runs Ghostscript inside the JVM through its shared library (libgs on
+ * Linux and macOS, gsdll64.dll or gsdll32.dll on Windows), which avoids
+ * starting an external process for each execution. The command line is
+ * handed to the interpreter as is, and whatever it writes to its output and
+ * error streams is handed to the caller one line at a time.
+ *
+ * <p>Versions of Ghostscript before 9.50 support a single interpreter
+ * instance per process, so executions of those libraries are serialized,
+ * as are those of libraries whose revision cannot be read. Executions of
+ * later versions, and of different libraries, run concurrently.</p>
+ *
+ * <p>Executions are aborted (on cancellation or timeout) through the poll
+ * callback of the interpreter, which only builds of Ghostscript compiled
+ * with interrupt checks call; standard builds run each execution to its end.
+ * If {@link #setProcessFallback(boolean) enabled}, once an execution
+ * succeeds without the callback being called, the engine stops accepting
+ * command lines, so that later executions run as external processes, which
+ * can be killed.</p>
+ */
+@Slf4j
+public class GsLibraryEngine implements ProcessExecutionRunnable.InProcessExecutor {
+    // Locks serializing the executions of each library, by library name
+    private static final Map<String, Object> LIBRARY_LOCKS =
+        new ConcurrentHashMap<>();
+
+    // Exit value reported when the interpreter fails, as the gs executable
+    // does
+    public static final int ERROR_EXIT_VALUE = 1;
+
+    // First revision that supports several interpreter instances per
+    // process, that is, Ghostscript 9.50
+    public static final long MIN_CONCURRENT_REVISION = 950;
+
+    // Name or path the library was loaded from
+    @Getter
+    private final String libraryName;
+
+    private final GsApi gsApi;
+
+    // Revision of the library, such as 10020 for Ghostscript 10.02.0, or
+    // zero if unknown
+    @Getter
+    private final long revision;
+
+    // Serializes the executions of the library; null if the library
+    // supports concurrent executions
+    private final Object instanceLock;
+
+    // Whether the library was found not to call the poll callback, so that
+    // its executions cannot be aborted
+    @Getter
+    private volatile boolean pollUnsupported;
+
+    // Whether command lines are refused once the poll callback is found
+    // unsupported
+    @Getter @Setter
+    private volatile boolean processFallback;
+
+    GsLibraryEngine(String libraryName, GsApi gsApi) {
+        this.libraryName = libraryName;
+        this.gsApi = gsApi;
+        this.revision = readRevision(gsApi);
+        this.instanceLock = isConcurrent() ? null :
+            LIBRARY_LOCKS.computeIfAbsent(libraryName, name -> new Object());
+    }
+
+    private static long readRevision(GsApi gsApi) {
+        try {
+            GsApi.Revision revision = new GsApi.Revision();
+
+            if (gsApi.gsapi_revision(revision, revision.size()) == 0) {
+                return revision.revision.longValue();
+            }
+        } catch (UnsatisfiedLinkError ex) {
+            log.debug("Could not read the Ghostscript library revision: {}",
+                ex.getMessage());
+        }
+
+        return 0;
+    }
+
+    /**
+     * @return Whether executions of the library can run concurrently, that
+     *         is, whether its revision is known to be 9.50 or later
+     */
+    public boolean isConcurrent() {
+        return revision >= MIN_CONCURRENT_REVISION;
+    }
+
+    /**
+     * @return The name of the Ghostscript shared library in the current
+     *         platform, without prefixes or extensions
+     */
+    public static String getDefaultLibraryName() {
+        if (Platform.isWindows()) {
+            return Platform.is64Bit() ? "gsdll64" : "gsdll32";
+        }
+
+        return "gs";
+    }
+
+    /**
+     * Loads the Ghostscript shared library.
+     *
+     * @param libraryPath Path or name of the library. If empty, the library
+     *                    with the default name for the platform is sought
+     *                    in the folder of the Ghostscript executable, where
+     *                    the Windows installer places it, and then in the
+     *                    system library paths
+     * @param gsExecutablePath Path of the Ghostscript executable; can be
+     *                         empty
+     *
+     * @return An engine bound to the library, or null if the library could
+     *         not be loaded
+     */
+    public static GsLibraryEngine load(
+            String libraryPath, String gsExecutablePath) {
+        List<String> candidates = new ArrayList<>();
+
+        if (!Utils.stringIsEmptyOrBlank(libraryPath)) {
+            candidates.add(libraryPath.trim());
+        }
+        else {
+            String defaultName = getDefaultLibraryName();
+            File gsExecutableParent = Utils.stringIsEmptyOrBlank(gsExecutablePath) ?
+                null : new File(gsExecutablePath).getParentFile();
+
+            if (gsExecutableParent != null) {
+                File libraryFile = new File(gsExecutableParent,
+                    System.mapLibraryName(defaultName));
+
+                if (libraryFile.isFile()) {
+                    candidates.add(libraryFile.getPath());
+                }
+            }
+
+            candidates.add(defaultName);
+        }
+
+        for (String candidate : candidates) {
+            try {
+                GsApi gsApi = Native.load(candidate, GsApi.class);
+                GsLibraryEngine engine = new GsLibraryEngine(candidate, gsApi);
+                log.debug("Loaded Ghostscript library {}, revision {}",
+                    candidate, engine.revision);
+
+                return engine;
+            } catch (UnsatisfiedLinkError ex) {
+                log.debug("Could not load Ghostscript library {}: {}",
+                    candidate, ex.getMessage());
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Accepts command lines, unless the process fallback is enabled and the
+     * library was found not to call the poll callback, in which case they run
+     * as external processes, which can be aborted.
+     *
+     * @param commands Command line, including the program name
+     *
+     * @return Whether the command line can be run
+     */
+    @Override
+    public boolean accepts(List<String> commands) {
+        return !(processFallback && pollUnsupported);
+    }
+
+    /**
+     * Runs the interpreter with a command line.
+     *
+     * @param commands Command line; the first element stands for the
+     *                 program name and is ignored by the interpreter
+     * @param executionInfo Information about the execution
+     * @param lineConsumer Receives each line written by the interpreter and
+     *                     whether it was written to the error stream
+     * @param cancellation Polled while the interpreter runs; returning true
+     *                     aborts the execution, provided that the library
+     *                     calls the poll callback
+     *
+     * @return Zero if the interpreter succeeded, or ERROR_EXIT_VALUE
+     *
+     * @throws IOException If an interpreter instance cannot be created
+     */
+    @Override
+    public int execute(List<String> commands, ProcessExecutionInfo executionInfo,
+            BiConsumer<String, Boolean> lineConsumer,
+            BooleanSupplier cancellation) throws IOException {
+        if ((commands == null) || commands.isEmpty()) {
+            throw new IllegalArgumentException("Commands cannot be empty");
+        }
+
+        Session session = new Session(lineConsumer, cancellation);
+        int code;
+
+        if (instanceLock != null) {
+            synchronized (instanceLock) {
+                code = runInstance(commands, session);
+            }
+        }
+        else {
+            code = runInstance(commands, session);
+        }
+
+        if ((code == 0) || (code == GsApi.GS_ERROR_QUIT)) {
+            // Failed executions may end before the first poll
+            if (!session.polled && !pollUnsupported) {
+                pollUnsupported = true;
+                log.warn("Ghostscript library {} does not call the poll " +
+                    "callback, so its executions cannot be aborted",
+                    libraryName);
+            }
+
+            return 0;
+        }
+
+        log.debug("Ghostscript library returned error {}", code);
+        return ERROR_EXIT_VALUE;
+    }
+
+    /**
+     * Runs an interpreter instance of its own with a command line.
+     *
+     * @return The code returned by the interpreter
+     *
+     * @throws IOException If the instance cannot be created
+     */
+    private int runInstance(List<String> commands, Session session)
+            throws IOException {
+        PointerByReference instanceRef = new PointerByReference();
+        int code = gsApi.gsapi_new_instance(instanceRef, null);
+
+        if (code < 0) {
+            throw new IOException(
+                "Could not create a Ghostscript instance (error " + code + ")");
+        }
+
+        Pointer instance = instanceRef.getValue();
+
+        try {
+            gsApi.gsapi_set_stdio(instance,
+                session.stdinFn, session.stdoutFn, session.stderrFn);
+            gsApi.gsapi_set_poll(instance, session.pollFn);
+            gsApi.gsapi_set_arg_encoding(instance, GsApi.GS_ARG_ENCODING_UTF8);
+
+            StringArray argv = new StringArray(
+                commands.toArray(new String[0]), "UTF-8");
+            code = gsApi.gsapi_init_with_args(instance, commands.size(), argv);
+            int exitCode = gsApi.gsapi_exit(instance);
+
+            if ((code == 0) || (code == GsApi.GS_ERROR_QUIT)) {
+                code = exitCode;
+            }
+        } finally {
+            gsApi.gsapi_delete_instance(instance);
+
+            // Also keeps the callbacks reachable until the instance is
+            // gone, so that they cannot be garbage collected while the
+            // interpreter may still call them
+            session.flush();
+        }
+
+        return code;
+    }
+
+    /**
+     * Callbacks and output buffers of an execution.
+     */
+    private static class Session {
+        private final LineAssembler stdoutLines;
+
+        private final LineAssembler stderrLines;
+
+        private final GsApi.StdinCallback stdinFn;
+
+        private final GsApi.StdoutCallback stdoutFn;
+
+        private final GsApi.StdoutCallback stderrFn;
+
+        private final GsApi.PollCallback pollFn;
+
+        private volatile boolean polled;
+
+        private Session(BiConsumer<String, Boolean> lineConsumer,
+                BooleanSupplier cancellation) {
+            stdoutLines = new LineAssembler(line -> lineConsumer.accept(line, false));
+            stderrLines = new LineAssembler(line -> lineConsumer.accept(line, true));
+
+            // The interpreter reads nothing from its standard input
+            stdinFn = (callerHandle, buffer, length) -> 0;
+            stdoutFn = (callerHandle, buffer, length) -> {
+                stdoutLines.append(buffer.getByteArray(0, length));
+                return length;
+            };
+            stderrFn = (callerHandle, buffer, length) -> {
+                stderrLines.append(buffer.getByteArray(0, length));
+                return length;
+            };
+            pollFn = callerHandle -> {
+                polled = true;
+                return cancellation.getAsBoolean() ? -1 : 0;
+            };
+        }
+
+        private void flush() {
+            stdoutLines.flush();
+            stderrLines.flush();
+        }
+    }
+
+    /**
+     * Splits the chunks of bytes written by the interpreter into lines.
+     */
+    static class LineAssembler {
+        private final ByteArrayOutputStream pendingBytes =
+            new ByteArrayOutputStream();
+
+        private final Consumer<String> lineConsumer;
+
+        LineAssembler(Consumer<String> lineConsumer) {
+            this.lineConsumer = lineConsumer;
+        }
+
+        void append(byte[] bytes) {
+            for (byte b : bytes) {
+                if (b == '\n') {
+                    emitLine();
+                }
+                else {
+                    pendingBytes.write(b);
+                }
+            }
+        }
+
+        // Emits the last line if it lacks a line terminator
+        void flush() {
+            if (pendingBytes.size() > 0) {
+                emitLine();
+            }
+        }
+
+        private void emitLine() {
+            String line = new String(
+                pendingBytes.toByteArray(), Charset.defaultCharset());
+            pendingBytes.reset();
+
+            lineConsumer.accept(line.endsWith("\r") ?
+                line.substring(0, line.length() - 1) : line);
+        }
+    }
+}
@@ -16,8 +16,15 @@
 
 package com.rogeraraujo.pdfcf.gs;
 
+import com.rogeraraujo.pdfcf.Utils;
+
 import java.io.File;
 import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * Utility class to provide Ghostscript-related methods.
@@ -41,6 +48,30 @@ public class GsUtils {
     public static final String GS_DEBIAN_LINUX_EXEC_FILE_PATH = "/usr/bin/gs";
     private static final String GS_UNIX_EXEC_FILE_NAME = "gs";
 
+    // Options that have no effect on PostScript jobs (see buildJobPostScript).
+    // -dSAFER is always in effect where jobs run (see buildWorkerCommands)
+    private static final List<String> JOB_IGNORED_OPTIONS = Arrays.asList(
+        "-q", "-dQUIET", "-dNOPAUSE", "-dBATCH", "-dSAFER");
+
+    // Options that lift the sandbox, which jobs cannot do; command lines
+    // using them must run in processes of their own
+    private static final List<String> JOB_UNSAFE_OPTIONS = Arrays.asList(
+        "-dNOSAFER", "-dDELAYSAFER");
+
+    // Parameters read by the PDF interpreter rather than by the device,
+    // which would leak into later jobs
+    private static final List<String> JOB_INTERPRETER_PARAMETERS = Arrays.asList(
+        "FirstPage", "LastPage", "PageList");
+
+    public static final String PERMIT_FILE_READ_OPTION = "--permit-file-read=";
+
+    public static final String PERMIT_FILE_WRITE_OPTION = "--permit-file-write=";
+
+    public static final String OUTPUT_FILE_OPTION = "-sOutputFile=";
+
+    private static final Pattern JOB_SAFE_TOKEN_PATTERN =
+        Pattern.compile("/?[A-Za-z0-9._-]+");
+
     /**
      * Implementation of FilenameFilter that accepts any directory and
      * rejects regular files.
@@ -105,14 +136,20 @@ public class GsUtils {
     /**
      * Seeks and returns the path of the Ghostscript executable file in the
      * Linux platform, and returns a default value in case said path can not
-     * be found. This simple implementation only examines a fixed file name
-     * expected in Debian, Ubuntu, Fedora, Suse and Arch Linux systems. In
-     * case this file does not exist, the "gs" value is returned, which assumes
-     * the Ghostscript executable is accessible from the system path. See:
+     * be found. The folders of the system path are searched first, followed
+     * by a fixed file name expected in Debian, Ubuntu, Fedora, Suse and Arch
+     * Linux systems. In case neither exists, the "gs" value is returned,
+     * which leaves the lookup to the operating system. See:
      *
      *   https://ghostscript.com/doc/current/Use.htm
      */
     public static String seekGsExecutablePathLinux() {
+        String pathExecFilePath = findExecutableInPath(GS_UNIX_EXEC_FILE_NAME);
+
+        if (pathExecFilePath != null) {
+            return pathExecFilePath;
+        }
+
         File execFile = new File(GS_DEBIAN_LINUX_EXEC_FILE_PATH);
 
         if (execFile.exists() && execFile.isFile()) {
@@ -121,4 +158,574 @@ public class GsUtils {
 
         return GS_UNIX_EXEC_FILE_NAME;
     }
+
+    /**
+     * Searches the folders of the system path (the PATH environment
+     * variable) for an executable file, in order.
+     *
+     * @param fileName Name of the executable file
+     *
+     * @return The path of the first executable file found, or null if none
+     *         was found
+     */
+    public static String findExecutableInPath(String fileName) {
+        String systemPath = System.getenv("PATH");
+
+        if (Utils.stringIsEmptyOrBlank(systemPath) ||
+            Utils.stringIsEmptyOrBlank(fileName)) {
+            return null;
+        }
+
+        for (String dirPath : systemPath.split(Pattern.quote(File.pathSeparator))) {
+            if (Utils.stringIsEmptyOrBlank(dirPath)) {
+                continue;
+            }
+
+            File execFile = new File(dirPath, fileName);
+
+            if (execFile.isFile() && execFile.canExecute()) {
+                return execFile.getPath();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Builds the command line that compresses a PDF file with Ghostscript.
+     * The first element of the resulting list is the path of the Ghostscript
+     * executable file, and the remaining elements are its arguments.
+     *
+     * @param gsExecutablePath Path of the Ghostscript executable file
+     * @param conversionQuality Conversion quality to apply
+     * @param pdfCompatibilityLevel PDF compatibility level to apply
+     * @param additionalGsParameters Additional parameters to provide to
+     *                               Ghostscript; can be null or blank
+     * @param inputFilePath Path of the input file
+     * @param outputFilePath Path of the output file
+     *
+     * @return The command line, one element per argument
+     */
+    public static List<String> buildCompressionCommands(
+            String gsExecutablePath, ConversionQuality conversionQuality,
+            PdfCompatibilityLevel pdfCompatibilityLevel,
+            String additionalGsParameters, String inputFilePath,
+            String outputFilePath) {
+        return buildCompressionCommands(gsExecutablePath, conversionQuality,
+            pdfCompatibilityLevel, Collections.emptyList(),
+            additionalGsParameters, inputFilePath, outputFilePath);
+    }
+
+    /**
+     * Builds the command line that compresses a PDF file with Ghostscript,
+     * including optimization arguments such as those enabled by
+     * {@link GsCapabilities#buildOptimizationArguments(String)}. The
+     * optimization arguments precede the additional parameters, so that
+     * the latter prevail.
+     *
+     * @param gsExecutablePath Path of the Ghostscript executable file
+     * @param conversionQuality Conversion quality to apply
+     * @param pdfCompatibilityLevel PDF compatibility level to apply
+     * @param optimizationArguments Optimization arguments; can be null
+     * @param additionalGsParameters Additional parameters to provide to
+     *                               Ghostscript; can be null or blank
+     * @param inputFilePath Path of the input file
+     * @param outputFilePath Path of the output file
+     *
+     * @return The command line, one element per argument
+     */
+    public static List<String> buildCompressionCommands(
+            String gsExecutablePath, ConversionQuality conversionQuality,
+            PdfCompatibilityLevel pdfCompatibilityLevel,
+            List<String> optimizationArguments, String additionalGsParameters,
+            String inputFilePath, String outputFilePath) {
+        if (conversionQuality == null) {
+            throw new IllegalArgumentException(
+                "Conversion quality cannot be null");
+        }
+
+        if (pdfCompatibilityLevel == null) {
+            throw new IllegalArgumentException(
+                "PDF compatibility level cannot be null");
+        }
+
+        List<String> result = new ArrayList<>();
+        result.add(gsExecutablePath);
+        result.add("-sDEVICE=pdfwrite");
+        result.add("-dNOPAUSE");
+        //result.add("-dQUIET");
+        result.add("-dBATCH");
+        result.add("-dPDFSETTINGS=" + conversionQuality.getCommandLineArgument());
+        result.add(OUTPUT_FILE_OPTION + outputFilePath);
+
+        if (!Utils.stringIsEmptyOrBlank(
+                pdfCompatibilityLevel.getCommandLineArgument())) {
+            result.add("-dCompatibilityLevel=" +
+                pdfCompatibilityLevel.getCommandLineArgument());
+        }
+
+        if (optimizationArguments != null) {
+            result.addAll(optimizationArguments);
+        }
+
+        if (!Utils.stringIsEmptyOrBlank(additionalGsParameters)) {
+            result.add(additionalGsParameters);
+        }
+
+        result.add(inputFilePath);
+
+        return result;
+    }
+
+    /**
+     * Builds the command line that makes Ghostscript print its version.
+     *
+     * @param gsExecutablePath Path of the Ghostscript executable file
+     *
+     * @return The command line, one element per argument
+     */
+    public static List<String> buildVersionCommands(String gsExecutablePath) {
+        List<String> result = new ArrayList<>();
+        result.add(gsExecutablePath);
+        result.add("--version");
+
+        return result;
+    }
+
+    /**
+     * Builds the command line that starts a Ghostscript process reading
+     * PostScript from its standard input, to be used as a long-lived worker.
+     * The process runs with -dSAFER and may only read and write the files
+     * of a folder of its own, where the files of each job get staged.
+     *
+     * @param gsExecutablePath Path of the Ghostscript executable file
+     * @param jobDirPath Path of the folder of the files of the jobs
+     *
+     * @return The command line, one element per argument
+     */
+    public static List<String> buildWorkerCommands(
+            String gsExecutablePath, String jobDirPath) {
+        // A trailing separator permits the files directly in the folder
+        String permittedPath = jobDirPath.endsWith(File.separator) ?
+            jobDirPath : jobDirPath + File.separator;
+
+        List<String> result = new ArrayList<>();
+        result.add(gsExecutablePath);
+        result.add("-q");
+        result.add("-dSAFER");
+        result.add(PERMIT_FILE_READ_OPTION + permittedPath);
+        result.add(PERMIT_FILE_WRITE_OPTION + permittedPath);
+        result.add("-dNOPAUSE");
+        result.add("-dNODISPLAY");
+        result.add("-");
+
+        return result;
+    }
+
+    /**
+     * Builds the command line that runs a PostScript program, such as one
+     * made of the code generated by buildJobPostScript. The program runs
+     * with -dSAFER and may only read and write the files given.
+     *
+     * @param gsExecutablePath Path of the Ghostscript executable file
+     * @param programFilePath Path of the PostScript program
+     * @param readFilePaths Paths of the files the program may read
+     * @param writeFilePaths Paths of the files the program may write
+     *
+     * @return The command line, one element per argument
+     */
+    public static List<String> buildProgramCommands(
+            String gsExecutablePath, String programFilePath,
+            List<String> readFilePaths, List<String> writeFilePaths) {
+        List<String> result = new ArrayList<>();
+        result.add(gsExecutablePath);
+        result.add("-q");
+        result.add("-dSAFER");
+        result.add(PERMIT_FILE_READ_OPTION + programFilePath);
+
+        for (String readFilePath : readFilePaths) {
+            result.add(PERMIT_FILE_READ_OPTION + readFilePath);
+        }
+
+        for (String writeFilePath : writeFilePaths) {
+            result.add(PERMIT_FILE_WRITE_OPTION + writeFilePath);
+        }
+
+        result.add("-dNOPAUSE");
+        result.add("-dBATCH");
+        result.add("-dNODISPLAY");
+        result.add(programFilePath);
+
+        return result;
+    }
+
+    /**
+     * Builds the command line that makes Ghostscript run a short PostScript
+     * program given inline, without reading any file. Ghostscript runs with
+     * -dSAFER; the operators the capability probe uses (revision,
+     * devicedict, finddevice and getdeviceprops) remain available under it.
+     *
+     * @param gsExecutablePath Path of the Ghostscript executable file
+     * @param program The PostScript program
+     *
+     * @return The command line, one element per argument
+     */
+    public static List<String> buildInlineProgramCommands(
+            String gsExecutablePath, String program) {
+        List<String> result = new ArrayList<>();
+        result.add(gsExecutablePath);
+        result.add("-q");
+        result.add("-dSAFER");
+        result.add("-dNOPAUSE");
+        result.add("-dBATCH");
+        result.add("-dNODISPLAY");
+        result.add("-c");
+        result.add(program);
+
+        return result;
+    }
+
+    /**
+     * Builds the command line that makes Ghostscript print the number of
+     * pages of a PDF file to its standard output. Ghostscript runs with
+     * -dSAFER and may only read the PDF file.
+     *
+     * @param gsExecutablePath Path of the Ghostscript executable file
+     * @param inputFilePath Path of the input file
+     *
+     * @return The command line, one element per argument
+     */
+    public static List<String> buildPageCountCommands(
+            String gsExecutablePath, String inputFilePath) {
+        List<String> result = new ArrayList<>();
+        result.add(gsExecutablePath);
+        result.add("-q");
+        result.add("-dNODISPLAY");
+        result.add("-dSAFER");
+        result.add(PERMIT_FILE_READ_OPTION + inputFilePath);
+        result.add("-dNOPAUSE");
+        result.add("-dBATCH");
+        result.add("-c");
+        result.add(toPostScriptString(inputFilePath) +
+            " (r) file runpdfbegin pdfpagecount = quit");
+
+        return result;
+    }
+
+    /**
+     * Extracts the page count from the output of the command line built by
+     * {@link #buildPageCountCommands(String, String)}.
+     *
+     * @param outputLines Lines written by Ghostscript
+     *
+     * @return The page count, or null if it could not be found
+     */
+    public static Integer parsePageCount(List<String> outputLines) {
+        if (outputLines == null) {
+            return null;
+        }
+
+        // The count is the last line; anything before it is a warning
+        for (int i = outputLines.size() - 1; i >= 0; --i) {
+            Integer pageCount = Utils.stringToInt(outputLines.get(i));
+
+            if (pageCount != null) {
+                return (pageCount > 0) ? pageCount : null;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Builds the command line that processes only a range of pages of a PDF
+     * file, based on a compression command line built by
+     * {@link #buildCompressionCommands(String, ConversionQuality,
+     * PdfCompatibilityLevel, String, String, String)}.
+     *
+     * @param compressionCommands Compression command line
+     * @param firstPage First page to process (1-based)
+     * @param lastPage Last page to process (inclusive)
+     *
+     * @return A new command line, one element per argument
+     */
+    public static List<String> buildPageRangeCommands(
+            List<String> compressionCommands, int firstPage, int lastPage) {
+        if ((firstPage < 1) || (lastPage < firstPage)) {
+            throw new IllegalArgumentException("Invalid page range: " +
+                firstPage + "-" + lastPage);
+        }
+
+        return insertArguments(compressionCommands, Arrays.asList(
+            "-dFirstPage=" + firstPage, "-dLastPage=" + lastPage));
+    }
+
+    /**
+     * Builds the command line that processes only some pages of a PDF file,
+     * based on a compression command line. Requires Ghostscript 9.52 or
+     * later.
+     *
+     * @param compressionCommands Compression command line
+     * @param pageNumbers Pages to process (1-based), in ascending order
+     *
+     * @return A new command line, one element per argument
+     */
+    public static List<String> buildPageListCommands(
+            List<String> compressionCommands, List<Integer> pageNumbers) {
+        if ((pageNumbers == null) || pageNumbers.isEmpty()) {
+            throw new IllegalArgumentException("Page list cannot be empty");
+        }
+
+        StringBuilder pageList = new StringBuilder();
+
+        for (Integer pageNumber : pageNumbers) {
+            if (pageList.length() > 0) {
+                pageList.append(',');
+            }
+
+            pageList.append(pageNumber);
+        }
+
+        return insertArguments(compressionCommands,
+            Collections.singletonList("-sPageList=" + pageList));
+    }
+
+    /**
+     * Builds the command line that downsamples color and grayscale images to
+     * a given resolution, based on a compression command line. Images are
+     * downsampled whenever their resolution exceeds the target one.
+     *
+     * @param compressionCommands Compression command line
+     * @param resolution Target image resolution in dpi
+     *
+     * @return A new command line, one element per argument
+     */
+    public static List<String> buildImageResolutionCommands(
+            List<String> compressionCommands, int resolution) {
+        if (resolution <= 0) {
+            throw new IllegalArgumentException(
+                "Invalid image resolution: " + resolution);
+        }
+
+        return insertArguments(compressionCommands, Arrays.asList(
+            "-dDownsampleColorImages=true",
+            "-dDownsampleGrayImages=true",
+            "-dColorImageResolution=" + resolution,
+            "-dGrayImageResolution=" + resolution,
+            "-dColorImageDownsampleThreshold=1.0",
+            "-dGrayImageDownsampleThreshold=1.0"));
+    }
+
+    /**
+     * Inserts arguments in a compression command line, right before the
+     * input file path, which is the last argument.
+     *
+     * @param compressionCommands Compression command line
+     * @param arguments Arguments to insert
+     *
+     * @return A new command line, one element per argument
+     */
+    public static List<String> insertArguments(
+            List<String> compressionCommands, List<String> arguments) {
+        List<String> result = new ArrayList<>(compressionCommands);
+        result.addAll(result.size() - 1, arguments);
+
+        return result;
+    }
+
+    /**
+     * Builds the command line that concatenates PDF files into a single one,
+     * without resampling their images again.
+     *
+     * @param gsExecutablePath Path of the Ghostscript executable file
+     * @param pdfCompatibilityLevel PDF compatibility level to apply
+     * @param inputFilePaths Paths of the input files, in order
+     * @param outputFilePath Path of the output file
+     *
+     * @return The command line, one element per argument
+     */
+    public static List<String> buildMergeCommands(
+            String gsExecutablePath, PdfCompatibilityLevel pdfCompatibilityLevel,
+            List<String> inputFilePaths, String outputFilePath) {
+        if (pdfCompatibilityLevel == null) {
+            throw new IllegalArgumentException(
+                "PDF compatibility level cannot be null");
+        }
+
+        List<String> result = new ArrayList<>();
+        result.add(gsExecutablePath);
+        result.add("-sDEVICE=pdfwrite");
+        result.add("-dNOPAUSE");
+        result.add("-dBATCH");
+        result.add("-dAutoRotatePages=/None");
+        result.add(OUTPUT_FILE_OPTION + outputFilePath);
+
+        if (!Utils.stringIsEmptyOrBlank(
+                pdfCompatibilityLevel.getCommandLineArgument())) {
+            result.add("-dCompatibilityLevel=" +
+                pdfCompatibilityLevel.getCommandLineArgument());
+        }
+
+        result.addAll(inputFilePaths);
+
+        return result;
+    }
+
+    /**
+     * Translates a compression command line into PostScript code that
+     * performs the same compression in an interpreter that is already
+     * running, such as one reading from its standard input. The code selects
+     * the pdfwrite device with the parameters of the command line, runs the
+     * input files and closes the output file by selecting the null device.
+     * Errors are caught, so that the interpreter can go on with more code,
+     * and a marker line reports the outcome.
+     *
+     * @param commands Compression command line; the first element is the
+     *                 path of the Ghostscript executable file
+     * @param doneMarker Line printed if the compression succeeds
+     * @param failedMarker Line printed if the compression fails, after the
+     *                     name of the error
+     *
+     * @return The PostScript code, or null if the command line uses options
+     *         that cannot be applied this way
+     */
+    public static String buildJobPostScript(List<String> commands,
+            String doneMarker, String failedMarker) {
+        if ((commands == null) || (commands.size() < 2)) {
+            return null;
+        }
+
+        StringBuilder deviceParams = new StringBuilder();
+        List<String> inputFilePaths = new ArrayList<>();
+        String pdfSettings = null;
+        boolean pdfwrite = false;
+
+        for (String arg : commands.subList(1, commands.size())) {
+            if (!arg.startsWith("-")) {
+                inputFilePaths.add(arg);
+                continue;
+            }
+
+            if (JOB_IGNORED_OPTIONS.contains(arg)) {
+                continue;
+            }
+
+            if (JOB_UNSAFE_OPTIONS.contains(arg)) {
+                return null;
+            }
+
+            if (!arg.startsWith("-d") && !arg.startsWith("-s")) {
+                return null;
+            }
+
+            int equalsIndex = arg.indexOf('=');
+            String key = arg.substring(2, (equalsIndex < 0) ? arg.length() : equalsIndex);
+            String value = (equalsIndex < 0) ? "true" : arg.substring(equalsIndex + 1);
+
+            if (key.isEmpty() || JOB_INTERPRETER_PARAMETERS.contains(key) ||
+                !JOB_SAFE_TOKEN_PATTERN.matcher(key).matches()) {
+                return null;
+            }
+
+            if ("DEVICE".equals(key)) {
+                pdfwrite = "pdfwrite".equals(value);
+            }
+            else if ("PDFSETTINGS".equals(key)) {
+                if (!JOB_SAFE_TOKEN_PATTERN.matcher(value).matches()) {
+                    return null;
+                }
+
+                pdfSettings = value.startsWith("/") ? value : "/" + value;
+            }
+            else if (arg.startsWith("-s")) {
+                deviceParams.append(" /").append(key).append(' ')
+                    .append(toPostScriptString(value));
+            }
+            else if (JOB_SAFE_TOKEN_PATTERN.matcher(value).matches()) {
+                deviceParams.append(" /").append(key).append(' ').append(value);
+            }
+            else {
+                return null;
+            }
+        }
+
+        if (!pdfwrite || inputFilePaths.isEmpty()) {
+            return null;
+        }
+
+        StringBuilder result = new StringBuilder("mark {\n")
+            .append("(pdfwrite) selectdevice\n");
+
+        if (pdfSettings != null) {
+            result.append(".distillersettings ").append(pdfSettings)
+                .append(" get setdistillerparams\n");
+        }
+
+        result.append("<<").append(deviceParams).append(" >> setpagedevice\n");
+
+        for (String inputFilePath : inputFilePaths) {
+            result.append(toPostScriptString(inputFilePath)).append(" run\n");
+        }
+
+        // Selecting the null device closes the output file
+        return result.append("nulldevice\n")
+            .append("} stopped {\n")
+            .append("(Error: ) print $error /errorname get =only () = nulldevice\n")
+            .append("$error /newerror false put\n")
+            .append(toPostScriptString(failedMarker)).append(" =\n")
+            .append("} {\n")
+            .append(toPostScriptString(doneMarker)).append(" =\n")
+            .append("} ifelse flush cleartomark\n")
+            .toString();
+    }
+
+    /**
+     * Converts a String into a PostScript string literal, escaping the
+     * characters that have special meaning inside it.
+     *
+     * @param value The String to convert
+     *
+     * @return The PostScript string literal, parentheses included
+     */
+    public static String toPostScriptString(String value) {
+        StringBuilder result = new StringBuilder("(");
+
+        for (int i = 0, len = value.length(); i < len; ++i) {
+            char c = value.charAt(i);
+
+            if ((c == '(') || (c == ')') || (c == '\\')) {
+                result.append('\\');
+            }
+
+            result.append(c);
+        }
+
+        return result.append(')').toString();
+    }
+
+    /**
+     * Joins the elements of a command line into a single String, separated
+     * by blank spaces. Meant for displaying and logging purposes only.
+     *
+     * @param commands Elements of the command line; can be null
+     *
+     * @return The elements of the command line joined in a single String
+     */
+    public static String joinCommands(List<String> commands) {
+        StringBuilder result = new StringBuilder();
+
+        if (commands == null) {
+            return result.toString();
+        }
+
+        for (int i = 0, len = commands.size(); i < len; ++i) {
+            if (i > 0) {
+                result.append(' ');
+            }
+
+            result.append(commands.get(i));
+        }
+
+        return result.toString();
+    }
 }
@@ -0,0 +1,416 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.gs;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A long-lived Ghostscript process that reads PostScript from its standard
+ * input and compresses one file after another, so that the interpreter
+ * startup is paid once per worker instead of once per file. Each job selects
+ * the pdfwrite device with the parameters of a command line, runs the input
+ * files and closes the output file by selecting the null device; a marker
+ * line then tells whether the job succeeded. Not thread-safe; workers are
+ * leased to one thread at a time by GsWorkerPool.
+ *
+ * <p>Workers run with -dSAFER and may only read and write the files of a
+ * job folder of their own. The input files of a job are linked (or copied)
+ * into that folder, and its output file is written there and moved to its
+ * destination when the job succeeds.</p>
+ */
+@Slf4j
+class GsWorker implements Closeable {
+    static final String READY_MARKER = "%%[PDFCF:READY]%%";
+
+    static final String DONE_MARKER = "%%[PDFCF:DONE]%%";
+
+    static final String FAILED_MARKER = "%%[PDFCF:FAILED]%%";
+
+    private static final long POLL_INTERVAL_MILLIS = 100;
+
+    // Queued when the output of the process ends; compared by identity
+    private static final String END_OF_OUTPUT = new String("");
+
+    enum JobOutcome { DONE, FAILED, CANCELLED, DIED }
+
+    @Getter
+    private final int id;
+
+    private final Process process;
+
+    private final File jobDir;
+
+    private final Writer stdinWriter;
+
+    private final BlockingQueue<String> outputLines = new LinkedBlockingQueue<>();
+
+    // Time taken by the process to become ready
+    @Getter
+    private long startupMillis;
+
+    @Getter
+    private int jobCount;
+
+    @Getter
+    private long lastUsedMillis;
+
+    private GsWorker(int id, Process process, File jobDir) {
+        this.id = id;
+        this.process = process;
+        this.jobDir = jobDir;
+        this.stdinWriter = new BufferedWriter(new OutputStreamWriter(
+            process.getOutputStream(), StandardCharsets.UTF_8));
+
+        Thread readerThread = new Thread(this::readOutput, "pdfcf-gs-worker-" + id);
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    /**
+     * Starts a worker process and waits for it to become ready.
+     *
+     * @param gsExecutablePath Path of the Ghostscript executable file
+     * @param id Identifier of the worker, for logging
+     * @param startupTimeoutMillis Maximum time to wait for the worker
+     *
+     * @return The ready worker
+     *
+     * @throws IOException If the process cannot be started or does not
+     *                     become ready in time
+     * @throws InterruptedException If the thread gets interrupted while
+     *                              waiting
+     */
+    static GsWorker start(String gsExecutablePath, int id,
+            long startupTimeoutMillis) throws IOException, InterruptedException {
+        File jobDir = Files.createTempDirectory("pdfcf-gs-worker-").toFile();
+        ProcessBuilder procBuilder = new ProcessBuilder(
+            GsUtils.buildWorkerCommands(gsExecutablePath, jobDir.getPath()));
+        procBuilder.redirectErrorStream(true);
+
+        File gsExecutableParent = new File(gsExecutablePath).getParentFile();
+
+        if (gsExecutableParent != null) {
+            procBuilder.directory(gsExecutableParent);
+        }
+
+        long startTimeMillis = System.currentTimeMillis();
+        GsWorker result;
+
+        try {
+            result = new GsWorker(id, procBuilder.start(), jobDir);
+        } catch (IOException ex) {
+            deleteJobFiles(jobDir);
+            jobDir.delete();
+            throw ex;
+        }
+
+        try {
+            if (!result.ping(startupTimeoutMillis)) {
+                throw new IOException("Ghostscript worker " + id +
+                    " did not become ready");
+            }
+        } catch (IOException | InterruptedException ex) {
+            result.close();
+            throw ex;
+        }
+
+        result.startupMillis = System.currentTimeMillis() - startTimeMillis;
+        result.lastUsedMillis = System.currentTimeMillis();
+        log.debug("Started Ghostscript worker {} in {} ms", id, result.startupMillis);
+
+        return result;
+    }
+
+    /**
+     * Translates a compression command line into a job for a worker.
+     *
+     * @param commands Command line; the first element is the path of the
+     *                 Ghostscript executable file
+     *
+     * @return The PostScript code of the job, or null if the command line
+     *         uses options that a worker cannot apply
+     */
+    static String buildJob(List<String> commands) {
+        return GsUtils.buildJobPostScript(commands, DONE_MARKER, FAILED_MARKER);
+    }
+
+    /**
+     * Finds the output file of a compression command line.
+     *
+     * @param commands Command line
+     *
+     * @return The path of the output file, or null if the command line does
+     *         not name a single output file
+     */
+    static String findOutputFilePath(List<String> commands) {
+        String result = null;
+
+        for (String arg : commands) {
+            if (arg.startsWith(GsUtils.OUTPUT_FILE_OPTION)) {
+                if (result != null) {
+                    return null;
+                }
+
+                result = arg.substring(GsUtils.OUTPUT_FILE_OPTION.length());
+            }
+        }
+
+        // Templates such as out-%d.pdf make one output file per page
+        return ((result == null) || result.isEmpty() || result.contains("%")) ?
+            null : result;
+    }
+
+    /**
+     * Runs a job and waits for it to end.
+     *
+     * @param commands Compression command line of the job; see buildJob and
+     *                 findOutputFilePath for the ones that workers can run
+     * @param lineConsumer Receives each line written during the job
+     * @param cancellation Polled while the job runs; returning true aborts
+     *                     the job by destroying the worker
+     *
+     * @return The outcome of the job. The worker can only take more jobs
+     *         if the outcome is DONE
+     *
+     * @throws InterruptedException If the thread gets interrupted while
+     *                              waiting
+     */
+    JobOutcome runJob(List<String> commands,
+            BiConsumer<String, Boolean> lineConsumer,
+            BooleanSupplier cancellation) throws InterruptedException {
+        String outputFilePath = findOutputFilePath(commands);
+
+        if (outputFilePath == null) {
+            throw new IllegalArgumentException(
+                "Command line must name a single output file");
+        }
+
+        ++jobCount;
+
+        File stagedOutputFile = new File(jobDir, "out.pdf");
+        String job;
+
+        try {
+            job = buildJob(stageJob(commands, stagedOutputFile));
+        } catch (IOException ex) {
+            deleteJobFiles(jobDir);
+            lineConsumer.accept("Error staging the files of the job: " +
+                ex.getMessage(), true);
+            return JobOutcome.FAILED;
+        }
+
+        if (job == null) {
+            deleteJobFiles(jobDir);
+            throw new IllegalArgumentException(
+                "Command line cannot be run by a Ghostscript worker");
+        }
+
+        try {
+            send(job);
+
+            while (true) {
+                String line = outputLines.poll(
+                    POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+                // Checked on every line too, since a job that keeps writing
+                // would otherwise never be found idle for a whole interval
+                if (cancellation.getAsBoolean()) {
+                    close();
+                    return JobOutcome.CANCELLED;
+                }
+
+                if (line == END_OF_OUTPUT) {
+                    return JobOutcome.DIED;
+                }
+
+                if (DONE_MARKER.equals(line)) {
+                    Files.move(stagedOutputFile.toPath(),
+                        new File(outputFilePath).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+                    return JobOutcome.DONE;
+                }
+
+                if (FAILED_MARKER.equals(line)) {
+                    return JobOutcome.FAILED;
+                }
+
+                if (line != null) {
+                    lineConsumer.accept(line, false);
+                }
+            }
+        } catch (IOException ex) {
+            log.debug("Error running a job on Ghostscript worker {}: {}",
+                id, ex.getMessage());
+            return JobOutcome.DIED;
+        } finally {
+            deleteJobFiles(jobDir);
+            lastUsedMillis = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Stages the files of a job in the job folder, the only folder that the
+     * worker may read and write. Input files are linked into the folder, or
+     * copied if they cannot be linked, as is the case across file systems.
+     *
+     * @param commands Compression command line of the job
+     * @param stagedOutputFile File of the job folder to write the output to
+     *
+     * @return The command line, rewritten to use the staged files
+     *
+     * @throws IOException If an input file cannot be staged
+     */
+    private List<String> stageJob(List<String> commands, File stagedOutputFile)
+            throws IOException {
+        List<String> result = new ArrayList<>(commands.size());
+        result.add(commands.get(0));
+
+        for (String arg : commands.subList(1, commands.size())) {
+            if (arg.startsWith(GsUtils.OUTPUT_FILE_OPTION)) {
+                result.add(GsUtils.OUTPUT_FILE_OPTION + stagedOutputFile.getPath());
+            }
+            else if (!arg.startsWith("-")) {
+                File stagedInputFile = new File(jobDir, "in-" + result.size() + ".pdf");
+
+                try {
+                    Files.createLink(stagedInputFile.toPath(), new File(arg).toPath());
+                } catch (IOException | UnsupportedOperationException ex) {
+                    Files.copy(new File(arg).toPath(), stagedInputFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+                }
+
+                result.add(stagedInputFile.getPath());
+            }
+            else {
+                result.add(arg);
+            }
+        }
+
+        return result;
+    }
+
+    private static void deleteJobFiles(File jobDir) {
+        File[] files = jobDir.listFiles();
+
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            if (!file.delete()) {
+                log.debug("Could not delete {}", file);
+            }
+        }
+    }
+
+    /**
+     * Checks whether the worker responds.
+     *
+     * @param timeoutMillis Maximum time to wait for the response
+     *
+     * @return Whether the worker responded in time
+     *
+     * @throws InterruptedException If the thread gets interrupted while
+     *                              waiting
+     */
+    boolean ping(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+
+        try {
+            send(GsUtils.toPostScriptString(READY_MARKER) + " = flush\n");
+        } catch (IOException ex) {
+            return false;
+        }
+
+        long remainingMillis;
+
+        while ((remainingMillis = deadline - System.currentTimeMillis()) > 0) {
+            String line = outputLines.poll(remainingMillis, TimeUnit.MILLISECONDS);
+
+            if ((line == null) || (line == END_OF_OUTPUT)) {
+                return false;
+            }
+
+            if (READY_MARKER.equals(line)) {
+                return true;
+            }
+
+            log.debug("Ghostscript worker {}: {}", id, line);
+        }
+
+        return false;
+    }
+
+    boolean isAlive() {
+        return process.isAlive();
+    }
+
+    private void send(String text) throws IOException {
+        stdinWriter.write(text);
+        stdinWriter.flush();
+    }
+
+    private void readOutput() {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream()))) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                outputLines.add(line);
+            }
+        } catch (IOException ex) {
+            // Expected when the process gets destroyed while being read
+            log.debug("Error reading the output of Ghostscript worker {}: {}",
+                id, ex.getMessage());
+        } finally {
+            outputLines.add(END_OF_OUTPUT);
+        }
+    }
+
+    /**
+     * Terminates the worker process.
+     */
+    @Override
+    public void close() {
+        try {
+            stdinWriter.close();
+        } catch (IOException ex) {
+            // The process may have exited already
+        }
+
+        process.destroyForcibly();
+
+        deleteJobFiles(jobDir);
+
+        if (!jobDir.delete()) {
+            log.debug("Could not delete {}", jobDir);
+        }
+    }
+}
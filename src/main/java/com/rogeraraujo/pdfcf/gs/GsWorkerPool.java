@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.gs;
+
+import com.rogeraraujo.pdfcf.components.ProcessExecutionInfo;
+import com.rogeraraujo.pdfcf.components.ProcessExecutionRunnable;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A pool of long-lived Ghostscript worker processes (see GsWorker). Workers
+ * are started on demand, up to the size of the pool, and are reused by later
+ * jobs. A worker is recycled after a number of jobs, to bound the memory it
+ * accumulates, and whenever a job fails, times out or gets cancelled. Workers
+ * that stay idle for a while are checked before being reused.
+ *
+ * <p>The pool is an in-process executor of ProcessExecutionRunnable:
+ * compression command lines it can translate into worker jobs run on a
+ * worker, and any other command line runs in a new process as usual.</p>
+ */
+@Slf4j
+public class GsWorkerPool implements ProcessExecutionRunnable.InProcessExecutor,
+        Closeable {
+    public static final int DEFAULT_MAX_JOBS_PER_WORKER = 100;
+
+    // Exit value reported when a job fails, as the gs executable does
+    public static final int ERROR_EXIT_VALUE = 1;
+
+    private static final long STARTUP_TIMEOUT_MILLIS = 30000;
+
+    private static final long HEALTH_CHECK_IDLE_MILLIS = 10000;
+
+    private static final long HEALTH_CHECK_TIMEOUT_MILLIS = 5000;
+
+    @Getter
+    private final String gsExecutablePath;
+
+    @Getter
+    private final int size;
+
+    @Getter
+    private final int maxJobsPerWorker;
+
+    private final BlockingQueue<GsWorker> idleWorkers = new LinkedBlockingQueue<>();
+
+    // Limits the number of workers in use, and therefore alive
+    private final Semaphore leases;
+
+    private final AtomicInteger workerIdSequence = new AtomicInteger();
+
+    private volatile boolean closed;
+
+    private final LongAdder startedWorkerCount = new LongAdder();
+
+    private final LongAdder startupMillis = new LongAdder();
+
+    private final LongAdder recycledWorkerCount = new LongAdder();
+
+    private final LongAdder jobCount = new LongAdder();
+
+    private final LongAdder warmJobCount = new LongAdder();
+
+    private final LongAdder failedJobCount = new LongAdder();
+
+    public GsWorkerPool(String gsExecutablePath, int size, int maxJobsPerWorker) {
+        if (gsExecutablePath == null) {
+            throw new IllegalArgumentException(
+                "Ghostscript executable path cannot be null");
+        }
+
+        if (size <= 0) {
+            throw new IllegalArgumentException("Pool size must be positive");
+        }
+
+        if (maxJobsPerWorker <= 0) {
+            throw new IllegalArgumentException(
+                "Maximum jobs per worker must be positive");
+        }
+
+        this.gsExecutablePath = gsExecutablePath;
+        this.size = size;
+        this.maxJobsPerWorker = maxJobsPerWorker;
+        this.leases = new Semaphore(size, true);
+    }
+
+    @Override
+    public boolean accepts(List<String> commands) {
+        return !closed && (commands != null) && !commands.isEmpty() &&
+            gsExecutablePath.equals(commands.get(0)) &&
+            (GsWorker.findOutputFilePath(commands) != null) &&
+            (GsWorker.buildJob(commands) != null);
+    }
+
+    /**
+     * Runs a compression command line on a worker. If the job ran on a worker
+     * that was already running, the startup time saved is noted in the
+     * execution info.
+     *
+     * @param commands Command line; must be accepted by this pool
+     * @param executionInfo Information about the execution
+     * @param lineConsumer Receives each line written during the job
+     * @param cancellation Polled while the job runs; returning true aborts
+     *                     the job
+     *
+     * @return Zero if the job succeeded, or ERROR_EXIT_VALUE
+     *
+     * @throws IOException If a worker cannot be started
+     * @throws InterruptedException If the thread gets interrupted while
+     *                              waiting for a worker
+     */
+    @Override
+    public int execute(List<String> commands, ProcessExecutionInfo executionInfo,
+            BiConsumer<String, Boolean> lineConsumer,
+            BooleanSupplier cancellation) throws IOException, InterruptedException {
+        if ((GsWorker.findOutputFilePath(commands) == null) ||
+            (GsWorker.buildJob(commands) == null)) {
+            throw new IllegalArgumentException(
+                "Command line cannot be run by a Ghostscript worker");
+        }
+
+        leases.acquire();
+
+        try {
+            GsWorker worker = leaseWorker();
+            boolean warm = worker.getJobCount() > 0;
+            GsWorker.JobOutcome outcome =
+                worker.runJob(commands, lineConsumer, cancellation);
+
+            jobCount.increment();
+
+            if (warm) {
+                warmJobCount.increment();
+
+                if (executionInfo != null) {
+                    executionInfo.setExecutionNote("warm worker, ~" +
+                        getAverageStartupMillis() + " ms startup saved");
+                }
+            }
+
+            if ((outcome == GsWorker.JobOutcome.DONE) &&
+                (worker.getJobCount() < maxJobsPerWorker) && !closed) {
+                idleWorkers.add(worker);
+            }
+            else {
+                log.debug("Recycling Ghostscript worker {} after {} jobs ({})",
+                    worker.getId(), worker.getJobCount(), outcome);
+                recycledWorkerCount.increment();
+                worker.close();
+            }
+
+            if (outcome != GsWorker.JobOutcome.DONE) {
+                failedJobCount.increment();
+                return ERROR_EXIT_VALUE;
+            }
+
+            return 0;
+        } finally {
+            leases.release();
+        }
+    }
+
+    /**
+     * Takes an idle worker that is still healthy, or starts a new one.
+     */
+    private GsWorker leaseWorker() throws IOException, InterruptedException {
+        GsWorker worker;
+
+        while ((worker = idleWorkers.poll()) != null) {
+            boolean healthy = worker.isAlive() &&
+                ((System.currentTimeMillis() - worker.getLastUsedMillis() <
+                    HEALTH_CHECK_IDLE_MILLIS) ||
+                 worker.ping(HEALTH_CHECK_TIMEOUT_MILLIS));
+
+            if (healthy) {
+                return worker;
+            }
+
+            log.debug("Discarding unresponsive Ghostscript worker {}",
+                worker.getId());
+            recycledWorkerCount.increment();
+            worker.close();
+        }
+
+        worker = GsWorker.start(gsExecutablePath,
+            workerIdSequence.incrementAndGet(), STARTUP_TIMEOUT_MILLIS);
+        startedWorkerCount.increment();
+        startupMillis.add(worker.getStartupMillis());
+
+        return worker;
+    }
+
+    /**
+     * @return The average time taken by a worker to start, in milliseconds
+     */
+    public long getAverageStartupMillis() {
+        long started = startedWorkerCount.sum();
+        return (started > 0) ? startupMillis.sum() / started : 0;
+    }
+
+    /**
+     * Formats the statistics of this pool.
+     *
+     * @return The formatted statistics, in a single line
+     */
+    public String formatSummary() {
+        long warmJobs = warmJobCount.sum();
+
+        return "Worker pool: " + jobCount.sum() + " jobs (" + warmJobs +
+            " on warm workers, " + failedJobCount.sum() + " failed), " +
+            startedWorkerCount.sum() + " workers started (" +
+            recycledWorkerCount.sum() + " recycled), average startup " +
+            getAverageStartupMillis() + " ms, ~" + new DecimalFormat("0.#")
+                .format(warmJobs * getAverageStartupMillis() / 1000.0d) +
+            " s startup saved";
+    }
+
+    /**
+     * Terminates the idle workers. Workers in use are terminated when their
+     * jobs end.
+     */
+    @Override
+    public void close() {
+        closed = true;
+
+        GsWorker worker;
+
+        while ((worker = idleWorkers.poll()) != null) {
+            worker.close();
+        }
+    }
+}
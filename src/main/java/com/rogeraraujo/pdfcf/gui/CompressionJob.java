@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.gui;
+
+import com.rogeraraujo.pdfcf.batch.CompressionRequest;
+import com.rogeraraujo.pdfcf.batch.CompressionResult;
+import com.rogeraraujo.pdfcf.components.ProgressTracker;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A file compression queued in the job queue panel, which runs its request
+ * on a CompressionEngine. Its state is written by the threads of the engine
+ * and read by the event dispatch thread. Each
+ * change is reported to the JobStateStore of the job, if any, which the
+ * event dispatch thread polls to refresh the queue table.
+ */
+@Getter
+public class CompressionJob {
+    public enum Status {
+        QUEUED("Queued"), RUNNING("Running"), SUCCEEDED("Done"),
+        FAILED("Failed"), TIMED_OUT("Timed out"), CANCELLED("Cancelled"),
+        SKIPPED("Skipped");
+
+        @Getter
+        private final String description;
+
+        Status(String description) {
+            this.description = description;
+        }
+
+        public boolean isFinal() {
+            return (this != QUEUED) && (this != RUNNING);
+        }
+    }
+
+    private final File inputFile;
+
+    private final File outputFile;
+
+    // Compression run by the job; null for jobs that do not run, such as
+    // skipped ones
+    private final CompressionRequest request;
+
+    private final long inputFileSize;
+
+    private volatile Status status = Status.QUEUED;
+
+    // Between 0 and 1; negative while unknown
+    private volatile double progress = -1;
+
+    // Latest progress reported while the job runs, with its page rate and
+    // time left; null until then
+    private volatile ProgressTracker.Progress progressDetails;
+
+    private volatile long outputFileSize;
+
+    private volatile Integer exitValue;
+
+    // Reason for failures, timeouts and skips
+    private volatile String message;
+
+    private volatile boolean cancelRequested;
+
+    // Result of the request, set once the job is submitted
+    @Getter(AccessLevel.NONE)
+    private volatile CompletableFuture<CompressionResult> future;
+
+    // Receives the changes of the state of the job
+    @Getter(AccessLevel.NONE)
+    private volatile JobStateStore stateStore;
+
+    // Whether the job is queued in its state store; 1 if so
+    @Getter(AccessLevel.NONE)
+    private volatile int changed;
+
+    private static final AtomicIntegerFieldUpdater<CompressionJob> CHANGED =
+        AtomicIntegerFieldUpdater.newUpdater(CompressionJob.class, "changed");
+
+    /**
+     * Creates a job that runs a compression request.
+     *
+     * @param request The request, which must name its Ghostscript executable
+     */
+    public CompressionJob(CompressionRequest request) {
+        this(request.getInputFile(), request.getOutputFile(), request);
+    }
+
+    /**
+     * Creates a job that does not run, such as one to be skipped.
+     *
+     * @param inputFile The input file
+     * @param outputFile The output file
+     */
+    public CompressionJob(File inputFile, File outputFile) {
+        this(inputFile, outputFile, null);
+    }
+
+    private CompressionJob(File inputFile, File outputFile,
+            CompressionRequest request) {
+        if ((inputFile == null) || (outputFile == null)) {
+            throw new IllegalArgumentException("Files cannot be null");
+        }
+
+        this.inputFile = inputFile;
+        this.outputFile = outputFile;
+        this.request = request;
+        this.inputFileSize = inputFile.length();
+    }
+
+    /**
+     * @return The Ghostscript command line of the job, whose first element
+     *         is the executable; empty if the job does not run
+     */
+    public List<String> getCommands() {
+        return (request != null) ? request.buildCommands(null, null) :
+            Collections.emptyList();
+    }
+
+    /**
+     * @return Output size divided by input size, or null if the job has not
+     *         succeeded
+     */
+    public Double getSizeRatio() {
+        return ((status == Status.SUCCEEDED) && (inputFileSize > 0)) ?
+            outputFileSize / (double) inputFileSize : null;
+    }
+
+    /**
+     * Cancels the job: a queued job will not run, and a running job has its
+     * Ghostscript process terminated.
+     */
+    public void cancel() {
+        cancelRequested = true;
+
+        CompletableFuture<CompressionResult> currentFuture = future;
+
+        if (currentFuture != null) {
+            currentFuture.cancel(true);
+        }
+    }
+
+    void setStatus(Status status) {
+        this.status = status;
+        fireChanged();
+    }
+
+    void setProgress(double progress) {
+        if (this.progress != progress) {
+            this.progress = progress;
+            fireChanged();
+        }
+    }
+
+    void setProgress(ProgressTracker.Progress progress) {
+        this.progressDetails = progress;
+        setProgress(progress.getFraction());
+    }
+
+    void setOutputFileSize(long outputFileSize) {
+        this.outputFileSize = outputFileSize;
+        fireChanged();
+    }
+
+    void setExitValue(Integer exitValue) {
+        this.exitValue = exitValue;
+    }
+
+    void setMessage(String message) {
+        this.message = message;
+        fireChanged();
+    }
+
+    void setStateStore(JobStateStore stateStore) {
+        this.stateStore = stateStore;
+    }
+
+    /**
+     * Flags the job as queued in its state store.
+     *
+     * @return Whether the job was not flagged yet, in which case the caller
+     *         must queue it
+     */
+    boolean markChanged() {
+        return CHANGED.compareAndSet(this, 0, 1);
+    }
+
+    void clearChanged() {
+        changed = 0;
+    }
+
+    private void fireChanged() {
+        JobStateStore store = stateStore;
+
+        if (store != null) {
+            store.markChanged(this);
+        }
+    }
+
+    void setFuture(CompletableFuture<CompressionResult> future) {
+        this.future = future;
+
+        // Cancellation may have come before the job was submitted
+        if (cancelRequested) {
+            future.cancel(true);
+        }
+    }
+}
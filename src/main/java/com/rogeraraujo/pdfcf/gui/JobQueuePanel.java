@@ -0,0 +1,487 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.gui;
+
+import com.rogeraraujo.pdfcf.batch.BatchOptions;
+import com.rogeraraujo.pdfcf.batch.CompressionEngine;
+import com.rogeraraujo.pdfcf.batch.CompressionResult;
+import com.rogeraraujo.pdfcf.components.CustomTableCellRenderer;
+import com.rogeraraujo.pdfcf.components.ProcessExecutionRunnable;
+import com.rogeraraujo.pdfcf.components.ProcessTimeoutPolicy;
+import com.rogeraraujo.pdfcf.components.ProgressTracker;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import net.miginfocom.swing.MigLayout;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.datatransfer.DataFlavor;
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * A panel that lists compression jobs in a table and runs them in the
+ * background on a CompressionEngine, several at a time, so that the window stays responsive and
+ * more files can be queued while earlier ones are compressed. Each row shows
+ * the status, progress and size reduction of a job, and the tooltip of the
+ * progress of a running job tells its pages per second and estimated time
+ * left. Running or queued jobs can be cancelled by clicking their "Cancel"
+ * cell or with the "Cancel" button. Files can be added with a
+ * multi-selection file chooser or by dropping them on the table.
+ *
+ * <p>The engine does not notify the event dispatch thread of their progress.
+ * Instead, the table polls the jobs changed since its last refresh from a
+ * JobStateStore at a fixed rate and repaints only their rows, so that the
+ * cost of refreshing it depends neither on the number of jobs nor on how
+ * much Ghostscript writes.</p>
+ */
+@Slf4j
+public class JobQueuePanel extends JPanel {
+    // Interval at which the table is refreshed while jobs are active, that
+    // is, 20 times per second
+    private static final int REFRESH_INTERVAL_MILLIS = 50;
+
+    private final JobTableModel tableModel = new JobTableModel();
+
+    // Jobs changed by the workers since the last refresh
+    @Getter
+    private final JobStateStore stateStore = new JobStateStore();
+
+    @Getter
+    private final JTable table;
+
+    // Runs the requests of the jobs; its options provide the timeout
+    // policy, since every request names its own Ghostscript executable
+    private final CompressionEngine engine;
+
+    private final Timer refreshTimer;
+
+    // Receives the files chosen or dropped by the user, to be turned into
+    // jobs; called on the event dispatch thread
+    @Getter @Setter
+    private Consumer<List<File>> filesAddedHandler;
+
+    // Receives each line written by the jobs; called from the threads that
+    // read their output, so it must be thread-safe
+    @Getter @Setter
+    private BiConsumer<CompressionJob, String> lineConsumer;
+
+    // Receives each job once it finishes; called on the event dispatch
+    // thread
+    @Getter @Setter
+    private Consumer<CompressionJob> completionListener;
+
+    /**
+     * Creates a new panel.
+     *
+     * @param concurrentJobCount Maximum number of jobs run at a time
+     */
+    public JobQueuePanel(int concurrentJobCount) {
+        super(new MigLayout("insets 0", "[grow, fill] []", "[grow, fill]"));
+
+        if (concurrentJobCount < 1) {
+            throw new IllegalArgumentException(
+                "Concurrent job count must be positive: " + concurrentJobCount);
+        }
+
+        BatchOptions options = new BatchOptions();
+        options.setThreadCount(concurrentJobCount);
+        engine = new CompressionEngine(options);
+        refreshTimer = new Timer(REFRESH_INTERVAL_MILLIS, this::refresh);
+
+        table = new JTable(tableModel);
+        table.setRowSorter(tableModel.createRowSorter());
+        table.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+        table.setFillsViewportHeight(true);
+        table.setDragEnabled(false);
+        table.getTableHeader().setReorderingAllowed(false);
+        setUpRenderers();
+        setUpColumnWidths();
+
+        table.addMouseListener(new MouseAdapter() {
+            @Override public void mouseClicked(MouseEvent event) {
+                int row = table.rowAtPoint(event.getPoint());
+                int column = table.columnAtPoint(event.getPoint());
+
+                if ((row >= 0) &&
+                    (table.convertColumnIndexToModel(column) ==
+                     JobTableModel.CANCEL_COLUMN)) {
+                    cancel(tableModel.getJob(table.convertRowIndexToModel(row)));
+                }
+            }
+        });
+
+        AbstractAction cancelAction = new AbstractAction() {
+            @Override public void actionPerformed(ActionEvent event) {
+                processBtnCancel(event);
+            }};
+
+        SwingUtils.bindKeyStrokeToAction(table,
+            KeyStroke.getKeyStroke(KeyEvent.VK_DELETE, 0),
+            "cancelAction", cancelAction);
+
+        FileDropHandler dropHandler = new FileDropHandler();
+        table.setTransferHandler(dropHandler);
+
+        JScrollPane scpTable = new JScrollPane(table);
+        scpTable.setTransferHandler(dropHandler);
+        scpTable.setPreferredSize(new Dimension(100, 100));
+
+        add(scpTable, "growx, growy");
+
+        // Buttons
+        JPanel buttonsPanel = new JPanel(new MigLayout(
+            "insets 0", "[]", "[] [] []"));
+
+        JButton btnAddFiles = SwingUtils.createButton(
+            null, "icons/silk/folder_table.png", null,
+            "<html>Add files to the queue.<br>" +
+            "Files can also be dropped on the table.</html>");
+        btnAddFiles.addActionListener(this::processBtnAddFiles);
+
+        buttonsPanel.add(btnAddFiles, "sizegroup buttons, wrap");
+
+        JButton btnCancel = SwingUtils.createButton(
+            null, "icons/silk/cancel.png", null, "Cancel selected jobs [Del]");
+        btnCancel.addActionListener(cancelAction);
+
+        buttonsPanel.add(btnCancel, "sizegroup buttons, wrap");
+
+        JButton btnRemoveFinished = SwingUtils.createButton(
+            null, "icons/silk/textfield.png", null, "Remove finished jobs");
+        btnRemoveFinished.addActionListener(
+            event -> tableModel.removeFinishedJobs());
+
+        buttonsPanel.add(btnRemoveFinished, "sizegroup buttons");
+
+        add(buttonsPanel, "aligny top");
+    }
+
+    private void setUpRenderers() {
+        CustomTableCellRenderer.AlternateRowColorTransformer rowColorTransformer =
+            new CustomTableCellRenderer.AlternateRowColorTransformer(null);
+        CustomTableCellRenderer textRenderer = new CustomTableCellRenderer(
+            null, (baseComponent, table, value, isSelected, hasFocus, row,
+                    column) -> {
+                Component result = rowColorTransformer.transform(baseComponent,
+                    table, value, isSelected, hasFocus, row, column);
+
+                if (result instanceof JLabel) {
+                    JLabel label = (JLabel) result;
+                    int modelColumn = table.convertColumnIndexToModel(column);
+                    int modelRow = table.convertRowIndexToModel(row);
+
+                    label.setToolTipText(
+                        (modelColumn == JobTableModel.FILE_COLUMN) ?
+                            tableModel.getInputPath(modelRow) + " -> " +
+                            tableModel.getOutputPath(modelRow) :
+                            (value != null) ? value.toString() : null);
+                    label.setHorizontalAlignment(
+                        (modelColumn == JobTableModel.FILE_COLUMN) ||
+                        (modelColumn == JobTableModel.STATUS_COLUMN) ?
+                            SwingConstants.LEADING : SwingConstants.TRAILING);
+                }
+
+                return result;
+            });
+
+        JProgressBar progressBar = new JProgressBar(0, 1000);
+        progressBar.setStringPainted(true);
+        progressBar.setBorderPainted(false);
+
+        CustomTableCellRenderer progressRenderer = new CustomTableCellRenderer(
+            null, (baseComponent, table, value, isSelected, hasFocus, row,
+                    column) -> {
+                rowColorTransformer.transform(baseComponent, table, value,
+                    isSelected, hasFocus, row, column);
+
+                double progress = (value != null) ? (Double) value : -1;
+                progressBar.setBackground(baseComponent.getBackground());
+                progressBar.setValue((progress >= 0) ?
+                    (int) (progress * 1000) : 0);
+                progressBar.setString((progress >= 0) ?
+                    Math.round(progress * 100) + "%" : "");
+
+                // Running jobs tell their pages per second and time left
+                CompressionJob job = tableModel.getJob(
+                    table.convertRowIndexToModel(row));
+                ProgressTracker.Progress progressDetails = (job != null) ?
+                    job.getProgressDetails() : null;
+                progressBar.setToolTipText((progressDetails != null) ?
+                    progressDetails.describe() : null);
+
+                return progressBar;
+            });
+
+        table.setDefaultRenderer(String.class, textRenderer);
+        table.setDefaultRenderer(Double.class, progressRenderer);
+    }
+
+    private void setUpColumnWidths() {
+        int[] widths = { 160, 100, 70, 60, 60, 45, 50 };
+
+        for (int i = 0; i < widths.length; ++i) {
+            table.getColumnModel().getColumn(i).setPreferredWidth(widths[i]);
+        }
+    }
+
+    public ProcessTimeoutPolicy getTimeoutPolicy() {
+        return engine.getOptions().getTimeoutPolicy();
+    }
+
+    /**
+     * Sets the timeout policy of the jobs that have not started yet.
+     *
+     * @param timeoutPolicy The policy
+     */
+    public void setTimeoutPolicy(ProcessTimeoutPolicy timeoutPolicy) {
+        engine.getOptions().setTimeoutPolicy(timeoutPolicy);
+    }
+
+    /**
+     * Adds a job to the queue; it starts as soon as a worker is available.
+     * Must be called on the event dispatch thread.
+     *
+     * @param job The job
+     */
+    public void enqueue(CompressionJob job) {
+        enqueueAll(Collections.singletonList(job));
+    }
+
+    /**
+     * Adds jobs to the queue at once, which is much faster than adding them
+     * one by one when there are many. Must be called on the event dispatch
+     * thread.
+     *
+     * @param jobs The jobs
+     */
+    public void enqueueAll(List<CompressionJob> jobs) {
+        for (CompressionJob job : jobs) {
+            job.setStateStore(stateStore);
+        }
+
+        tableModel.addJobs(jobs);
+
+        for (CompressionJob job : jobs) {
+            if (!job.getStatus().isFinal()) {
+                submit(job);
+            }
+        }
+
+        if (!refreshTimer.isRunning()) {
+            refreshTimer.start();
+        }
+    }
+
+    public int getConcurrentJobCount() {
+        return engine.getThreadCount();
+    }
+
+    /**
+     * Sets the maximum number of jobs run at a time. Running jobs are not
+     * affected.
+     *
+     * @param concurrentJobCount The number of jobs
+     */
+    public void setConcurrentJobCount(int concurrentJobCount) {
+        if (concurrentJobCount < 1) {
+            throw new IllegalArgumentException(
+                "Concurrent job count must be positive: " + concurrentJobCount);
+        }
+
+        engine.setThreadCount(concurrentJobCount);
+    }
+
+    /**
+     * @return The number of jobs that are queued or running
+     */
+    public int countActiveJobs() {
+        return tableModel.countActiveJobs();
+    }
+
+    /**
+     * Cancels all jobs and stops the workers, for instance when the window
+     * gets closed.
+     */
+    public void shutdown() {
+        for (CompressionJob job : tableModel.getActiveJobs()) {
+            job.cancel();
+        }
+
+        engine.close();
+        refreshTimer.stop();
+
+        log.debug("Job queue: {} state changes shown in {} row refreshes",
+            stateStore.getChangeCount(), stateStore.getDeliveryCount());
+    }
+
+    private void refresh(ActionEvent event) {
+        tableModel.refresh(stateStore.pollChangedJobs());
+
+        if (tableModel.countActiveJobs() == 0) {
+            refreshTimer.stop();
+        }
+    }
+
+    private void cancel(CompressionJob job) {
+        // Finished jobs are no longer referenced by the table model
+        if ((job != null) && !job.getStatus().isFinal()) {
+            job.cancel();
+        }
+    }
+
+    private void processBtnCancel(ActionEvent event) {
+        for (int row : table.getSelectedRows()) {
+            cancel(tableModel.getJob(table.convertRowIndexToModel(row)));
+        }
+    }
+
+    private void processBtnAddFiles(ActionEvent event) {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+        fileChooser.setMultiSelectionEnabled(true);
+        fileChooser.setDialogTitle("Choose PDF files or folders");
+
+        if ((fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) &&
+            (filesAddedHandler != null)) {
+            filesAddedHandler.accept(
+                Arrays.asList(fileChooser.getSelectedFiles()));
+        }
+    }
+
+    /**
+     * Submits the request of a job to the engine, reflecting its execution
+     * and result in the job.
+     *
+     * @param job The job
+     */
+    private void submit(CompressionJob job) {
+        CompletableFuture<CompressionResult> future = engine.submit(
+            job.getRequest(), (source, progress) -> job.setProgress(progress),
+            new ProcessExecutionRunnable.PerAdapter() {
+                @Override
+                public void notifyThreadStart(ProcessExecutionRunnable source) {
+                    // Cancellation may have finished the job already
+                    if (!job.getStatus().isFinal()) {
+                        job.setStatus(CompressionJob.Status.RUNNING);
+                    }
+                }
+
+                @Override
+                public void notifyStreamLine(ProcessExecutionRunnable source,
+                        String line, boolean errorStream) {
+                    BiConsumer<CompressionJob, String> consumer = lineConsumer;
+
+                    if (consumer != null) {
+                        consumer.accept(job, line);
+                    }
+                }
+            });
+
+        future.whenComplete((result, ex) -> finishJob(job, result, ex));
+        job.setFuture(future);
+    }
+
+    private void finishJob(CompressionJob job, CompressionResult result,
+            Throwable ex) {
+        if (ex instanceof CancellationException) {
+            finishJob(job, CompressionJob.Status.CANCELLED, null);
+            return;
+        }
+
+        if (ex != null) {
+            log.error("Error running job for {}:", job.getInputFile(), ex);
+            finishJob(job, CompressionJob.Status.FAILED, ex.toString());
+            return;
+        }
+
+        job.setExitValue(result.getExitValue());
+
+        switch (result.getStatus()) {
+            case SUCCEEDED:
+                job.setOutputFileSize(result.getOutputFileSize());
+                finishJob(job, CompressionJob.Status.SUCCEEDED, null);
+                break;
+
+            case TIMED_OUT:
+                finishJob(job, CompressionJob.Status.TIMED_OUT,
+                    result.getMessage());
+                break;
+
+            default:
+                finishJob(job, CompressionJob.Status.FAILED,
+                    result.getMessage());
+                break;
+        }
+    }
+
+    private void finishJob(CompressionJob job, CompressionJob.Status status,
+            String message) {
+        job.setMessage(message);
+        job.setStatus(status);
+
+        SwingUtilities.invokeLater(() -> {
+            tableModel.refresh(job);
+
+            Consumer<CompressionJob> listener = completionListener;
+
+            if (listener != null) {
+                listener.accept(job);
+            }
+        });
+    }
+
+    /**
+     * Accepts files dropped on the table.
+     */
+    private class FileDropHandler extends TransferHandler {
+        @Override
+        public boolean canImport(TransferSupport support) {
+            return support.isDataFlavorSupported(DataFlavor.javaFileListFlavor);
+        }
+
+        @Override
+        public boolean importData(TransferSupport support) {
+            if (!canImport(support) || (filesAddedHandler == null)) {
+                return false;
+            }
+
+            try {
+                @SuppressWarnings("unchecked")
+                List<File> files = (List<File>) support.getTransferable()
+                    .getTransferData(DataFlavor.javaFileListFlavor);
+                filesAddedHandler.accept(files);
+
+                return true;
+            } catch (Exception ex) {
+                log.debug("Could not import dropped files:", ex);
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.gui;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the compression jobs whose state changed, so that the event
+ * dispatch thread can poll them at a fixed rate instead of receiving an
+ * event per change. Worker threads write the state of a job through its
+ * atomic fields and then mark it here; a job is queued at most once until
+ * the next poll, however many times it changes in between. No locks are
+ * taken on either side.
+ */
+public class JobStateStore {
+    // Jobs changed since the last poll, each one at most once
+    private final Queue<CompressionJob> changedJobs =
+        new ConcurrentLinkedQueue<>();
+
+    private final LongAdder changeCount = new LongAdder();
+
+    private final LongAdder deliveryCount = new LongAdder();
+
+    /**
+     * Records that the state of a job changed. Called from any thread.
+     *
+     * @param job The job
+     */
+    void markChanged(CompressionJob job) {
+        changeCount.increment();
+
+        if (job.markChanged()) {
+            changedJobs.add(job);
+        }
+    }
+
+    /**
+     * Takes the jobs changed since the last call. A job whose state changes
+     * while this method runs is returned again by the next call, so no
+     * change is missed.
+     *
+     * @return The jobs, in the order in which they first changed
+     */
+    public List<CompressionJob> pollChangedJobs() {
+        List<CompressionJob> result = new ArrayList<>();
+        CompressionJob job;
+
+        while ((job = changedJobs.poll()) != null) {
+            // Cleared before the state is read, so that later changes
+            // queue the job again
+            job.clearChanged();
+            result.add(job);
+        }
+
+        deliveryCount.add(result.size());
+
+        return result;
+    }
+
+    /**
+     * @return The number of state changes recorded
+     */
+    public long getChangeCount() {
+        return changeCount.sum();
+    }
+
+    /**
+     * @return The number of jobs returned by polls; the difference to the
+     *         number of changes is what was coalesced
+     */
+    public long getDeliveryCount() {
+        return deliveryCount.sum();
+    }
+}
@@ -0,0 +1,576 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.gui;
+
+import com.rogeraraujo.pdfcf.Utils;
+
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.TableRowSorter;
+import java.io.File;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Table model of the job queue panel, one row per job. Must be accessed on
+ * the event dispatch thread only.
+ *
+ * <p>To keep queues of hundreds of thousands of files cheap, the state of
+ * the rows is kept in parallel arrays of primitives rather than in one
+ * object per row: jobs are only referenced while queued or running, folder
+ * paths are stored once and shared by the rows of their files, and display
+ * strings are only formatted when a row is painted. Changes of the jobs are
+ * picked up by {@link #refresh(Collection)} or {@link #refresh()} and
+ * reported to listeners in as few events as possible.</p>
+ */
+public class JobTableModel extends AbstractTableModel {
+    public static final int FILE_COLUMN = 0;
+    public static final int STATUS_COLUMN = 1;
+    public static final int PROGRESS_COLUMN = 2;
+    public static final int INPUT_SIZE_COLUMN = 3;
+    public static final int OUTPUT_SIZE_COLUMN = 4;
+    public static final int RATIO_COLUMN = 5;
+    public static final int CANCEL_COLUMN = 6;
+
+    private static final String[] COLUMN_NAMES = {
+        "File", "Status", "Progress", "Input", "Output", "Ratio", ""
+    };
+
+    private static final CompressionJob.Status[] STATUSES =
+        CompressionJob.Status.values();
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    // Above this number of separate ranges of changed rows, a single event
+    // covering all of them is fired instead
+    private static final int MAX_UPDATE_EVENTS = 16;
+
+    private final DecimalFormat sizeFormat = new DecimalFormat("0.##");
+
+    private final DecimalFormat ratioFormat = new DecimalFormat("0.#");
+
+    private int rowCount;
+
+    // Jobs still queued or running, by row; null for finished jobs
+    private CompressionJob[] jobs = new CompressionJob[INITIAL_CAPACITY];
+
+    // Rows of the jobs still queued or running
+    private final Map<CompressionJob, Integer> activeJobRows = new HashMap<>();
+
+    // Indexes of the parent folders of the files in folderPaths
+    private int[] inputFolders = new int[INITIAL_CAPACITY];
+
+    private int[] outputFolders = new int[INITIAL_CAPACITY];
+
+    private String[] inputFileNames = new String[INITIAL_CAPACITY];
+
+    private String[] outputFileNames = new String[INITIAL_CAPACITY];
+
+    private long[] inputFileSizes = new long[INITIAL_CAPACITY];
+
+    private long[] outputFileSizes = new long[INITIAL_CAPACITY];
+
+    // Ordinals of CompressionJob.Status
+    private byte[] statuses = new byte[INITIAL_CAPACITY];
+
+    // Between 0 and 1; negative while unknown
+    private float[] progresses = new float[INITIAL_CAPACITY];
+
+    // Output size divided by input size; NaN until the job succeeds
+    private float[] sizeRatios = new float[INITIAL_CAPACITY];
+
+    // Null for most rows
+    private String[] messages = new String[INITIAL_CAPACITY];
+
+    private final List<String> folderPaths = new ArrayList<>();
+
+    private final Map<String, Integer> folderIndexes = new HashMap<>();
+
+    private final BitSet changedRows = new BitSet();
+
+    public void addJob(CompressionJob job) {
+        addJobs(Collections.singletonList(job));
+    }
+
+    /**
+     * Adds jobs at the end of the table, notifying listeners only once.
+     *
+     * @param newJobs The jobs
+     */
+    public void addJobs(Collection<CompressionJob> newJobs) {
+        if (newJobs.isEmpty()) {
+            return;
+        }
+
+        ensureCapacity(rowCount + newJobs.size());
+
+        int firstRow = rowCount;
+
+        for (CompressionJob job : newJobs) {
+            int row = rowCount++;
+
+            inputFolders[row] = indexFolder(job.getInputFile());
+            inputFileNames[row] = job.getInputFile().getName();
+            outputFolders[row] = indexFolder(job.getOutputFile());
+            outputFileNames[row] = job.getOutputFile().getName();
+            inputFileSizes[row] = job.getInputFileSize();
+            copyJobState(row, job);
+
+            if (!job.getStatus().isFinal()) {
+                jobs[row] = job;
+                activeJobRows.put(job, row);
+            }
+        }
+
+        fireTableRowsInserted(firstRow, rowCount - 1);
+    }
+
+    /**
+     * @param row Index of the row
+     *
+     * @return The job of a row, or null if it has finished
+     */
+    public CompressionJob getJob(int row) {
+        checkRow(row);
+
+        return jobs[row];
+    }
+
+    /**
+     * @return The jobs that are queued or running
+     */
+    public List<CompressionJob> getActiveJobs() {
+        return new ArrayList<>(activeJobRows.keySet());
+    }
+
+    /**
+     * @return The number of jobs that are queued or running
+     */
+    public int countActiveJobs() {
+        return activeJobRows.size();
+    }
+
+    public CompressionJob.Status getStatus(int row) {
+        checkRow(row);
+
+        return STATUSES[statuses[row]];
+    }
+
+    public String getInputPath(int row) {
+        checkRow(row);
+
+        return new File(folderPaths.get(inputFolders[row]),
+            inputFileNames[row]).getPath();
+    }
+
+    public String getOutputPath(int row) {
+        checkRow(row);
+
+        return new File(folderPaths.get(outputFolders[row]),
+            outputFileNames[row]).getPath();
+    }
+
+    /**
+     * @return The number of distinct folders of the input and output files
+     */
+    public int getFolderCount() {
+        return folderPaths.size();
+    }
+
+    /**
+     * Removes the jobs that have finished.
+     *
+     * @return The number of jobs removed
+     */
+    public int removeFinishedJobs() {
+        int oldRowCount = rowCount;
+        int newRowCount = 0;
+
+        for (int row = 0; row < oldRowCount; ++row) {
+            if (STATUSES[statuses[row]].isFinal()) {
+                continue;
+            }
+
+            if (newRowCount != row) {
+                moveRow(row, newRowCount);
+            }
+
+            ++newRowCount;
+        }
+
+        if (newRowCount == oldRowCount) {
+            return 0;
+        }
+
+        Arrays.fill(jobs, newRowCount, oldRowCount, null);
+        Arrays.fill(inputFileNames, newRowCount, oldRowCount, null);
+        Arrays.fill(outputFileNames, newRowCount, oldRowCount, null);
+        Arrays.fill(messages, newRowCount, oldRowCount, null);
+        rowCount = newRowCount;
+        changedRows.clear();
+
+        activeJobRows.clear();
+
+        for (int row = 0; row < rowCount; ++row) {
+            if (jobs[row] != null) {
+                activeJobRows.put(jobs[row], row);
+            }
+        }
+
+        fireTableDataChanged();
+
+        return oldRowCount - newRowCount;
+    }
+
+    /**
+     * Copies the state of the jobs still queued or running into the table,
+     * notifying listeners of the rows that changed. Jobs found finished are
+     * no longer referenced afterwards.
+     */
+    public void refresh() {
+        Iterator<Map.Entry<CompressionJob, Integer>> iterator =
+            activeJobRows.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            Map.Entry<CompressionJob, Integer> entry = iterator.next();
+
+            if (updateRow(entry.getValue(), entry.getKey())) {
+                iterator.remove();
+            }
+        }
+
+        fireRowsChanged();
+    }
+
+    /**
+     * Copies the state of a single job into the table, for instance right
+     * after it finishes.
+     *
+     * @param job The job; ignored if not in the table or already finished
+     *            in it
+     */
+    public void refresh(CompressionJob job) {
+        refresh(Collections.singletonList(job));
+    }
+
+    /**
+     * Copies the state of some jobs into the table, such as those polled
+     * from a JobStateStore, notifying listeners of the rows that changed.
+     *
+     * @param changedJobs The jobs; those not in the table or already
+     *                    finished in it are ignored
+     */
+    public void refresh(Collection<CompressionJob> changedJobs) {
+        for (CompressionJob job : changedJobs) {
+            Integer row = activeJobRows.get(job);
+
+            if ((row != null) && updateRow(row, job)) {
+                activeJobRows.remove(job);
+            }
+        }
+
+        fireRowsChanged();
+    }
+
+    /**
+     * Creates a row sorter that compares the numbers behind the cells
+     * rather than their formatted text, which also spares formatting the
+     * text of every row when sorting.
+     *
+     * @return The row sorter
+     */
+    public TableRowSorter<JobTableModel> createRowSorter() {
+        return new SortKeyRowSorter(this);
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return (column == PROGRESS_COLUMN) ? Double.class : String.class;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        checkRow(row);
+
+        CompressionJob.Status status = STATUSES[statuses[row]];
+
+        switch (column) {
+            case FILE_COLUMN:
+                return inputFileNames[row];
+
+            case STATUS_COLUMN:
+                return (messages[row] != null) ?
+                    status.getDescription() + ": " + messages[row] :
+                    status.getDescription();
+
+            case PROGRESS_COLUMN:
+                return status.isFinal() ? 1.0d : (double) progresses[row];
+
+            case INPUT_SIZE_COLUMN:
+                return Utils.formatFileSize(inputFileSizes[row], sizeFormat);
+
+            case OUTPUT_SIZE_COLUMN:
+                return (status == CompressionJob.Status.SUCCEEDED) ?
+                    Utils.formatFileSize(outputFileSizes[row], sizeFormat) : "";
+
+            case RATIO_COLUMN:
+                return !Float.isNaN(sizeRatios[row]) ?
+                    ratioFormat.format((sizeRatios[row] - 1.0d) * 100.0d) + "%" :
+                    "";
+
+            case CANCEL_COLUMN:
+                return status.isFinal() ? "" : "Cancel";
+
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns the value by which a cell is sorted, without formatting it.
+     *
+     * @param row Index of the row
+     * @param column Index of the column
+     *
+     * @return The value
+     */
+    Comparable<?> getSortKey(int row, int column) {
+        checkRow(row);
+
+        switch (column) {
+            case FILE_COLUMN:
+                return inputFileNames[row];
+
+            case STATUS_COLUMN:
+                return (int) statuses[row];
+
+            case PROGRESS_COLUMN:
+                return STATUSES[statuses[row]].isFinal() ? 1.0f : progresses[row];
+
+            case INPUT_SIZE_COLUMN:
+                return inputFileSizes[row];
+
+            case OUTPUT_SIZE_COLUMN:
+                return (statuses[row] == CompressionJob.Status.SUCCEEDED.ordinal()) ?
+                    outputFileSizes[row] : -1L;
+
+            case RATIO_COLUMN:
+                // NaN sorts after every number
+                return sizeRatios[row];
+
+            default:
+                return "";
+        }
+    }
+
+    /**
+     * Copies the state of a job into its row.
+     *
+     * @return Whether the job has finished
+     */
+    private boolean updateRow(int row, CompressionJob job) {
+        if (copyJobState(row, job)) {
+            changedRows.set(row);
+        }
+
+        if (job.getStatus().isFinal()) {
+            jobs[row] = null;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * @return Whether the row changed
+     */
+    private boolean copyJobState(int row, CompressionJob job) {
+        // The status is read first: once final, the other fields are too
+        byte status = (byte) job.getStatus().ordinal();
+        float progress = (float) job.getProgress();
+        long outputFileSize = job.getOutputFileSize();
+        Double sizeRatio = job.getSizeRatio();
+        float ratio = (sizeRatio != null) ? sizeRatio.floatValue() : Float.NaN;
+        String message = job.getMessage();
+
+        boolean changed = (statuses[row] != status) ||
+            (progresses[row] != progress) ||
+            (outputFileSizes[row] != outputFileSize) ||
+            (Float.floatToIntBits(sizeRatios[row]) != Float.floatToIntBits(ratio)) ||
+            (messages[row] != message);
+
+        statuses[row] = status;
+        progresses[row] = progress;
+        outputFileSizes[row] = outputFileSize;
+        sizeRatios[row] = ratio;
+        messages[row] = message;
+
+        return changed;
+    }
+
+    /**
+     * Notifies listeners of the rows changed since the last notification,
+     * coalescing adjacent rows into a single event.
+     */
+    private void fireRowsChanged() {
+        if (changedRows.isEmpty()) {
+            return;
+        }
+
+        int rangeCount = 0;
+
+        for (int row = changedRows.nextSetBit(0); row >= 0;
+             row = changedRows.nextSetBit(changedRows.nextClearBit(row))) {
+            ++rangeCount;
+        }
+
+        if (rangeCount > MAX_UPDATE_EVENTS) {
+            fireTableRowsUpdated(changedRows.nextSetBit(0),
+                changedRows.length() - 1);
+        }
+        else {
+            for (int row = changedRows.nextSetBit(0); row >= 0;
+                 row = changedRows.nextSetBit(row)) {
+                int end = changedRows.nextClearBit(row);
+                fireTableRowsUpdated(row, end - 1);
+                row = end;
+            }
+        }
+
+        changedRows.clear();
+    }
+
+    private int indexFolder(File file) {
+        String parent = file.getParent();
+        String path = (parent != null) ? parent : "";
+        Integer index = folderIndexes.get(path);
+
+        if (index == null) {
+            index = folderPaths.size();
+            folderPaths.add(path);
+            folderIndexes.put(path, index);
+        }
+
+        return index;
+    }
+
+    private void moveRow(int from, int to) {
+        jobs[to] = jobs[from];
+        inputFolders[to] = inputFolders[from];
+        outputFolders[to] = outputFolders[from];
+        inputFileNames[to] = inputFileNames[from];
+        outputFileNames[to] = outputFileNames[from];
+        inputFileSizes[to] = inputFileSizes[from];
+        outputFileSizes[to] = outputFileSizes[from];
+        statuses[to] = statuses[from];
+        progresses[to] = progresses[from];
+        sizeRatios[to] = sizeRatios[from];
+        messages[to] = messages[from];
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= jobs.length) {
+            return;
+        }
+
+        int newCapacity = Math.max(capacity, jobs.length + (jobs.length >> 1));
+
+        jobs = Arrays.copyOf(jobs, newCapacity);
+        inputFolders = Arrays.copyOf(inputFolders, newCapacity);
+        outputFolders = Arrays.copyOf(outputFolders, newCapacity);
+        inputFileNames = Arrays.copyOf(inputFileNames, newCapacity);
+        outputFileNames = Arrays.copyOf(outputFileNames, newCapacity);
+        inputFileSizes = Arrays.copyOf(inputFileSizes, newCapacity);
+        outputFileSizes = Arrays.copyOf(outputFileSizes, newCapacity);
+        statuses = Arrays.copyOf(statuses, newCapacity);
+        progresses = Arrays.copyOf(progresses, newCapacity);
+        sizeRatios = Arrays.copyOf(sizeRatios, newCapacity);
+        messages = Arrays.copyOf(messages, newCapacity);
+    }
+
+    private void checkRow(int row) {
+        if ((row < 0) || (row >= rowCount)) {
+            throw new IndexOutOfBoundsException(
+                "Row " + row + " out of " + rowCount);
+        }
+    }
+
+    /**
+     * Sorts rows by the values returned by getSortKey.
+     */
+    private static class SortKeyRowSorter extends TableRowSorter<JobTableModel> {
+        SortKeyRowSorter(JobTableModel model) {
+            super(model);
+
+            setModelWrapper(new ModelWrapper<JobTableModel, Integer>() {
+                @Override
+                public JobTableModel getModel() {
+                    return model;
+                }
+
+                @Override
+                public int getColumnCount() {
+                    return model.getColumnCount();
+                }
+
+                @Override
+                public int getRowCount() {
+                    return model.getRowCount();
+                }
+
+                @Override
+                public Object getValueAt(int row, int column) {
+                    return model.getSortKey(row, column);
+                }
+
+                @Override
+                public Integer getIdentifier(int row) {
+                    return row;
+                }
+            });
+
+            for (int column = 0; column < model.getColumnCount(); ++column) {
+                setComparator(column, Comparator.naturalOrder());
+            }
+
+            setSortable(CANCEL_COLUMN, false);
+        }
+    }
+}
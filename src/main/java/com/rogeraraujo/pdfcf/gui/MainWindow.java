@@ -17,14 +17,25 @@
 package com.rogeraraujo.pdfcf.gui;
 
 import com.rogeraraujo.pdfcf.Utils;
+import com.rogeraraujo.pdfcf.batch.BatchInput;
+import com.rogeraraujo.pdfcf.batch.BatchInputCollector;
+import com.rogeraraujo.pdfcf.batch.BatchOptions;
+import com.rogeraraujo.pdfcf.batch.CompressionRequest;
 import com.rogeraraujo.pdfcf.components.*;
 import com.rogeraraujo.pdfcf.gs.ConversionQuality;
+import com.rogeraraujo.pdfcf.gs.GsCapabilities;
+import com.rogeraraujo.pdfcf.gs.GsCapabilityProbe;
+import com.rogeraraujo.pdfcf.gs.GsLibraryEngine;
 import com.rogeraraujo.pdfcf.gs.GsUtils;
 import com.rogeraraujo.pdfcf.gs.PdfCompatibilityLevel;
+import com.rogeraraujo.pdfcf.pdf.CompressionPrefilter;
+import com.rogeraraujo.pdfcf.pdf.PdfInspector;
 import lombok.extern.slf4j.Slf4j;
 import net.miginfocom.swing.MigLayout;
 
 import javax.swing.*;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
 import javax.swing.filechooser.FileFilter;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.*;
@@ -32,15 +43,17 @@ import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 /**
@@ -70,7 +83,11 @@ public class MainWindow extends JFrame {
 
     private JTextField jtfOutputFile;
 
-    private JTextArea jtaCompressionLog;
+    private RingBufferLogModel compressionLog;
+
+    private JLabel lblCompressionLog;
+
+    private JobQueuePanel jobQueuePanel;
 
     private String gsUsageHelpUrl = "";
 
@@ -78,6 +95,34 @@ public class MainWindow extends JFrame {
 
     private String defaultOutputFileDirPath = "";
 
+    private ProcessTimeoutPolicy timeoutPolicy = new ProcessTimeoutPolicy();
+
+    private CompressionPrefilter prefilter;
+
+    // Detects the options supported by Ghostscript; null if the automatic
+    // options are disabled
+    private GsCapabilityProbe gsCapabilityProbe;
+
+    // Whether Ghostscript should run in-process through its shared library
+    private boolean gsLibraryEnabled;
+
+    private String gsLibraryPath;
+
+    // Loaded on first use by the job preparation thread; null if it could
+    // not be loaded. Guarded by gsLibraryLock
+    private GsLibraryEngine gsLibraryEngine;
+
+    private final Object gsLibraryLock = new Object();
+
+    private boolean gsLibraryLoadAttempted;
+
+    // Lists, inspects and builds the command lines of the files to queue,
+    // which can take long, so that the window stays responsive; a single
+    // thread keeps the jobs in the order the files were added
+    private final ExecutorService jobPreparationExecutor =
+        Executors.newSingleThreadExecutor(
+            new NamedThreadFactory("pdfcf-job-preparation"));
+
     private JFileChooser executableFileChooser;
 
     private JFileChooser pdfFileChooser;
@@ -110,16 +155,22 @@ public class MainWindow extends JFrame {
 
         add(createMainPanel(), "growx, growy");
 
-        setSize(650, 600);
+        setSize(650, 750);
     }
 
     private void confirmExit() {
+        int activeJobCount = jobQueuePanel.countActiveJobs();
         int answer = JOptionPane.showConfirmDialog(
-            this, "Close PDF Compression Frontend?",
+            this, (activeJobCount > 0) ?
+                activeJobCount + " compression jobs have not finished and " +
+                "will be cancelled.\nClose PDF Compression Frontend?" :
+                "Close PDF Compression Frontend?",
             SwingUtils.APP_WINDOW_TITLE, JOptionPane.YES_NO_OPTION,
             JOptionPane.QUESTION_MESSAGE);
 
         if (answer == JOptionPane.YES_OPTION) {
+            jobPreparationExecutor.shutdownNow();
+            jobQueuePanel.shutdown();
             setVisible(false);
             dispose();
         }
@@ -182,12 +233,28 @@ public class MainWindow extends JFrame {
             "default-input-file-folder", "");
         defaultOutputFileDirPath = config.getProperty(
             "default-output-file-folder", "");
+        timeoutPolicy = ProcessTimeoutPolicy.fromConfiguration(config);
+        jobQueuePanel.setTimeoutPolicy(timeoutPolicy);
+
+        Integer concurrentJobCount = Utils.stringToInt(
+            config.getProperty("queue-concurrent-jobs", ""));
+
+        if ((concurrentJobCount != null) && (concurrentJobCount > 0)) {
+            jobQueuePanel.setConcurrentJobCount(concurrentJobCount);
+        }
+
+        prefilter = CompressionPrefilter.fromConfiguration(config);
+        gsCapabilityProbe = GsCapabilityProbe.fromConfiguration(config);
+        gsLibraryEnabled = "library".equalsIgnoreCase(
+            config.getProperty("ghostscript-engine", "").trim());
+        gsLibraryPath = config.getProperty("ghostscript-library-path", "");
     }
 
     private JPanel createMainPanel() {
         JPanel result = new JPanel(new MigLayout(
             "", "[] [grow, fill]",
-            Utils.repeatString("[] ", 12) + "[grow, fill] [] []"));
+            Utils.repeatString("[] ", 12) +
+            "[grow, fill] [] [grow, fill] [] []"));
 
         // Ghostscript executable file
         result.add(new JLabel("Ghostscript Executable File:"),
@@ -350,15 +417,50 @@ public class MainWindow extends JFrame {
 
         result.add(btnCompress, "span, wrap");
 
+        // Job queue
+        result.add(new JLabel("Job Queue:"), "span, growx, wrap");
+
+        jobQueuePanel = new JobQueuePanel(
+            Runtime.getRuntime().availableProcessors());
+        jobQueuePanel.setFilesAddedHandler(this::queueFiles);
+        jobQueuePanel.setCompletionListener(this::logJobResult);
+        jobQueuePanel.setLineConsumer((job, line) ->
+            compressionLog.append(job.getInputFile().getName() + ": " +
+                line + "\n"));
+
+        result.add(jobQueuePanel, "span, growx, growy, wrap");
+
         // Compression log
-        result.add(new JLabel("Compression Log:"), "span, growx, wrap");
+        lblCompressionLog = new JLabel("Compression Log:");
+        result.add(lblCompressionLog, "span, growx, wrap");
 
         JPanel logPanel = new JPanel(new MigLayout(
             "insets 0", "[grow, fill] []", "[grow, fill]"));
 
-        jtaCompressionLog = SwingUtils.createTextArea(
-            new LimitedDocument(100000), "", 5, 10, false, true, true, true);
-        JScrollPane scpCompressionLog = new JScrollPane(jtaCompressionLog);
+        // Only the most recent lines are kept, and only the visible ones
+        // are laid out, so that long sessions do not slow down the GUI
+        compressionLog = new RingBufferLogModel();
+        compressionLog.addListDataListener(new ListDataListener() {
+            @Override public void intervalAdded(ListDataEvent event) {
+                updateCompressionLogLabel();
+            }
+
+            @Override public void intervalRemoved(ListDataEvent event) {
+                updateCompressionLogLabel();
+            }
+
+            @Override public void contentsChanged(ListDataEvent event) { }
+        });
+
+        LogView compressionLogView = new LogView(compressionLog);
+        Font textFieldFont = UIManager.getFont("TextField.font");
+
+        if (textFieldFont != null) {
+            compressionLogView.setFont(textFieldFont);
+        }
+
+        compressionLogView.setVisibleRowCount(5);
+        JScrollPane scpCompressionLog = new JScrollPane(compressionLogView);
 
         logPanel.add(scpCompressionLog, "growx, growy");
 
@@ -642,8 +744,104 @@ public class MainWindow extends JFrame {
         }
     }
 
-    private void processBtnCompress(ActionEvent event) {
-        // Validation.
+    private String predictNoGain(File inputFile) {
+        if (prefilter == null) {
+            return null;
+        }
+
+        try {
+            return prefilter.predictNoGain(PdfInspector.inspect(inputFile));
+        } catch (Exception ex) {
+            log.debug("Could not inspect {}: {}", inputFile, ex.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Builds the arguments that enable the size and speed options supported
+     * by a Ghostscript installation. Capabilities are probed once per
+     * installation and cached on disk afterwards.
+     *
+     * @param gsExecutablePath Path of the Ghostscript executable file
+     * @param additionalGsParameters Additional parameters given by the user
+     *
+     * @return The arguments, possibly empty
+     */
+    private List<String> buildGsOptimizationArguments(
+            String gsExecutablePath, String additionalGsParameters) {
+        GsCapabilities capabilities = (gsCapabilityProbe != null) ?
+            gsCapabilityProbe.probe(gsExecutablePath) : null;
+
+        return (capabilities != null) ?
+            capabilities.buildOptimizationArguments(additionalGsParameters) :
+            Collections.emptyList();
+    }
+
+    /**
+     * Returns the engine that runs Ghostscript in-process, loading its
+     * shared library on first use. If the engine is not enabled in the
+     * configuration or the library cannot be loaded, Ghostscript runs as an
+     * external process.
+     *
+     * @param gsExecutablePath Path of the Ghostscript executable, next to
+     *                         which the library may be found
+     *
+     * @return The engine, or null if the executable should be run
+     */
+    private GsLibraryEngine getGsLibraryEngine(String gsExecutablePath) {
+        if (!gsLibraryEnabled) {
+            return null;
+        }
+
+        synchronized (gsLibraryLock) {
+            if (!gsLibraryLoadAttempted) {
+                gsLibraryLoadAttempted = true;
+                gsLibraryEngine = GsLibraryEngine.load(
+                    gsLibraryPath, gsExecutablePath);
+
+                if (gsLibraryEngine == null) {
+                    log.warn("Could not load the Ghostscript library; " +
+                        "running the Ghostscript executable instead");
+                    compressionLog.append("Could not load the Ghostscript " +
+                        "library; running the Ghostscript executable " +
+                        "instead.\n\n");
+                }
+                else {
+                    // Jobs must remain cancellable
+                    gsLibraryEngine.setProcessFallback(true);
+
+                    if (!gsLibraryEngine.isConcurrent()) {
+                        compressionLog.append("The Ghostscript library " +
+                            "supports a single interpreter at a time, so " +
+                            "queued jobs run one at a time.\n\n");
+                    }
+                }
+            }
+
+            return gsLibraryEngine;
+        }
+    }
+
+    /**
+     * Settings of the form that apply to every compression job.
+     */
+    private static class CompressionSettings {
+        private String gsExecutablePath;
+
+        private ConversionQuality conversionQuality;
+
+        private PdfCompatibilityLevel pdfCompatibilityLevel;
+
+        private String additionalGsParameters;
+    }
+
+    /**
+     * Reads and validates the settings of the form that apply to every
+     * compression job, showing an error message if any of them is invalid.
+     *
+     * @return The settings, or null if any of them is invalid
+     */
+    private CompressionSettings readCompressionSettings() {
         // Ghostscript executable. If the executable does not have a parent
         // file, it most likey is in the system path
         String gsExecutablePath = jtfGsExecutablePath.getText();
@@ -656,7 +854,7 @@ public class MainWindow extends JFrame {
                     "The path specified for the Ghostscript executable file " +
                     "does not exist.");
                 jtfGsExecutablePath.requestFocusInWindow();
-                return;
+                return null;
             }
 
             if (!gsExecutable.isFile()) {
@@ -665,7 +863,7 @@ public class MainWindow extends JFrame {
                     "does not refer to a file.\n" +
                     "It is probably a folder.");
                 jtfGsExecutablePath.requestFocusInWindow();
-                return;
+                return null;
             }
         }
 
@@ -680,7 +878,7 @@ public class MainWindow extends JFrame {
                 "Please specify a valid value for the conversion quality.");
             cboConversionQuality.requestFocusInWindow();
             cboConversionQuality.setPopupVisible(true);
-            return;
+            return null;
         }
 
         // PDF compatibility level
@@ -694,6 +892,76 @@ public class MainWindow extends JFrame {
                 "Please specify a valid value for the PDF compatibility level.");
             cboPdfCompatibilityLevel.requestFocusInWindow();
             cboPdfCompatibilityLevel.setPopupVisible(true);
+            return null;
+        }
+
+        CompressionSettings result = new CompressionSettings();
+        result.gsExecutablePath = gsExecutablePath;
+        result.conversionQuality = conversionQuality;
+        result.pdfCompatibilityLevel = pdfCompatibilityLevel;
+        result.additionalGsParameters = jtfAdditionalGsParameters.getText();
+
+        return result;
+    }
+
+    /**
+     * Creates a compression job. Probes Ghostscript the first time, so it is
+     * meant to be called by the job preparation thread.
+     *
+     * @param settings Settings of the form
+     * @param inputFile The input file
+     * @param outputFile The output file
+     *
+     * @return The job
+     */
+    private CompressionJob createCompressionJob(CompressionSettings settings,
+            File inputFile, File outputFile) {
+        CompressionRequest request = new CompressionRequest(inputFile,
+            outputFile, settings.conversionQuality,
+            settings.pdfCompatibilityLevel,
+            Utils.stringIsEmptyOrBlank(settings.additionalGsParameters) ?
+                null :
+                Collections.singletonList(settings.additionalGsParameters));
+
+        return new CompressionJob(request
+            .withGsExecutable(settings.gsExecutablePath,
+                buildGsOptimizationArguments(settings.gsExecutablePath,
+                    settings.additionalGsParameters))
+            .withInProcessExecutor(
+                getGsLibraryEngine(settings.gsExecutablePath)));
+    }
+
+    /**
+     * Adds jobs to the job queue panel and logs their command lines. Must be
+     * called on the event dispatch thread.
+     *
+     * @param jobs The jobs
+     */
+    private void enqueueJobs(List<CompressionJob> jobs) {
+        for (CompressionJob job : jobs) {
+            if (job.getStatus().isFinal()) {
+                continue;
+            }
+
+            ProcessExecutionRunnable.InProcessExecutor inProcessExecutor =
+                job.getRequest().getInProcessExecutor();
+
+            // Outputs full execution command to compression log
+            compressionLog.append("Queueing Ghostscript" +
+                ((inProcessExecutor instanceof GsLibraryEngine) ?
+                    " in-process (" + ((GsLibraryEngine) inProcessExecutor)
+                        .getLibraryName() + ")" : "") +
+                ":\n" + GsUtils.joinCommands(job.getCommands()) + "\n\n");
+        }
+
+        jobQueuePanel.enqueueAll(jobs);
+    }
+
+    private void processBtnCompress(ActionEvent event) {
+        // Validation
+        CompressionSettings settings = readCompressionSettings();
+
+        if (settings == null) {
             return;
         }
 
@@ -744,149 +1012,150 @@ public class MainWindow extends JFrame {
             return;
         }
 
-        // Prepares process execution
-        String additionalGsParameters = jtfAdditionalGsParameters.getText();
-
-        List<String> commands = new ArrayList<>();
-        commands.add(jtfGsExecutablePath.getText());
-        commands.add("-sDEVICE=pdfwrite");
-        commands.add("-dNOPAUSE");
-        //commands.add("-dQUIET");
-        commands.add("-dBATCH");
-        commands.add("-dPDFSETTINGS=" + conversionQuality.getCommandLineArgument());
-        commands.add("-sOutputFile=" + outputFilePath);
+        // The file is inspected and the job created in the background, and
+        // the job runs in the background too, so that more files can be
+        // queued
+        jobPreparationExecutor.execute(() -> {
+            String noGainReason = predictNoGain(inputFile);
+            CompressionJob job =
+                createCompressionJob(settings, inputFile, outputFile);
+
+            SwingUtilities.invokeLater(() -> {
+                // Input files not expected to get smaller are compressed
+                // only if the user confirms it
+                if (noGainReason != null) {
+                    String message =
+                        "The input file is not expected to get smaller:\n\n" +
+                        "  " + noGainReason + "\n\n" +
+                        "Would you like to compress it anyway?";
+
+                    if (SwingUtils.askYesOrNoOption(this, message) !=
+                            JOptionPane.YES_OPTION) {
+                        compressionLog.append(
+                            "Compression skipped: " + noGainReason + "\n\n");
+                        return;
+                    }
+                }
 
-        if (!Utils.stringIsEmptyOrBlank(
-                pdfCompatibilityLevel.getCommandLineArgument())) {
-            commands.add("-dCompatibilityLevel=" +
-                pdfCompatibilityLevel.getCommandLineArgument());
-        }
+                enqueueJobs(Collections.singletonList(job));
+            });
+        });
+    }
 
-        if (!additionalGsParameters.trim().isEmpty()) {
-            commands.add(additionalGsParameters);
+    /**
+     * Queues the compression of files chosen in the job queue panel or
+     * dropped on it. Folders are searched for PDF files. Each output file
+     * gets the name of its input file plus a suffix, in the default output
+     * folder if configured, or else next to the input file. Files not
+     * expected to get smaller are listed as skipped. Folders are listed and
+     * files inspected in the background, and the jobs are queued once all
+     * of them are ready.
+     *
+     * @param files The files and folders
+     */
+    private void queueFiles(List<File> files) {
+        CompressionSettings settings = readCompressionSettings();
+
+        if (settings == null) {
+            return;
         }
 
-        commands.add(inputFilePath);
+        jobPreparationExecutor.execute(() -> {
+            List<CompressionJob> jobs;
 
-        // Outputs full execution command to compression log
-        StringBuilder fullCommand = new StringBuilder();
-
-        for (int i = 0, len = commands.size(); i < len; ++i) {
-            if (i > 0) {
-                fullCommand.append(' ');
+            try {
+                jobs = createCompressionJobs(settings, files);
+            } catch (Exception ex) {
+                SwingUtilities.invokeLater(() ->
+                    showExceptionDialog("Error listing input files", ex));
+                return;
             }
 
-            fullCommand.append(commands.get(i));
-        }
-
-        jtaCompressionLog.append(
-            "Executing Ghostscript:\n" + fullCommand + "\n\n");
-
-        // Actual process execution
-        ProcessExecutionDialog executionDlg = null;
-        List<String> initialInputStreamLines = null;
-        List<String> initialErrorStreamLines = null;
-        BufferedReader inputStreamReader = null;
-        BufferedReader errorStreamReader = null;
-        Integer exitValue = null;
-
-        try {
-            // Sets up the process builder
-            ProcessBuilder procBuilder = new ProcessBuilder(commands);
-            procBuilder.redirectErrorStream(true);
+            SwingUtilities.invokeLater(() -> enqueueJobs(jobs));
+        });
+    }
 
-            if (gsExecutableParent != null) {
-                procBuilder.directory(gsExecutable.getParentFile());
-            }
+    /**
+     * Creates the compression jobs of files and folders, as queued by
+     * queueFiles. Called by the job preparation thread.
+     *
+     * @param settings Settings of the form
+     * @param files The files and folders
+     *
+     * @return The jobs, including skipped ones
+     *
+     * @throws Exception If the files cannot be listed
+     */
+    private List<CompressionJob> createCompressionJobs(
+            CompressionSettings settings, List<File> files) throws Exception {
+        List<BatchInput> inputs = BatchInputCollector.collect(files.stream()
+            .map(File::getPath).collect(Collectors.toList()),
+            BatchOptions.DEFAULT_OUTPUT_FILE_SUFFIX);
+
+        BatchOptions outputNaming = new BatchOptions();
+        outputNaming.setOutputFileSuffix(BatchOptions.DEFAULT_OUTPUT_FILE_SUFFIX);
+        List<CompressionJob> jobs = new ArrayList<>(inputs.size());
+
+        for (BatchInput input : inputs) {
+            File outputFile = outputNaming.resolveOutputFile(input);
 
-            // Creates and shows a modal dialog to execute the process.
-            // The process is run when the dialog gets shown, and the dialog
-            // closes automatically when the process ends
-            executionDlg = ProcessExecutionDialog.createInstance(
-                this, true, 0, 0, procBuilder);
-            executionDlg.setVisible(true);
-
-            // Reads process execution info
-            ProcessExecutionInfo processExecutionInfo =
-                executionDlg.getProcessExecutionInfo();
-
-            if (processExecutionInfo != null) {
-                initialInputStreamLines =
-                    processExecutionInfo.getInitialInputStreamLines();
-                initialErrorStreamLines =
-                    processExecutionInfo.getInitialErrorStreamLines();
-                inputStreamReader = processExecutionInfo.getInputStreamReader();
-                errorStreamReader = processExecutionInfo.getErrorStreamReader();
-                exitValue = processExecutionInfo.getExitValue();
+            if (!Utils.stringIsEmptyOrBlank(defaultOutputFileDirPath)) {
+                outputFile = new File(
+                    defaultOutputFileDirPath, outputFile.getName());
             }
 
-            // Throws any stored exceptions if need be
-            if (executionDlg.getThreadExecutionException() != null) {
-                throw executionDlg.getThreadExecutionException();
-            }
+            String noGainReason = predictNoGain(input.getFile());
 
-            if ((processExecutionInfo != null) &&
-                (processExecutionInfo.getExecutionException() != null)) {
-                throw processExecutionInfo.getExecutionException();
+            if (noGainReason != null) {
+                CompressionJob job = new CompressionJob(
+                    input.getFile(), outputFile);
+                job.setStatus(CompressionJob.Status.SKIPPED);
+                job.setMessage(noGainReason);
+                jobs.add(job);
+                continue;
             }
-        } catch (Exception ex) {
-            showExceptionDialog("Error running Ghostscript", ex);
-        } finally {
-            // Processes input stream
-            boolean emittedLines = Utils.consumeElements(initialInputStreamLines,
-                new Utils.AlwaysTrueIntegerBiFunction<>((line, lineNum) ->
-                    jtaCompressionLog.append(line + "\n"))) > 0;
 
-            try {
-                emittedLines |= Utils.consumeLines(inputStreamReader,
-                    new Utils.AlwaysTrueIntegerBiFunction<>((line, lineNum) ->
-                        jtaCompressionLog.append(line + "\n"))) > 0;
-            } catch (Exception ex) {
-                showExceptionDialog("Error reading Ghostscript input stream", ex);
-            }
-
-            if (emittedLines) {
-                jtaCompressionLog.append("\n");
-            }
+            jobs.add(createCompressionJob(settings, input.getFile(), outputFile));
+        }
 
-            // Processes error stream
-            emittedLines = Utils.consumeElements(initialErrorStreamLines,
-                new Utils.AlwaysTrueIntegerBiFunction<>((line, lineNum) ->
-                    jtaCompressionLog.append(line + "\n"))) > 0;
+        return jobs;
+    }
 
-            try {
-                emittedLines |= Utils.consumeLines(errorStreamReader,
-                    new Utils.AlwaysTrueIntegerBiFunction<>((line, lineNum) ->
-                        jtaCompressionLog.append(line + "\n"))) > 0;
-            } catch (Exception ex) {
-                showExceptionDialog("Error reading Ghostscript error stream", ex);
-            }
+    /**
+     * Logs the outcome of a finished compression job.
+     *
+     * @param job The job
+     */
+    private void logJobResult(CompressionJob job) {
+        String name = job.getInputFile().getName();
+        Integer exitValue = job.getExitValue();
+
+        switch (job.getStatus()) {
+            case CANCELLED:
+                compressionLog.append(name + ": compression cancelled.\n\n");
+                return;
 
-            if (emittedLines) {
-                jtaCompressionLog.append("\n");
-            }
+            case SKIPPED:
+                compressionLog.append(name + ": compression skipped: " +
+                    job.getMessage() + "\n\n");
+                return;
 
-            // Frees resources
-            if (executionDlg != null) {
-                executionDlg.dispose();
-            }
+            case TIMED_OUT:
+                compressionLog.append(name + ": Ghostscript was terminated: " +
+                    job.getMessage() + ".\n\n");
+                return;
 
-            Utils.closeReader(inputStreamReader, true);
-            Utils.closeReader(errorStreamReader, true);
+            default:
+                break;
         }
 
-        // Processes exit value
-        jtaCompressionLog.append("Ghostscript exit value: " +
+        compressionLog.append(name + ": Ghostscript exit value: " +
             ((exitValue != null) ? exitValue.toString() : "(unavailable)") +
             '\n');
 
-        if (exitValue == null) {
-            return;
-        }
-
-        if (exitValue == 0) {
-            long inputFileSize = inputFile.length();
-            long outputFileSize = outputFile.length();
+        if (job.getStatus() == CompressionJob.Status.SUCCEEDED) {
+            long inputFileSize = job.getInputFileSize();
+            long outputFileSize = job.getOutputFileSize();
 
             if ((inputFileSize > 0) && (outputFileSize > 0)) {
                 double sizeRatio = outputFileSize / (double) inputFileSize;
@@ -915,24 +1184,36 @@ public class MainWindow extends JFrame {
                     }
                 }
 
-                jtaCompressionLog.append(message + "\n");
+                compressionLog.append(name + ": " + message + "\n");
             }
         }
-        else {
-            jtaCompressionLog.append(
+        else if (exitValue != null) {
+            compressionLog.append(
                 "Please refer to the documentation of Ghostscript to " +
                 "check the error for this exit value.\n");
         }
+        else if (job.getMessage() != null) {
+            compressionLog.append(name + ": " + job.getMessage() + "\n");
+        }
 
-        jtaCompressionLog.append("\n");
+        compressionLog.append("\n");
     }
 
     private void processBtnCopyLog(ActionEvent event) {
-        SwingUtils.copyTextToClipboard(jtaCompressionLog.getText(), null);
+        SwingUtils.copyTextToClipboard(compressionLog.getText(), null);
     }
 
     private void processBtnClearLog(ActionEvent event) {
-        jtaCompressionLog.setText("");
+        compressionLog.clear();
+    }
+
+    private void updateCompressionLogLabel() {
+        long evictedLineCount = compressionLog.getEvictedLineCount();
+
+        lblCompressionLog.setText((evictedLineCount > 0) ?
+            "Compression Log (" + evictedLineCount +
+                " earlier lines discarded):" :
+            "Compression Log:");
     }
 
     private void processBtnAbout(ActionEvent event) {
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.pdf;
+
+/**
+ * Random access to a sequence of bytes.
+ */
+public interface ByteSource {
+    /**
+     * @return The number of bytes in this source
+     */
+    long length();
+
+    /**
+     * Reads a byte.
+     *
+     * @param position Position of the byte
+     *
+     * @return The byte as an unsigned value, or -1 if the position is out
+     *         of bounds
+     */
+    int get(long position);
+
+    /**
+     * Finds the first occurrence of a sequence of bytes.
+     *
+     * @param pattern The bytes sought; cannot be empty
+     * @param fromPosition Position where the search starts
+     *
+     * @return The position of the occurrence, or -1 if there is none
+     */
+    default long indexOf(byte[] pattern, long fromPosition) {
+        if (pattern.length == 0) {
+            throw new IllegalArgumentException("Pattern cannot be empty");
+        }
+
+        for (long pos = Math.max(0, fromPosition),
+                lastPos = length() - pattern.length; pos <= lastPos; ++pos) {
+            int i = 0;
+
+            while ((i < pattern.length) &&
+                   (get(pos + i) == (pattern[i] & 0xFF))) {
+                ++i;
+            }
+
+            if (i == pattern.length) {
+                return pos;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Wraps a byte array in a ByteSource.
+     *
+     * @param bytes The bytes
+     * @param length Number of bytes to expose, from the beginning of the
+     *               array
+     *
+     * @return The ByteSource
+     */
+    static ByteSource of(byte[] bytes, int length) {
+        return new ByteSource() {
+            @Override
+            public long length() {
+                return length;
+            }
+
+            @Override
+            public int get(long position) {
+                return ((position < 0) || (position >= length)) ?
+                    -1 : bytes[(int) position] & 0xFF;
+            }
+        };
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.pdf;
+
+import com.rogeraraujo.pdfcf.Utils;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Predicts from the structure of a PDF file whether compressing it is
+ * pointless, so that the Ghostscript run can be skipped. Files are predicted
+ * not to get smaller if they were produced by Ghostscript already, if images
+ * take a small share of them (text-only files) or if stream data takes a
+ * small share of them. Any of these signals can be disabled.
+ *
+ * <p>To measure how accurate the predictions are, a fraction of the files
+ * predicted not to get smaller can be compressed anyway, recording whether
+ * the prediction held.</p>
+ */
+@Getter @Setter
+public class CompressionPrefilter {
+    public static final String DEFAULT_SKIPPED_PRODUCER = "Ghostscript";
+
+    public static final double DEFAULT_MIN_IMAGE_SHARE = 0.05d;
+
+    public static final double DEFAULT_MIN_GAIN = 0.05d;
+
+    // Case-insensitive fragments of Producer strings of files to skip
+    private List<String> skippedProducers = new ArrayList<>(
+        Collections.singletonList(DEFAULT_SKIPPED_PRODUCER));
+
+    // Files whose images take a smaller share of the file are skipped.
+    // Zero disables the signal
+    private double minImageShare = DEFAULT_MIN_IMAGE_SHARE;
+
+    // Files whose stream data takes a smaller share of the file are skipped.
+    // Zero disables the signal
+    private double minStreamRatio;
+
+    // Fraction of the files predicted not to get smaller that are
+    // compressed anyway, to measure the accuracy of the predictions
+    private double sampleRate;
+
+    // Size reduction below which a compression counts as no gain
+    private double minGain = DEFAULT_MIN_GAIN;
+
+    private final AtomicLong predictedCount = new AtomicLong();
+
+    private final LongAdder sampledCount = new LongAdder();
+
+    private final LongAdder confirmedCount = new LongAdder();
+
+    /**
+     * Creates an instance of this class based on configuration properties.
+     * Missing or invalid properties keep their default values.
+     *
+     * @param config Configuration properties; can be null
+     *
+     * @return A new instance of this class, or null if the pre-filter is not
+     *         enabled in the configuration
+     */
+    public static CompressionPrefilter fromConfiguration(Properties config) {
+        if ((config == null) || !Boolean.parseBoolean(
+                config.getProperty("prefilter-enabled", "").trim())) {
+            return null;
+        }
+
+        CompressionPrefilter result = new CompressionPrefilter();
+        String producers = config.getProperty("prefilter-skipped-producers", "");
+
+        if (!Utils.stringIsEmptyOrBlank(producers)) {
+            result.getSkippedProducers().clear();
+
+            for (String producer : producers.split(",")) {
+                if (!Utils.stringIsEmptyOrBlank(producer)) {
+                    result.getSkippedProducers().add(producer.trim());
+                }
+            }
+        }
+
+        Double minImageShare = Utils.stringToDouble(
+            config.getProperty("prefilter-min-image-share", ""));
+        Double minStreamRatio = Utils.stringToDouble(
+            config.getProperty("prefilter-min-stream-ratio", ""));
+        Double sampleRate = Utils.stringToDouble(
+            config.getProperty("prefilter-sample-rate", ""));
+        Double minGain = Utils.stringToDouble(
+            config.getProperty("prefilter-min-gain", ""));
+
+        if (minImageShare != null) {
+            result.setMinImageShare(Math.max(0, minImageShare));
+        }
+
+        if (minStreamRatio != null) {
+            result.setMinStreamRatio(Math.max(0, minStreamRatio));
+        }
+
+        if (sampleRate != null) {
+            result.setSampleRate(Math.max(0, Math.min(1, sampleRate)));
+        }
+
+        if (minGain != null) {
+            result.setMinGain(Math.max(0, minGain));
+        }
+
+        return result;
+    }
+
+    /**
+     * Predicts whether compressing a file is pointless.
+     *
+     * @param pdfInfo Structure of the file
+     *
+     * @return The reason why the file is not expected to get smaller, or
+     *         null if it should be compressed
+     */
+    public String predictNoGain(PdfInfo pdfInfo) {
+        DecimalFormat decFormat = new DecimalFormat("0.#");
+        String producer = pdfInfo.getProducer();
+
+        if (producer != null) {
+            String lowerCaseProducer = producer.toLowerCase(Locale.ROOT);
+
+            for (String skippedProducer : skippedProducers) {
+                if (lowerCaseProducer.contains(
+                        skippedProducer.toLowerCase(Locale.ROOT))) {
+                    return "produced by " + producer;
+                }
+            }
+        }
+
+        if ((minImageShare > 0) &&
+            (pdfInfo.getImageByteShare() < minImageShare)) {
+            return "images are " +
+                decFormat.format(pdfInfo.getImageByteShare() * 100) +
+                "% of the file";
+        }
+
+        if ((minStreamRatio > 0) &&
+            (pdfInfo.getStreamByteRatio() < minStreamRatio)) {
+            return "stream data is " +
+                decFormat.format(pdfInfo.getStreamByteRatio() * 100) +
+                "% of the file";
+        }
+
+        return null;
+    }
+
+    /**
+     * Records a prediction of no gain and decides whether the file should
+     * be compressed anyway to check the prediction. Samples are spread
+     * evenly over the predictions.
+     *
+     * @return Whether the file should be compressed anyway
+     */
+    public boolean recordPrediction() {
+        long count = predictedCount.incrementAndGet();
+
+        return (long) (count * sampleRate) > (long) ((count - 1) * sampleRate);
+    }
+
+    /**
+     * Records the outcome of compressing a file that was predicted not to
+     * get smaller.
+     *
+     * @param inputFileSize Size of the input file in bytes
+     * @param outputFileSize Size of the output file in bytes
+     *
+     * @return Whether the prediction held
+     */
+    public boolean recordSample(long inputFileSize, long outputFileSize) {
+        boolean confirmed = outputFileSize >= inputFileSize * (1.0d - minGain);
+
+        sampledCount.increment();
+
+        if (confirmed) {
+            confirmedCount.increment();
+        }
+
+        return confirmed;
+    }
+
+    public long getPredictedCount() {
+        return predictedCount.get();
+    }
+
+    public long getSampledCount() {
+        return sampledCount.sum();
+    }
+
+    public long getConfirmedCount() {
+        return confirmedCount.sum();
+    }
+
+    /**
+     * Formats the statistics of this pre-filter.
+     *
+     * @return The formatted statistics, in a single line
+     */
+    public String formatSummary() {
+        long sampled = getSampledCount();
+        String summary = "Pre-filter: " + getPredictedCount() +
+            " files predicted not to get smaller, " + sampled +
+            " compressed anyway";
+
+        if (sampled > 0) {
+            summary += ", prediction held for " + getConfirmedCount() + " (" +
+                new DecimalFormat("0.#").format(
+                    getConfirmedCount() * 100.0d / sampled) + "%)";
+        }
+
+        return summary;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.pdf;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Random access to the bytes of a file through a memory-mapped window that
+ * slides over it, so that files of any size can be read without holding
+ * their contents in the heap. Not thread-safe.
+ */
+public class MappedFileReader implements ByteSource, Closeable {
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    // Extra bytes mapped past the end of each window, so that short reads
+    // around window boundaries do not cause remapping
+    private static final int WINDOW_OVERLAP = 64 * 1024;
+
+    // Bytes copied out of the window at a time when searching
+    private static final int SEARCH_CHUNK_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+
+    private final long length;
+
+    private final int windowSize;
+
+    private MappedByteBuffer window;
+
+    private long windowStart;
+
+    private long windowEnd;
+
+    public MappedFileReader(File file) throws IOException {
+        this(file, DEFAULT_WINDOW_SIZE);
+    }
+
+    public MappedFileReader(File file, int windowSize) throws IOException {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("Window size must be positive");
+        }
+
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.length = channel.size();
+        this.windowSize = windowSize;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public int get(long position) {
+        if ((position < 0) || (position >= length)) {
+            return -1;
+        }
+
+        if ((window == null) || (position < windowStart) ||
+            (position >= windowEnd)) {
+            map(position);
+        }
+
+        return window.get((int) (position - windowStart)) & 0xFF;
+    }
+
+    /**
+     * Finds the first occurrence of a sequence of bytes, copying the window
+     * out in chunks rather than reading it one byte at a time.
+     *
+     * @param pattern The bytes sought; cannot be empty
+     * @param fromPosition Position where the search starts
+     *
+     * @return The position of the occurrence, or -1 if there is none
+     */
+    @Override
+    public long indexOf(byte[] pattern, long fromPosition) {
+        if (pattern.length == 0) {
+            throw new IllegalArgumentException("Pattern cannot be empty");
+        }
+
+        byte[] chunk = new byte[Math.max(SEARCH_CHUNK_SIZE, pattern.length)];
+        long pos = Math.max(0, fromPosition);
+
+        while (pos + pattern.length <= length) {
+            if ((window == null) || (pos < windowStart) ||
+                (pos + pattern.length > windowEnd)) {
+                map(pos);
+            }
+
+            int count = (int) Math.min(chunk.length, windowEnd - pos);
+            ByteBuffer view = window.duplicate();
+            view.position((int) (pos - windowStart));
+            view.get(chunk, 0, count);
+
+            int index = indexOf(chunk, count, pattern);
+
+            if (index >= 0) {
+                return pos + index;
+            }
+
+            // The next chunk repeats the bytes that could start a match
+            // cut by the end of this one
+            pos += count - pattern.length + 1;
+        }
+
+        return -1;
+    }
+
+    private static int indexOf(byte[] bytes, int length, byte[] pattern) {
+        byte first = pattern[0];
+
+        for (int pos = 0, lastPos = length - pattern.length; pos <= lastPos;
+                ++pos) {
+            if (bytes[pos] != first) {
+                continue;
+            }
+
+            int i = 1;
+
+            while ((i < pattern.length) && (bytes[pos + i] == pattern[i])) {
+                ++i;
+            }
+
+            if (i == pattern.length) {
+                return pos;
+            }
+        }
+
+        return -1;
+    }
+
+    private void map(long position) {
+        windowStart = position - (position % windowSize);
+        windowEnd = Math.min(length, windowStart + windowSize + WINDOW_OVERLAP);
+
+        try {
+            // Previous windows are unmapped when garbage collected
+            window = channel.map(FileChannel.MapMode.READ_ONLY,
+                windowStart, windowEnd - windowStart);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+}
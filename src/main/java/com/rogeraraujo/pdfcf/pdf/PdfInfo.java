@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.pdf;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Structural information about a PDF file, as gathered by PdfInspector.
+ * Sizes are in bytes and refer to stream data as stored in the file, that
+ * is, possibly compressed.
+ */
+@Getter @Setter
+public class PdfInfo {
+    private long fileSize;
+
+    // Version in the file header, such as "1.7"; null if there is no header
+    private String pdfVersion;
+
+    // Zero if the page count could not be determined
+    private int pageCount;
+
+    private long objectCount;
+
+    private long streamCount;
+
+    private long streamBytes;
+
+    private long imageCount;
+
+    private long imageBytes;
+
+    private long fontCount;
+
+    private long fontBytes;
+
+    // Null if the document has no Producer entry in its information
+    // dictionary, or if it could not be read
+    private String producer;
+
+    private boolean encrypted;
+
+    private boolean linearized;
+
+    /**
+     * @return The fraction of the file size taken by image data
+     */
+    public double getImageByteShare() {
+        return (fileSize > 0) ? imageBytes / (double) fileSize : 0.0d;
+    }
+
+    /**
+     * @return The fraction of the file size taken by stream data of any kind
+     */
+    public double getStreamByteRatio() {
+        return (fileSize > 0) ? streamBytes / (double) fileSize : 0.0d;
+    }
+
+    @Override
+    public String toString() {
+        return "PdfInfo{version=" + pdfVersion + ", pages=" + pageCount +
+            ", objects=" + objectCount + ", streams=" + streamCount + "/" +
+            streamBytes + " bytes, images=" + imageCount + "/" + imageBytes +
+            " bytes, fonts=" + fontCount + "/" + fontBytes + " bytes, producer=" +
+            producer + ", encrypted=" + encrypted + ", linearized=" +
+            linearized + "}";
+    }
+}
@@ -0,0 +1,782 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.pdf;
+
+import com.rogeraraujo.pdfcf.Utils;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Gathers structural information about a PDF file in a single sequential
+ * pass, without parsing content streams. Object headers, dictionaries and
+ * trailers are read through a memory-mapped window, and stream data is
+ * skipped using the stream lengths, so memory usage does not depend on the
+ * size of the file. Compressed object streams are inflated (up to a limit)
+ * because they often hold the page tree and the information dictionary.
+ *
+ * <p>The scan does not follow the cross-reference table, so objects
+ * replaced by incremental updates are counted as well; the information it
+ * gathers is meant for estimates, not for exact accounting.</p>
+ */
+@Slf4j
+public class PdfInspector {
+    // Dictionaries larger than this are assumed to be garbage
+    private static final int MAX_DICTIONARY_SIZE = 64 * 1024;
+
+    private static final int MAX_OBJECT_STREAM_SIZE = 4 * 1024 * 1024;
+
+    private static final int MAX_ARRAY_TEXT_LENGTH = 256;
+
+    // The linearization dictionary must be the first object in the file
+    private static final int LINEARIZATION_WINDOW = 1024;
+
+    // How far after the declared end of a stream "endstream" is looked for
+    private static final int END_STREAM_SLACK = 64;
+
+    private static final byte[] END_STREAM_KEYWORD =
+        "endstream".getBytes(StandardCharsets.US_ASCII);
+
+    private static final String NESTED_DICTIONARY = "<<>>";
+
+    // Tells decoded strings apart from other values
+    private static final String STRING_PREFIX = "(";
+
+    private final ByteSource source;
+
+    private final PdfInfo info = new PdfInfo();
+
+    private int pageObjectCount;
+
+    private PdfInspector(ByteSource source) {
+        this.source = source;
+    }
+
+    /**
+     * Inspects a PDF file.
+     *
+     * @param file The PDF file
+     *
+     * @return Information about the file
+     *
+     * @throws IOException If the file cannot be read
+     */
+    public static PdfInfo inspect(File file) throws IOException {
+        try (MappedFileReader reader = new MappedFileReader(file)) {
+            return inspect(reader);
+        }
+    }
+
+    /**
+     * Inspects the bytes of a PDF file.
+     *
+     * @param source The bytes of the PDF file
+     *
+     * @return Information about the file
+     */
+    public static PdfInfo inspect(ByteSource source) {
+        return new PdfInspector(source).scan();
+    }
+
+    private PdfInfo scan() {
+        long length = source.length();
+        info.setFileSize(length);
+        info.setPdfVersion(readHeaderVersion());
+
+        long pos = 0;
+
+        while (pos < length) {
+            int b = source.get(pos);
+
+            if ((b == 'o') && matches(source, pos, "obj") &&
+                isDelimiter(source.get(pos + 3)) && isObjectHeader(pos)) {
+                info.setObjectCount(info.getObjectCount() + 1);
+                pos = scanObject(pos + 3, pos < LINEARIZATION_WINDOW);
+            }
+            else if ((b == 't') && matches(source, pos, "trailer") &&
+                     isDelimiter(source.get(pos - 1))) {
+                pos = scanTrailer(pos + 7);
+            }
+            else {
+                ++pos;
+            }
+        }
+
+        if (info.getPageCount() == 0) {
+            info.setPageCount(pageObjectCount);
+        }
+
+        return info;
+    }
+
+    private String readHeaderVersion() {
+        // The header may be preceded by some garbage
+        for (long pos = 0; pos < LINEARIZATION_WINDOW; ++pos) {
+            if (matches(source, pos, "%PDF-")) {
+                StringBuilder result = new StringBuilder();
+
+                for (long i = pos + 5; ; ++i) {
+                    int b = source.get(i);
+
+                    if (((b >= '0') && (b <= '9')) || (b == '.')) {
+                        result.append((char) b);
+                    }
+                    else {
+                        break;
+                    }
+                }
+
+                return (result.length() > 0) ? result.toString() : null;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Checks whether the "obj" keyword at a position is preceded by an
+     * object number and a generation number.
+     */
+    private boolean isObjectHeader(long objPos) {
+        long pos = objPos - 1;
+
+        // Both numbers must be preceded by whitespace
+        for (int number = 0; number < 2; ++number) {
+            if (!isWhitespace(source.get(pos))) {
+                return false;
+            }
+
+            while (isWhitespace(source.get(pos))) {
+                --pos;
+            }
+
+            if (!isDigit(source.get(pos))) {
+                return false;
+            }
+
+            while (isDigit(source.get(pos))) {
+                --pos;
+            }
+        }
+
+        return isDelimiter(source.get(pos));
+    }
+
+    private long scanObject(long pos, boolean nearStart) {
+        Parser parser = new Parser(source, pos);
+        parser.skipWhitespace();
+
+        if (!parser.startsWith("<<")) {
+            return parser.pos;
+        }
+
+        Map<String, String> dictionary = parser.parseDictionary();
+
+        if (dictionary == null) {
+            return parser.pos;
+        }
+
+        if (nearStart && dictionary.containsKey("Linearized")) {
+            info.setLinearized(true);
+        }
+
+        parser.skipWhitespace();
+
+        if (!parser.startsWith("stream")) {
+            processDictionary(dictionary);
+            return parser.pos;
+        }
+
+        // Stream data starts after the end of line following the keyword
+        long dataStart = parser.pos + 6;
+
+        if (source.get(dataStart) == '\r') {
+            ++dataStart;
+        }
+
+        if (source.get(dataStart) == '\n') {
+            ++dataStart;
+        }
+
+        long dataEnd = findStreamEnd(dataStart,
+            Utils.stringToInt(dictionary.get("Length")));
+        processDictionary(dictionary);
+        processStream(dictionary, dataStart, dataEnd - dataStart);
+
+        return dataEnd;
+    }
+
+    private long findStreamEnd(long dataStart, Integer declaredLength) {
+        if ((declaredLength != null) && (declaredLength >= 0)) {
+            long declaredEnd = dataStart + declaredLength;
+
+            // Trusts the declared length if "endstream" follows it
+            for (long pos = declaredEnd;
+                    pos < declaredEnd + END_STREAM_SLACK; ++pos) {
+                if (matches(source, pos, "endstream")) {
+                    return declaredEnd;
+                }
+
+                if (!isWhitespace(source.get(pos))) {
+                    break;
+                }
+            }
+        }
+
+        // Indirect or wrong length: searches for the end of the stream. The
+        // scan does not read the cross-reference table, so indirect lengths
+        // cannot be resolved before their objects are reached
+        long end = source.indexOf(END_STREAM_KEYWORD, dataStart);
+
+        if (end < 0) {
+            return source.length();
+        }
+
+        // The end of line before the keyword is not part of the data
+        if ((end > dataStart) && (source.get(end - 1) == '\n')) {
+            --end;
+        }
+
+        if ((end > dataStart) && (source.get(end - 1) == '\r')) {
+            --end;
+        }
+
+        return end;
+    }
+
+    private long scanTrailer(long pos) {
+        Parser parser = new Parser(source, pos);
+        parser.skipWhitespace();
+
+        if (parser.startsWith("<<")) {
+            Map<String, String> dictionary = parser.parseDictionary();
+
+            if (dictionary != null) {
+                processTrailer(dictionary);
+            }
+        }
+
+        return parser.pos;
+    }
+
+    private void processTrailer(Map<String, String> dictionary) {
+        if (dictionary.containsKey("Encrypt")) {
+            info.setEncrypted(true);
+        }
+    }
+
+    private void processDictionary(Map<String, String> dictionary) {
+        String type = dictionary.get("Type");
+
+        if ("/Pages".equals(type)) {
+            // The root of the page tree has the largest count
+            Integer count = Utils.stringToInt(dictionary.get("Count"));
+
+            if ((count != null) && (count > info.getPageCount())) {
+                info.setPageCount(count);
+            }
+        }
+        else if ("/Page".equals(type)) {
+            ++pageObjectCount;
+        }
+        else if ("/XRef".equals(type)) {
+            // Cross-reference streams hold the trailer entries
+            processTrailer(dictionary);
+        }
+
+        String producer = dictionary.get("Producer");
+
+        if ((producer != null) && producer.startsWith(STRING_PREFIX)) {
+            info.setProducer(producer.substring(STRING_PREFIX.length()));
+        }
+    }
+
+    private void processStream(
+            Map<String, String> dictionary, long dataStart, long dataLength) {
+        String type = dictionary.get("Type");
+        String subtype = dictionary.get("Subtype");
+
+        info.setStreamCount(info.getStreamCount() + 1);
+        info.setStreamBytes(info.getStreamBytes() + dataLength);
+
+        if ("/Image".equals(subtype)) {
+            info.setImageCount(info.getImageCount() + 1);
+            info.setImageBytes(info.getImageBytes() + dataLength);
+        }
+        else if (dictionary.containsKey("Length1") ||
+                 "/Type1C".equals(subtype) ||
+                 "/CIDFontType0C".equals(subtype) ||
+                 "/OpenType".equals(subtype)) {
+            // Embedded font programs (FontFile, FontFile2 and FontFile3)
+            info.setFontCount(info.getFontCount() + 1);
+            info.setFontBytes(info.getFontBytes() + dataLength);
+        }
+        else if ("/ObjStm".equals(type) && !info.isEncrypted()) {
+            String filter = dictionary.get("Filter");
+
+            if ((filter != null) && filter.contains("/FlateDecode")) {
+                scanObjectStream(dictionary, dataStart, dataLength);
+            }
+        }
+    }
+
+    private void scanObjectStream(
+            Map<String, String> dictionary, long dataStart, long dataLength) {
+        Integer first = Utils.stringToInt(dictionary.get("First"));
+        byte[] data = inflate(dataStart, dataLength);
+
+        if ((first == null) || (data == null)) {
+            return;
+        }
+
+        ByteSource objectSource = ByteSource.of(data, data.length);
+        Parser parser = new Parser(objectSource, first);
+
+        while (parser.pos < data.length) {
+            parser.skipWhitespace();
+
+            if (parser.startsWith("<<")) {
+                Map<String, String> objectDictionary = parser.parseDictionary();
+
+                if (objectDictionary == null) {
+                    break;
+                }
+
+                info.setObjectCount(info.getObjectCount() + 1);
+                processDictionary(objectDictionary);
+            }
+            else {
+                long pos = parser.pos;
+                parser.parseValue();
+
+                if (parser.pos == pos) {
+                    ++parser.pos;
+                }
+            }
+        }
+    }
+
+    private byte[] inflate(long dataStart, long dataLength) {
+        Inflater inflater = new Inflater();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] inputBuffer = new byte[8192];
+        byte[] outputBuffer = new byte[8192];
+        long pos = dataStart;
+        long end = dataStart + dataLength;
+
+        try {
+            while (!inflater.finished() &&
+                   (output.size() < MAX_OBJECT_STREAM_SIZE)) {
+                if (inflater.needsInput()) {
+                    if (pos >= end) {
+                        break;
+                    }
+
+                    int count = (int) Math.min(inputBuffer.length, end - pos);
+
+                    for (int i = 0; i < count; ++i) {
+                        inputBuffer[i] = (byte) source.get(pos++);
+                    }
+
+                    inflater.setInput(inputBuffer, 0, count);
+                }
+
+                int count = inflater.inflate(outputBuffer);
+
+                if ((count == 0) && (inflater.needsDictionary())) {
+                    return null;
+                }
+
+                output.write(outputBuffer, 0, count);
+            }
+        } catch (DataFormatException ex) {
+            log.debug("Could not inflate object stream at {}: {}",
+                dataStart, ex.toString());
+            return null;
+        } finally {
+            inflater.end();
+        }
+
+        return output.toByteArray();
+    }
+
+    static boolean matches(ByteSource source, long pos, String keyword) {
+        for (int i = 0, len = keyword.length(); i < len; ++i) {
+            if (source.get(pos + i) != keyword.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    static boolean isWhitespace(int b) {
+        return (b == ' ') || (b == '\n') || (b == '\r') || (b == '\t') ||
+            (b == '\f') || (b == 0);
+    }
+
+    static boolean isDelimiter(int b) {
+        return isWhitespace(b) || (b == '(') || (b == ')') || (b == '<') ||
+            (b == '>') || (b == '[') || (b == ']') || (b == '{') ||
+            (b == '}') || (b == '/') || (b == '%') || (b == -1);
+    }
+
+    static boolean isDigit(int b) {
+        return (b >= '0') && (b <= '9');
+    }
+
+    /**
+     * Minimal parser of PDF objects. Dictionaries are returned as maps of
+     * keys (without the leading slash) to values. Names keep their leading
+     * slash, strings are decoded and prefixed with an opening parenthesis,
+     * references look like "12 0 R", arrays are
+     * returned as their (possibly truncated) text and nested dictionaries
+     * are skipped.
+     */
+    private static class Parser {
+        private final ByteSource source;
+
+        private long pos;
+
+        private long limit = Long.MAX_VALUE;
+
+        Parser(ByteSource source, long pos) {
+            this.source = source;
+            this.pos = pos;
+        }
+
+        boolean startsWith(String keyword) {
+            return matches(source, pos, keyword);
+        }
+
+        void skipWhitespace() {
+            while (true) {
+                int b = source.get(pos);
+
+                if (isWhitespace(b)) {
+                    ++pos;
+                }
+                else if (b == '%') {
+                    // Comment up to the end of the line
+                    while ((b != -1) && (b != '\n') && (b != '\r')) {
+                        b = source.get(++pos);
+                    }
+                }
+                else {
+                    return;
+                }
+            }
+        }
+
+        Map<String, String> parseDictionary() {
+            boolean outermost = (limit == Long.MAX_VALUE);
+
+            if (outermost) {
+                limit = pos + MAX_DICTIONARY_SIZE;
+            }
+
+            try {
+                Map<String, String> result = new HashMap<>();
+                pos += 2;
+
+                while (pos < limit) {
+                    skipWhitespace();
+                    int b = source.get(pos);
+
+                    if (b == -1) {
+                        return null;
+                    }
+
+                    if ((b == '>') && (source.get(pos + 1) == '>')) {
+                        pos += 2;
+                        return result;
+                    }
+
+                    if (b != '/') {
+                        // Malformed dictionary
+                        ++pos;
+                        continue;
+                    }
+
+                    String key = parseName().substring(1);
+                    skipWhitespace();
+
+                    if ((source.get(pos) == '>') &&
+                        (source.get(pos + 1) == '>')) {
+                        continue;
+                    }
+
+                    result.put(key, parseValue());
+                }
+
+                return null;
+            } finally {
+                if (outermost) {
+                    limit = Long.MAX_VALUE;
+                }
+            }
+        }
+
+        String parseValue() {
+            skipWhitespace();
+            int b = source.get(pos);
+
+            if (b == '/') {
+                return parseName();
+            }
+
+            if (b == '<') {
+                if (source.get(pos + 1) == '<') {
+                    return (parseDictionary() != null) ? NESTED_DICTIONARY : null;
+                }
+
+                return parseHexString();
+            }
+
+            if (b == '(') {
+                return parseLiteralString();
+            }
+
+            if (b == '[') {
+                return parseArray();
+            }
+
+            if (isDigit(b) || (b == '-') || (b == '+') || (b == '.')) {
+                return parseNumberOrReference();
+            }
+
+            // Keywords such as true, false and null
+            long start = pos;
+
+            while ((pos < limit) && !isDelimiter(source.get(pos))) {
+                ++pos;
+            }
+
+            return (pos > start) ? text(start, pos) : null;
+        }
+
+        private String parseName() {
+            long start = pos++;
+
+            while ((pos < limit) && !isDelimiter(source.get(pos))) {
+                ++pos;
+            }
+
+            return text(start, pos);
+        }
+
+        private String parseNumberOrReference() {
+            long start = pos;
+
+            while ((pos < limit) && !isDelimiter(source.get(pos))) {
+                ++pos;
+            }
+
+            String number = text(start, pos);
+            long afterNumber = pos;
+
+            // Looks ahead for "<generation> R"
+            skipWhitespace();
+            long generationStart = pos;
+
+            while (isDigit(source.get(pos))) {
+                ++pos;
+            }
+
+            if (pos > generationStart) {
+                long generationEnd = pos;
+                skipWhitespace();
+
+                if ((source.get(pos) == 'R') && isDelimiter(source.get(pos + 1))) {
+                    ++pos;
+                    return number + " " + text(generationStart, generationEnd) +
+                        " R";
+                }
+            }
+
+            pos = afterNumber;
+            return number;
+        }
+
+        private String parseArray() {
+            StringBuilder result = new StringBuilder("[");
+            ++pos;
+
+            while (pos < limit) {
+                skipWhitespace();
+                int b = source.get(pos);
+
+                if (b == -1) {
+                    break;
+                }
+
+                if (b == ']') {
+                    ++pos;
+                    break;
+                }
+
+                long start = pos;
+                String value = parseValue();
+
+                if (pos == start) {
+                    // Stray delimiter
+                    ++pos;
+                }
+                else if ((value != null) &&
+                         (result.length() < MAX_ARRAY_TEXT_LENGTH)) {
+                    if (result.length() > 1) {
+                        result.append(' ');
+                    }
+
+                    result.append(value);
+                }
+            }
+
+            return result.append(']').toString();
+        }
+
+        private String parseLiteralString() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            int depth = 0;
+            ++pos;
+
+            while (pos < limit) {
+                int b = source.get(pos++);
+
+                if (b == -1) {
+                    break;
+                }
+
+                if (b == '\\') {
+                    b = source.get(pos++);
+
+                    switch (b) {
+                        case 'n': bytes.write('\n'); break;
+                        case 'r': bytes.write('\r'); break;
+                        case 't': bytes.write('\t'); break;
+                        case 'b': bytes.write('\b'); break;
+                        case 'f': bytes.write('\f'); break;
+                        case '\r':
+                            if (source.get(pos) == '\n') {
+                                ++pos;
+                            }
+                            break;
+                        case '\n':
+                            break;
+                        default:
+                            if ((b >= '0') && (b <= '7')) {
+                                int value = b - '0';
+
+                                for (int i = 0; (i < 2) &&
+                                        (source.get(pos) >= '0') &&
+                                        (source.get(pos) <= '7'); ++i) {
+                                    value = value * 8 + source.get(pos++) - '0';
+                                }
+
+                                bytes.write(value);
+                            }
+                            else if (b != -1) {
+                                bytes.write(b);
+                            }
+                    }
+                }
+                else if (b == '(') {
+                    ++depth;
+                    bytes.write(b);
+                }
+                else if (b == ')') {
+                    if (depth == 0) {
+                        break;
+                    }
+
+                    --depth;
+                    bytes.write(b);
+                }
+                else {
+                    bytes.write(b);
+                }
+            }
+
+            return STRING_PREFIX + decodeTextString(bytes.toByteArray());
+        }
+
+        private String parseHexString() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            int high = -1;
+            ++pos;
+
+            while (pos < limit) {
+                int b = source.get(pos++);
+
+                if ((b == '>') || (b == -1)) {
+                    break;
+                }
+
+                int digit = Character.digit(b, 16);
+
+                if (digit < 0) {
+                    continue;
+                }
+
+                if (high < 0) {
+                    high = digit;
+                }
+                else {
+                    bytes.write((high << 4) | digit);
+                    high = -1;
+                }
+            }
+
+            if (high >= 0) {
+                bytes.write(high << 4);
+            }
+
+            return STRING_PREFIX + decodeTextString(bytes.toByteArray());
+        }
+
+        private String text(long start, long end) {
+            StringBuilder result = new StringBuilder((int) (end - start));
+
+            for (long i = start; i < end; ++i) {
+                result.append((char) source.get(i));
+            }
+
+            return result.toString();
+        }
+    }
+
+    /**
+     * Decodes a PDF text string, which is either UTF-16BE with a byte order
+     * mark or PDFDocEncoding (approximated by ISO-8859-1).
+     */
+    static String decodeTextString(byte[] bytes) {
+        if ((bytes.length >= 2) && ((bytes[0] & 0xFF) == 0xFE) &&
+            ((bytes[1] & 0xFF) == 0xFF)) {
+            return new String(bytes, 2, bytes.length - 2,
+                StandardCharsets.UTF_16BE);
+        }
+
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
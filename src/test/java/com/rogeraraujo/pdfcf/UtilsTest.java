@@ -99,6 +99,19 @@ class UtilsTest {
         assertEquals(Utils.stringToInt(" -1 "), -1);
     }
 
+    @Test
+    void stringToDoubleTest() {
+        assertNull(Utils.stringToDouble(null));
+        assertNull(Utils.stringToDouble(""));
+        assertNull(Utils.stringToDouble(" "));
+        assertNull(Utils.stringToDouble("a"));
+        assertNull(Utils.stringToDouble("1 2"));
+
+        assertEquals(Utils.stringToDouble("1"), 1.0d);
+        assertEquals(Utils.stringToDouble(" 1.5 "), 1.5d);
+        assertEquals(Utils.stringToDouble("-0.25"), -0.25d);
+    }
+
     @Test
     void repeatStringTest() {
         assertThrows(IllegalArgumentException.class,
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.batch;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class to exercise the functionality of the BatchInputCollector class.
+ */
+@Slf4j
+class BatchInputCollectorTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void isGlobPatternTest() {
+        assertFalse(BatchInputCollector.isGlobPattern(null));
+        assertFalse(BatchInputCollector.isGlobPattern("a/b.pdf"));
+        assertTrue(BatchInputCollector.isGlobPattern("a/*.pdf"));
+        assertTrue(BatchInputCollector.isGlobPattern("a/b?.pdf"));
+        assertTrue(BatchInputCollector.isGlobPattern("a/{b,c}.pdf"));
+    }
+
+    @Test
+    void collectTest() throws IOException {
+        createFile("a.pdf");
+        createFile("b.PDF");
+        createFile("notes.txt");
+        createFile("a-compressed.pdf");
+        createFile("sub/c.pdf");
+
+        String dirPath = tempDir.toString();
+
+        // Directories are scanned recursively, skipping previous outputs
+        List<BatchInput> inputs = BatchInputCollector.collect(
+            Collections.singletonList(dirPath), "-compressed");
+        assertEquals(Arrays.asList("a.pdf", "b.PDF", "sub/c.pdf"),
+            relativePaths(inputs));
+
+        // Globs are matched relative to their base directory
+        inputs = BatchInputCollector.collect(Collections.singletonList(
+            dirPath + File.separator + "*.pdf"), null);
+        assertEquals(Arrays.asList("a-compressed.pdf", "a.pdf"),
+            relativePaths(inputs));
+
+        // Duplicates are removed
+        File file = tempDir.resolve("a.pdf").toFile();
+        inputs = BatchInputCollector.collect(Arrays.asList(
+            file.getPath(), file.getPath(), dirPath), "-compressed");
+        assertEquals(Arrays.asList("a.pdf", "b.PDF", "sub/c.pdf"),
+            relativePaths(inputs));
+
+        // Missing inputs are ignored
+        inputs = BatchInputCollector.collect(Collections.singletonList(
+            dirPath + File.separator + "missing.pdf"), null);
+        assertTrue(inputs.isEmpty());
+    }
+
+    private void createFile(String relativePath) throws IOException {
+        Path path = tempDir.resolve(relativePath);
+        Files.createDirectories(path.getParent());
+        Files.write(path, new byte[] { '%', 'P', 'D', 'F' });
+    }
+
+    private static List<String> relativePaths(List<BatchInput> inputs) {
+        return inputs.stream()
+            .map(BatchInput::getRelativePath)
+            .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.batch;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class to exercise the functionality of the BatchJournal class.
+ */
+@Slf4j
+class BatchJournalTest {
+    @TempDir
+    Path tempDir;
+
+    private BatchInput createInput(String name) throws IOException {
+        File file = tempDir.resolve(name).toFile();
+        Files.write(file.toPath(), new byte[] { 1, 2, 3 });
+        return new BatchInput(file, name);
+    }
+
+    private BatchJobResult createResult(BatchInput input, File outputFile,
+            BatchJobResult.Status status) {
+        BatchJobResult result = new BatchJobResult(input, outputFile);
+        result.setStatus(status);
+        result.setExitValue((status == BatchJobResult.Status.FAILED) ? 1 : 0);
+        return result;
+    }
+
+    @Test
+    void replayTest() throws IOException {
+        File journalFile = tempDir.resolve("journal").toFile();
+        BatchInput done = createInput("done.pdf");
+        BatchInput failed = createInput("failed.pdf");
+        BatchInput running = createInput("running.pdf");
+        BatchInput queued = createInput("queued.pdf");
+        File doneOutput = tempDir.resolve("done-out.pdf").toFile();
+        File runningOutput = tempDir.resolve("running-out.pdf").toFile();
+        File failedOutput = tempDir.resolve("failed-out.pdf").toFile();
+        Files.write(doneOutput.toPath(), new byte[] { 4, 5 });
+
+        try (BatchJournal journal = new BatchJournal(journalFile)) {
+            for (BatchInput input : new BatchInput[] {
+                    done, failed, running, queued }) {
+                journal.recordQueued(input);
+            }
+
+            journal.recordRunning(done);
+            journal.recordResult(createResult(
+                done, doneOutput, BatchJobResult.Status.SUCCEEDED));
+            journal.recordRunning(failed);
+            journal.recordResult(createResult(failed, failedOutput,
+                BatchJobResult.Status.FAILED));
+            journal.recordRunning(running);
+            journal.close();
+
+            // Jobs killed after the journal was closed stay running
+            journal.recordResult(createResult(running, runningOutput,
+                BatchJobResult.Status.FAILED));
+        }
+
+        // A crash can leave the last line incomplete
+        Files.write(journalFile.toPath(), "D\t12".getBytes(
+            StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        Files.write(runningOutput.toPath(), new byte[] { 6 });
+        Files.write(failedOutput.toPath(), new byte[] { 7 });
+
+        try (BatchJournal journal = new BatchJournal(journalFile)) {
+            assertEquals(BatchJournal.State.DONE,
+                journal.getEntry(done.getFile()).getState());
+            assertEquals(2, journal.getEntry(done.getFile()).getOutputFileSize());
+            assertEquals("FAILED 1",
+                journal.getEntry(failed.getFile()).getFailure());
+            assertEquals(BatchJournal.State.RUNNING,
+                journal.getEntry(running.getFile()).getState());
+            assertEquals(1, journal.countEntries(BatchJournal.State.QUEUED));
+            assertNull(journal.getEntry(tempDir.resolve("other.pdf").toFile()));
+
+            assertFalse(journal.needsRun(done, doneOutput, true));
+            assertTrue(journal.needsRun(failed, failedOutput, false));
+            assertFalse(failedOutput.exists());
+            assertTrue(journal.needsRun(running, runningOutput, false));
+            assertFalse(runningOutput.exists());
+            assertTrue(journal.needsRun(queued, runningOutput, false));
+
+            // Outputs changed after the journal recorded them are redone
+            Files.write(doneOutput.toPath(), new byte[] { 4, 6 });
+            assertFalse(journal.needsRun(done, doneOutput, false));
+            assertTrue(journal.needsRun(done, doneOutput, true));
+        }
+
+        // Replay compacts the journal to one line per input file
+        assertEquals(4, Files.readAllLines(journalFile.toPath()).size());
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.batch;
+
+import com.rogeraraujo.pdfcf.components.ProcessExecutionRunnable;
+import com.rogeraraujo.pdfcf.gs.ConversionQuality;
+import com.rogeraraujo.pdfcf.gs.PdfCompatibilityLevel;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Test class to exercise the functionality of the CompressionEngine class.
+ */
+@Slf4j
+class CompressionEngineTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void compressTest() throws Exception {
+        assumeTrue(new File("/bin/sh").canExecute());
+
+        try (CompressionEngine engine = createEngine(2)) {
+            List<CompletableFuture<CompressionResult>> futures = new ArrayList<>();
+
+            for (int i = 0; i < 6; ++i) {
+                futures.add(engine.submit(createRequest("in" + i)));
+            }
+
+            CompressionResult failed =
+                engine.submit(createRequest("bad")).get(10, TimeUnit.SECONDS);
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .get(10, TimeUnit.SECONDS);
+
+            for (CompletableFuture<CompressionResult> future : futures) {
+                CompressionResult result = future.get();
+
+                assertEquals(CompressionResult.Status.SUCCEEDED,
+                    result.getStatus());
+                assertEquals(0, result.getExitValue());
+                assertEquals(1000, result.getInputFileSize());
+                assertEquals(500, result.getOutputFileSize());
+                assertEquals(0.5d, result.getSizeRatio());
+                assertTrue(result.getRequest().getOutputFile().isFile());
+            }
+
+            assertEquals(CompressionResult.Status.FAILED, failed.getStatus());
+            assertEquals(3, failed.getExitValue());
+            assertNull(failed.getSizeRatio());
+            assertEquals(0, engine.getPendingCount());
+        }
+    }
+
+    @Test
+    void cancelTest() throws Exception {
+        assumeTrue(new File("/bin/sh").canExecute());
+
+        try (CompressionEngine engine = createEngine(1)) {
+            CompletableFuture<CompressionResult> running =
+                engine.submit(createRequest("slow"));
+            CompletableFuture<CompressionResult> queued =
+                engine.submit(createRequest("queued"));
+
+            assertEquals(1, engine.getQueuedCount());
+            assertTrue(queued.cancel(true));
+            assertEquals(0, engine.getQueuedCount());
+
+            // Waits for the process to start, then terminates it
+            Thread.sleep(500);
+            long startTimeMillis = System.currentTimeMillis();
+            assertTrue(running.cancel(true));
+
+            // The queued request never runs, and the thread is freed
+            CompressionResult next =
+                engine.submit(createRequest("next")).get(10, TimeUnit.SECONDS);
+            assertEquals(CompressionResult.Status.SUCCEEDED, next.getStatus());
+            assertTrue(System.currentTimeMillis() - startTimeMillis < 10000);
+            assertFalse(tempDir.resolve("queued-out.pdf").toFile().exists());
+            assertFalse(tempDir.resolve("slow-out.pdf").toFile().exists());
+        }
+    }
+
+    @Test
+    void memoryAdmissionTest() throws Exception {
+        assumeTrue(new File("/bin/sh").canExecute());
+
+        // A budget that admits a single job at a time
+        try (CompressionEngine engine = createEngine(2);
+             MemoryAdmissionController memoryController =
+                 new MemoryAdmissionController(1)) {
+            engine.getGsRunner().setMemoryController(memoryController);
+
+            CompletableFuture<CompressionResult> first =
+                engine.submit(createRequest("pause1"));
+            CompletableFuture<CompressionResult> second =
+                engine.submit(createRequest("pause2"));
+
+            assertTrue(first.get(10, TimeUnit.SECONDS).isSucceeded());
+            assertTrue(second.get(10, TimeUnit.SECONDS).isSucceeded());
+            assertTrue(memoryController.formatSummary().contains(
+                "2 jobs admitted, 1 delayed"), memoryController.formatSummary());
+        }
+    }
+
+    @Test
+    void inProcessExecutionTest() throws Exception {
+        List<String> receivedCommands = new CopyOnWriteArrayList<>();
+        List<String> notifiedLines = new CopyOnWriteArrayList<>();
+
+        // The engine has no executable of its own, and no process runs
+        BatchOptions options = new BatchOptions();
+        options.setThreadCount(1);
+        CompressionRequest request = createRequest("in")
+            .withGsExecutable("gs", Collections.singletonList("-dY"))
+            .withInProcessExecutor((commands, info, lineConsumer, cancellation) -> {
+                receivedCommands.addAll(commands);
+                lineConsumer.accept("Page 1", false);
+                return 0;
+            });
+
+        try (CompressionEngine engine = new CompressionEngine(options)) {
+            CompressionResult result = engine.submit(request, null,
+                new ProcessExecutionRunnable.PerAdapter() {
+                    @Override
+                    public void notifyStreamLine(ProcessExecutionRunnable source,
+                            String line, boolean errorStream) {
+                        notifiedLines.add(line);
+                    }
+                }).get(10, TimeUnit.SECONDS);
+
+            assertEquals(CompressionResult.Status.SUCCEEDED, result.getStatus());
+            assertEquals("gs", receivedCommands.get(0));
+            assertTrue(receivedCommands.contains("-dY"));
+            assertEquals(Collections.singletonList("Page 1"), notifiedLines);
+
+            // Requests without an executable cannot run on this engine
+            assertThrows(ExecutionException.class, () -> engine.submit(
+                createRequest("other")).get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void requestValidationTest() {
+        File file = tempDir.resolve("a.pdf").toFile();
+
+        assertThrows(IllegalArgumentException.class, () ->
+            new CompressionRequest(file, file, ConversionQuality.EBOOK,
+                PdfCompatibilityLevel.DEFAULT));
+        assertThrows(IllegalArgumentException.class, () ->
+            new CompressionRequest(file, tempDir.resolve("b.pdf").toFile(),
+                null, PdfCompatibilityLevel.DEFAULT));
+
+        CompressionRequest request = new CompressionRequest(file,
+            tempDir.resolve("b.pdf").toFile(), ConversionQuality.EBOOK,
+            PdfCompatibilityLevel.DEFAULT, Collections.singletonList("-dX"));
+        List<String> commands = request.buildCommands("gs",
+            Collections.singletonList("-dY"));
+
+        assertEquals("gs", commands.get(0));
+        assertEquals(file.getPath(), commands.get(commands.size() - 1));
+        assertEquals("-dX", commands.get(commands.size() - 2));
+        assertEquals("-dY", commands.get(commands.size() - 3));
+
+        // The executable and optimization arguments of the request prevail
+        commands = request.withGsExecutable("gs2", null).buildCommands("gs",
+            Collections.singletonList("-dY"));
+
+        assertEquals("gs2", commands.get(0));
+        assertFalse(commands.contains("-dY"));
+    }
+
+    private CompressionEngine createEngine(int threadCount) throws Exception {
+        return FakeGhostscript.createEngine(tempDir, threadCount);
+    }
+
+    private CompressionRequest createRequest(String name) throws Exception {
+        return FakeGhostscript.createRequest(tempDir, name);
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.batch;
+
+import com.rogeraraujo.pdfcf.components.Flow;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Test class to exercise the functionality of the CompressionPublisher
+ * class.
+ */
+@Slf4j
+class CompressionPublisherTest {
+    private static final int REQUEST_COUNT = 10;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void backpressureTest() throws Exception {
+        assumeTrue(new File("/bin/sh").canExecute());
+
+        List<CompressionRequest> requests = createRequests("in", REQUEST_COUNT);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+
+        try (CompressionEngine engine = createEngine()) {
+            CompressionPublisher publisher =
+                new CompressionPublisher(engine, requests);
+            publisher.subscribe(subscriber);
+
+            // Demand for two events: two requests run, and their progress
+            // is dropped so that their results can be delivered
+            subscriber.subscription.request(2);
+            waitForEvents(subscriber, 2);
+            Thread.sleep(500);
+
+            assertEquals(2, subscriber.events.size());
+            assertEquals(2, countOutputFiles(requests));
+            assertTrue(subscriber.events.stream().allMatch(
+                event -> event.getType() == CompressionEvent.Type.RESULT));
+            assertEquals(0, engine.getPendingCount());
+
+            // Unbounded demand: the remaining requests run, with progress
+            subscriber.subscription.request(Long.MAX_VALUE);
+            assertTrue(subscriber.completed.await(10, TimeUnit.SECONDS));
+
+            List<CompressionEvent> results = new ArrayList<>();
+
+            for (CompressionEvent event : subscriber.events) {
+                if (event.isFinal()) {
+                    results.add(event);
+                    assertTrue(event.getResult().isSucceeded());
+                    assertEquals(500, event.getResult().getOutputFileSize());
+                }
+            }
+
+            assertEquals(REQUEST_COUNT, results.size());
+            assertEquals(REQUEST_COUNT, countOutputFiles(requests));
+            assertTrue(subscriber.events.stream().anyMatch(
+                event -> event.getType() == CompressionEvent.Type.PROGRESS));
+            assertNull(subscriber.error);
+            log.debug("{} progress events dropped",
+                publisher.getDroppedProgressCount());
+        }
+    }
+
+    @Test
+    void invalidDemandTest() throws Exception {
+        try (CompressionEngine engine = createEngine()) {
+            CompressionPublisher publisher =
+                new CompressionPublisher(engine, createRequests("in", REQUEST_COUNT));
+            RecordingSubscriber subscriber = new RecordingSubscriber();
+            publisher.subscribe(subscriber);
+            subscriber.subscription.request(0);
+
+            assertTrue(subscriber.error instanceof IllegalArgumentException);
+            assertEquals(0, countOutputFiles(createRequests("in", REQUEST_COUNT)));
+
+            // A second subscriber is rejected
+            RecordingSubscriber otherSubscriber = new RecordingSubscriber();
+            publisher.subscribe(otherSubscriber);
+
+            assertTrue(otherSubscriber.error instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    void eventOrderTest() throws Exception {
+        assumeTrue(new File("/bin/sh").canExecute());
+
+        List<CompressionRequest> requests = createRequests("many", 8);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+
+        try (CompressionEngine engine = createEngine()) {
+            new CompressionPublisher(engine, requests).subscribe(subscriber);
+            subscriber.subscription.request(Long.MAX_VALUE);
+            assertTrue(subscriber.completed.await(10, TimeUnit.SECONDS));
+        }
+
+        // No progress follows the final event of its request
+        Set<CompressionRequest> finished = new HashSet<>();
+        int progressCount = 0;
+
+        for (CompressionEvent event : subscriber.events) {
+            assertFalse(finished.contains(event.getRequest()), event.toString());
+
+            if (event.isFinal()) {
+                finished.add(event.getRequest());
+            }
+            else {
+                ++progressCount;
+            }
+        }
+
+        assertEquals(requests.size(), finished.size());
+        assertTrue(progressCount > 0);
+    }
+
+    @Test
+    void engineCloseTest() throws Exception {
+        assumeTrue(new File("/bin/sh").canExecute());
+
+        // As many requests as the engine runs at a time, all outstanding
+        List<CompressionRequest> requests = createRequests("slow", 4);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        CompressionEngine engine = createEngine();
+
+        new CompressionPublisher(engine, requests).subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(4, engine.getPendingCount());
+        engine.close();
+
+        // Each cancelled request still yields a final event, so the
+        // subscriber is not left waiting
+        assertTrue(subscriber.completed.await(10, TimeUnit.SECONDS));
+        assertEquals(4, subscriber.events.size());
+
+        for (CompressionEvent event : subscriber.events) {
+            assertEquals(CompressionEvent.Type.FAILURE, event.getType());
+            assertTrue(event.getFailure() instanceof CancellationException);
+        }
+    }
+
+    private static void waitForEvents(RecordingSubscriber subscriber,
+            int count) throws InterruptedException {
+        for (int i = 0; (i < 400) && (subscriber.events.size() < count); ++i) {
+            Thread.sleep(25);
+        }
+    }
+
+    private static int countOutputFiles(List<CompressionRequest> requests) {
+        int result = 0;
+
+        for (CompressionRequest request : requests) {
+            if (request.getOutputFile().exists()) {
+                ++result;
+            }
+        }
+
+        return result;
+    }
+
+    private CompressionEngine createEngine() throws Exception {
+        return FakeGhostscript.createEngine(tempDir, 4);
+    }
+
+    private List<CompressionRequest> createRequests(String name, int count)
+            throws Exception {
+        List<CompressionRequest> result = new ArrayList<>();
+
+        for (int i = 0; i < count; ++i) {
+            result.add(FakeGhostscript.createRequest(tempDir, name + i));
+        }
+
+        return result;
+    }
+
+    /**
+     * Records what it receives, requesting nothing by itself.
+     */
+    private static class RecordingSubscriber
+            implements Flow.Subscriber<CompressionEvent> {
+        private volatile Flow.Subscription subscription;
+
+        private final List<CompressionEvent> events =
+            new CopyOnWriteArrayList<>();
+
+        private volatile Throwable error;
+
+        private final CountDownLatch completed = new CountDownLatch(1);
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(CompressionEvent item) {
+            events.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed.countDown();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.batch;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class to exercise the functionality of the CompressionServer class.
+ */
+@Slf4j
+class CompressionServerTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void escapeJsonTest() {
+        assertEquals("a\\\"b\\\\c\\nd\\u0001",
+            CompressionServer.escapeJson("a\"b\\c\nd\u0001"));
+    }
+
+    @Test
+    void requestValidationTest() throws IOException {
+        BatchOptions options = new BatchOptions();
+        options.setGsExecutablePath("gs");
+        options.setOutputDir(tempDir.toFile());
+        options.setThreadCount(1);
+
+        CompressionServer server = new CompressionServer(options,
+            new BatchCompressor(options), "127.0.0.1", 0, 1, 1024);
+        server.start();
+
+        try {
+            String baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+
+            assertEquals(415, request(baseUrl + "/compress", "POST",
+                "not a PDF file".getBytes(StandardCharsets.US_ASCII)));
+            assertEquals(413, request(baseUrl + "/compress", "POST",
+                new byte[2048]));
+            assertEquals(405, request(baseUrl + "/compress", "GET", null));
+            assertEquals(404, request(baseUrl + "/jobs/unknown", "GET", null));
+            assertEquals(200, request(baseUrl + "/metrics", "GET", null));
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    void uploadAdmissionTest() throws Exception {
+        BatchOptions options = new BatchOptions();
+        options.setGsExecutablePath("gs");
+        options.setOutputDir(tempDir.toFile());
+        options.setThreadCount(1);
+
+        CompressionServer server = new CompressionServer(options,
+            new BatchCompressor(options), "127.0.0.1", 0, 1, 1024);
+        server.start();
+
+        try {
+            int port = server.getAddress().getPort();
+            String url = "http://127.0.0.1:" + port + "/compress";
+            byte[] notPdf = "not a PDF file".getBytes(StandardCharsets.US_ASCII);
+
+            // An upload in progress takes the only queue slot, so further
+            // uploads are refused before their body is read
+            try (Socket upload = new Socket("127.0.0.1", port)) {
+                OutputStream out = upload.getOutputStream();
+                out.write(("POST /compress HTTP/1.1\r\nHost: 127.0.0.1\r\n" +
+                    "Content-Length: 100\r\n\r\n%PDF-").getBytes(
+                    StandardCharsets.US_ASCII));
+                out.flush();
+
+                long deadline = System.currentTimeMillis() + 5000;
+
+                while ((server.getReceivingCount() == 0) &&
+                       (System.currentTimeMillis() < deadline)) {
+                    Thread.sleep(10);
+                }
+
+                assertEquals(1, server.getReceivingCount());
+                assertEquals(429, request(url, "POST", notPdf));
+            }
+
+            // The slot is given back once the upload fails
+            long deadline = System.currentTimeMillis() + 5000;
+            int status;
+
+            do {
+                status = request(url, "POST", notPdf);
+            } while ((status == 429) &&
+                     (System.currentTimeMillis() < deadline));
+
+            assertEquals(415, status);
+            assertThrows(IllegalArgumentException.class,
+                () -> new CompressionServer(options, null, "127.0.0.1", 0, 1, 0));
+        } finally {
+            server.close();
+        }
+    }
+
+    private static int request(String url, String method, byte[] body)
+            throws IOException {
+        HttpURLConnection connection =
+            (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod(method);
+
+        if (body != null) {
+            connection.setDoOutput(true);
+
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+        }
+
+        int result = connection.getResponseCode();
+        InputStream in = (result < 400) ?
+            connection.getInputStream() : connection.getErrorStream();
+
+        if (in != null) {
+            in.close();
+        }
+
+        connection.disconnect();
+
+        return result;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.batch;
+
+import com.rogeraraujo.pdfcf.gs.ConversionQuality;
+import com.rogeraraujo.pdfcf.gs.PdfCompatibilityLevel;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Creates compression engines that run a shell script standing in for
+ * Ghostscript, and requests for them, in tests that need /bin/sh.
+ */
+final class FakeGhostscript {
+    // Announces two pages (200 for inputs named "many"), then copies half of
+    // the input file to the output file; sleeps first for inputs named
+    // "slow" (for a second for inputs named "pause") and fails for inputs
+    // named "bad"
+    static final String SCRIPT =
+        "#!/bin/sh\n" +
+        "for arg in \"$@\"; do\n" +
+        "  case \"$arg\" in -sOutputFile=*) out=\"${arg#-sOutputFile=}\";; esac\n" +
+        "  in=\"$arg\"\n" +
+        "done\n" +
+        "pages=2\n" +
+        "case \"$in\" in *slow*) sleep 30;; *pause*) sleep 1;; *bad*) exit 3;;\n" +
+        "  *many*) pages=200;; esac\n" +
+        "echo \"Processing pages 1 through $pages.\"\n" +
+        "page=1\n" +
+        "while [ $page -le $pages ]; do echo \"Page $page\"; page=$((page + 1)); done\n" +
+        "head -c 500 \"$in\" > \"$out\"\n";
+
+    // Size of the input files of the requests
+    static final int INPUT_FILE_SIZE = 1000;
+
+    private FakeGhostscript() {
+    }
+
+    /**
+     * Writes the script to a folder and creates an engine that runs it.
+     *
+     * @param dir Folder for the script
+     * @param threadCount Number of threads of the engine
+     *
+     * @return The engine
+     *
+     * @throws IOException If the script could not be written
+     */
+    static CompressionEngine createEngine(Path dir, int threadCount)
+            throws IOException {
+        File gsFile = dir.resolve("gs").toFile();
+        Files.write(gsFile.toPath(), SCRIPT.getBytes(StandardCharsets.US_ASCII));
+        assertTrue(gsFile.setExecutable(true));
+
+        BatchOptions options = new BatchOptions();
+        options.setGsExecutablePath(gsFile.getPath());
+        options.setThreadCount(threadCount);
+
+        return new CompressionEngine(options);
+    }
+
+    /**
+     * Writes an input file to a folder and creates a request to compress it
+     * into the same folder.
+     *
+     * @param dir Folder for the input and output files
+     * @param name Name of the input file, without extension
+     *
+     * @return The request
+     *
+     * @throws IOException If the input file could not be written
+     */
+    static CompressionRequest createRequest(Path dir, String name)
+            throws IOException {
+        File inputFile = dir.resolve(name + ".pdf").toFile();
+        Files.write(inputFile.toPath(), new byte[INPUT_FILE_SIZE]);
+
+        return new CompressionRequest(inputFile,
+            dir.resolve(name + "-out.pdf").toFile(),
+            ConversionQuality.EBOOK, PdfCompatibilityLevel.DEFAULT);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.batch;
+
+import com.rogeraraujo.pdfcf.gs.ConversionQuality;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class to exercise the functionality of the GroupCompressor class.
+ */
+@Slf4j
+class GroupCompressorTest {
+    private static BatchOptions createOptions() {
+        BatchOptions result = new BatchOptions();
+        result.setGsExecutablePath("gs");
+        return result;
+    }
+
+    @Test
+    void buildFileJobTest() {
+        String job = GroupCompressor.buildFileJob(
+            createOptions(), 3, "/in/a.pdf", "/out/a.pdf");
+        assertNotNull(job);
+        log.debug("Job:\n{}", job);
+
+        assertTrue(job.contains("/OutputFile (/out/a.pdf)"));
+        assertTrue(job.contains("(/in/a.pdf) run\n"));
+        assertTrue(job.contains("(%%[PDFCF:DONE 3]%%) =\n"));
+        assertTrue(job.contains("(%%[PDFCF:FAILED 3]%%) =\n"));
+    }
+
+    @Test
+    void buildGroupCommandsTest() {
+        List<String> commands = GroupCompressor.buildGroupCommands(
+            createOptions(), "/tmp/group.ps",
+            Arrays.asList(new File("/in/a.pdf"), new File("/in/b.pdf")),
+            Arrays.asList(new File("/out/a.pdf"), new File("/out/b.pdf")));
+
+        assertEquals("gs", commands.get(0));
+        assertTrue(commands.contains("-dSAFER"));
+        assertFalse(commands.contains("-dNOSAFER"));
+        assertTrue(commands.contains("--permit-file-read=/tmp/group.ps"));
+        assertTrue(commands.contains("--permit-file-read=/in/a.pdf"));
+        assertTrue(commands.contains("--permit-file-read=/in/b.pdf"));
+        assertTrue(commands.contains("--permit-file-write=/out/a.pdf"));
+        assertTrue(commands.contains("--permit-file-write=/out/b.pdf"));
+        assertFalse(commands.contains("--permit-file-write=/in/a.pdf"));
+        assertEquals("/tmp/group.ps", commands.get(commands.size() - 1));
+    }
+
+    @Test
+    void isApplicableTest() {
+        BatchOptions options = createOptions();
+        assertTrue(GroupCompressor.isApplicable(options));
+
+        options.setAdditionalGsParameters("-r300");
+        assertFalse(GroupCompressor.isApplicable(options));
+
+        options.setAdditionalGsParameters("-dNOSAFER");
+        assertFalse(GroupCompressor.isApplicable(options));
+
+        options = createOptions();
+        options.setRaceQualities(
+            Arrays.asList(ConversionQuality.SCREEN, ConversionQuality.EBOOK));
+        assertFalse(GroupCompressor.isApplicable(options));
+
+        options = createOptions();
+        options.setTargetMaxRatio(0.5d);
+        options.setFitToTargetSize(true);
+        assertFalse(GroupCompressor.isApplicable(options));
+    }
+}
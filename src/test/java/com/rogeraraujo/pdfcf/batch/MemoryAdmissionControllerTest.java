@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.batch;
+
+import com.rogeraraujo.pdfcf.Utils;
+import com.rogeraraujo.pdfcf.components.ProcessMemory;
+import com.rogeraraujo.pdfcf.pdf.PdfInfo;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Test class to exercise the functionality of the MemoryAdmissionController
+ * class.
+ */
+@Slf4j
+class MemoryAdmissionControllerTest {
+    private static final long MB = Utils.ONE_MEGABYTE;
+
+    @Test
+    void estimateTest() {
+        assertEquals(MemoryAdmissionController.BASE_MEMORY + 30 * MB,
+            MemoryAdmissionController.estimate(10 * MB, null));
+
+        PdfInfo pdfInfo = new PdfInfo();
+        pdfInfo.setPageCount(4);
+        pdfInfo.setImageBytes(5 * MB);
+
+        assertEquals(MemoryAdmissionController.BASE_MEMORY + 10 * MB +
+            20 * MB + 4 * MemoryAdmissionController.PAGE_MEMORY,
+            MemoryAdmissionController.estimate(10 * MB, pdfInfo));
+    }
+
+    @Test
+    void admissionTest() throws InterruptedException {
+        assertThrows(IllegalArgumentException.class,
+            () -> new MemoryAdmissionController(0));
+
+        try (MemoryAdmissionController controller =
+                new MemoryAdmissionController(100 * MB)) {
+            // A job larger than the budget runs when nothing else does
+            MemoryAdmissionController.Ticket large = controller.acquire(150 * MB);
+            assertEquals(150 * MB, controller.getProjectedUsage());
+            large.close();
+            large.close();
+            assertEquals(0, controller.getProjectedUsage());
+
+            MemoryAdmissionController.Ticket first = controller.acquire(60 * MB);
+            CountDownLatch admitted = new CountDownLatch(1);
+            Thread thread = new Thread(() -> {
+                try {
+                    controller.runAdmitted(60 * MB, () -> {
+                        admitted.countDown();
+                        return null;
+                    });
+                } catch (Exception ex) {
+                    log.debug("Admitted job failed", ex);
+                }
+            });
+            thread.start();
+
+            assertFalse(admitted.await(300, TimeUnit.MILLISECONDS));
+            first.close();
+            assertTrue(admitted.await(5, TimeUnit.SECONDS));
+            thread.join();
+
+            assertTrue(controller.formatSummary().contains(
+                "3 jobs admitted, 1 delayed"));
+        }
+    }
+
+    @Test
+    void tryAcquireTest() throws InterruptedException {
+        try (MemoryAdmissionController controller =
+                new MemoryAdmissionController(100 * MB);
+             MemoryAdmissionController.Ticket first = controller.acquire(60 * MB)) {
+            assertSame(first, controller.getCurrentTicket());
+            assertNull(controller.tryAcquire(60 * MB));
+
+            MemoryAdmissionController.Ticket second = controller.tryAcquire(30 * MB);
+            assertNotNull(second);
+            assertEquals(90 * MB, controller.getProjectedUsage());
+
+            // Not bound to the calling thread, unlike acquire
+            assertSame(first, controller.getCurrentTicket());
+            second.close();
+            assertEquals(60 * MB, controller.getProjectedUsage());
+        }
+    }
+
+    @Test
+    void runAdmittedTest() throws Exception {
+        try (MemoryAdmissionController controller =
+                new MemoryAdmissionController(100 * MB)) {
+            long usage = controller.runAdmitted(60 * MB, () -> {
+                assertNotNull(controller.getCurrentTicket());
+                return controller.getProjectedUsage();
+            });
+
+            assertEquals(60 * MB, usage);
+            assertNull(controller.getCurrentTicket());
+            assertEquals(0, controller.getProjectedUsage());
+
+            // Released when the job fails too
+            assertThrows(IllegalStateException.class, () ->
+                controller.runAdmitted(60 * MB, () -> {
+                    throw new IllegalStateException();
+                }));
+            assertEquals(0, controller.getProjectedUsage());
+        }
+    }
+
+    @Test
+    void processMemoryTest() throws Exception {
+        assumeTrue(ProcessMemory.isSupported());
+
+        Process process = new ProcessBuilder("sleep", "5").start();
+
+        try {
+            long pid = ProcessMemory.getProcessId(process);
+            assertTrue(pid > 0);
+            assertTrue(ProcessMemory.readPeakResidentSize(pid) > 0);
+            assertTrue(ProcessMemory.readResidentSize(pid) > 0);
+        } finally {
+            process.destroyForcibly().waitFor();
+        }
+
+        assertEquals(-1, ProcessMemory.readPeakResidentSize(-1));
+    }
+
+    @Test
+    void processRegistrationTest() throws Exception {
+        assumeTrue(ProcessMemory.isSupported());
+
+        try (MemoryAdmissionController controller =
+                new MemoryAdmissionController(100 * MB);
+             MemoryAdmissionController.Ticket ticket = controller.acquire(MB)) {
+            Process sampled = new ProcessBuilder("sleep", "5").start();
+            Process finished = new ProcessBuilder("sleep", "5").start();
+
+            try {
+                controller.registerProcess(sampled);
+                controller.registerProcess(finished);
+                assertEquals(2, ticket.getProcessCount());
+
+                controller.unregisterProcess(finished);
+                assertEquals(1, ticket.getProcessCount());
+                Thread.sleep(3 * MemoryAdmissionController.SAMPLE_INTERVAL_MILLIS);
+                assertTrue(ticket.getMeasuredPeak() > 0);
+            } finally {
+                sampled.destroyForcibly().waitFor();
+                finished.destroyForcibly().waitFor();
+            }
+
+            // Processes that ended are dropped when sampled
+            long deadline = System.currentTimeMillis() + 5000;
+
+            while ((ticket.getProcessCount() > 0) &&
+                   (System.currentTimeMillis() < deadline)) {
+                Thread.sleep(MemoryAdmissionController.SAMPLE_INTERVAL_MILLIS);
+            }
+
+            assertEquals(0, ticket.getProcessCount());
+        }
+    }
+}
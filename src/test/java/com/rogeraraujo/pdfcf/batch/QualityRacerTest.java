@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.batch;
+
+import com.rogeraraujo.pdfcf.components.ProcessExecutionInfo;
+import com.rogeraraujo.pdfcf.gs.ConversionQuality;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Test class to exercise the functionality of the QualityRacer class.
+ */
+@Slf4j
+class QualityRacerTest {
+    private static final String FAIL_SCRIPT = "exit 3";
+
+    private static final String HANG_SCRIPT = "sleep 30";
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Stands in for Ghostscript: runs, instead of each command line, the
+     * shell script set for its conversion quality, with the candidate
+     * output file as its argument.
+     */
+    private static class StubRunner extends GsRunner {
+        private final Map<String, String> scripts = new HashMap<>();
+
+        private final List<ProcessExecutionInfo> executions =
+            new CopyOnWriteArrayList<>();
+
+        // Admissions bound to the threads that ran the command lines
+        private final List<MemoryAdmissionController.Ticket> tickets =
+            new CopyOnWriteArrayList<>();
+
+        private final AtomicInteger runningCount = new AtomicInteger();
+
+        private final AtomicInteger maxRunningCount = new AtomicInteger();
+
+        private StubRunner(BatchOptions options) {
+            super(options);
+        }
+
+        private StubRunner withScript(
+                ConversionQuality conversionQuality, String script) {
+            scripts.put("-dPDFSETTINGS=" +
+                conversionQuality.getCommandLineArgument(), script);
+            return this;
+        }
+
+        @Override
+        public ProcessExecutionInfo run(List<String> commands,
+                long inputFileSize, File transcriptFile) {
+            String script = null;
+            String outputFilePath = null;
+
+            for (String command : commands) {
+                if (scripts.containsKey(command)) {
+                    script = scripts.get(command);
+                }
+                else if (command.startsWith("-sOutputFile=")) {
+                    outputFilePath = command.substring("-sOutputFile=".length());
+                }
+            }
+
+            if (getMemoryController() != null) {
+                tickets.add(getMemoryController().getCurrentTicket());
+            }
+
+            maxRunningCount.accumulateAndGet(
+                runningCount.incrementAndGet(), Math::max);
+
+            try {
+                ProcessExecutionInfo result = super.run(Arrays.asList(
+                    "/bin/sh", "-c", script, "sh", outputFilePath),
+                    inputFileSize, transcriptFile);
+                executions.add(result);
+
+                return result;
+            } finally {
+                runningCount.decrementAndGet();
+            }
+        }
+    }
+
+    @Test
+    void winnerTest() throws Exception {
+        assumeTrue(new File("/bin/sh").canExecute());
+
+        StubRunner runner = createRunner(0.5d,
+            ConversionQuality.SCREEN, "sleep 1; " + writeScript(400),
+            ConversionQuality.EBOOK, FAIL_SCRIPT,
+            ConversionQuality.PRINTER, HANG_SCRIPT,
+            ConversionQuality.PREPRESS, HANG_SCRIPT);
+        File outputFile = tempDir.resolve("out.pdf").toFile();
+        BatchJobResult result = race(runner, outputFile);
+
+        assertEquals(BatchJobResult.Status.SUCCEEDED, result.getStatus());
+        assertEquals(400, outputFile.length());
+
+        // The failed candidate had finished, so only two were destroyed
+        assertEquals("screen won race, 2 destroyed", result.getDetails());
+        assertEquals(4, runner.executions.size());
+
+        // Destroyed processes exit asynchronously, though promptly
+        for (ProcessExecutionInfo execution : runner.executions) {
+            assertTrue(execution.getProcess().waitFor(1, TimeUnit.SECONDS));
+        }
+
+        assertCandidatesDeleted(outputFile);
+    }
+
+    @Test
+    void smallestTest() throws Exception {
+        assumeTrue(new File("/bin/sh").canExecute());
+
+        StubRunner runner = createRunner(0.1d,
+            ConversionQuality.SCREEN, writeScript(400),
+            ConversionQuality.EBOOK, writeScript(300),
+            ConversionQuality.PRINTER, FAIL_SCRIPT);
+        File outputFile = tempDir.resolve("out.pdf").toFile();
+        BatchJobResult result = race(runner, outputFile);
+
+        assertEquals(BatchJobResult.Status.SUCCEEDED, result.getStatus());
+        assertEquals(300, outputFile.length());
+        assertEquals("ebook smallest, target not met", result.getDetails());
+        assertCandidatesDeleted(outputFile);
+    }
+
+    @Test
+    void allFailTest() throws Exception {
+        assumeTrue(new File("/bin/sh").canExecute());
+
+        StubRunner runner = createRunner(0.5d,
+            ConversionQuality.SCREEN, FAIL_SCRIPT,
+            ConversionQuality.EBOOK, FAIL_SCRIPT);
+        File outputFile = tempDir.resolve("out.pdf").toFile();
+        BatchJobResult result = race(runner, outputFile);
+
+        assertEquals(BatchJobResult.Status.FAILED, result.getStatus());
+        assertEquals(3, result.getExitValue());
+        assertFalse(outputFile.exists());
+        assertCandidatesDeleted(outputFile);
+    }
+
+    @Test
+    void processSlotsTest() throws Exception {
+        assumeTrue(new File("/bin/sh").canExecute());
+
+        // Two slots, one of which is held by the job, as in BatchCompressor
+        StubRunner runner = createSlottedRunner(0.1d, 2,
+            ConversionQuality.SCREEN, "sleep 0.3; " + writeScript(400),
+            ConversionQuality.EBOOK, "sleep 0.3; " + writeScript(300),
+            ConversionQuality.PRINTER, "sleep 0.3; " + writeScript(200));
+        File outputFile = tempDir.resolve("out.pdf").toFile();
+        runner.acquireProcessSlot();
+
+        try (MemoryAdmissionController memoryController =
+                new MemoryAdmissionController(Long.MAX_VALUE);
+             MemoryAdmissionController.Ticket ticket =
+                memoryController.acquire(1)) {
+            runner.setMemoryController(memoryController);
+            BatchJobResult result = race(runner, outputFile);
+
+            // A single spare slot, so only two qualities ran at a time
+            assertEquals("printer smallest, target not met", result.getDetails());
+            assertEquals(3, runner.executions.size());
+            assertEquals(2, runner.maxRunningCount.get());
+            assertEquals(Collections.nCopies(3, ticket), runner.tickets);
+
+            // The spare slot was given back
+            assertEquals(1, runner.tryAcquireProcessSlots(2));
+        }
+    }
+
+    private StubRunner createRunner(
+            double targetMaxRatio, Object... qualitiesAndScripts) {
+        // A slot for every quality, so that all of them run at once
+        return createSlottedRunner(targetMaxRatio, qualitiesAndScripts.length / 2,
+            qualitiesAndScripts);
+    }
+
+    private StubRunner createSlottedRunner(double targetMaxRatio, int threadCount,
+            Object... qualitiesAndScripts) {
+        BatchOptions options = new BatchOptions();
+        options.setGsExecutablePath("gs");
+        options.setTargetMaxRatio(targetMaxRatio);
+        options.setThreadCount(threadCount);
+
+        StubRunner result = new StubRunner(options);
+
+        for (int i = 0; i < qualitiesAndScripts.length; i += 2) {
+            ConversionQuality quality =
+                (ConversionQuality) qualitiesAndScripts[i];
+            options.getRaceQualities().add(quality);
+            result.withScript(quality, (String) qualitiesAndScripts[i + 1]);
+        }
+
+        return result;
+    }
+
+    private BatchJobResult race(StubRunner runner, File outputFile)
+            throws Exception {
+        File inputFile = tempDir.resolve("in.pdf").toFile();
+        Files.write(inputFile.toPath(), new byte[1000]);
+
+        BatchJobResult result = new BatchJobResult(
+            new BatchInput(inputFile, inputFile.getName()), outputFile);
+        long startTime = System.currentTimeMillis();
+
+        new QualityRacer(runner).compress(inputFile, outputFile, result);
+
+        // Losers are destroyed rather than waited for
+        assertTrue(System.currentTimeMillis() - startTime < 10000);
+
+        return result;
+    }
+
+    private static String writeScript(int size) {
+        return "head -c " + size + " /dev/zero > \"$1\"";
+    }
+
+    private void assertCandidatesDeleted(File outputFile) {
+        File[] files = tempDir.toFile().listFiles(
+            (dir, name) -> name.startsWith(outputFile.getName() + "."));
+
+        assertNotNull(files);
+        assertEquals(0, files.length);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.batch;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class to exercise the functionality of the ResultCache class.
+ */
+@Slf4j
+class ResultCacheTest {
+    @TempDir
+    Path tempDir;
+
+    private File createFile(String name, int size) throws IOException {
+        File file = tempDir.resolve(name).toFile();
+        byte[] contents = new byte[size];
+
+        for (int i = 0; i < size; ++i) {
+            contents[i] = (byte) (name.hashCode() + i);
+        }
+
+        Files.write(file.toPath(), contents);
+
+        return file;
+    }
+
+    @Test
+    void computeKeyTest() throws IOException {
+        File input1 = createFile("a.pdf", 100);
+        File input2 = createFile("b.pdf", 100);
+
+        String key = ResultCache.computeKey(input1, "ebook");
+        assertEquals(64, key.length());
+        assertEquals(key, ResultCache.computeKey(input1, "ebook"));
+        assertNotEquals(key, ResultCache.computeKey(input1, "screen"));
+        assertNotEquals(key, ResultCache.computeKey(input2, "ebook"));
+    }
+
+    @Test
+    void fetchAndStoreTest() throws IOException {
+        File cacheDir = tempDir.resolve("cache").toFile();
+        ResultCache cache = new ResultCache(cacheDir, 250);
+        File output = createFile("out.pdf", 100);
+        File fetched = tempDir.resolve("fetched.pdf").toFile();
+
+        assertFalse(cache.fetch("k1", 1000, fetched));
+        cache.store("k1", output);
+        assertTrue(cache.fetch("k1", 1000, fetched));
+        assertArrayEquals(Files.readAllBytes(output.toPath()),
+            Files.readAllBytes(fetched.toPath()));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1000, cache.getBytesSaved());
+
+        // k1 was used after k2 was stored, so k2 is evicted first
+        cache.store("k2", output);
+        assertTrue(cache.fetch("k1", 1000, fetched));
+        cache.store("k3", output);
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(200, cache.getTotalSize());
+        assertEquals(1, cache.getEvictionCount());
+        assertFalse(cache.fetch("k2", 1000, fetched));
+
+        // Entries larger than the cache are not stored
+        cache.store("big", createFile("big.pdf", 300));
+        assertFalse(cache.fetch("big", 1000, fetched));
+
+        // Changes to a fetched file do not reach the entry
+        assertTrue(cache.fetch("k3", 1000, fetched));
+        Files.write(fetched.toPath(), new byte[10],
+            StandardOpenOption.TRUNCATE_EXISTING);
+        assertTrue(cache.fetch("k3", 1000, fetched));
+        assertArrayEquals(Files.readAllBytes(output.toPath()),
+            Files.readAllBytes(fetched.toPath()));
+
+        ResultCache reopened = new ResultCache(cacheDir, 250);
+        assertEquals(2, reopened.getEntryCount());
+        assertTrue(reopened.fetch("k3", 1000, fetched));
+    }
+}
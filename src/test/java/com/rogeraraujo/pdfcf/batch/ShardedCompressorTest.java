@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.batch;
+
+import com.rogeraraujo.pdfcf.gs.GsUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class to exercise the functionality of the ShardedCompressor class.
+ */
+@Slf4j
+class ShardedCompressorTest {
+    @Test
+    void chooseShardCountTest() {
+        assertEquals(1, ShardedCompressor.chooseShardCount(0, 8, 25));
+        assertEquals(1, ShardedCompressor.chooseShardCount(1000, 1, 25));
+        assertEquals(1, ShardedCompressor.chooseShardCount(40, 8, 25));
+        assertEquals(2, ShardedCompressor.chooseShardCount(50, 8, 25));
+        assertEquals(8, ShardedCompressor.chooseShardCount(1000, 8, 25));
+        assertEquals(5, ShardedCompressor.chooseShardCount(5, 8, 0));
+    }
+
+    @Test
+    void splitPagesTest() {
+        assertThrows(IllegalArgumentException.class,
+            () -> ShardedCompressor.splitPages(3, 4));
+
+        List<ShardedCompressor.PageRange> ranges =
+            ShardedCompressor.splitPages(10, 3);
+        assertEquals(3, ranges.size());
+        assertEquals("1-4", ranges.get(0).toString());
+        assertEquals("5-7", ranges.get(1).toString());
+        assertEquals("8-10", ranges.get(2).toString());
+
+        int pageCount = 0;
+
+        for (ShardedCompressor.PageRange range :
+                ShardedCompressor.splitPages(1001, 8)) {
+            pageCount += range.getPageCount();
+        }
+
+        assertEquals(1001, pageCount);
+    }
+
+    @Test
+    void pageRangeCommandsTest() {
+        List<String> commands = GsUtils.buildPageRangeCommands(
+            Arrays.asList("gs", "-sOutputFile=out.pdf", "in.pdf"), 5, 7);
+        assertEquals(Arrays.asList("gs", "-sOutputFile=out.pdf",
+            "-dFirstPage=5", "-dLastPage=7", "in.pdf"), commands);
+
+        assertThrows(IllegalArgumentException.class,
+            () -> GsUtils.buildPageRangeCommands(commands, 0, 1));
+        assertEquals(Integer.valueOf(12), GsUtils.parsePageCount(
+            Arrays.asList("   **** Warning: something", "12")));
+        assertNull(GsUtils.parsePageCount(Arrays.asList("Error", "")));
+        assertEquals("(a\\(b\\)\\\\c)", GsUtils.toPostScriptString("a(b)\\c"));
+    }
+
+    @Test
+    void processSlotsTest() throws InterruptedException {
+        BatchOptions options = new BatchOptions();
+        options.setThreadCount(4);
+        GsRunner gsRunner = new GsRunner(options);
+
+        // Shards only get the slots that no job is using
+        gsRunner.acquireProcessSlot();
+        gsRunner.acquireProcessSlot();
+        assertEquals(2, gsRunner.tryAcquireProcessSlots(3));
+        assertEquals(0, gsRunner.tryAcquireProcessSlots(3));
+
+        gsRunner.releaseProcessSlots(3);
+        assertEquals(3, gsRunner.tryAcquireProcessSlots(5));
+    }
+
+    @Test
+    void pageCountCommandsTest() {
+        List<String> commands = GsUtils.buildPageCountCommands("gs", "/in/a.pdf");
+
+        assertTrue(commands.contains("-dSAFER"));
+        assertFalse(commands.contains("-dNOSAFER"));
+        assertTrue(commands.contains("--permit-file-read=/in/a.pdf"));
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.batch;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class to exercise the functionality of the TargetSizeCompressor class.
+ */
+@Slf4j
+class TargetSizeCompressorTest {
+    @Test
+    void bisectTest() {
+        assertEquals(137, TargetSizeCompressor.bisect(36, 300, 1, v -> v <= 137));
+        assertEquals(300, TargetSizeCompressor.bisect(36, 300, 1, v -> true));
+        assertEquals(35, TargetSizeCompressor.bisect(36, 300, 1, v -> false));
+
+        int found = TargetSizeCompressor.bisect(36, 300, 8, v -> v <= 137);
+        assertTrue((found <= 137) && (found > 137 - 8));
+
+        int[] calls = new int[1];
+        TargetSizeCompressor.bisect(36, 300, 8, v -> ++calls[0] > 0);
+        assertTrue(calls[0] <= 6);
+
+        assertThrows(IllegalArgumentException.class,
+            () -> TargetSizeCompressor.bisect(2, 1, 1, v -> true));
+    }
+
+    @Test
+    void samplePagesTest() {
+        assertEquals(Arrays.asList(1, 2, 3),
+            TargetSizeCompressor.samplePages(3, 8));
+        assertEquals(Arrays.asList(1, 26, 51, 76),
+            TargetSizeCompressor.samplePages(100, 4));
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.batch;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class to exercise the functionality of the WatchFolderDaemon class.
+ */
+@Slf4j
+class WatchFolderDaemonTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void findFreePathTest() throws IOException {
+        Path path = tempDir.resolve("a.pdf");
+        assertEquals(path, WatchFolderDaemon.findFreePath(path));
+
+        Files.createFile(path);
+        assertEquals(tempDir.resolve("a (2).pdf"),
+            WatchFolderDaemon.findFreePath(path));
+
+        Files.createFile(tempDir.resolve("a (2).pdf"));
+        assertEquals(tempDir.resolve("a (3).pdf"),
+            WatchFolderDaemon.findFreePath(path));
+    }
+
+    @Test
+    void constructorValidationTest() throws IOException {
+        BatchOptions options = new BatchOptions();
+        options.setGsExecutablePath("gs");
+        options.setInputSpecs(Collections.singletonList(tempDir.toString()));
+        BatchCompressor compressor = new BatchCompressor(options);
+
+        assertThrows(IllegalArgumentException.class,
+            () -> new WatchFolderDaemon(options, compressor, null));
+
+        options.setOutputDir(tempDir.resolve("out").toFile());
+        options.setDoneDir(tempDir.resolve("done").toFile());
+        options.setFailedDir(tempDir.resolve("failed").toFile());
+        options.setInputSpecs(Collections.singletonList(
+            tempDir.resolve("missing").toString()));
+
+        assertThrows(IllegalArgumentException.class,
+            () -> new WatchFolderDaemon(options, compressor, null));
+
+        options.setInputSpecs(Collections.singletonList(tempDir.toString()));
+        new WatchFolderDaemon(options, compressor, null).close();
+    }
+}
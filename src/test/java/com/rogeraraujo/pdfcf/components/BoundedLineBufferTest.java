@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.components;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class to exercise the functionality of the BoundedLineBuffer class.
+ */
+@Slf4j
+class BoundedLineBufferTest {
+    @Test
+    void retentionTest() {
+        assertThrows(IllegalArgumentException.class,
+            () -> new BoundedLineBuffer(-1, 0));
+
+        BoundedLineBuffer buffer = new BoundedLineBuffer(2, 3);
+        assertTrue(buffer.getRetainedLines().isEmpty());
+
+        for (int i = 1; i <= 4; ++i) {
+            buffer.add("Line " + i);
+        }
+
+        assertEquals(Arrays.asList("Line 1", "Line 2", "Line 3", "Line 4"),
+            buffer.getRetainedLines());
+        assertEquals(0, buffer.getDroppedLineCount());
+
+        for (int i = 5; i <= 10; ++i) {
+            buffer.add("Line " + i);
+        }
+
+        assertEquals(10, buffer.getLineCount());
+        assertEquals(5, buffer.getDroppedLineCount());
+        assertEquals(Arrays.asList("Line 1", "Line 2",
+                "[... 5 lines omitted ...]", "Line 8", "Line 9", "Line 10"),
+            buffer.getRetainedLines());
+        assertEquals(Arrays.asList("Line 9", "Line 10"),
+            buffer.getLastLines(2));
+        assertEquals(Arrays.asList("Line 1", "Line 2", "Line 8", "Line 9",
+            "Line 10"), buffer.getLastLines(10));
+
+        BoundedLineBuffer noTail = new BoundedLineBuffer(1, 0);
+        noTail.add("a");
+        noTail.add("b");
+        assertEquals(Collections.singletonList("a"), noTail.getLastLines(5));
+    }
+
+    @Test
+    void countersTest() {
+        BoundedLineBuffer buffer = new BoundedLineBuffer(0, 0);
+        buffer.add(null);
+        buffer.add("abc");
+        buffer.add("á");
+        buffer.add("   **** Warning: File has an invalid xref entry");
+        buffer.add("   **** Error: Cannot find a 'startxref' anywhere");
+
+        assertEquals(4, buffer.getLineCount());
+        assertEquals(4 + 3 + 48 + 50, buffer.getByteCount());
+        assertEquals(1, buffer.getWarningCount());
+        assertEquals(1, buffer.getErrorCount());
+        assertEquals(Collections.singletonList("[... 4 lines omitted ...]"),
+            buffer.getRetainedLines());
+    }
+
+    @Test
+    void spillWriterTest() {
+        StringWriter writer = new StringWriter();
+        BoundedLineBuffer out = new BoundedLineBuffer(0, 1);
+        BoundedLineBuffer err = new BoundedLineBuffer(0, 1);
+        out.setSpillWriter(writer, null);
+        err.setSpillWriter(writer, "[stderr] ");
+
+        out.add("one");
+        err.add("two");
+        out.add("three");
+        out.setSpillWriter(null, null);
+        out.add("four");
+
+        assertEquals("one\n[stderr] two\nthree\n", writer.toString());
+        assertEquals(Collections.singletonList("four"), out.getLastLines(5));
+    }
+}
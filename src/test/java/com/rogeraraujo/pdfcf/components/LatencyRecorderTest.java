@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.components;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class to exercise the functionality of the LatencyRecorder class.
+ */
+@Slf4j
+class LatencyRecorderTest {
+    @Test
+    void percentileTest() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        assertEquals(0, recorder.getPercentileMillis(50));
+
+        for (int i = 100; i >= 1; --i) {
+            recorder.record(i);
+        }
+
+        assertEquals(100, recorder.getCount());
+        assertEquals(50.5d, recorder.getMeanMillis(), 1e-9);
+        assertEquals(100, recorder.getMaxMillis());
+        assertEquals(50, recorder.getPercentileMillis(50));
+        assertEquals(95, recorder.getPercentileMillis(95));
+        assertEquals(1, recorder.getPercentileMillis(0));
+        assertEquals(100, recorder.getPercentileMillis(100));
+
+        assertThrows(IllegalArgumentException.class,
+            () -> recorder.getPercentileMillis(101));
+    }
+
+    @Test
+    void windowTest() {
+        LatencyRecorder recorder = new LatencyRecorder(4);
+
+        for (int i = 1; i <= 10; ++i) {
+            recorder.record(i * 10);
+        }
+
+        // Totals cover every duration; percentiles only the last four
+        assertEquals(10, recorder.getCount());
+        assertEquals(100, recorder.getMaxMillis());
+        assertEquals(70, recorder.getPercentileMillis(0));
+        assertEquals(80, recorder.getPercentileMillis(50));
+    }
+}
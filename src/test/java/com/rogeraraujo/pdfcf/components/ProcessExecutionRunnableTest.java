@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.components;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Test class to exercise the functionality of the ProcessExecutionRunnable
+ * class.
+ */
+@Slf4j
+class ProcessExecutionRunnableTest {
+    // Writes a few lines to stdout and more than a pipe buffer's worth of
+    // lines to stderr, then waits until the file named by its argument exists
+    private static final String DRAIN_SCRIPT =
+        "echo out 1; echo out 2; echo out 3\n" +
+        "i=1\n" +
+        "while [ $i -le 2000 ]; do " +
+        "echo \"err $i: padding to fill the pipe buffer\" >&2; " +
+        "i=$((i + 1)); done\n" +
+        "while [ ! -e \"$1\" ]; do sleep 0.05; done\n";
+
+    private static final int STDOUT_LINE_COUNT = 3;
+    private static final int STDERR_LINE_COUNT = 2000;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void concurrentDrainTest() throws Exception {
+        assumeTrue(new File("/bin/sh").canExecute());
+
+        File releaseFile = tempDir.resolve("release").toFile();
+        CountDownLatch linesReceived =
+            new CountDownLatch(STDOUT_LINE_COUNT + STDERR_LINE_COUNT);
+        AtomicInteger stdoutLineCount = new AtomicInteger();
+        AtomicInteger stderrLineCount = new AtomicInteger();
+
+        ProcessExecutionRunnable runnable = new ProcessExecutionRunnable(
+            new ProcessBuilder("sh", "-c", DRAIN_SCRIPT, "sh",
+                releaseFile.getPath()));
+        runnable.addListener(new ProcessExecutionRunnable.PerAdapter() {
+            @Override
+            public void notifyStreamLine(ProcessExecutionRunnable source,
+                    String line, boolean errorStream) {
+                (errorStream ? stderrLineCount : stdoutLineCount)
+                    .incrementAndGet();
+                linesReceived.countDown();
+            }
+        });
+
+        Thread thread = new Thread(runnable);
+        thread.start();
+
+        try {
+            // Every line must arrive while the process is still blocked; a
+            // reader that drained one stream after the other would stall on
+            // the full stderr pipe
+            assertTrue(linesReceived.await(10, TimeUnit.SECONDS));
+            assertTrue(runnable.getProcess().isAlive());
+            assertEquals(STDOUT_LINE_COUNT, stdoutLineCount.get());
+            assertEquals(STDERR_LINE_COUNT, stderrLineCount.get());
+        }
+        finally {
+            Files.createFile(releaseFile.toPath());
+        }
+
+        thread.join(10000);
+        assertFalse(thread.isAlive());
+
+        ProcessExecutionInfo info = runnable.getProcessExecutionInfo();
+        assertEquals(Integer.valueOf(0), info.getExitValue());
+        assertEquals(STDOUT_LINE_COUNT, info.getInputStreamLines().getLineCount());
+        assertEquals(STDERR_LINE_COUNT, info.getErrorStreamLines().getLineCount());
+    }
+
+    @Test
+    void inProcessExecutionTest() {
+        List<String> receivedCommands = new ArrayList<>();
+        List<String> notifiedLines = new ArrayList<>();
+
+        ProcessExecutionRunnable runnable = new ProcessExecutionRunnable(
+            new ProcessBuilder("gs", "-dBATCH", "in.pdf"));
+        runnable.setInProcessExecutor((commands, info, lineConsumer, cancellation) -> {
+            receivedCommands.addAll(commands);
+            lineConsumer.accept("Page 1", false);
+            lineConsumer.accept("   **** Warning: bad font", true);
+            return 3;
+        });
+        runnable.addListener(new ProcessExecutionRunnable.PerAdapter() {
+            @Override
+            public void notifyStreamLine(ProcessExecutionRunnable source,
+                    String line, boolean errorStream) {
+                notifiedLines.add(line);
+            }
+        });
+        runnable.run();
+
+        ProcessExecutionInfo info = runnable.getProcessExecutionInfo();
+        assertNull(runnable.getProcess());
+        assertNull(info.getExecutionException());
+        assertEquals(Integer.valueOf(3), info.getExitValue());
+        assertEquals(Arrays.asList("gs", "-dBATCH", "in.pdf"), receivedCommands);
+        assertEquals(2, notifiedLines.size());
+        assertEquals(1, info.getInputStreamLines().getLineCount());
+        assertEquals(1, info.getErrorStreamLines().getLineCount());
+        assertEquals(1, info.getWarningCount());
+    }
+
+    @Test
+    void inProcessTimeoutTest() {
+        ProcessExecutionRunnable runnable = new ProcessExecutionRunnable(
+            new ProcessBuilder("gs"));
+        runnable.setIdleTimeoutMillis(50);
+        runnable.setInProcessExecutor((commands, info, lineConsumer, cancellation) -> {
+            while (!cancellation.getAsBoolean()) {
+                Thread.sleep(5);
+            }
+
+            return 1;
+        });
+        runnable.run();
+
+        ProcessExecutionInfo info = runnable.getProcessExecutionInfo();
+        assertTrue(info.isTimedOut());
+        assertTrue(info.getTimeoutMessage().startsWith("Process produced no output"));
+    }
+
+    @Test
+    void inProcessCancellationTest() throws InterruptedException {
+        ProcessExecutionRunnable runnable = new ProcessExecutionRunnable(
+            new ProcessBuilder("gs"));
+        runnable.setInProcessExecutor((commands, info, lineConsumer, cancellation) -> {
+            while (!cancellation.getAsBoolean()) {
+                Thread.sleep(5);
+            }
+
+            return 1;
+        });
+
+        Thread thread = new Thread(runnable);
+        thread.start();
+        Thread.sleep(50);
+        runnable.destroyProcessForcibly();
+        thread.join(5000);
+
+        assertFalse(thread.isAlive());
+        assertFalse(runnable.getProcessExecutionInfo().isTimedOut());
+        assertEquals(Integer.valueOf(1),
+            runnable.getProcessExecutionInfo().getExitValue());
+    }
+}
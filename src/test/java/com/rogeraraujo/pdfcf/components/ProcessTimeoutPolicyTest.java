@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.components;
+
+import com.rogeraraujo.pdfcf.Utils;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Test class to exercise the functionality of the ProcessTimeoutPolicy class.
+ */
+@Slf4j
+class ProcessTimeoutPolicyTest {
+    @Test
+    void fromConfigurationTest() {
+        ProcessTimeoutPolicy policy = ProcessTimeoutPolicy.fromConfiguration(null);
+        assertEquals(0, policy.computeWallClockTimeoutMillis(Utils.ONE_GIGABYTE));
+        assertEquals(0, policy.getIdleTimeoutMillis());
+
+        Properties config = new Properties();
+        config.setProperty("process-timeout-seconds", "60");
+        config.setProperty("process-timeout-seconds-per-megabyte", "0.5");
+        config.setProperty("process-idle-timeout-seconds", "-5");
+
+        policy = ProcessTimeoutPolicy.fromConfiguration(config);
+        assertEquals(60, policy.getWallClockTimeoutSeconds());
+        assertEquals(0.5d, policy.getWallClockSecondsPerMegabyte());
+        assertEquals(0, policy.getIdleTimeoutSeconds());
+    }
+
+    @Test
+    void computeWallClockTimeoutMillisTest() {
+        ProcessTimeoutPolicy policy = new ProcessTimeoutPolicy();
+        policy.setWallClockTimeoutSeconds(60);
+        assertEquals(60000, policy.computeWallClockTimeoutMillis(0));
+        assertEquals(60000, policy.computeWallClockTimeoutMillis(-1));
+
+        policy.setWallClockSecondsPerMegabyte(2);
+        assertEquals(60000, policy.computeWallClockTimeoutMillis(0));
+        assertEquals(80000,
+            policy.computeWallClockTimeoutMillis(10 * Utils.ONE_MEGABYTE));
+        assertEquals(61000,
+            policy.computeWallClockTimeoutMillis(Utils.ONE_MEGABYTE / 2));
+
+        policy.setWallClockTimeoutSeconds(0);
+        assertEquals(20000,
+            policy.computeWallClockTimeoutMillis(10 * Utils.ONE_MEGABYTE));
+
+        policy.setIdleTimeoutSeconds(30);
+        assertEquals(30000, policy.getIdleTimeoutMillis());
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.components;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Test class to exercise the functionality of the ProgressTracker class.
+ */
+@Slf4j
+class ProgressTrackerTest {
+    @Test
+    void pageOutputTest() throws InterruptedException {
+        ProgressTracker tracker = new ProgressTracker(0);
+        List<ProgressTracker.Progress> events = new ArrayList<>();
+        tracker.addListener((source, progress) -> events.add(progress));
+
+        assertFalse(tracker.getProgress().isDeterminate());
+        assertFalse(tracker.poll().isDeterminate());
+        assertEquals("", tracker.getProgress().describe());
+
+        tracker.processLine("GPL Ghostscript 10.02.0");
+        tracker.processLine("Page 1");
+        assertTrue(events.isEmpty());
+
+        tracker.processLine("Processing pages 3 through 6.");
+        assertEquals(4, tracker.getProgress().getTotalPages());
+        assertEquals(0.0d, tracker.getProgress().getFraction());
+
+        tracker.processLine("Page 3");
+        Thread.sleep(20);
+        tracker.processLine("Page 4");
+        Thread.sleep(20);
+        tracker.processLine("Page 5");
+
+        ProgressTracker.Progress progress = tracker.getProgress();
+        assertEquals(ProgressTracker.Source.PAGES, progress.getSource());
+        assertEquals(2, progress.getCompletedPages());
+        assertEquals(0.5d, progress.getFraction());
+        assertTrue(progress.getPagesPerSecond() > 0);
+        assertTrue(progress.getRemainingMillis() >= 0);
+        assertEquals(4, events.size());
+        assertTrue(progress.describe().startsWith("Page 2 of 4, "));
+        assertTrue(progress.describe().contains(" pages/s, about "));
+
+        // Page numbers past the announced range do not overflow
+        tracker.processLine("Page 99");
+        assertEquals(1.0d, tracker.getProgress().getFraction());
+    }
+
+    @Test
+    void inputBytesTest() throws Exception {
+        assumeTrue(ProcessMemory.isSupported());
+
+        ProcessBuilder processBuilder = new ProcessBuilder(
+            "sh", "-c", "head -c 100000 /dev/zero > /dev/null; sleep 5");
+        ProcessExecutionRunnable runnable =
+            new ProcessExecutionRunnable(processBuilder);
+        ProgressTracker tracker = new ProgressTracker(1000000000L);
+        runnable.addListener(tracker);
+
+        Thread thread = new Thread(runnable);
+        thread.start();
+
+        try {
+            ProgressTracker.Progress progress = tracker.getProgress();
+
+            for (int i = 0; (i < 100) && !progress.isDeterminate(); ++i) {
+                Thread.sleep(50);
+                progress = tracker.poll();
+            }
+
+            assertEquals(ProgressTracker.Source.INPUT_BYTES, progress.getSource());
+            assertTrue(progress.getFraction() > 0);
+        } finally {
+            runnable.destroyProcessForcibly();
+            thread.join();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.components;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import javax.swing.*;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class to exercise the functionality of the RingBufferLogModel class.
+ */
+@Slf4j
+class RingBufferLogModelTest {
+    @Test
+    void appendTest() throws Exception {
+        assertThrows(IllegalArgumentException.class,
+            () -> new RingBufferLogModel(0));
+
+        RingBufferLogModel model = new RingBufferLogModel(3);
+        List<String> events = new ArrayList<>();
+        model.addListDataListener(new ListDataListener() {
+            @Override
+            public void intervalAdded(ListDataEvent event) {
+                events.add("+" + event.getIndex0() + "-" + event.getIndex1());
+            }
+
+            @Override
+            public void intervalRemoved(ListDataEvent event) {
+                events.add("-" + event.getIndex0() + "-" + event.getIndex1());
+            }
+
+            @Override
+            public void contentsChanged(ListDataEvent event) { }
+        });
+
+        SwingUtilities.invokeAndWait(() -> {
+            model.append("a\nb");
+            model.append("c\n\n");
+            model.flush();
+            assertEquals(3, model.getSize());
+            assertEquals("a", model.getElementAt(0));
+            assertEquals("bc", model.getElementAt(1));
+            assertEquals("", model.getElementAt(2));
+            assertNull(model.getElementAt(3));
+
+            model.append("d\ne\n");
+            model.flush();
+            assertEquals("", model.getElementAt(0));
+            assertEquals("e", model.getElementAt(2));
+            assertEquals(2, model.getEvictedLineCount());
+            assertEquals("\nd\ne\nf", model.getText() + "f");
+
+            model.clear();
+            assertEquals(0, model.getSize());
+            assertEquals(0, model.getEvictedLineCount());
+        });
+
+        assertEquals(Arrays.asList("+0-2", "-0-1", "+1-2", "-0-2"), events);
+    }
+
+    @Test
+    void manyLinesTest() throws Exception {
+        RingBufferLogModel model = new RingBufferLogModel();
+        long startTime = System.currentTimeMillis();
+
+        // Lines arrive faster than they are moved into the model
+        for (int i = 0; i < 1000000; ++i) {
+            model.append("Page " + i + "\n");
+
+            if (i % 100000 == 0) {
+                SwingUtilities.invokeAndWait(model::flush);
+            }
+        }
+
+        SwingUtilities.invokeAndWait(model::flush);
+        log.debug("Appended 1000000 lines in {} ms",
+            System.currentTimeMillis() - startTime);
+
+        assertEquals(RingBufferLogModel.DEFAULT_CAPACITY, model.getSize());
+        assertEquals(1000000 - RingBufferLogModel.DEFAULT_CAPACITY,
+            model.getEvictedLineCount());
+        assertEquals("Page 999999", model.getElementAt(model.getSize() - 1));
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.gs;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class to exercise the functionality of the GsCapabilityProbe class.
+ */
+@Slf4j
+class GsCapabilityProbeTest {
+    private static final List<String> PROBE_OUTPUT = Arrays.asList(
+        "PDFCF-REVISION 10020",
+        "PDFCF-DEVICE pdfwrite",
+        "PDFCF-DEVICE png16m",
+        "GPL Ghostscript: unrelated line",
+        "PDFCF-PARAM DetectDuplicateImages",
+        "PDFCF-PARAM CompressFonts",
+        "PDFCF-PARAM NumRenderingThreads",
+        "PDFCF-PARAM OutputFile");
+
+    @Test
+    void parseProbeOutputTest() {
+        GsCapabilities capabilities =
+            GsCapabilityProbe.parseProbeOutput(PROBE_OUTPUT);
+        assertNotNull(capabilities);
+        log.debug("Capabilities: {}", capabilities);
+
+        assertEquals(10020, capabilities.getRevision());
+        assertEquals("10.02.0", capabilities.getVersion());
+        assertTrue(capabilities.supportsDevice("pdfwrite"));
+        assertFalse(capabilities.supportsDevice("x11"));
+        assertTrue(capabilities.supportsPdfwriteParameter("CompressFonts"));
+        assertEquals(4, capabilities.getPdfwriteParameters().size());
+
+        assertNull(GsCapabilityProbe.parseProbeOutput(
+            Arrays.asList("Error: /undefined in revision")));
+    }
+
+    @Test
+    void versionTest() {
+        assertEquals("9.52", new GsCapabilities(952, null, null).getVersion());
+        assertEquals("9.05", new GsCapabilities(905, null, null).getVersion());
+        assertEquals("unknown", new GsCapabilities(0, null, null).getVersion());
+    }
+
+    @Test
+    void buildOptimizationArgumentsTest() {
+        GsCapabilities capabilities =
+            GsCapabilityProbe.parseProbeOutput(PROBE_OUTPUT);
+
+        // Machine-dependent arguments such as NumRenderingThreads would
+        // make result cache keys differ between machines
+        assertEquals(Arrays.asList(
+                "-dDetectDuplicateImages=true", "-dCompressFonts=true"),
+            capabilities.buildOptimizationArguments(null));
+        assertEquals(Arrays.asList("-dCompressFonts=true"),
+            capabilities.buildOptimizationArguments(
+                "-dDetectDuplicateImages=false"));
+        assertTrue(new GsCapabilities(952, null, null)
+            .buildOptimizationArguments("").isEmpty());
+    }
+
+    @Test
+    void probeCommandsTest() {
+        List<String> commands =
+            GsUtils.buildInlineProgramCommands("gs", "revision =");
+        assertEquals("gs", commands.get(0));
+        assertTrue(commands.contains("-dSAFER"));
+        assertFalse(commands.contains("-dNOSAFER"));
+        assertEquals("revision =", commands.get(commands.size() - 1));
+    }
+}
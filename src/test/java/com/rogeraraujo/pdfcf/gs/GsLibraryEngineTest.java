@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.gs;
+
+import com.sun.jna.NativeLong;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class to exercise the functionality of the GsLibraryEngine class.
+ */
+@Slf4j
+class GsLibraryEngineTest {
+    @Test
+    void lineAssemblerTest() {
+        List<String> lines = new ArrayList<>();
+        GsLibraryEngine.LineAssembler assembler =
+            new GsLibraryEngine.LineAssembler(lines::add);
+
+        // Carriage returns before line feeds are stripped
+        assembler.append(bytes("Page 1\r\nPage 2\n"));
+        assertEquals(Arrays.asList("Page 1", "Page 2"), lines);
+
+        // Lines split across chunks, even between CR and LF, are joined
+        lines.clear();
+        assembler.append(bytes("Proc"));
+        assertTrue(lines.isEmpty());
+        assembler.append(bytes("essing pages\r"));
+        assembler.append(bytes("\n\nLast"));
+        assertEquals(Arrays.asList("Processing pages", ""), lines);
+
+        // Flushing emits the final partial line once
+        lines.clear();
+        assembler.flush();
+        assertEquals(Collections.singletonList("Last"), lines);
+        assembler.flush();
+        assertEquals(Collections.singletonList("Last"), lines);
+    }
+
+    @Test
+    void revisionTest() {
+        assertTrue(createEngine(10020).isConcurrent());
+        assertTrue(createEngine(950).isConcurrent());
+        assertEquals(950, createEngine(950).getRevision());
+
+        // Older or unknown revisions are serialized
+        assertFalse(createEngine(927).isConcurrent());
+        assertFalse(createEngine(-1).isConcurrent());
+        assertEquals(0, createEngine(-1).getRevision());
+    }
+
+    /**
+     * Creates an engine bound to a stand-in for the library, which reports
+     * a revision, or fails to if it is negative.
+     */
+    private static GsLibraryEngine createEngine(long revision) {
+        GsApi gsApi = (GsApi) Proxy.newProxyInstance(
+            GsApi.class.getClassLoader(), new Class<?>[] { GsApi.class },
+            (proxy, method, args) -> {
+                if (!method.getName().equals("gsapi_revision")) {
+                    throw new UnsupportedOperationException(method.getName());
+                }
+
+                if (revision < 0) {
+                    return 1;
+                }
+
+                ((GsApi.Revision) args[0]).revision = new NativeLong(revision);
+                return 0;
+            });
+
+        return new GsLibraryEngine("stub", gsApi);
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
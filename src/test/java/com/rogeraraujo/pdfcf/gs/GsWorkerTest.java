@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.gs;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Test class to exercise the functionality of the GsWorker class.
+ */
+@Slf4j
+class GsWorkerTest {
+    // Stands in for a Ghostscript worker: answers pings, and writes a line
+    // every 20 ms without ever ending once a job starts
+    private static final String BUSY_GS_SCRIPT =
+        "#!/bin/sh\n" +
+        "while IFS= read -r line; do\n" +
+        "  case \"$line\" in\n" +
+        "    *PDFCF:READY*) echo '" + GsWorker.READY_MARKER + "';;\n" +
+        "    mark*) while :; do echo Page; sleep 0.02; done;;\n" +
+        "  esac\n" +
+        "done\n";
+
+    private static final List<String> COMPRESSION_COMMANDS =
+        GsUtils.buildCompressionCommands("gs", ConversionQuality.EBOOK,
+            PdfCompatibilityLevel.getInstance("1.4"), "-dDetectDuplicateImages",
+            "/in/a (1).pdf", "/out/a.pdf");
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void buildJobTest() {
+        String job = GsWorker.buildJob(COMPRESSION_COMMANDS);
+        assertNotNull(job);
+        log.debug("Job:\n{}", job);
+
+        assertTrue(job.startsWith("mark {\n(pdfwrite) selectdevice\n"));
+        assertTrue(job.contains(
+            ".distillersettings /ebook get setdistillerparams\n"));
+        assertTrue(job.contains("<< /OutputFile (/out/a.pdf) " +
+            "/CompatibilityLevel 1.4 /DetectDuplicateImages true >> setpagedevice\n"));
+        assertTrue(job.contains("(/in/a \\(1\\).pdf) run\nnulldevice\n"));
+        assertTrue(job.contains("(" + GsWorker.DONE_MARKER + ") =\n"));
+        assertTrue(job.endsWith("} ifelse flush cleartomark\n"));
+    }
+
+    @Test
+    void buildJobRejectionTest() {
+        assertNull(GsWorker.buildJob(null));
+        assertNull(GsWorker.buildJob(GsUtils.buildVersionCommands("gs")));
+        assertNull(GsWorker.buildJob(
+            GsUtils.buildPageCountCommands("gs", "/in/a.pdf")));
+        assertNull(GsWorker.buildJob(
+            GsUtils.buildPageRangeCommands(COMPRESSION_COMMANDS, 1, 5)));
+        assertNull(GsWorker.buildJob(Arrays.asList(
+            "gs", "-sDEVICE=png16m", "-sOutputFile=/out/a.png", "/in/a.pdf")));
+        assertNull(GsWorker.buildJob(Arrays.asList(
+            "gs", "-sDEVICE=pdfwrite", "-r300", "/in/a.pdf")));
+        assertNull(GsWorker.buildJob(Arrays.asList(
+            "gs", "-sDEVICE=pdfwrite", "-dFoo=(x) bar", "/in/a.pdf")));
+        assertNull(GsWorker.buildJob(Arrays.asList(
+            "gs", "-sDEVICE=pdfwrite", "-dNOSAFER", "/in/a.pdf")));
+    }
+
+    @Test
+    void workerCommandsTest() {
+        List<String> commands = GsUtils.buildWorkerCommands("gs", "/tmp/job");
+
+        assertTrue(commands.contains("-dSAFER"));
+        assertFalse(commands.contains("-dNOSAFER"));
+        assertTrue(commands.contains("--permit-file-read=/tmp/job" + File.separator));
+        assertTrue(commands.contains("--permit-file-write=/tmp/job" + File.separator));
+        assertNotNull(GsWorker.buildJob(GsUtils.insertArguments(
+            COMPRESSION_COMMANDS, Collections.singletonList("-dSAFER"))));
+    }
+
+    @Test
+    void findOutputFilePathTest() {
+        assertEquals("/out/a.pdf", GsWorker.findOutputFilePath(COMPRESSION_COMMANDS));
+        assertNull(GsWorker.findOutputFilePath(Arrays.asList(
+            "gs", "-sDEVICE=pdfwrite", "-sOutputFile=/out/a-%d.pdf", "/in/a.pdf")));
+        assertNull(GsWorker.findOutputFilePath(Arrays.asList(
+            "gs", "-sDEVICE=pdfwrite", "/in/a.pdf")));
+    }
+
+    @Test
+    void cancelBusyJobTest() throws Exception {
+        assumeTrue(new File("/bin/sh").canExecute());
+
+        File gsFile = tempDir.resolve("gs").toFile();
+        Files.write(gsFile.toPath(), BUSY_GS_SCRIPT.getBytes(StandardCharsets.UTF_8));
+        assertTrue(gsFile.setExecutable(true));
+
+        File inputFile = tempDir.resolve("in.pdf").toFile();
+        Files.write(inputFile.toPath(), new byte[100]);
+
+        long startTimeMillis = System.currentTimeMillis();
+        AtomicInteger lineCount = new AtomicInteger();
+
+        try (GsWorker worker = GsWorker.start(gsFile.getPath(), 1, 10000)) {
+            GsWorker.JobOutcome outcome = worker.runJob(
+                GsUtils.buildCompressionCommands(gsFile.getPath(),
+                    ConversionQuality.EBOOK, PdfCompatibilityLevel.DEFAULT, null,
+                    inputFile.getPath(), tempDir.resolve("out.pdf").toString()),
+                (line, errorStream) -> lineCount.incrementAndGet(),
+                () -> System.currentTimeMillis() - startTimeMillis > 500);
+
+            assertEquals(GsWorker.JobOutcome.CANCELLED, outcome);
+        }
+
+        assertTrue(lineCount.get() > 0);
+        assertTrue(System.currentTimeMillis() - startTimeMillis < 5000);
+    }
+
+    @Test
+    void buildMergeJobTest() {
+        String job = GsWorker.buildJob(GsUtils.buildMergeCommands("gs",
+            PdfCompatibilityLevel.DEFAULT, Arrays.asList("/a.pdf", "/b.pdf"),
+            "/out.pdf"));
+        assertNotNull(job);
+        assertTrue(job.contains("/AutoRotatePages /None"));
+        assertTrue(job.contains("(/a.pdf) run\n(/b.pdf) run\n"));
+        assertFalse(job.contains("distillersettings"));
+    }
+}
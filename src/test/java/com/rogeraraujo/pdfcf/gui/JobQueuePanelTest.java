@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.gui;
+
+import com.rogeraraujo.pdfcf.batch.CompressionRequest;
+import com.rogeraraujo.pdfcf.gs.ConversionQuality;
+import com.rogeraraujo.pdfcf.gs.PdfCompatibilityLevel;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.swing.*;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Test class to exercise the functionality of the JobQueuePanel class.
+ */
+@Slf4j
+class JobQueuePanelTest {
+    // Stands in for Ghostscript: announces two pages, then copies half of
+    // the input file to the output file; sleeps first for inputs named
+    // "slow"
+    private static final String FAKE_GS_SCRIPT =
+        "#!/bin/sh\n" +
+        "for arg in \"$@\"; do\n" +
+        "  case \"$arg\" in -sOutputFile=*) out=\"${arg#-sOutputFile=}\";; esac\n" +
+        "  in=\"$arg\"\n" +
+        "done\n" +
+        "case \"$in\" in *slow*) sleep 30;; esac\n" +
+        "echo 'Processing pages 1 through 2.'; echo 'Page 1'; echo 'Page 2'\n" +
+        "head -c 500 \"$in\" > \"$out\"\n";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void runAndCancelTest() throws Exception {
+        assumeTrue(new File("/bin/sh").canExecute());
+
+        File gsFile = tempDir.resolve("gs").toFile();
+        Files.write(gsFile.toPath(),
+            FAKE_GS_SCRIPT.getBytes(StandardCharsets.US_ASCII));
+        assertTrue(gsFile.setExecutable(true));
+
+        File inputFile = tempDir.resolve("in.pdf").toFile();
+        File slowInputFile = tempDir.resolve("slow.pdf").toFile();
+        Files.write(inputFile.toPath(), new byte[1000]);
+        Files.write(slowInputFile.toPath(), new byte[1000]);
+
+        CompressionJob job = new CompressionJob(new CompressionRequest(
+                inputFile, tempDir.resolve("out.pdf").toFile(),
+                ConversionQuality.EBOOK, PdfCompatibilityLevel.DEFAULT)
+            .withGsExecutable(gsFile.getPath(), null));
+        CompressionJob slowJob = new CompressionJob(new CompressionRequest(
+                slowInputFile, tempDir.resolve("slow-out.pdf").toFile(),
+                ConversionQuality.EBOOK, PdfCompatibilityLevel.DEFAULT)
+            .withGsExecutable(gsFile.getPath(), null));
+
+        List<String> lines = new CopyOnWriteArrayList<>();
+        List<CompressionJob> finishedJobs = new CopyOnWriteArrayList<>();
+        CountDownLatch finished = new CountDownLatch(2);
+        JobQueuePanel[] panel = new JobQueuePanel[1];
+
+        SwingUtilities.invokeAndWait(() -> {
+            panel[0] = new JobQueuePanel(2);
+            panel[0].setLineConsumer((source, line) -> lines.add(line));
+            panel[0].setCompletionListener(source -> {
+                finishedJobs.add(source);
+                finished.countDown();
+            });
+            panel[0].enqueue(job);
+            panel[0].enqueue(slowJob);
+        });
+
+        waitForStatus(slowJob, CompressionJob.Status.RUNNING);
+        slowJob.cancel();
+
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        assertEquals(CompressionJob.Status.SUCCEEDED, job.getStatus());
+        assertEquals(500, job.getOutputFileSize());
+        assertEquals(0.5d, job.getSizeRatio());
+        assertTrue(lines.contains("Page 2"));
+        assertTrue(job.getProgressDetails().describe().startsWith("Page 1 of 2"));
+        assertEquals(CompressionJob.Status.CANCELLED, slowJob.getStatus());
+        assertNull(slowJob.getSizeRatio());
+        assertEquals(gsFile.getPath(), job.getCommands().get(0));
+
+        SwingUtilities.invokeAndWait(() -> {
+            assertEquals(0, panel[0].countActiveJobs());
+            assertEquals("Done", panel[0].getTable().getValueAt(
+                0, JobTableModel.STATUS_COLUMN));
+            assertEquals("-50%", panel[0].getTable().getValueAt(
+                0, JobTableModel.RATIO_COLUMN));
+            panel[0].shutdown();
+        });
+    }
+
+    private static void waitForStatus(CompressionJob job,
+            CompressionJob.Status status) throws InterruptedException {
+        for (int i = 0; (i < 200) && (job.getStatus() != status); ++i) {
+            Thread.sleep(25);
+        }
+
+        assertEquals(status, job.getStatus());
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.gui;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class to exercise the functionality of the JobStateStore class.
+ */
+@Slf4j
+class JobStateStoreTest {
+    @Test
+    void coalesceTest() {
+        JobStateStore store = new JobStateStore();
+        CompressionJob job = createJob(store, 0);
+
+        for (int i = 1; i <= 100; ++i) {
+            job.setProgress(i / 100.0d);
+        }
+
+        // Unchanged progress is not a change
+        job.setProgress(1.0d);
+
+        assertEquals(100, store.getChangeCount());
+        assertEquals(1, store.pollChangedJobs().size());
+        assertTrue(store.pollChangedJobs().isEmpty());
+
+        job.setStatus(CompressionJob.Status.SUCCEEDED);
+        assertEquals(1, store.pollChangedJobs().size());
+        assertEquals(2, store.getDeliveryCount());
+    }
+
+    @Test
+    void concurrentUpdateTest() throws Exception {
+        int jobCount = 50;
+        int updateCount = 2000;
+        JobStateStore store = new JobStateStore();
+        List<CompressionJob> jobs = new ArrayList<>();
+
+        for (int i = 0; i < jobCount; ++i) {
+            jobs.add(createJob(store, i));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch done = new CountDownLatch(jobCount);
+
+        for (CompressionJob job : jobs) {
+            executor.execute(() -> {
+                for (int i = 1; i <= updateCount; ++i) {
+                    job.setProgress(i / (double) updateCount);
+                }
+
+                job.setStatus(CompressionJob.Status.SUCCEEDED);
+                done.countDown();
+            });
+        }
+
+        // Polls while the workers run, as the event dispatch thread does;
+        // a job is never returned twice by the same poll
+        List<CompressionJob> lastSeen = new ArrayList<>();
+
+        while (done.getCount() > 0) {
+            List<CompressionJob> changed = store.pollChangedJobs();
+            assertEquals(changed.size(), new HashSet<>(changed).size());
+            lastSeen.addAll(changed);
+            Thread.sleep(5);
+        }
+
+        lastSeen.addAll(store.pollChangedJobs());
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        // Every job was returned after its last change
+        assertTrue(new HashSet<>(lastSeen).containsAll(jobs));
+        assertEquals((long) jobCount * (updateCount + 1), store.getChangeCount());
+        assertTrue(store.getDeliveryCount() < store.getChangeCount());
+        log.debug("{} changes delivered as {} rows", store.getChangeCount(),
+            store.getDeliveryCount());
+
+        JobTableModel model = new JobTableModel();
+        List<CompressionJob> unfinished = new ArrayList<>();
+
+        for (int i = 0; i < jobCount; ++i) {
+            unfinished.add(createJob(null, i));
+        }
+
+        model.addJobs(unfinished);
+        unfinished.forEach(job -> job.setStatus(CompressionJob.Status.FAILED));
+        model.refresh(unfinished);
+        assertEquals(0, model.countActiveJobs());
+    }
+
+    private static CompressionJob createJob(JobStateStore store, int index) {
+        CompressionJob job = new CompressionJob(new File("in" + index + ".pdf"),
+            new File("out" + index + ".pdf"));
+        job.setStateStore(store);
+
+        return job;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.gui;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import javax.swing.*;
+import javax.swing.event.TableModelEvent;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class to exercise the functionality of the JobTableModel class.
+ */
+@Slf4j
+class JobTableModelTest {
+    private static final int JOB_COUNT = 100000;
+
+    @Test
+    void largeQueueTest() {
+        List<CompressionJob> jobs = new ArrayList<>(JOB_COUNT);
+
+        for (int i = 0; i < JOB_COUNT; ++i) {
+            File folder = new File("/archive/folder" + (i % 100));
+            jobs.add(new CompressionJob(new File(folder, "file" + i + ".pdf"),
+                new File(folder, "file" + i + "-compressed.pdf")));
+        }
+
+        JobTableModel model = new JobTableModel();
+        List<TableModelEvent> events = new ArrayList<>();
+        model.addTableModelListener(events::add);
+
+        long startTime = System.currentTimeMillis();
+        model.addJobs(jobs);
+        log.debug("Added {} jobs in {} ms", JOB_COUNT,
+            System.currentTimeMillis() - startTime);
+
+        assertEquals(JOB_COUNT, model.getRowCount());
+        assertEquals(1, events.size());
+        assertEquals(100, model.getFolderCount());
+        assertEquals(JOB_COUNT, model.countActiveJobs());
+        assertEquals("file12345.pdf",
+            model.getValueAt(12345, JobTableModel.FILE_COLUMN));
+        assertEquals(new File("/archive/folder45/file12345-compressed.pdf")
+            .getPath(), model.getOutputPath(12345));
+        assertEquals("Queued", model.getValueAt(0, JobTableModel.STATUS_COLUMN));
+
+        // Changes of nearby rows are reported in a single event
+        events.clear();
+
+        for (int row = 10; row < 20; ++row) {
+            CompressionJob job = jobs.get(row);
+            job.setOutputFileSize(0);
+            job.setStatus(CompressionJob.Status.CANCELLED);
+        }
+
+        jobs.get(50000).setStatus(CompressionJob.Status.RUNNING);
+        jobs.get(50000).setProgress(0.25d);
+        model.refresh();
+
+        assertEquals(2, events.size());
+        assertEquals(10, events.get(0).getFirstRow());
+        assertEquals(19, events.get(0).getLastRow());
+        assertEquals(50000, events.get(1).getFirstRow());
+        assertEquals(JOB_COUNT - 10, model.countActiveJobs());
+        assertNull(model.getJob(10));
+        assertSame(jobs.get(50000), model.getJob(50000));
+        assertEquals(0.25d,
+            (Double) model.getValueAt(50000, JobTableModel.PROGRESS_COLUMN));
+
+        // Unchanged jobs fire no events
+        events.clear();
+        model.refresh();
+        assertTrue(events.isEmpty());
+
+        assertEquals(10, model.removeFinishedJobs());
+        assertEquals(JOB_COUNT - 10, model.getRowCount());
+        assertEquals("file20.pdf",
+            model.getValueAt(10, JobTableModel.FILE_COLUMN));
+        assertSame(jobs.get(20), model.getJob(10));
+
+        model.getActiveJobs().forEach(CompressionJob::cancel);
+    }
+
+    @Test
+    void sortTest() {
+        JobTableModel model = new JobTableModel();
+        List<CompressionJob> jobs = new ArrayList<>();
+
+        for (int i = 0; i < 3; ++i) {
+            jobs.add(new CompressionJob(new File("in" + i + ".pdf"),
+                new File("out" + i + ".pdf")));
+        }
+
+        // Formatted as "900 bytes", "1.5 KB" and "0 bytes"
+        jobs.get(0).setOutputFileSize(900);
+        jobs.get(1).setOutputFileSize(1536);
+        model.addJobs(jobs);
+
+        for (CompressionJob job : jobs) {
+            job.setStatus(CompressionJob.Status.SUCCEEDED);
+        }
+
+        model.refresh();
+
+        JTable table = new JTable(model);
+        table.setRowSorter(model.createRowSorter());
+        table.getRowSorter().setSortKeys(Collections.singletonList(
+            new RowSorter.SortKey(JobTableModel.OUTPUT_SIZE_COLUMN,
+                SortOrder.DESCENDING)));
+
+        assertEquals(1, table.convertRowIndexToModel(0));
+        assertEquals(0, table.convertRowIndexToModel(1));
+        assertEquals(2, table.convertRowIndexToModel(2));
+        assertEquals(Collections.emptyList(), model.getActiveJobs());
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.pdf;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class to exercise the functionality of the CompressionPrefilter class.
+ */
+@Slf4j
+class CompressionPrefilterTest {
+    private static PdfInfo createInfo(
+            String producer, long imageBytes, long streamBytes) {
+        PdfInfo result = new PdfInfo();
+        result.setFileSize(1000);
+        result.setProducer(producer);
+        result.setImageBytes(imageBytes);
+        result.setStreamBytes(streamBytes);
+
+        return result;
+    }
+
+    @Test
+    void fromConfigurationTest() {
+        Properties config = new Properties();
+        assertNull(CompressionPrefilter.fromConfiguration(config));
+
+        config.setProperty("prefilter-enabled", "true");
+        config.setProperty("prefilter-skipped-producers", "Acme, Foo ");
+        config.setProperty("prefilter-min-image-share", "0.2");
+        config.setProperty("prefilter-sample-rate", "5");
+
+        CompressionPrefilter prefilter =
+            CompressionPrefilter.fromConfiguration(config);
+        assertNotNull(prefilter);
+        assertEquals(2, prefilter.getSkippedProducers().size());
+        assertEquals("Foo", prefilter.getSkippedProducers().get(1));
+        assertEquals(0.2d, prefilter.getMinImageShare());
+        assertEquals(0.0d, prefilter.getMinStreamRatio());
+        assertEquals(1.0d, prefilter.getSampleRate());
+    }
+
+    @Test
+    void predictNoGainTest() {
+        CompressionPrefilter prefilter = new CompressionPrefilter();
+
+        assertEquals("produced by GPL Ghostscript 9.56.1", prefilter.predictNoGain(
+            createInfo("GPL Ghostscript 9.56.1", 900, 950)));
+        assertEquals("images are 2% of the file", prefilter.predictNoGain(
+            createInfo("pdfTeX", 20, 950)));
+        assertNull(prefilter.predictNoGain(createInfo(null, 900, 950)));
+
+        prefilter.setMinStreamRatio(0.96d);
+        assertEquals("stream data is 95% of the file", prefilter.predictNoGain(
+            createInfo(null, 900, 950)));
+
+        prefilter.setMinImageShare(0);
+        assertNull(prefilter.predictNoGain(createInfo("Word", 0, 990)));
+    }
+
+    @Test
+    void samplingTest() {
+        CompressionPrefilter prefilter = new CompressionPrefilter();
+        assertFalse(prefilter.recordPrediction());
+
+        prefilter.setSampleRate(0.25d);
+        int sampled = 0;
+
+        for (int i = 0; i < 99; ++i) {
+            if (prefilter.recordPrediction()) {
+                ++sampled;
+            }
+        }
+
+        assertEquals(25, sampled);
+        assertEquals(100, prefilter.getPredictedCount());
+
+        assertTrue(prefilter.recordSample(1000, 990));
+        assertFalse(prefilter.recordSample(1000, 900));
+        assertEquals(2, prefilter.getSampledCount());
+        assertEquals(1, prefilter.getConfirmedCount());
+        assertTrue(prefilter.formatSummary().endsWith(
+            "prediction held for 1 (50%)"));
+    }
+}
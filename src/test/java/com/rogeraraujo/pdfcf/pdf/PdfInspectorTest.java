@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2022, Roger Araújo, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.rogeraraujo.pdfcf.pdf;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class to exercise the functionality of the PdfInspector class.
+ */
+@Slf4j
+class PdfInspectorTest {
+    private static final String SAMPLE_PDF =
+        "%PDF-1.6\n%âã\n" +
+        "1 0 obj\n<< /Linearized 1 /L 1000 /N 3 >>\nendobj\n" +
+        "2 0 obj\n<< /Type /Catalog /Pages 3 0 R >>\nendobj\n" +
+        "3 0 obj\n<< /Type /Pages /Kids [4 0 R 5 0 R 6 0 R] /Count 3 >>\nendobj\n" +
+        "4 0 obj\n<< /Type /Page /Parent 3 0 R /Resources << /XObject << /Im1 7 0 R >> >> >>\nendobj\n" +
+        "5 0 obj\n<< /Type /Page /Parent 3 0 R >>\nendobj\n" +
+        "6 0 obj <</Type/Page/Parent 3 0 R>> endobj\n" +
+        "7 0 obj\n<< /Type /XObject /Subtype /Image /Width 2 /Height 1 /Length 10 >>\nstream\n" +
+        "0123456789\nendstream\nendobj\n" +
+        "8 0 obj\n<< /Length1 5 /Length 5 >>\nstream\r\nFONT!\r\nendstream\nendobj\n" +
+        // Indirect length, and a content stream that contains "obj"
+        "9 0 obj\n<< /Length 10 0 R >>\nstream\nBT (1 0 obj) Tj ET\nendstream\nendobj\n" +
+        "10 0 obj\n17\nendobj\n" +
+        "11 0 obj\n<< /Producer <FEFF00470068006F00730074> /Title (A \\(nested\\) title) >>\nendobj\n" +
+        "xref\n0 1\n0000000000 65535 f \n" +
+        "trailer\n<< /Size 12 /Root 2 0 R /Info 11 0 R >>\nstartxref\n0\n%%EOF\n";
+
+    private static ByteSource toSource(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+        return ByteSource.of(bytes, bytes.length);
+    }
+
+    @Test
+    void inspectTest() {
+        PdfInfo info = PdfInspector.inspect(toSource(SAMPLE_PDF));
+        log.debug("{}", info);
+
+        assertEquals(SAMPLE_PDF.length(), info.getFileSize());
+        assertEquals("1.6", info.getPdfVersion());
+        assertEquals(3, info.getPageCount());
+        assertEquals(11, info.getObjectCount());
+        assertEquals(3, info.getStreamCount());
+        assertEquals(10 + 5 + 18, info.getStreamBytes());
+        assertEquals(1, info.getImageCount());
+        assertEquals(10, info.getImageBytes());
+        assertEquals(1, info.getFontCount());
+        assertEquals(5, info.getFontBytes());
+        assertEquals("Ghost", info.getProducer());
+        assertTrue(info.isLinearized());
+        assertFalse(info.isEncrypted());
+    }
+
+    @Test
+    void encryptionAndPageObjectsTest() {
+        PdfInfo info = PdfInspector.inspect(toSource(
+            "%PDF-1.4\n" +
+            "1 0 obj << /Type /Page >> endobj\n" +
+            "2 0 obj << /Type /Page >> endobj\n" +
+            "3 0 obj << /Producer (pdfTeX) >> endobj\n" +
+            "trailer << /Root 9 0 R /Encrypt 4 0 R >>\n"));
+
+        assertEquals(2, info.getPageCount());
+        assertEquals("pdfTeX", info.getProducer());
+        assertTrue(info.isEncrypted());
+        assertFalse(info.isLinearized());
+
+        PdfInfo garbage = PdfInspector.inspect(toSource("no PDF here obj <<"));
+        assertNull(garbage.getPdfVersion());
+        assertEquals(0, garbage.getPageCount());
+    }
+
+    @Test
+    void objectStreamTest(@TempDir Path tempDir) throws IOException {
+        String objects = "1 0 2 40 " +
+            "<< /Type /Pages /Count 250 /Kids [] >> " +
+            "<< /Producer (GPL Ghostscript 9.56.1) >>";
+        byte[] compressed = deflate(objects.getBytes(StandardCharsets.ISO_8859_1));
+
+        ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+        pdf.write(("%PDF-1.5\n5 0 obj\n<< /Type /ObjStm /N 2 /First 9 " +
+            "/Filter /FlateDecode /Length " + compressed.length + " >>\nstream\n")
+            .getBytes(StandardCharsets.ISO_8859_1));
+        pdf.write(compressed);
+        pdf.write(("\nendstream\nendobj\n6 0 obj\n<< /Type /XRef /Length 0 " +
+            ">>\nstream\n\nendstream\nendobj\n%%EOF\n")
+            .getBytes(StandardCharsets.ISO_8859_1));
+
+        File file = tempDir.resolve("objstm.pdf").toFile();
+        Files.write(file.toPath(), pdf.toByteArray());
+
+        PdfInfo info = PdfInspector.inspect(file);
+        assertEquals(250, info.getPageCount());
+        assertEquals("GPL Ghostscript 9.56.1", info.getProducer());
+        assertEquals(4, info.getObjectCount());
+
+        // Tiny windows force remapping in the middle of every token
+        try (MappedFileReader reader = new MappedFileReader(file, 7)) {
+            PdfInfo windowed = PdfInspector.inspect(reader);
+            assertEquals(info.toString(), windowed.toString());
+        }
+    }
+
+    @Test
+    void indexOfTest(@TempDir Path tempDir) throws IOException {
+        byte[] bytes = new byte[200 * 1024];
+        byte[] pattern = "endstream".getBytes(StandardCharsets.US_ASCII);
+        long[] positions = { 5, 64 * 1024 - 4, 128 * 1024 + 3,
+            bytes.length - pattern.length };
+
+        for (long position : positions) {
+            System.arraycopy(pattern, 0, bytes, (int) position, pattern.length);
+        }
+
+        // A partial match right before a whole one
+        System.arraycopy(pattern, 0, bytes, 100, 5);
+        System.arraycopy(pattern, 0, bytes, 105, pattern.length);
+
+        File file = tempDir.resolve("bytes.bin").toFile();
+        Files.write(file.toPath(), bytes);
+
+        ByteSource array = ByteSource.of(bytes, bytes.length);
+
+        for (int windowSize : new int[] { 7, 100 * 1024,
+                MappedFileReader.DEFAULT_WINDOW_SIZE }) {
+            try (MappedFileReader reader = new MappedFileReader(file, windowSize)) {
+                for (long from : new long[] { -1, 6, 101, 106, positions[1] + 1,
+                        positions[2], positions[3] + 1 }) {
+                    assertEquals(array.indexOf(pattern, from),
+                        reader.indexOf(pattern, from));
+                }
+            }
+        }
+
+        assertEquals(5, array.indexOf(pattern, 0));
+        assertEquals(105, array.indexOf(pattern, 6));
+        assertEquals(-1, array.indexOf(pattern, positions[3] + 1));
+        assertThrows(IllegalArgumentException.class,
+            () -> array.indexOf(new byte[0], 0));
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+
+        while (!deflater.finished()) {
+            int count = deflater.deflate(buffer);
+            result.write(buffer, 0, count);
+        }
+
+        deflater.end();
+
+        return result.toByteArray();
+    }
+}